@@ -31,6 +31,7 @@ import probcog.logic.sat.weighted.WeightedFormula;
 import probcog.srl.Database;
 import probcog.srl.mln.MarkovLogicNetwork;
 import probcog.srl.mln.MarkovRandomField;
+import probcog.srl.mln.inference.BranchAndBoundInference;
 import probcog.srl.mln.inference.InferenceAlgorithm;
 import probcog.srl.mln.inference.InferenceResult;
 import probcog.srl.mln.inference.MPEInferenceAlgorithm;
@@ -46,7 +47,7 @@ import edu.tum.cs.util.StringTool;
  */
 public class MLNinfer {
 
-	enum Algorithm {MaxWalkSAT, MCSAT, Toulbar2, MaxWalkSATRooms};
+	enum Algorithm {MaxWalkSAT, MCSAT, Toulbar2, MaxWalkSATRooms, BranchAndBound};
 	
 	public static void main(String[] args) throws FileNotFoundException, ProbCogException {
 		String[] mlnFiles = null;
@@ -57,6 +58,8 @@ public class MLNinfer {
 		Algorithm algo = Algorithm.MCSAT;
 		String[] cwPreds = null;
 		boolean debug = false;
+		boolean storeFormulas = true;
+		int groundingThreads = 1;
 		HashMap<String,Object> params = new HashMap<String,Object>();
 		
 		// read arguments
@@ -81,8 +84,14 @@ public class MLNinfer {
 				algo = Algorithm.MCSAT;
 			else if(args[i].equals("-t2"))
 				algo = Algorithm.Toulbar2;
+			else if(args[i].equals("-bnb"))
+				algo = Algorithm.BranchAndBound;
 			else if(args[i].equals("-debug"))
 				debug = true;
+			else if(args[i].equals("-stream"))
+				storeFormulas = false;
+			else if(args[i].equals("-gt"))
+				groundingThreads = Integer.parseInt(args[++i]);
 			else if(args[i].startsWith("-p") || args[i].startsWith("--")) { // algorithm-specific parameter
 				String[] pair = args[i].substring(2).split("=");
 				if(pair.length != 2)
@@ -98,9 +107,12 @@ public class MLNinfer {
 								 "    -r <filename>    save results to file\n" + 
 								 "    -mws             algorithm: MaxWalkSAT (MAP inference)\n" +
 								 "    -mcsat           algorithm: MC-SAT (default)\n" +
-								 "    -t2              algorithm: Toulbar2 branch & bound\n" +									 
+								 "    -t2              algorithm: Toulbar2 branch & bound\n" +
+								 "    -bnb             algorithm: in-process parallel branch & bound (MAP inference)\n" +									 
 						         "    -debug           debug mode with additional outputs\n" +
 						         "    -cw <predNames>  set predicates as closed-world (comma-separated list of names)\n" +
+						         "    -stream          do not store the ground MRF's formulas but stream them to the inference algorithm (saves memory)\n" +
+						         "    -gt #            the number of threads to use for grounding formulas (default: 1)\n" +
 						         "    --<key>=<value>  set algorithm-specific parameter\n" 
 								 );
 			return;
@@ -128,6 +140,7 @@ public class MLNinfer {
 		constructSW.start();
 		System.out.printf("reading model %s...\n", StringTool.join(", ", mlnFiles));
 		MarkovLogicNetwork mln = new MarkovLogicNetwork(mlnFiles);
+		mln.setGroundingThreads(groundingThreads);
 		
 		// instantiate ground model
 		Database db = new Database(mln);
@@ -144,11 +157,10 @@ public class MLNinfer {
 		}
 		
 		System.out.printf("creating ground MRF...\n");
-		MarkovRandomField mrf = mln.ground(db);
+		MarkovRandomField mrf = mln.ground(db, storeFormulas, null);
 		if(debug) {
 			System.out.println("MRF:");
-			for(WeightedFormula wf : mrf)
-				System.out.println("  " + wf.toString());
+			mrf.streamFormulas((wf, m) -> System.out.println("  " + wf.toString()));
 		}
 		constructSW.stop();
 		
@@ -167,6 +179,9 @@ public class MLNinfer {
 		case Toulbar2:
 			infer = new Toulbar2Inference(mrf);
 			break;
+		case BranchAndBound:
+			infer = new BranchAndBoundInference(mrf);
+			break;
 		default:
 			throw new RuntimeException("Unhandled algorithm: " + algo);
 		}			
@@ -106,6 +106,15 @@ public class BeliefNetworkEx {
 	 */
 	protected Map<String, Set<String>> attributeToNodeNameMapping = new HashMap<String, Set<String>>();
 	
+	/**
+	 * index mapping node names to nodes, which is built on demand, extended by the addNode methods and rebuilt 
+	 * whenever the network's graph or its number of nodes changes otherwise (e.g. through direct manipulation of {@link #bn}).
+	 * The index of a node is obtained from its vertex in the graph, whose location is maintained by BNJ.
+	 */
+	protected volatile HashMap<String, BeliefNode> nodesByName = null;
+	protected Graph indexedGraph;
+	protected int numIndexedNodes;
+	
 	/**
 	 * constructs a BeliefNetworkEx object from a BNJ BeliefNetwork object
 	 * @param bn	the BNJ BeliefNetwork object
@@ -186,6 +195,7 @@ public class BeliefNetworkEx {
 	 */
 	public void addNode(BeliefNode node) {
 		bn.addBeliefNode(node);
+		addToNodeIndex(node);
 		addAttributeMapping(node.getName(), node.getName());
 	}
 	
@@ -197,6 +207,7 @@ public class BeliefNetworkEx {
 		BeliefNode node = new BeliefNode(name, new Discrete(new String[]{"True", "False"}));
 		node.setType(BeliefNode.NODE_DECISION);
 		bn.addBeliefNode(node);
+		addToNodeIndex(node);
 		return node;
 	}
 	
@@ -254,6 +265,7 @@ public class BeliefNetworkEx {
 		BeliefNode node = new BeliefNode(name, domain);
 		node.setType(type);
 		bn.addBeliefNode(node);
+		addToNodeIndex(node);
 		addAttributeMapping(name, attributeName);
 		//logger.debug("Added node "+name+" with attributeName "+attributeName);
 		return node;
@@ -305,6 +317,31 @@ public class BeliefNetworkEx {
 	public void connect(BeliefNode parent, BeliefNode child) {
 		connect(parent, child, true);
 	}
+
+	/**
+	 * removes a node that has no children from the network (along with the edges from its parents);
+	 * the CPFs of other nodes are not affected.
+	 * Note that the indices of all nodes that were added after the removed node are decremented,
+	 * so removing nodes in the reverse order of their addition is most efficient.
+	 * @param node	the node to remove
+	 */
+	public void removeNode(BeliefNode node) {
+		Graph graph = bn.getGraph();
+		if(graph.getChildren(node.getOwner()).length > 0)
+			throw new IllegalArgumentException("Cannot remove node " + node.getName() + " because it has children");
+		boolean wasLast = getNodeIndex(node) == graph.getNumberOfVertices() - 1;
+		graph.removeVertex(node.getOwner());
+		synchronized(this) {
+			HashMap<String, BeliefNode> index = nodesByName;
+			if(index == null || indexedGraph != graph || numIndexedNodes != graph.getNumberOfVertices() + 1 || !wasLast) {
+				nodesByName = null;
+				return;
+			}
+			if(index.get(node.getName()) == node)
+				index.remove(node.getName());
+			numIndexedNodes--;
+		}
+	}
 	
 	/**
 	 * retrieves the node with the given name 
@@ -312,14 +349,16 @@ public class BeliefNetworkEx {
 	 * @return			a reference to the node (or null if there is no node with the given name)
 	 */
 	public BeliefNode getNode(String name) {
-		int idx = getNodeIndex(name);
-		if(idx == -1)
-			return null;
-		return bn.getNodes()[idx];
+		BeliefNode node = getNodeNameIndex().get(name);
+		if(node != null && (getNodeIndex(node) == -1 || !node.getName().equals(name))) { // stale index entry (node was removed or renamed)
+			nodesByName = null;
+			node = getNodeNameIndex().get(name);
+		}
+		return node;
 	}
 	
 	public BeliefNode getNode(int idx) {
-		return bn.getNodes()[idx];
+		return (BeliefNode)bn.getGraph().get(idx).getObject();
 	}
 	
 	/**
@@ -328,11 +367,71 @@ public class BeliefNetworkEx {
 	 * @return		the index of the node (or -1 if there is no node with the given name)
 	 */
 	public int getNodeIndex(String name) {
-		BeliefNode[] nodes = bn.getNodes();
+		BeliefNode node = getNode(name);
+		if(node == null)
+			return -1;
+		return getNodeIndex(node);
+	}
+	
+	/**
+	 * @return the index mapping node names to nodes, which is (re)built if it is not up to date 
+	 */
+	protected HashMap<String, BeliefNode> getNodeNameIndex() {
+		HashMap<String, BeliefNode> index = nodesByName;
+		Graph graph = bn.getGraph();
+		if(index != null && indexedGraph == graph && numIndexedNodes == graph.getNumberOfVertices())
+			return index;
+		synchronized(this) {
+			int n = graph.getNumberOfVertices();
+			index = new HashMap<String, BeliefNode>(2 * n);
+			for(int i = 0; i < n; i++) {
+				BeliefNode node = (BeliefNode)graph.get(i).getObject();
+				if(!index.containsKey(node.getName())) // as in a linear search, the first node with a given name takes precedence 
+					index.put(node.getName(), node);
+			}
+			indexedGraph = graph;
+			numIndexedNodes = n;
+			nodesByName = index;
+		}
+		return index;
+	}
+	
+	/**
+	 * adds a node that was just added to the network to the name index (if the index has been built)
+	 */
+	protected synchronized void addToNodeIndex(BeliefNode node) {
+		HashMap<String, BeliefNode> index = nodesByName;
+		if(index == null || indexedGraph != bn.getGraph() || numIndexedNodes != bn.getGraph().getNumberOfVertices() - 1) {
+			nodesByName = null;
+			return;
+		}
+		if(!index.containsKey(node.getName()))
+			index.put(node.getName(), node);
+		numIndexedNodes++;
+	}
+	
+	/**
+	 * gets the indices (into the BeliefNetwork's array of nodes) of the nodes with the given names
+	 * @param names the names of the nodes
+	 * @return the array of indices (containing -1 for names that do not correspond to a node)
+	 */
+	public int[] getNodeIndices(String[] names) {
+		int[] ret = new int[names.length];
+		for(int i = 0; i < names.length; i++)
+			ret[i] = getNodeIndex(names[i]);
+		return ret;
+	}
+	
+	/**
+	 * gets the indices (into the BeliefNetwork's array of nodes) of the given nodes 
+	 * @param nodes the nodes 
+	 * @return the array of indices (containing -1 for nodes that are not part of the network)
+	 */
+	public int[] getNodeIndices(BeliefNode[] nodes) {
+		int[] ret = new int[nodes.length];
 		for(int i = 0; i < nodes.length; i++)
-			if(nodes[i].getName().equals(name))
-				return i;
-		return -1;		
+			ret[i] = getNodeIndex(nodes[i]);
+		return ret;
 	}
 	
 	/**
@@ -341,11 +440,7 @@ public class BeliefNetworkEx {
 	 * @return		the indices of the nodes that the CPT of the given node depends on.
 	 */
 	public int[] getDomainProductNodeIndices(BeliefNode node) {
-		BeliefNode[] nodes = node.getCPF().getDomainProduct();
-		int[] nodeIndices = new int[nodes.length];
-		for(int i = 0; i < nodes.length; i++)
-			nodeIndices[i] = this.getNodeIndex(nodes[i].getName());
-		return nodeIndices;
+		return getNodeIndices(node.getCPF().getDomainProduct());
 	}
 	
 	/**
@@ -385,12 +480,19 @@ public class BeliefNetworkEx {
 		return nodeDomainIndices;
 	}
 	
+	/**
+	 * get the index (into the BeliefNetwork's array of nodes) of the given node
+	 * @param node	the node
+	 * @return		the index of the node (or -1 if the node is not part of this network)
+	 */
 	public int getNodeIndex(BeliefNode node) {
-		BeliefNode[] nodes = bn.getNodes();
-		for(int i = 0; i < nodes.length; i++)
-			if(nodes[i] == node)
-				return i;
-		return -1;
+		Vertex v = node.getOwner();
+		if(v == null)
+			return -1;
+		int idx = v.loc();
+		if(bn.getGraph().get(idx) != v)
+			return -1;
+		return idx;
 	}
 
 	/**
@@ -858,7 +960,6 @@ public class BeliefNetworkEx {
 	 * Get a specific entry in the cpt of the given node.
 	 * The nodeDomainIndices should contain a value for each node in the BeliefNet but only values
 	 * in the domain product of the node are queried for.
-	 * WARNING: This is very slow (mainly because getDomainProductNodeIndices performs a linear search for each node)
 	 * @param node				the node the CPT should come from.
 	 * @param nodeDomainIndices	the values the nodes should have (domain indices for all the nodes in the network)
 	 * @return					the probability entry in the CPT.
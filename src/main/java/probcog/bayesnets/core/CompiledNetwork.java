@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.bayesnets.core;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import edu.ksu.cis.bnj.ver3.core.BeliefNode;
+import edu.ksu.cis.bnj.ver3.core.CPF;
+
+/**
+ * A compiled, array-backed representation of a Bayesian network's structure and
+ * conditional probability tables. All nodes are referred to by their index in the
+ * underlying network's array of nodes, and all CPTs are stored as flat arrays of
+ * doubles (in the same layout as BNJ's CPFs), such that looking up a CPT entry
+ * for a full assignment of domain indices requires neither map lookups nor allocations.
+ *
+ * The compiled network is a snapshot: if the CPFs of the original network are
+ * modified, the network must be recompiled.
+ *
+ * @author Dominik Jain
+ */
+public class CompiledNetwork {
+	/**
+	 * the network this representation was compiled from
+	 */
+	public final BeliefNetworkEx bn;
+	public final int numNodes;
+	/**
+	 * domainSizes[i] is the number of values in the domain of the i-th node
+	 */
+	public final int[] domainSizes;
+	/**
+	 * domProd[i] contains the indices of the nodes in the i-th node's CPF domain product,
+	 * i.e. domProd[i][0] == i, followed by the indices of the parents
+	 */
+	public final int[][] domProd;
+	/**
+	 * strides[i][j] is the address offset in cpts[i] that corresponds to incrementing the
+	 * domain index of the j-th node in the domain product of node i
+	 */
+	public final int[][] strides;
+	/**
+	 * cpts[i] is the flat conditional probability table of the i-th node
+	 */
+	public final double[][] cpts;
+	/**
+	 * children[i] contains the indices of the nodes whose domain product contains node i (as a parent)
+	 */
+	public final int[][] children;
+	/**
+	 * a topological ordering of the nodes (array of node indices)
+	 */
+	public final int[] topOrder;
+
+	public CompiledNetwork(BeliefNetworkEx bn) {
+		this.bn = bn;
+		BeliefNode[] nodes = bn.bn.getNodes();
+		numNodes = nodes.length;
+		HashMap<BeliefNode, Integer> nodeIndices = new HashMap<BeliefNode, Integer>(numNodes * 2);
+		for(int i = 0; i < numNodes; i++)
+			nodeIndices.put(nodes[i], i);
+		domainSizes = new int[numNodes];
+		domProd = new int[numNodes][];
+		strides = new int[numNodes][];
+		cpts = new double[numNodes][];
+		int[] numChildren = new int[numNodes];
+		for(int i = 0; i < numNodes; i++) {
+			domainSizes[i] = nodes[i].getDomain().getOrder();
+			CPF cpf = nodes[i].getCPF();
+			BeliefNode[] dp = cpf.getDomainProduct();
+			domProd[i] = new int[dp.length];
+			strides[i] = new int[dp.length];
+			int[] addr = new int[dp.length];
+			for(int j = 0; j < dp.length; j++) {
+				domProd[i][j] = nodeIndices.get(dp[j]);
+				addr[j] = 1;
+				strides[i][j] = cpf.addr2realaddr(addr);
+				addr[j] = 0;
+				if(j > 0)
+					numChildren[domProd[i][j]]++;
+			}
+			double[] cpt = new double[cpf.size()];
+			for(int k = 0; k < cpt.length; k++)
+				cpt[k] = cpf.getDouble(k);
+			cpts[i] = cpt;
+		}
+		children = new int[numNodes][];
+		for(int i = 0; i < numNodes; i++)
+			children[i] = new int[numChildren[i]];
+		int[] fill = new int[numNodes];
+		for(int i = 0; i < numNodes; i++)
+			for(int j = 1; j < domProd[i].length; j++) {
+				int parent = domProd[i][j];
+				children[parent][fill[parent]++] = i;
+			}
+		topOrder = bn.getTopologicalOrder();
+	}
+
+	/**
+	 * gets the address in the node's CPT of the first entry of the column that corresponds
+	 * to the current setting of the node's parents
+	 * @param node the index of the node
+	 * @param nodeDomainIndices domain indices for all nodes in the network (only the parents of the node need to be set)
+	 * @return the address in cpts[node]; entries for the node's values are at offsets that are multiples of strides[node][0]
+	 */
+	public final int getColumnAddress(int node, int[] nodeDomainIndices) {
+		int[] dp = domProd[node], st = strides[node];
+		int addr = 0;
+		for(int j = 1; j < dp.length; j++)
+			addr += st[j] * nodeDomainIndices[dp[j]];
+		return addr;
+	}
+
+	/**
+	 * gets the CPT entry of the given node for the configuration given in the array of domain indices
+	 * @param node the index of the node
+	 * @param nodeDomainIndices domain indices for all nodes in the network (only the node and its parents need to be set)
+	 * @return the conditional probability of the node's value given the values of its parents
+	 */
+	public final double getProbability(int node, int[] nodeDomainIndices) {
+		int[] dp = domProd[node], st = strides[node];
+		int addr = 0;
+		for(int j = 0; j < dp.length; j++)
+			addr += st[j] * nodeDomainIndices[dp[j]];
+		return cpts[node][addr];
+	}
+
+	/**
+	 * gets the CPT entry of the given node for an address that is given relative to the node's domain product
+	 * @param node the index of the node
+	 * @param addr domain indices for each element in the node's domain product (i.e. addr[0] is the node's value)
+	 * @return the CPT entry
+	 */
+	public final double getValue(int node, int[] addr) {
+		int[] st = strides[node];
+		int realAddr = 0;
+		for(int j = 0; j < addr.length; j++)
+			realAddr += st[j] * addr[j];
+		return cpts[node][realAddr];
+	}
+
+	/**
+	 * copies the conditional distribution of the given node given the current setting of its parents
+	 * @param node the index of the node
+	 * @param nodeDomainIndices domain indices for all nodes in the network (only the parents need to be set)
+	 * @param ret the array to write to (must have at least domainSizes[node] elements)
+	 * @return the sum of the values that were written (the column's normalization constant)
+	 */
+	public final double getConditionalDistribution(int node, int[] nodeDomainIndices, double[] ret) {
+		double[] cpt = cpts[node];
+		int addr = getColumnAddress(node, nodeDomainIndices);
+		int stride = strides[node][0];
+		double sum = 0;
+		for(int i = 0; i < domainSizes[node]; i++, addr += stride) {
+			ret[i] = cpt[addr];
+			sum += ret[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * samples forward, i.e. samples a value for the node given its parents
+	 * @param node  the index of the node for which to sample a value
+	 * @param nodeDomainIndices  domain indices for all nodes in the network; the values for the parents must be set already
+	 * @param generator  the random number generator to use
+	 * @return  the index of the domain element that is sampled, or -1 if sampling is impossible because all entries in the relevant column are 0
+	 */
+	public final int sampleForward(int node, int[] nodeDomainIndices, Random generator) {
+		double[] cpt = cpts[node];
+		int addr = getColumnAddress(node, nodeDomainIndices);
+		int stride = strides[node][0];
+		int domSize = domainSizes[node];
+		double sum = 0;
+		for(int i = 0, a = addr; i < domSize; i++, a += stride)
+			sum += cpt[a];
+		if(sum == 0)
+			return -1;
+		double random = generator.nextDouble() * sum;
+		int ret = 0;
+		sum = 0;
+		int i = 0;
+		while(sum < random && i < domSize) {
+			ret = i++;
+			sum += cpt[addr + ret * stride];
+		}
+		return sum >= random ? ret : -1;
+	}
+
+	/**
+	 * computes the probability of the full assignment given by the vector of domain indices
+	 * @param nodeDomainIndices domain indices for each of the nodes
+	 * @return the product of all CPT entries
+	 */
+	public double getWorldProbability(int[] nodeDomainIndices) {
+		double ret = 1.0;
+		for(int i = 0; i < numNodes; i++)
+			ret *= getProbability(i, nodeDomainIndices);
+		return ret;
+	}
+}
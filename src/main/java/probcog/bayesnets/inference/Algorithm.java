@@ -52,6 +52,7 @@ public enum Algorithm {
 	//SmilePearl("Pearl's algorithm for polytrees (exact) [SMILE]", "edu.tum.cs.bayesnets.inference.SmilePearl"),
 	//VarElim("variable elimination (exact)", BNJVariableElimination.class),
 	VarElim("variable elimination (exact)", VariableElimination.class),
+	JunctionTree("junction tree propagation (exact)", JunctionTree.class),
 	BackwardSampleSearch("Backward SampleSearch", BackwardSampleSearch.class),
 	BackwardSampleSearchBJ("Backward SampleSearch with backjumping", BackwardSampleSearchBJ.class),
 	//BackwardSampleSearchIB("Backward SampleSearch with intelligent backtracking","dev.BackwardSampleSearchIB"),
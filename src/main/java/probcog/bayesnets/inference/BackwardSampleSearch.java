@@ -29,11 +29,11 @@ import java.util.Set;
 import java.util.Vector;
 
 import probcog.bayesnets.core.BeliefNetworkEx;
+import probcog.bayesnets.core.CompiledNetwork;
 import probcog.bayesnets.util.TopologicalOrdering;
 import probcog.bayesnets.util.TopologicalSort;
 import probcog.exception.ProbCogException;
 import edu.ksu.cis.bnj.ver3.core.BeliefNode;
-import edu.ksu.cis.bnj.ver3.core.CPF;
 import edu.tum.cs.util.datastruct.Map2D;
 import edu.tum.cs.util.datastruct.Map2List;
 import edu.tum.cs.util.datastruct.Map2Set;
@@ -90,17 +90,14 @@ public class BackwardSampleSearch extends BackwardSamplingWithPriors {
 	}
 	
 	protected boolean sampleForward(BeliefNode node, WeightedSample s, Set<Integer> excluded) throws ProbCogException {
-		CPF cpf = node.getCPF();
-		BeliefNode[] domProd = cpf.getDomainProduct();
-		int[] addr = new int[domProd.length];
-		addr[0] = 0;
-		for(int i = 1; i < addr.length; i++)
-			addr[i] = s.nodeDomainIndices[this.nodeIndices.get(domProd[i])];
-		int realAddr = cpf.addr2realaddr(addr); // address of the first element in the distribution we sample from
-		int addrOffset = cpf.getColumnValueAddressOffset();
+		CompiledNetwork net = getCompiledNetwork();
+		int nodeIdx = getNodeIndex(node);
+		double[] cpt = net.cpts[nodeIdx];
+		int realAddr = net.getColumnAddress(nodeIdx, s.nodeDomainIndices); // address of the first element in the distribution we sample from
+		int addrOffset = net.strides[nodeIdx][0];
 		
 		// get probabilities for outcomes
-		double[] cpt_entries = new double[domProd[0].getDomain().getOrder()];
+		double[] cpt_entries = new double[net.domainSizes[nodeIdx]];
 		double sum = 0;
 		double value;
 		for(int i = 0; i < cpt_entries.length; i++) {
@@ -109,7 +106,7 @@ public class BackwardSampleSearch extends BackwardSamplingWithPriors {
 				//System.out.println("forward exclusion");
 			}
 			else
-				value = cpf.getDouble(realAddr);
+				value = cpt[realAddr];
 			if(debug) out.printf("      %d: %f\n", i, value);
 			cpt_entries[i] = value;
 			sum += value;
@@ -120,11 +117,11 @@ public class BackwardSampleSearch extends BackwardSamplingWithPriors {
 		
 		// sample
 		int domIdx = sample(cpt_entries, sum, generator);
-		s.nodeDomainIndices[this.nodeIndices.get(node)] = domIdx;		
+		s.nodeDomainIndices[nodeIdx] = domIdx;		
 		sampledIndices[currentOrderIndex] = domIdx;
 		
 		// remember weighting factor
-		weightingFactors.put(node, getCPTProbability(node, s.nodeDomainIndices) / (cpt_entries[domIdx] / sum));
+		weightingFactors.put(node, getCPTProbability(nodeIdx, s.nodeDomainIndices) / (cpt_entries[domIdx] / sum));
 		
 		if(debug) out.println("    assigned " + domIdx);
 		return true;
@@ -165,9 +162,9 @@ public class BackwardSampleSearch extends BackwardSamplingWithPriors {
 		
 		// apply sampled parent setting
 		boolean buildAssignedIndices = assignedNodeIndicesByOrderIndex.get(currentOrderIndex) == null;
-		BeliefNode[] domProd = node.getCPF().getDomainProduct();		
+		int[] domProd = getCompiledNetwork().domProd[getNodeIndex(node)];		
 		for(i = 1; i < state.length; i++) {
-			int nodeIdx = getNodeIndex(domProd[i]);
+			int nodeIdx = domProd[i];
 			if(buildAssignedIndices && s.nodeDomainIndices[nodeIdx] == -1)
 				assignedNodeIndicesByOrderIndex.add(currentOrderIndex, nodeIdx);
 			s.nodeDomainIndices[nodeIdx] = state[i];
@@ -221,6 +218,8 @@ public class BackwardSampleSearch extends BackwardSamplingWithPriors {
 		boolean backtracking = false;		
 		
 		for(int i = 0; i < samplingOrder.size();) {
+			if(isCancelled())
+				return;
 			currentOrderIndex = i;
 			Pair<BeliefNode,NodeMode> p = samplingOrder.get(i);
 			
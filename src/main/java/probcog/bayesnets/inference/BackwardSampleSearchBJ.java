@@ -67,6 +67,8 @@ public class BackwardSampleSearchBJ extends BackwardSampleSearch {
 		HashMap<Integer,PrioritySet<Integer>> backtrackQueues = new HashMap<Integer,PrioritySet<Integer>>();
 		
 		for(int i = 0; i < samplingOrder.size();) {
+			if(isCancelled())
+				return;
 			currentOrderIndex = i;
 			Pair<BeliefNode,NodeMode> p = samplingOrder.get(i);
 			
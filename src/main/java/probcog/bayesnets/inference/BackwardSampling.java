@@ -25,12 +25,12 @@ import java.util.PriorityQueue;
 import java.util.Vector;
 
 import probcog.bayesnets.core.BeliefNetworkEx;
+import probcog.bayesnets.core.CompiledNetwork;
 import probcog.bayesnets.util.TopologicalOrdering;
 import probcog.bayesnets.util.TopologicalSort;
 import probcog.exception.ProbCogException;
 import edu.ksu.cis.bnj.ver3.core.BeliefNode;
 import edu.ksu.cis.bnj.ver3.core.CPF;
-import edu.ksu.cis.bnj.ver3.core.Discrete;
 import edu.tum.cs.util.Stopwatch;
 import edu.tum.cs.util.StringTool;
 
@@ -75,38 +75,40 @@ public class BackwardSampling extends Sampler {
 		}
 		
 		public void construct(BeliefNode node, int[] nodeDomainIndices) {
-			CPF cpf = node.getCPF();
-			BeliefNode[] domProd = cpf.getDomainProduct();
-			int[] addr = new int[domProd.length];
-			addr[0] = nodeDomainIndices[sampler.nodeIndices.get(node)];
-			construct(1, addr, cpf, nodeDomainIndices);
+			construct(sampler.getNodeIndex(node), nodeDomainIndices);
+		}
+		
+		public void construct(int nodeIdx, int[] nodeDomainIndices) {
+			int[] addr = new int[sampler.getCompiledNetwork().domProd[nodeIdx].length];
+			addr[0] = nodeDomainIndices[nodeIdx];
+			construct(1, addr, nodeIdx, nodeDomainIndices);
 		}
 		
 		/**
 		 * recursively constructs the distribution to backward sample from  
 		 * @param i			the node to instantiate next (as an index into the CPF's domain product)
 		 * @param addr		the current setting of node indices of the CPF's domain product
-		 * @param cpf		the conditional probability function of the node we are backward sampling
-		 * @param d			the distribution to fill
+		 * @param nodeIdx	the index of the node we are backward sampling
+		 * @param nodeDomainIndices	the current setting of all nodes in the network (-1 for uninstantiated nodes)
 		 */
-		protected void construct(int i, int[] addr, CPF cpf, int[] nodeDomainIndices) {
+		protected void construct(int i, int[] addr, int nodeIdx, int[] nodeDomainIndices) {
+			CompiledNetwork net = sampler.getCompiledNetwork();
 			if(i == addr.length) {
-				double p = cpf.getDouble(addr);
+				double p = net.getValue(nodeIdx, addr);
 				if(p != 0)
 					addValue(p, addr.clone());
 				return;
 			}
-			BeliefNode[] domProd = cpf.getDomainProduct();
-			int nodeIdx = sampler.nodeIndices.get(domProd[i]);
-			if(nodeDomainIndices[nodeIdx] >= 0) {
-				addr[i] = nodeDomainIndices[nodeIdx];
-				construct(i+1, addr, cpf, nodeDomainIndices);
+			int parentIdx = net.domProd[nodeIdx][i];
+			if(nodeDomainIndices[parentIdx] >= 0) {
+				addr[i] = nodeDomainIndices[parentIdx];
+				construct(i+1, addr, nodeIdx, nodeDomainIndices);
 			}
 			else {
-				Discrete dom = (Discrete)domProd[i].getDomain();		
-				for(int j = 0; j < dom.getOrder(); j++) {
+				int domSize = net.domainSizes[parentIdx];
+				for(int j = 0; j < domSize; j++) {
 					addr[i] = j;
-					construct(i+1, addr, cpf, nodeDomainIndices);
+					construct(i+1, addr, nodeIdx, nodeDomainIndices);
 				}
 			}
 		}
@@ -204,9 +206,9 @@ public class BackwardSampling extends Sampler {
 		if(s.weight == 0.0)
 			return false;
 		// apply sampled parent setting
-		BeliefNode[] domProd = node.getCPF().getDomainProduct();
+		int[] domProd = getCompiledNetwork().domProd[getNodeIndex(node)];
 		for(int i = 1; i < state.length; i++) {
-			int nodeIdx = this.nodeIndices.get(domProd[i]);
+			int nodeIdx = domProd[i];
 			s.nodeDomainIndices[nodeIdx] = state[i];
 			//out.println("  sampled node " + domProd[i]);
 		}
@@ -240,6 +242,8 @@ public class BackwardSampling extends Sampler {
 			if(verbose && currentStep % infoInterval == 0)
 				out.println("  step " + currentStep);
 			getSample(s);
+			if(isCancelled())
+				break;
 			this.addSample(s);
 			onAddedSample(s);
 			if(converged())
@@ -260,6 +264,8 @@ public class BackwardSampling extends Sampler {
 	public void getSample(WeightedSample s) throws ProbCogException {
 		int MAX_TRIALS = this.maxTrials;	
 loop1:  for(int t = 1; t <= MAX_TRIALS || MAX_TRIALS == 0; t++) {
+			if(isCancelled())
+				return;
 			// initialize sample
 			initSample(s);
 			// backward sampling
@@ -298,7 +304,7 @@ loop1:  for(int t = 1; t <= MAX_TRIALS || MAX_TRIALS == 0; t++) {
 					// error diagnosis					
 					if(debug) out.println("!!! weight became zero at unordered node " + node + " in step " + currentStep + "; cond: " + s.getCPDLookupString(node));
 					if(debug && this instanceof BackwardSamplingWithPriors) {
-						double[] dist = ((BackwardSamplingWithPriors)this).priors.get(node);
+						double[] dist = ((BackwardSamplingWithPriors)this).priors[getNodeIndex(node)];
 						out.println("prior: " + StringTool.join(", ", dist) + " value=" + s.nodeDomainIndices[getNodeIndex(node)]);
 						CPF cpf = node.getCPF();
 						BeliefNode[] domProd = cpf.getDomainProduct();						
@@ -332,7 +338,7 @@ loop1:  for(int t = 1; t <= MAX_TRIALS || MAX_TRIALS == 0; t++) {
 		int idx = super.sampleForward(node, s.nodeDomainIndices);
 		if(idx == -1)
 			return false;
-		s.nodeDomainIndices[this.nodeIndices.get(node)] = idx;
+		s.nodeDomainIndices[getNodeIndex(node)] = idx;
 		return true;
 	}
 	
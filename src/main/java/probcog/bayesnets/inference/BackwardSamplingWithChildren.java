@@ -21,11 +21,9 @@ package probcog.bayesnets.inference;
 import java.util.HashSet;
 
 import probcog.bayesnets.core.BeliefNetworkEx;
+import probcog.bayesnets.core.CompiledNetwork;
 import probcog.exception.ProbCogException;
 import edu.ksu.cis.bnj.ver3.core.BeliefNode;
-import edu.ksu.cis.bnj.ver3.core.CPF;
-import edu.ksu.cis.bnj.ver3.core.Discrete;
-import edu.ksu.cis.bnj.ver3.core.Domain;
 import edu.tum.cs.util.Stopwatch;
 import edu.tum.cs.util.datastruct.Cache2D;
 import edu.tum.cs.util.datastruct.MutableDouble;
@@ -40,7 +38,7 @@ import edu.tum.cs.util.datastruct.MutableDouble;
  */
 public class BackwardSamplingWithChildren extends BackwardSamplingWithPriors {
 
-	protected Cache2D<CPF, Integer, Double> probCache;
+	protected Cache2D<Integer, Integer, Double> probCache;
 	protected Cache2D<BeliefNode, Long, BackSamplingDistribution> distCache;
 	protected Stopwatch probSW, distSW;
 	
@@ -54,36 +52,35 @@ public class BackwardSamplingWithChildren extends BackwardSamplingWithPriors {
 		 * recursively gets a distribution to backward sample from 
 		 * @param i			the node to instantiate next (as an index into the CPF's domain product)
 		 * @param addr		the current setting of node indices of the CPF's domain product
-		 * @param cpf		the conditional probability function of the node we are backward sampling
+		 * @param nodeIdx	the index of the node we are backward sampling
+		 * @param nodeDomainIndices	the current setting of all nodes in the network (-1 for uninstantiated nodes)
 		 */
 		@Override
-		protected void construct(int i, int[] addr, CPF cpf, int[] nodeDomainIndices) {
-			BeliefNode[] domProd = cpf.getDomainProduct();
+		protected void construct(int i, int[] addr, int nodeIdx, int[] nodeDomainIndices) {
+			CompiledNetwork net = sampler.getCompiledNetwork();
+			int[] domProd = net.domProd[nodeIdx];
 			if(i == addr.length) {
-				double child_prob = cpf.getDouble(addr);
+				double child_prob = net.getValue(nodeIdx, addr);
 				// temporarily set evidence
 				boolean[] tempEvidence = new boolean[addr.length];
 				for(int k = 1; k < addr.length; k++) {					
-					int nodeIdx = sampler.nodeIndices.get(domProd[k]);
-					tempEvidence[k] = nodeDomainIndices[nodeIdx] == -1;
+					int parentIdx = domProd[k];
+					tempEvidence[k] = nodeDomainIndices[parentIdx] == -1;
 					if(tempEvidence[k])						
-						nodeDomainIndices[nodeIdx] = addr[k];
+						nodeDomainIndices[parentIdx] = addr[k];
 				}
 				// consider parent configuration
 				double parent_prob = 1.0;
-				HashSet<BeliefNode> handledChildren = new HashSet<BeliefNode>();
-				handledChildren.add(domProd[0]);
+				double[][] priors = ((BackwardSamplingWithPriors)sampler).priors;
+				HashSet<Integer> handledChildren = new HashSet<Integer>();
+				handledChildren.add(nodeIdx);
 				for(int j = 1; j < addr.length; j++) {
-					double[] parentPrior = ((BackwardSamplingWithPriors)sampler).priors.get(domProd[j]);
-					parent_prob *= parentPrior[addr[j]]; 
+					parent_prob *= priors[domProd[j]][addr[j]]; 
 					// consider children of parents with evidence					
 					// get child probability
-					BeliefNode[] children = sampler.bn.bn.getChildren(domProd[j]);
-					for(BeliefNode child : children) {
-						if(nodeDomainIndices[sampler.getNodeIndex(child)] >= 0 && !handledChildren.contains(child)) {
-							CPF childCPF = child.getCPF();
-							//getProb(childCPF, 0, new int[childCPF.getDomainProduct().length], nodeDomainIndices, p);
-							double p = getProb(childCPF, nodeDomainIndices);
+					for(int child : net.children[domProd[j]]) {
+						if(nodeDomainIndices[child] >= 0 && !handledChildren.contains(child)) {
+							double p = getProb(child, nodeDomainIndices);
 							parent_prob *= p;
 							handledChildren.add(child);
 						}
@@ -92,7 +89,7 @@ public class BackwardSamplingWithChildren extends BackwardSamplingWithPriors {
 				// unset temporary evidence
 				for(int k = 1; k < addr.length; k++) {
 					if(tempEvidence[k])
-						nodeDomainIndices[sampler.nodeIndices.get(domProd[k])] = -1;
+						nodeDomainIndices[domProd[k]] = -1;
 				}
 				// add to distribution
 				double p = child_prob * parent_prob;
@@ -102,49 +99,51 @@ public class BackwardSamplingWithChildren extends BackwardSamplingWithPriors {
 				}
 				return;
 			}		
-			int nodeIdx = sampler.nodeIndices.get(domProd[i]);
-			if(nodeDomainIndices[nodeIdx] >= 0) {
-				addr[i] = nodeDomainIndices[nodeIdx];
-				construct(i+1, addr, cpf, nodeDomainIndices);
+			int parentIdx = domProd[i];
+			if(nodeDomainIndices[parentIdx] >= 0) {
+				addr[i] = nodeDomainIndices[parentIdx];
+				construct(i+1, addr, nodeIdx, nodeDomainIndices);
 			}
 			else {
-				Discrete dom = (Discrete)domProd[i].getDomain();		
-				for(int j = 0; j < dom.getOrder(); j++) {
+				int domSize = net.domainSizes[parentIdx];
+				for(int j = 0; j < domSize; j++) {
 					addr[i] = j;
-					construct(i+1, addr, cpf, nodeDomainIndices);
+					construct(i+1, addr, nodeIdx, nodeDomainIndices);
 				}
 			}
 		}
 		
-		protected double getProb(CPF cpf, int[] nodeDomainIndices) {
+		protected double getProb(int nodeIdx, int[] nodeDomainIndices) {
 			final boolean debugCache = false;
 			probSW.start();
+			CompiledNetwork net = sampler.getCompiledNetwork();
 			// get the key in the CPF-specific cache
 			Double cacheValue = null;
-			BeliefNode[] domProd = cpf.getDomainProduct();
+			int[] domProd = net.domProd[nodeIdx];
 			int[] addr = new int[domProd.length];	
 			boolean allSet = true;
 			int key = 0;
 			for(int i = 0; i < addr.length; i++) {
-				int idx = nodeDomainIndices[sampler.getNodeIndex(domProd[i])];
+				int idx = nodeDomainIndices[domProd[i]];
+				int domSize = net.domainSizes[domProd[i]];
 				allSet = allSet && idx >= 0; 
 				addr[i] = idx;
-				key *= cpf._SizeBuffer[i]+1;
-				key += idx == -1 ? cpf._SizeBuffer[i] : idx;
+				key *= domSize+1;
+				key += idx == -1 ? domSize : idx;
 			}
 			if(allSet) {
 				probSW.stop();
-				return cpf.getDouble(addr);
+				return net.getValue(nodeIdx, addr);
 			}
 			// check if we already have the value in the cache
-			Double value = cacheValue = probCache.get(cpf, key);
+			Double value = cacheValue = probCache.get(nodeIdx, key);
 			if(!debugCache && value != null) {
 				probSW.stop();
 				return value;					
 			}
 			// not in the cache, so calculate the value
 			MutableDouble p = new MutableDouble(0.0);
-			getProb(cpf, 0, addr, nodeDomainIndices, p);
+			getProb(nodeIdx, 0, addr, nodeDomainIndices, p);
 			// store in cache
 			probCache.put(p.value);
 			// return value
@@ -156,42 +155,42 @@ public class BackwardSamplingWithChildren extends BackwardSamplingWithPriors {
 		}
 		
 		/**
-		 * gets the probability indicated by the given CPF for the given domain indices, summing over all parents whose values are not set (i.e. set to -1) in nodeDomainIndices;
-		 * i.e. computes the probability of the node whose CPF is provided given the evidence set in nodeDomainIndices
-		 * @param cpf					the conditional probability function
+		 * gets the probability indicated by the given node's CPF for the given domain indices, summing over all parents whose values are not set (i.e. set to -1) in nodeDomainIndices;
+		 * i.e. computes the probability of the node given the evidence set in nodeDomainIndices
+		 * @param nodeIdx				the index of the node whose CPF to use
 		 * @param i						index of the next node to instantiate
 		 * @param addr					the address (list of node domain indices relevant to the CPF)
 		 * @param nodeDomainIndices		evidences (mapping of all nodes in the network to domain indices, -1 for no evidence)
 		 * @param ret					variable in which to store the result (initialize to 0.0, because we are summing probability values)
 		 */
-		protected void getProb(CPF cpf, int i, int[] addr, int[] nodeDomainIndices, MutableDouble ret) {
-			BeliefNode[] domProd = cpf.getDomainProduct();
+		protected void getProb(int nodeIdx, int i, int[] addr, int[] nodeDomainIndices, MutableDouble ret) {
+			CompiledNetwork net = sampler.getCompiledNetwork();
+			int[] domProd = net.domProd[nodeIdx];
 			// if all nodes have been instantiated...
 			if(i == addr.length) {
-				double p = cpf.getDouble(addr); 
+				double p = net.getValue(nodeIdx, addr); 
+				double[][] priors = ((BackwardSamplingWithPriors)sampler).priors;
 				for(int j = 1; j < addr.length; j++) {
-					if(nodeDomainIndices[sampler.getNodeIndex(domProd[j])] == -1); {
-						double[] parentPrior = ((BackwardSamplingWithPriors)sampler).priors.get(domProd[j]);
-						p *= parentPrior[addr[j]];						
+					if(nodeDomainIndices[domProd[j]] == -1); {
+						p *= priors[domProd[j]][addr[j]];						
 					}
 				}
 				ret.value += p;
 				return;
 			}
 			// otherwise instantiate the next node
-			BeliefNode node = domProd[i];
-			int nodeIdx = sampler.getNodeIndex(node);
+			int domProdIdx = domProd[i];
 			// - if we have evidence, use it
-			if(nodeDomainIndices[nodeIdx] >= 0) {				
-				addr[i] = nodeDomainIndices[nodeIdx];
-				getProb(cpf, i+1, addr, nodeDomainIndices, ret);
+			if(nodeDomainIndices[domProdIdx] >= 0) {				
+				addr[i] = nodeDomainIndices[domProdIdx];
+				getProb(nodeIdx, i+1, addr, nodeDomainIndices, ret);
 			}
 			// - otherwise sum over all settings
 			else {
-				Domain dom = node.getDomain();
-				for(int j = 0; j < dom.getOrder(); j++) {
+				int domSize = net.domainSizes[domProdIdx];
+				for(int j = 0; j < domSize; j++) {
 					addr[i] = j;
-					getProb(cpf, i+1, addr, nodeDomainIndices, ret);
+					getProb(nodeIdx, i+1, addr, nodeDomainIndices, ret);
 				}
 			}
 		}
@@ -206,30 +205,32 @@ public class BackwardSamplingWithChildren extends BackwardSamplingWithPriors {
 		
 		if(useCache) { // TODO optimize this further (semi-lifted): because the distributions of many nodes are identical, use some index that combines the relational node's index plus possible constant node settings
 			// calculate key		
-			BeliefNode[] domProd = node.getCPF().getDomainProduct();
+			CompiledNetwork net = getCompiledNetwork();
+			int nodeIdx = getNodeIndex(node);
+			int[] domProd = net.domProd[nodeIdx];
 			// - consider node itself and all parents			
 			for(int i = 0; i < domProd.length; i++) {
-				BeliefNode n = domProd[i];
-				int idx = s.nodeDomainIndices[getNodeIndex(n)];
-				int order = n.getDomain().getOrder();
+				int n = domProd[i];
+				int idx = s.nodeDomainIndices[n];
+				int order = net.domainSizes[n];
 				key *= order + 1;
 				key += idx == -1 ? order : idx;
 				// - children of parents
 				if(i != 0) {
-					BeliefNode[] children = bn.bn.getChildren(n);
+					int[] children = net.children[domProd[i]];
 					for(int j = 0; j < children.length; j++) {
-						if(children[j] != node) {
+						if(children[j] != nodeIdx) {
 							n = children[j];
-							idx = s.nodeDomainIndices[getNodeIndex(n)];
-							order = n.getDomain().getOrder();
+							idx = s.nodeDomainIndices[n];
+							order = net.domainSizes[n];
 							key *= order + 1;
 							key += idx == -1 ? order : idx;
 							// - parents of children						
-							BeliefNode[] parentsofchildren = children[j].getCPF().getDomainProduct();
+							int[] parentsofchildren = net.domProd[children[j]];
 							for(int k = 1; k < parentsofchildren.length; k++) {
 								n = parentsofchildren[k];
-								idx = s.nodeDomainIndices[getNodeIndex(n)];
-								order = n.getDomain().getOrder();
+								idx = s.nodeDomainIndices[n];
+								order = net.domainSizes[n];
 								key *= order + 1;
 								key += idx == -1 ? order : idx;
 							}
@@ -262,7 +263,7 @@ public class BackwardSamplingWithChildren extends BackwardSamplingWithPriors {
 	
 	@Override
 	public void _initialize() throws ProbCogException {
-		probCache = new Cache2D<CPF, Integer, Double>();
+		probCache = new Cache2D<Integer, Integer, Double>();
 		distCache = new Cache2D<BeliefNode, Long, BackSamplingDistribution>();
 		super._initialize();
 	}
@@ -18,22 +18,22 @@
  ******************************************************************************/
 package probcog.bayesnets.inference;
 
-import java.util.HashMap;
 import java.util.Vector;
 
 import probcog.bayesnets.core.BeliefNetworkEx;
+import probcog.bayesnets.core.CompiledNetwork;
 import probcog.exception.ProbCogException;
 import edu.ksu.cis.bnj.ver3.core.BeliefNode;
-import edu.ksu.cis.bnj.ver3.core.CPF;
-import edu.ksu.cis.bnj.ver3.core.Discrete;
-import edu.ksu.cis.bnj.ver3.core.Domain;
 
 /**
  * @author Dominik Jain
  */
 public class BackwardSamplingWithPriors extends BackwardSampling {
 
-	public HashMap<BeliefNode, double[]> priors;
+	/**
+	 * the prior distribution of each node (indexed by node index)
+	 */
+	public double[][] priors;
 
 	public static class BackSamplingDistribution extends probcog.bayesnets.inference.BackwardSampling.BackSamplingDistribution {
 
@@ -48,17 +48,19 @@ public class BackwardSamplingWithPriors extends BackwardSampling {
 		 * recursively gets a distribution to backward sample from (represented in probs; the corresponding node states stored in states) 
 		 * @param i			the node to instantiate next (as an index into the CPF's domain product)
 		 * @param addr		the current setting of node indices of the CPF's domain product
-		 * @param cpf		the conditional probability function of the node we are backward sampling
+		 * @param nodeIdx	the index of the node we are backward sampling
+		 * @param nodeDomainIndices	the current setting of all nodes in the network (-1 for uninstantiated nodes)
 		 */
 		@Override
-		protected void construct(int i, int[] addr, CPF cpf, int[] nodeDomainIndices) {
-			BeliefNode[] domProd = cpf.getDomainProduct();
+		protected void construct(int i, int[] addr, int nodeIdx, int[] nodeDomainIndices) {
+			CompiledNetwork net = sampler.getCompiledNetwork();
+			int[] domProd = net.domProd[nodeIdx];
 			if(i == addr.length) {
-				double child_prob = cpf.getDouble(addr);
+				double child_prob = net.getValue(nodeIdx, addr);
 				double parent_prob = 1.0;
+				double[][] priors = ((BackwardSamplingWithPriors)sampler).priors;
 				for(int j = 1; j < addr.length; j++) {
-					double[] parentPrior = ((BackwardSamplingWithPriors)sampler).priors.get(domProd[j]);
-					parent_prob *= parentPrior[addr[j]]; 
+					parent_prob *= priors[domProd[j]][addr[j]]; 
 				} 
 				double p = child_prob * parent_prob;
 				if(p != 0) {
@@ -67,16 +69,16 @@ public class BackwardSamplingWithPriors extends BackwardSampling {
 				}
 				return;
 			}		
-			int nodeIdx = sampler.nodeIndices.get(domProd[i]);
-			if(nodeDomainIndices[nodeIdx] >= 0) {
-				addr[i] = nodeDomainIndices[nodeIdx];
-				construct(i+1, addr, cpf, nodeDomainIndices);
+			int parentIdx = domProd[i];
+			if(nodeDomainIndices[parentIdx] >= 0) {
+				addr[i] = nodeDomainIndices[parentIdx];
+				construct(i+1, addr, nodeIdx, nodeDomainIndices);
 			}
 			else {
-				Discrete dom = (Discrete)domProd[i].getDomain();		
-				for(int j = 0; j < dom.getOrder(); j++) {
+				int domSize = net.domainSizes[parentIdx];
+				for(int j = 0; j < domSize; j++) {
 					addr[i] = j;
-					construct(i+1, addr, cpf, nodeDomainIndices);
+					construct(i+1, addr, nodeIdx, nodeDomainIndices);
 				}
 			}
 		}
@@ -107,46 +109,43 @@ public class BackwardSamplingWithPriors extends BackwardSampling {
 	}
 	
 	protected void computePriors(int[] evidenceDomainIndices) {
-		priors = new HashMap<BeliefNode, double[]>();
-		int[] topOrder = bn.getTopologicalOrder();
-		for(int i : topOrder) {
-			BeliefNode node = nodes[i];
-			double[] dist = new double[node.getDomain().getOrder()];
+		CompiledNetwork net = getCompiledNetwork();
+		priors = new double[nodes.length][];
+		for(int i : net.topOrder) {
+			double[] dist = new double[net.domainSizes[i]];
 			int evidence = evidenceDomainIndices[i];
 			if(evidence >= 0) {
 				for(int j = 0; j < dist.length; j++)
 					dist[j] = evidence == j ? 1.0 : 0.0;
 			}
 			else {
-				CPF cpf = node.getCPF();
-				computePrior(cpf, 0, new int[cpf.getDomainProduct().length], dist);
+				computePrior(i, 0, new int[net.domProd[i].length], dist);
 			}
-			priors.put(node, dist);
+			priors[i] = dist;
 		}
 	}
 	
-	protected void computePrior(CPF cpf, int i, int[] addr, double[] dist) {
-		BeliefNode[] domProd = cpf.getDomainProduct(); 
+	protected void computePrior(int nodeIdx, int i, int[] addr, double[] dist) {
+		CompiledNetwork net = getCompiledNetwork();
+		int[] domProd = net.domProd[nodeIdx]; 
 		if(i == addr.length) {
-			double p = cpf.getDouble(addr); // p = P(node setting | parent configuration)
+			double p = net.getValue(nodeIdx, addr); // p = P(node setting | parent configuration)
 			for(int j = 1; j < addr.length; j++) {
-				double[] parentPrior = priors.get(domProd[j]);
-				p *= parentPrior[addr[j]]; 
+				p *= priors[domProd[j]][addr[j]]; 
 			} // p = P(node setting, parent configuration)
 			dist[addr[0]] += p;
 			return;
 		}
-		BeliefNode node = domProd[i];
-		int nodeIdx = getNodeIndex(node);
-		if(evidenceDomainIndices[nodeIdx] >= 0) {
-			addr[i] = evidenceDomainIndices[nodeIdx];
-			computePrior(cpf, i+1, addr, dist);
+		int domProdIdx = domProd[i];
+		if(evidenceDomainIndices[domProdIdx] >= 0) {
+			addr[i] = evidenceDomainIndices[domProdIdx];
+			computePrior(nodeIdx, i+1, addr, dist);
 		}
 		else {
-			Domain dom = node.getDomain();
-			for(int j = 0; j < dom.getOrder(); j++) {
+			int domSize = net.domainSizes[domProdIdx];
+			for(int j = 0; j < domSize; j++) {
 				addr[i] = j;
-				computePrior(cpf, i+1, addr, dist);
+				computePrior(nodeIdx, i+1, addr, dist);
 			}
 		}
 	}
@@ -308,7 +308,7 @@ public class BeliefPropagation extends Sampler {
 		
 		// Belief Propagation Steps		
 		
-		for (int step = 1; step <= this.numSamples; step++) {
+		for (int step = 1; step <= this.numSamples && !isCancelled(); step++) {
 			
 			if(verbose && step % this.infoInterval == 0)
 				out.println("step " + step);
@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.bayesnets.inference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import probcog.bayesnets.core.CompiledNetwork;
+
+/**
+ * Computes an elimination order (triangulation) of the moral graph of a Bayesian network
+ * using a greedy heuristic, along with the cliques that are induced by eliminating the
+ * variables in that order. Evidence variables can be excluded from the graph, as they
+ * need not be eliminated.
+ * @author Dominik Jain
+ */
+public class EliminationOrder {
+	/**
+	 * greedy heuristics for the selection of the next variable to eliminate
+	 */
+	public enum Heuristic {
+		/**
+		 * the variable with the fewest neighbours
+		 */
+		MinDegree,
+		/**
+		 * the variable whose elimination adds the fewest fill-in edges
+		 */
+		MinFill,
+		/**
+		 * the variable whose elimination adds fill-in edges with the smallest total weight, where
+		 * the weight of an edge is the product of the domain sizes of the nodes it connects
+		 */
+		WeightedMinFill,
+		/**
+		 * the variable whose elimination induces the clique with the smallest table size
+		 */
+		MinWeight;
+	}
+
+	/**
+	 * the node indices in the order in which they are eliminated
+	 */
+	public final int[] order;
+	/**
+	 * cliques[i] contains the (sorted) indices of the nodes in the clique that is formed when eliminating order[i],
+	 * i.e. order[i] and the neighbours it has at the time of its elimination
+	 */
+	public final int[][] cliques;
+	/**
+	 * the network's domain sizes
+	 */
+	protected int[] domainSizes;
+	protected ArrayList<HashSet<Integer>> neighbours;
+
+	public EliminationOrder(CompiledNetwork net, Heuristic heuristic) {
+		this(net, heuristic, null);
+	}
+
+	/**
+	 * @param net the network
+	 * @param heuristic the heuristic to use
+	 * @param evidenceDomainIndices evidence domain indices; nodes with evidence are removed from the moral graph and are thus not eliminated (may be null)
+	 */
+	public EliminationOrder(CompiledNetwork net, Heuristic heuristic, int[] evidenceDomainIndices) {
+		int n = net.numNodes;
+		domainSizes = net.domainSizes;
+		boolean[] eliminated = new boolean[n];
+		int numVars = n;
+		if(evidenceDomainIndices != null)
+			for(int i = 0; i < n; i++)
+				if(evidenceDomainIndices[i] >= 0) {
+					eliminated[i] = true;
+					numVars--;
+				}
+		// construct the moral graph
+		neighbours = new ArrayList<HashSet<Integer>>(n);
+		for(int i = 0; i < n; i++)
+			neighbours.add(new HashSet<Integer>());
+		for(int i = 0; i < n; i++) {
+			int[] family = net.domProd[i];
+			for(int j = 0; j < family.length; j++)
+				for(int k = j+1; k < family.length; k++)
+					if(!eliminated[family[j]] && !eliminated[family[k]])
+						connect(family[j], family[k]);
+		}
+		// greedily eliminate the variables
+		order = new int[numVars];
+		cliques = new int[numVars][];
+		// (ties are broken using a secondary score: the weight for the fill- and degree-based heuristics and the fill for min-weight)
+		Heuristic secondary = heuristic == Heuristic.MinWeight ? Heuristic.MinFill : Heuristic.MinWeight;
+		double[] score = new double[n], score2 = new double[n];
+		for(int i = 0; i < n; i++) {
+			score[i] = getScore(i, heuristic);
+			score2[i] = getScore(i, secondary);
+		}
+		for(int step = 0; step < numVars; step++) {
+			int best = -1;
+			for(int i = 0; i < n; i++)
+				if(!eliminated[i] && (best == -1 || score[i] < score[best] || (score[i] == score[best] && score2[i] < score2[best])))
+					best = i;
+			order[step] = best;
+			eliminated[best] = true;
+			// record the induced clique
+			HashSet<Integer> nb = neighbours.get(best);
+			int[] clique = new int[nb.size()+1];
+			int j = 0;
+			clique[j++] = best;
+			for(Integer v : nb)
+				clique[j++] = v;
+			Arrays.sort(clique);
+			cliques[step] = clique;
+			// connect the neighbours and remove the variable from the graph
+			Integer[] nbArray = nb.toArray(new Integer[nb.size()]);
+			for(int a = 0; a < nbArray.length; a++) {
+				neighbours.get(nbArray[a]).remove(best);
+				for(int b = a+1; b < nbArray.length; b++)
+					connect(nbArray[a], nbArray[b]);
+			}
+			nb.clear();
+			// update the scores of the variables that may have been affected
+			HashSet<Integer> affected = new HashSet<Integer>();
+			for(Integer v : nbArray) {
+				affected.add(v);
+				affected.addAll(neighbours.get(v));
+			}
+			for(Integer v : affected) {
+				score[v] = getScore(v, heuristic);
+				score2[v] = getScore(v, secondary);
+			}
+		}
+		neighbours = null;
+	}
+
+	protected void connect(int a, int b) {
+		neighbours.get(a).add(b);
+		neighbours.get(b).add(a);
+	}
+
+	/**
+	 * computes the heuristic score of eliminating the given variable next (lower is better)
+	 */
+	protected double getScore(int v, Heuristic heuristic) {
+		HashSet<Integer> nb = neighbours.get(v);
+		switch(heuristic) {
+		case MinDegree:
+			return nb.size();
+		case MinFill:
+		case WeightedMinFill:
+			Integer[] nbArray = nb.toArray(new Integer[nb.size()]);
+			double fill = 0;
+			for(int a = 0; a < nbArray.length; a++) {
+				HashSet<Integer> nbA = neighbours.get(nbArray[a]);
+				for(int b = a+1; b < nbArray.length; b++)
+					if(!nbA.contains(nbArray[b]))
+						fill += heuristic == Heuristic.MinFill ? 1 : (double)domainSizes[nbArray[a]] * domainSizes[nbArray[b]];
+			}
+			return fill;
+		case MinWeight:
+			return getLogWeight(v);
+		default:
+			throw new IllegalArgumentException("Unhandled heuristic " + heuristic);
+		}
+	}
+
+	/**
+	 * @return the logarithm of the table size of the clique that would be induced by eliminating v
+	 */
+	protected double getLogWeight(int v) {
+		double w = Math.log(domainSizes[v]);
+		for(Integer u : neighbours.get(v))
+			w += Math.log(domainSizes[u]);
+		return w;
+	}
+
+	/**
+	 * @return the size of the largest clique (i.e. the induced width plus 1)
+	 */
+	public int getMaxCliqueSize() {
+		int max = 0;
+		for(int[] c : cliques)
+			max = Math.max(max, c.length);
+		return max;
+	}
+}
@@ -66,6 +66,8 @@ public class EnumerationAsk extends Sampler {
 			timer = new Stopwatch();
 			timer.start();			
 		}
+		if(isCancelled())
+			return;
 		// if we have completed the world, we are done and can add the world as a sample
 		if(i == nodes.length) {
 			//out.println("counting sample");
@@ -80,7 +82,7 @@ public class EnumerationAsk extends Sampler {
 		// for evidence nodes, adjust the weight
 		if(domainIdx >= 0) { 
 			s.nodeDomainIndices[nodeIdx] = domainIdx;
-			double prob = getCPTProbability(nodes[nodeIdx], s.nodeDomainIndices);
+			double prob = getCPTProbability(nodeIdx, s.nodeDomainIndices);
 			s.weight *= prob;
 			if(prob == 0.0) { // we have reached zero, so we can save us the trouble of further ramifications
 				//out.println("zero reached");
@@ -98,7 +100,7 @@ public class EnumerationAsk extends Sampler {
 			double weight = s.weight;
 			for(int j = 0; j < order; j++) { 
 				s.nodeDomainIndices[nodeIdx] = j;
-				double prob = getCPTProbability(nodes[nodeIdx], s.nodeDomainIndices);
+				double prob = getCPTProbability(nodeIdx, s.nodeDomainIndices);
 				if(prob == 0.0) {
 					//out.println("zero reached");
 					numPathsPruned++;
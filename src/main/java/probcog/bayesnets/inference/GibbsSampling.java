@@ -18,58 +18,280 @@
  ******************************************************************************/
 package probcog.bayesnets.inference;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import probcog.bayesnets.core.BeliefNetworkEx;
+import probcog.bayesnets.core.CompiledNetwork;
 import probcog.exception.ProbCogException;
-import edu.ksu.cis.bnj.ver3.core.BeliefNode;
-import edu.ksu.cis.bnj.ver3.core.Discrete;
 import edu.tum.cs.util.Stopwatch;
 
 /**
  * Gibbs Sampling MCMC inference.
+ * Supports several independent chains (which are run in parallel threads), burn-in and thinning;
+ * if more than one chain is used, convergence can be determined using the Gelman-Rubin 
+ * potential scale reduction factor (R-hat).
  * @author Dominik Jain
  */
 public class GibbsSampling extends Sampler {
 	int[] nodeOrder;	
-	HashMap<BeliefNode, BeliefNode[]> children;
+	/**
+	 * the number of independent chains, each of which is run in a thread of its own
+	 */
+	protected int numChains = 1;
+	/**
+	 * the number of Gibbs steps to carry out in each chain before samples are collected
+	 */
+	protected int burnIn = 0;
+	/**
+	 * the number of Gibbs steps per collected sample
+	 */
+	protected int thinning = 1;
+	/**
+	 * if non-null, sampling stops as soon as the maximum R-hat value across all query variables 
+	 * (which is checked every convergenceCheckInterval samples) does not exceed this threshold
+	 */
+	protected Double rHatThreshold = null;
+	protected Chain[] chains;
+	/**
+	 * buffer for the distribution computed in {@link #gibbsStep(int[], WeightedSample)}
+	 */
+	protected double[] distBuffer = null;
 	
 	public GibbsSampling(BeliefNetworkEx bn) throws ProbCogException {
 		super(bn);
-		children = new HashMap<BeliefNode, BeliefNode[]>();
-		for(int i = 0; i < nodes.length; i++) {
-			children.put(nodes[i], bn.bn.getChildren(nodes[i]));
-		}
-		nodeOrder = bn.getTopologicalOrder();
+		nodeOrder = getCompiledNetwork().topOrder;
+		paramHandler.add("numChains", "setNumChains");
+		paramHandler.add("burnIn", "setBurnIn");
+		paramHandler.add("thinning", "setThinning");
+		paramHandler.add("rHatThreshold", "setRHatThreshold");
+	}
+	
+	public void setNumChains(int numChains) {
+		this.numChains = numChains;
+	}
+	
+	public void setBurnIn(int burnIn) {
+		this.burnIn = burnIn;
+	}
+	
+	public void setThinning(int thinning) {
+		this.thinning = thinning;
+	}
+	
+	public void setRHatThreshold(double rHatThreshold) {
+		this.rHatThreshold = rHatThreshold;
 	}
 	
 	public void _infer() throws ProbCogException {
 		Stopwatch sw = new Stopwatch();
 
-		// get initial setting with non-zero evidence probability
+		// get initial settings with non-zero evidence probability
+		// (the chains other than the first get random number generators of their own; note that the
+		// initial settings must be determined sequentially, as the network's evidence is used)
 		out.println("initial setting...");
-		WeightedSample s = bn.getWeightedSample(nodeOrder, evidenceDomainIndices, generator);
-		if(s == null)
-			throw new ProbCogException("Could not find an initial state with non-zero probability in given number of trials.");
+		chains = new Chain[numChains];
+		for(int c = 0; c < numChains; c++) {
+			Random random = c == 0 ? generator : new Random(generator.nextLong());
+			WeightedSample s = bn.getWeightedSample(nodeOrder, evidenceDomainIndices, random);
+			if(s == null)
+				throw new ProbCogException("Could not find an initial state with non-zero probability in given number of trials.");
+			chains[c] = new Chain(s, random);
+		}
 		
 		// do Gibbs sampling
 		out.println("Gibbs sampling...");
 		sw.start();		
-		// - get a bunch of samples
-		for(int i = 1; i <= numSamples; i++) {
-			if(i % infoInterval == 0)
-				out.println("  step " + i);
-			gibbsStep(evidenceDomainIndices, s);
-			s.trials = 1;
-			s.weight = 1;
-			addSample(s);
+		SampledDistribution dist = distributionBuilder.getDistribution();
+		int roundSize = (rHatThreshold != null || confidenceIntervalSizeThreshold != null) ? (int)convergenceCheckInterval : infoInterval;
+		roundSize = Math.max(roundSize, numChains);
+		ExecutorService executor = numChains > 1 ? Executors.newFixedThreadPool(numChains) : null;
+		try {
+			List<Chain> tasks = new ArrayList<Chain>(numChains);
+			for(int drawn = 0; drawn < numSamples;) {
+				// let each chain draw its share of the samples for this round
+				int n = Math.min(roundSize, numSamples - drawn);
+				tasks.clear();
+				for(int c = 0; c < numChains; c++) {
+					chains[c].numSamples = n / numChains + (c < n % numChains ? 1 : 0);
+					tasks.add(chains[c]);
+				}
+				if(executor == null)
+					chains[0].call();
+				else
+					for(Future<Void> f : executor.invokeAll(tasks))
+						f.get();
+				// merge the chains' results (in a fixed order)
+				for(Chain chain : chains) {
+					dist.merge(chain.roundDist);
+					chain.dist.merge(chain.roundDist);
+				}
+				publishSnapshotIfRequested();
+				int prevDrawn = drawn;
+				drawn += n;
+				if(drawn / infoInterval > prevDrawn / infoInterval)
+					out.println("  step " + drawn);
+				if(converged(dist) || isCancelled())
+					break;
+			}
+		}
+		catch(InterruptedException e) {
+			throw new ProbCogException(e);
+		}
+		catch(ExecutionException e) {
+			if(e.getCause() instanceof ProbCogException)
+				throw (ProbCogException)e.getCause();
+			throw new ProbCogException(e.getCause());
+		}
+		finally {
+			if(executor != null)
+				executor.shutdownNow();
 		}
 
 		sw.stop();
-		report(String.format("time taken: %.2fs (%.4fs per sample)\n", sw.getElapsedTimeSecs(), sw.getElapsedTimeSecs()/numSamples));
+		report(String.format("time taken: %.2fs (%.4fs per sample)\n", sw.getElapsedTimeSecs(), sw.getElapsedTimeSecs()/dist.steps));
+		if(numChains > 1)
+			report(String.format("maximum R-hat: %f", getMaxRHat()));
+	}
+	
+	@Override
+	protected boolean converged(SampledDistribution dist) throws ProbCogException {
+		if(rHatThreshold != null && numChains > 1) {
+			double rHat = getMaxRHat();
+			if(rHat <= rHatThreshold) {
+				if(verbose) System.out.printf("Convergence criterion reached: maximum R-hat = %f\n", rHat);
+				return true;
+			}
+		}
+		return super.converged(dist);
+	}
+	
+	/**
+	 * computes the Gelman-Rubin potential scale reduction factor (R-hat) for each value of each 
+	 * query variable (or each non-evidence variable if no query variables were set), treating
+	 * each value as a binary indicator variable, based on the samples collected in the chains so far
+	 * @return the maximum R-hat value (or +infinity if there are too few samples)
+	 */
+	public double getMaxRHat() {
+		int m = chains.length;
+		int n = Integer.MAX_VALUE;
+		for(Chain chain : chains)
+			n = Math.min(n, chain.dist.steps);
+		if(m < 2 || n < 2)
+			return Double.POSITIVE_INFINITY;
+		double max = 0;
+		for(int i = 0; i < nodes.length; i++) {
+			if(queryVars != null ? !queryVars.contains(i) : evidenceDomainIndices[i] >= 0)
+				continue;
+			for(int d = 0; d < chains[0].dist.values[i].length; d++) {
+				// within-chain variances and mean of chain means
+				double W = 0, mean = 0;
+				for(Chain chain : chains) {
+					int nc = chain.dist.steps;
+					double p = chain.dist.values[i][d] / chain.dist.Z;
+					W += p * (1 - p) * nc / (nc - 1);
+					mean += p;
+				}
+				W /= m;
+				mean /= m;
+				// between-chain variance (divided by n)
+				double B_n = 0;
+				for(Chain chain : chains) {
+					double diff = chain.dist.values[i][d] / chain.dist.Z - mean;
+					B_n += diff * diff;
+				}
+				B_n /= m - 1;
+				if(W == 0) {
+					if(B_n == 0)
+						continue;
+					return Double.POSITIVE_INFINITY;
+				}
+				double V = (n - 1.0) / n * W + (1.0 + 1.0 / m) * B_n;
+				max = Math.max(max, Math.sqrt(V / W));
+			}
+		}
+		return max;
+	}
+	
+	/**
+	 * a Markov chain with its own state, random number generator and statistics
+	 */
+	protected class Chain implements Callable<Void> {
+		protected WeightedSample s;
+		protected Random random;
+		protected double[] buffer;
+		protected boolean burnedIn = false;
+		/**
+		 * the number of samples to collect in the next call
+		 */
+		public int numSamples;
+		/**
+		 * the samples collected in the most recent call
+		 */
+		public SampledDistribution roundDist;
+		/**
+		 * all the samples collected in this chain
+		 */
+		public SampledDistribution dist;
+		
+		public Chain(WeightedSample s, Random random) throws ProbCogException {
+			this.s = s;
+			this.random = random;
+			buffer = new double[getMaxDomainSize()];
+			dist = new SampledDistribution(bn);
+			dist.setDebugMode(false);
+		}
+		
+		@Override
+		public Void call() throws ProbCogException {
+			if(!burnedIn) {
+				for(int i = 0; i < burnIn && !isCancelled(); i++)
+					gibbsStep(evidenceDomainIndices, s, random, buffer);
+				burnedIn = true;
+			}
+			roundDist = new SampledDistribution(bn);
+			roundDist.setDebugMode(debug);
+			for(int i = 0; i < numSamples && !isCancelled(); i++) {
+				for(int j = 0; j < thinning; j++)
+					gibbsStep(evidenceDomainIndices, s, random, buffer);
+				s.trials = 1;
+				s.weight = 1;
+				roundDist.addSample(s);
+			}
+			return null;
+		}
+	}
+	
+	protected int getMaxDomainSize() {
+		int max = 0;
+		for(int domSize : getCompiledNetwork().domainSizes)
+			max = Math.max(max, domSize);
+		return max;
 	}
 	
 	public double gibbsStep(int[] evidenceDomainIndices, WeightedSample s) {
+		if(distBuffer == null)
+			distBuffer = new double[getMaxDomainSize()];
+		return gibbsStep(evidenceDomainIndices, s, generator, distBuffer);
+	}
+	
+	/**
+	 * carries out a Gibbs step, i.e. resamples all non-evidence nodes given their Markov blankets
+	 * @param evidenceDomainIndices the evidence (domain indices, -1 for non-evidence nodes)
+	 * @param s the current state, which is modified
+	 * @param generator the random number generator to use
+	 * @param distribution a buffer that is large enough to hold the distribution over any node's domain
+	 * @return the conditional probability with which the value of the last non-evidence node was sampled
+	 */
+	public double gibbsStep(int[] evidenceDomainIndices, WeightedSample s, Random generator, double[] distribution) {
+		CompiledNetwork net = getCompiledNetwork();
+		int[] nodeDomainIndices = s.nodeDomainIndices;
 		double p = 1.0;
 		// resample all of the (non-evidence) nodes
 		for(int j = 0; j < nodes.length; j++)  {
@@ -77,26 +299,29 @@ public class GibbsSampling extends Sampler {
 			if(evidenceDomainIndices[j] != -1)
 				continue;
 			// initialize
-			BeliefNode n = nodes[j];
-			Discrete dom = (Discrete)n.getDomain();
-			int domSize = dom.getOrder();
-			double[] distribution = new double[domSize];
+			int domSize = net.domainSizes[j];
+			int[] children = net.children[j];
 			// for the current node, calculate a value for each setting
+			double sum = 0;
 			for(int d = 0; d < domSize; d++) {
-				s.nodeDomainIndices[j] = d;
+				nodeDomainIndices[j] = d;
 				// consider the probability of the setting given the node's parents
-				double value = getCPTProbability(n, s.nodeDomainIndices);
+				double value = net.getProbability(j, nodeDomainIndices);
 				// consider the probability of the children's settings given the respective parents					
-				for(BeliefNode child : children.get(n)) {
-					value *= getCPTProbability(child, s.nodeDomainIndices);
+				for(int child : children) {
+					value *= net.getProbability(child, nodeDomainIndices);
 				}			
 				distribution[d] = value;
+				sum += value;
 			}		
-			double sum = 0;
-			for(int i = 0; i < distribution.length; i++)
-				sum += distribution[i];
-			s.nodeDomainIndices[j] = sample(distribution, sum, generator);
-			p = distribution[s.nodeDomainIndices[j]] / sum;
+			// sample a value
+			double random = generator.nextDouble() * sum;
+			int ret = 0;
+			double cumSum = 0;
+			for(int d = 0; cumSum < random && d < domSize; d++)
+				cumSum += distribution[ret = d];
+			nodeDomainIndices[j] = cumSum >= random ? ret : -1;
+			p = distribution[nodeDomainIndices[j]] / sum;
 		}
 		return p;
 	}
@@ -19,6 +19,7 @@
 package probcog.bayesnets.inference;
 
 import probcog.exception.ProbCogException;
+import probcog.inference.CancellationToken;
 
 /**
  * Interface for inference methods that support time-limited inference.
@@ -28,4 +29,9 @@ public interface ITimeLimitedInference {
 	public void initialize() throws ProbCogException;
 	public SampledDistribution infer() throws ProbCogException;
 	public SampledDistribution pollResults() throws ProbCogException;
+	/**
+	 * sets the token via which the inference process can be asked to terminate
+	 * @param token
+	 */
+	public void setCancellationToken(CancellationToken token);
 }
@@ -0,0 +1,407 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.bayesnets.inference;
+
+import java.util.Arrays;
+
+import probcog.bayesnets.core.BeliefNetworkEx;
+import probcog.bayesnets.core.CompiledNetwork;
+import probcog.exception.ProbCogException;
+import edu.tum.cs.util.Stopwatch;
+
+/**
+ * Exact inference using a junction tree (Hugin-style propagation).
+ * The tree is constructed from the cliques induced by a greedy elimination order
+ * (see {@link EliminationOrder}) of the non-evidence variables. The tree's structure and the mappings 
+ * between clique tables, CPTs and separators depend only on which variables are evidence 
+ * variables (not on the evidence values), so the compiled tree is reused for as long as the 
+ * set of evidence variables remains the same.
+ * Each call to infer computes the clique potentials for the current evidence, calibrates the tree using
+ * a collect and a distribute pass and obtains the marginals of all variables.
+ * @author Dominik Jain
+ */
+public class JunctionTree extends Sampler {
+	protected EliminationOrder.Heuristic triangulation = EliminationOrder.Heuristic.MinFill;
+	/**
+	 * the compiled tree, which is reused as long as the network and the set of evidence variables do not change
+	 */
+	protected Tree tree = null;
+
+	public JunctionTree(BeliefNetworkEx bn) throws ProbCogException {
+		super(bn);
+		paramHandler.add("triangulation", "setTriangulation");
+	}
+
+	/**
+	 * sets the triangulation heuristic
+	 * @param heuristic the name of a {@link EliminationOrder.Heuristic}
+	 */
+	public void setTriangulation(String heuristic) {
+		EliminationOrder.Heuristic h = EliminationOrder.Heuristic.valueOf(heuristic);
+		if(h != triangulation)
+			tree = null;
+		triangulation = h;
+	}
+
+	@Override
+	protected void _initialize() throws ProbCogException {
+		if(tree == null || !tree.isApplicable(evidenceDomainIndices)) {
+			Stopwatch sw = new Stopwatch();
+			sw.start();
+			CompiledNetwork net = getCompiledNetwork();
+			tree = new Tree(net, new EliminationOrder(net, triangulation, evidenceDomainIndices), evidenceDomainIndices);
+			sw.stop();
+			if(verbose) out.printf("junction tree with %d cliques compiled in %.2fs; largest clique table: %d entries\n", tree.numCliques, sw.getElapsedTimeSecs(), tree.getMaxTableSize());
+		}
+	}
+
+	@Override
+	protected void _infer() throws ProbCogException {
+		SampledDistribution dist = createDistribution();
+		tree.calibrate(evidenceDomainIndices);
+		for(int i = 0; i < nodes.length; i++)
+			tree.getMarginal(i, evidenceDomainIndices, dist.values[i]);
+		dist.Z = 1.0;
+		dist.steps = 1;
+		dist.trials = 1;
+		((ImmediateDistributionBuilder)distributionBuilder).setDistribution(dist);
+	}
+
+	@Override
+	protected IDistributionBuilder createDistributionBuilder() {
+		return new ImmediateDistributionBuilder();
+	}
+
+	/**
+	 * a compiled junction tree over the non-evidence variables. Clique i is the clique induced by the 
+	 * i-th variable in the elimination order; its parent is the clique of the first variable in its 
+	 * separator to be eliminated, so the cliques are in collect order.
+	 */
+	protected static class Tree {
+		public final int numCliques;
+		protected CompiledNetwork net;
+		protected int[] domainSizes;
+		protected boolean[] isEvidence;
+		/**
+		 * the (sorted) node indices of each clique; the last node varies fastest in the clique's table
+		 */
+		protected int[][] cliqueVars;
+		protected int[][] cliqueStrides;
+		/**
+		 * index of the parent clique of each clique (-1 for roots)
+		 */
+		protected int[] parent;
+		/**
+		 * assignedCPTs[i] contains the indices of the nodes whose CPTs are assigned to clique i
+		 */
+		protected int[][] assignedCPTs;
+		/**
+		 * cptAddr[i][j][k] is the part of the address in the CPT of node assignedCPTs[i][j] that corresponds 
+		 * to entry k of clique i's table (the part that is due to evidence variables is added during calibration)
+		 */
+		protected int[][][] cptAddr;
+		/**
+		 * the nodes whose families consist entirely of evidence variables
+		 */
+		protected int[] constantCPTs;
+		/**
+		 * childSepAddr[i][k] is the address in the separator between clique i and its parent that corresponds to entry k of clique i's table
+		 */
+		protected int[][] childSepAddr;
+		/**
+		 * parentSepAddr[i][k] is the address in the separator between clique i and its parent that corresponds to entry k of the parent's table
+		 */
+		protected int[][] parentSepAddr;
+		/**
+		 * for each non-evidence node, the index of the smallest clique that contains it
+		 */
+		protected int[] homeClique;
+		protected double[][] potentials, separators, newSeparator;
+
+		public Tree(CompiledNetwork net, EliminationOrder elimOrder, int[] evidenceDomainIndices) throws ProbCogException {
+			this.net = net;
+			int n = net.numNodes;
+			int m = elimOrder.order.length;
+			numCliques = m;
+			domainSizes = net.domainSizes;
+			cliqueVars = elimOrder.cliques;
+			isEvidence = new boolean[n];
+			for(int v = 0; v < n; v++)
+				isEvidence[v] = evidenceDomainIndices[v] >= 0;
+			// determine the tables' layouts and the position of each node in the elimination order
+			int[] elimPos = new int[n];
+			Arrays.fill(elimPos, -1);
+			for(int i = 0; i < m; i++)
+				elimPos[elimOrder.order[i]] = i;
+			cliqueStrides = new int[m][];
+			potentials = new double[m][];
+			for(int c = 0; c < m; c++) {
+				int[] vars = cliqueVars[c];
+				cliqueStrides[c] = new int[vars.length];
+				long size = 1;
+				for(int j = vars.length-1; j >= 0; j--) {
+					cliqueStrides[c][j] = (int)size;
+					size *= domainSizes[vars[j]];
+					if(size > Integer.MAX_VALUE)
+						throw new ProbCogException("Junction tree clique is too large (" + vars.length + " variables); try a different triangulation heuristic");
+				}
+				potentials[c] = new double[(int)size];
+			}
+			// link the cliques
+			parent = new int[m];
+			for(int c = 0; c < m; c++) {
+				int p = -1;
+				for(int v : cliqueVars[c])
+					if(elimPos[v] > c && (p == -1 || elimPos[v] < p))
+						p = elimPos[v];
+				parent[c] = p;
+			}
+			// home cliques
+			homeClique = new int[n];
+			Arrays.fill(homeClique, -1);
+			for(int c = 0; c < m; c++)
+				for(int v : cliqueVars[c])
+					if(homeClique[v] == -1 || potentials[homeClique[v]].length > potentials[c].length)
+						homeClique[v] = c;
+			// assign each CPT to the clique of the first non-evidence variable in its family to be eliminated 
+			// (which contains all of the family's non-evidence variables)
+			int[] nodeDomainIndices = new int[n];
+			int[] cptClique = new int[n];
+			int[] numAssigned = new int[m];
+			int numConstant = 0;
+			for(int v = 0; v < n; v++) {
+				int c = m;
+				for(int u : net.domProd[v])
+					if(elimPos[u] != -1)
+						c = Math.min(c, elimPos[u]);
+				cptClique[v] = c;
+				if(c == m)
+					numConstant++;
+				else
+					numAssigned[c]++;
+			}
+			assignedCPTs = new int[m][];
+			for(int c = 0; c < m; c++)
+				assignedCPTs[c] = new int[numAssigned[c]];
+			constantCPTs = new int[numConstant];
+			for(int v = 0; v < n; v++) {
+				int c = cptClique[v];
+				if(c == m)
+					constantCPTs[--numConstant] = v;
+				else
+					assignedCPTs[c][--numAssigned[c]] = v;
+			}
+			cptAddr = new int[m][][];
+			for(int c = 0; c < m; c++) {
+				int[] assigned = assignedCPTs[c];
+				int size = potentials[c].length;
+				cptAddr[c] = new int[assigned.length][size];
+				for(int k = 0; k < size; k++) {
+					decode(c, k, nodeDomainIndices);
+					for(int a = 0; a < assigned.length; a++) {
+						int[] dp = net.domProd[assigned[a]], st = net.strides[assigned[a]];
+						int addr = 0;
+						for(int j = 0; j < dp.length; j++)
+							if(!isEvidence[dp[j]])
+								addr += st[j] * nodeDomainIndices[dp[j]];
+						cptAddr[c][a][k] = addr;
+					}
+				}
+			}
+			// separator address mappings
+			childSepAddr = new int[m][];
+			parentSepAddr = new int[m][];
+			separators = new double[m][];
+			newSeparator = new double[m][];
+			int[] sepStride = new int[n];
+			for(int c = 0; c < m; c++) {
+				int p = parent[c];
+				if(p == -1)
+					continue;
+				// the separator consists of all of the clique's variables except the one that was eliminated
+				int eliminated = elimOrder.order[c];
+				int size = 1;
+				for(int j = cliqueVars[c].length-1; j >= 0; j--) {
+					int v = cliqueVars[c][j];
+					if(v == eliminated)
+						continue;
+					sepStride[v] = size;
+					size *= domainSizes[v];
+				}
+				separators[c] = new double[size];
+				newSeparator[c] = new double[size];
+				childSepAddr[c] = getSeparatorAddresses(c, sepStride, nodeDomainIndices);
+				parentSepAddr[c] = getSeparatorAddresses(p, sepStride, nodeDomainIndices);
+				for(int v : cliqueVars[c])
+					sepStride[v] = 0;
+			}
+		}
+
+		/**
+		 * @return true if the tree can be used for the given evidence, i.e. if the set of evidence variables is the one the tree was compiled for
+		 */
+		public boolean isApplicable(int[] evidenceDomainIndices) {
+			for(int v = 0; v < isEvidence.length; v++)
+				if(isEvidence[v] != evidenceDomainIndices[v] >= 0)
+					return false;
+			return true;
+		}
+
+		/**
+		 * decodes the address of an entry in a clique's table into the domain indices of the clique's variables
+		 */
+		protected void decode(int c, int k, int[] nodeDomainIndices) {
+			int[] vars = cliqueVars[c], strides = cliqueStrides[c];
+			for(int j = 0; j < vars.length; j++)
+				nodeDomainIndices[vars[j]] = (k / strides[j]) % domainSizes[vars[j]];
+		}
+
+		/**
+		 * computes, for each entry in the table of clique c, the corresponding address in a separator
+		 * @param sepStride the separator's strides, indexed by node index (0 for nodes not in the separator)
+		 */
+		protected int[] getSeparatorAddresses(int c, int[] sepStride, int[] nodeDomainIndices) {
+			int[] vars = cliqueVars[c];
+			int[] ret = new int[potentials[c].length];
+			for(int k = 0; k < ret.length; k++) {
+				decode(c, k, nodeDomainIndices);
+				int addr = 0;
+				for(int v : vars)
+					addr += sepStride[v] * nodeDomainIndices[v];
+				ret[k] = addr;
+			}
+			return ret;
+		}
+
+		public int getMaxTableSize() {
+			int max = 0;
+			for(double[] pot : potentials)
+				max = Math.max(max, pot.length);
+			return max;
+		}
+
+		/**
+		 * gets the part of the address in the given node's CPT that is due to evidence variables
+		 */
+		protected int getEvidenceOffset(int v, int[] evidenceDomainIndices) {
+			int[] dp = net.domProd[v], st = net.strides[v];
+			int addr = 0;
+			for(int j = 0; j < dp.length; j++)
+				if(isEvidence[dp[j]])
+					addr += st[j] * evidenceDomainIndices[dp[j]];
+			return addr;
+		}
+
+		/**
+		 * computes the clique potentials for the given evidence and calibrates the tree
+		 * @param evidenceDomainIndices the evidence (domain indices, -1 for non-evidence nodes); the set of evidence variables must be the one the tree was compiled for
+		 * @throws ProbCogException if the evidence has probability zero
+		 */
+		public void calibrate(int[] evidenceDomainIndices) throws ProbCogException {
+			// check the CPT entries that are fully determined by the evidence
+			for(int v : constantCPTs)
+				if(net.cpts[v][getEvidenceOffset(v, evidenceDomainIndices)] == 0.0)
+					throw new ProbCogException("The evidence has zero probability");
+			// initialize potentials
+			for(int c = 0; c < numCliques; c++) {
+				double[] pot = potentials[c];
+				Arrays.fill(pot, 1.0);
+				int[] assigned = assignedCPTs[c];
+				for(int a = 0; a < assigned.length; a++) {
+					double[] cpt = net.cpts[assigned[a]];
+					int offset = getEvidenceOffset(assigned[a], evidenceDomainIndices);
+					int[] addr = cptAddr[c][a];
+					for(int k = 0; k < pot.length; k++)
+						pot[k] *= cpt[offset + addr[k]];
+				}
+			}
+			// collect: send messages from the leaves towards the roots
+			for(int c = 0; c < numCliques; c++) {
+				int p = parent[c];
+				if(p == -1)
+					continue;
+				double[] sep = separators[c];
+				marginalize(potentials[c], childSepAddr[c], sep);
+				if(normalize(sep) == 0.0)
+					throw new ProbCogException("The evidence has zero probability");
+				double[] pot = potentials[p];
+				int[] addr = parentSepAddr[c];
+				for(int k = 0; k < pot.length; k++)
+					pot[k] *= sep[addr[k]];
+			}
+			for(int c = 0; c < numCliques; c++)
+				if(parent[c] == -1 && normalize(potentials[c]) == 0.0)
+					throw new ProbCogException("The evidence has zero probability");
+			// distribute: send messages from the roots towards the leaves
+			for(int c = numCliques-1; c >= 0; c--) {
+				int p = parent[c];
+				if(p == -1)
+					continue;
+				double[] sep = separators[c], newSep = newSeparator[c];
+				marginalize(potentials[p], parentSepAddr[c], newSep);
+				for(int s = 0; s < sep.length; s++)
+					newSep[s] = sep[s] == 0.0 ? 0.0 : newSep[s] / sep[s];
+				double[] pot = potentials[c];
+				int[] addr = childSepAddr[c];
+				for(int k = 0; k < pot.length; k++)
+					pot[k] *= newSep[addr[k]];
+			}
+		}
+
+		protected static void marginalize(double[] pot, int[] addr, double[] sep) {
+			Arrays.fill(sep, 0.0);
+			for(int k = 0; k < pot.length; k++)
+				sep[addr[k]] += pot[k];
+		}
+
+		protected static double normalize(double[] values) {
+			double sum = 0;
+			for(double v : values)
+				sum += v;
+			if(sum != 0.0)
+				for(int i = 0; i < values.length; i++)
+					values[i] /= sum;
+			return sum;
+		}
+
+		/**
+		 * computes the marginal distribution of a node (after calibration)
+		 * @param v the node index
+		 * @param evidenceDomainIndices the evidence the tree was calibrated with
+		 * @param ret the array to write the normalized distribution to
+		 */
+		public void getMarginal(int v, int[] evidenceDomainIndices, double[] ret) {
+			Arrays.fill(ret, 0.0);
+			if(isEvidence[v]) {
+				ret[evidenceDomainIndices[v]] = 1.0;
+				return;
+			}
+			int c = homeClique[v];
+			int[] vars = cliqueVars[c];
+			int j = 0;
+			while(vars[j] != v)
+				j++;
+			int stride = cliqueStrides[c][j], domSize = domainSizes[v];
+			double[] pot = potentials[c];
+			for(int k = 0; k < pot.length; k++)
+				ret[(k / stride) % domSize] += pot[k];
+			normalize(ret);
+		}
+	}
+}
@@ -18,6 +18,15 @@
  ******************************************************************************/
 package probcog.bayesnets.inference;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import probcog.bayesnets.core.BeliefNetworkEx;
 import probcog.exception.ProbCogException;
 import edu.tum.cs.util.Stopwatch;
@@ -27,14 +36,23 @@ import edu.tum.cs.util.Stopwatch;
  */
 public class LikelihoodWeighting extends Sampler {
 	int[] nodeOrder;
+	/**
+	 * the number of threads that draw samples in parallel
+	 */
+	protected int numThreads = 1;
 	
 	public LikelihoodWeighting(BeliefNetworkEx bn) throws ProbCogException {
 		super(bn);		
+		paramHandler.add("numThreads", "setNumThreads");
+	}
+	
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
 	}
 	
 	@Override
 	protected void _initialize() {
-		nodeOrder = bn.getTopologicalOrder();
+		nodeOrder = getCompiledNetwork().topOrder;
 	}
 	
 	@Override
@@ -43,6 +61,16 @@ public class LikelihoodWeighting extends Sampler {
 		Stopwatch sw = new Stopwatch();
 		out.println("sampling...");
 		sw.start();
+		if(numThreads > 1 && distributionBuilder instanceof DirectDistributionBuilder)
+			inferParallel();
+		else
+			inferSequential();
+		sw.stop();
+		SampledDistribution dist = distributionBuilder.getDistribution();
+		out.println(String.format("time taken: %.2fs (%.4fs per sample, %.1f trials/sample, %d samples)\n", sw.getElapsedTimeSecs(), sw.getElapsedTimeSecs()/numSamples, dist.getTrialsPerStep(), dist.steps));
+	}
+	
+	protected void inferSequential() throws ProbCogException {
 		WeightedSample s = new WeightedSample(bn);
 		for(int i = 1; i <= numSamples; i++) {
 			if(i % infoInterval == 0)
@@ -63,15 +91,105 @@ public class LikelihoodWeighting extends Sampler {
 				}
 				*/
 			}
-			if(converged())
+			if(converged() || isCancelled())
 				break;
 		}
-		sw.stop();
+	}
+	
+	/**
+	 * draws the samples using numThreads workers, each of which has its own random number generator
+	 * (seeded from the sampler's generator) and accumulates its samples in a private distribution.
+	 * The samples are drawn in rounds; after each round, the workers' distributions are merged
+	 * (in a fixed order) into the main distribution, so for a given random seed, the result does not 
+	 * depend on thread scheduling. Rounds comprise infoInterval samples or, if a convergence
+	 * criterion is used, convergenceCheckInterval samples.
+	 * @throws ProbCogException
+	 */
+	protected void inferParallel() throws ProbCogException {
 		SampledDistribution dist = distributionBuilder.getDistribution();
-		out.println(String.format("time taken: %.2fs (%.4fs per sample, %.1f trials/sample, %d samples)\n", sw.getElapsedTimeSecs(), sw.getElapsedTimeSecs()/numSamples, dist.getTrialsPerStep(), dist.steps));
+		Worker[] workers = new Worker[numThreads];
+		for(int i = 0; i < numThreads; i++)
+			workers[i] = new Worker(generator.nextLong());
+		int roundSize = confidenceIntervalSizeThreshold != null ? (int)convergenceCheckInterval : infoInterval;
+		roundSize = Math.max(roundSize, numThreads);
+		out.printf("sampling with %d threads...\n", numThreads);
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Worker> tasks = new ArrayList<Worker>(numThreads);
+			for(int drawn = 0; drawn < numSamples;) {
+				int n = Math.min(roundSize, numSamples - drawn);
+				tasks.clear();
+				for(int i = 0; i < numThreads; i++) {
+					workers[i].numSamples = n / numThreads + (i < n % numThreads ? 1 : 0);
+					if(workers[i].numSamples > 0)
+						tasks.add(workers[i]);
+				}
+				List<Future<SampledDistribution>> results = executor.invokeAll(tasks);
+				for(Future<SampledDistribution> result : results)
+					dist.merge(result.get());
+				publishSnapshotIfRequested();
+				int prevDrawn = drawn;
+				drawn += n;
+				if(drawn / infoInterval > prevDrawn / infoInterval)
+					out.println("  step " + drawn);
+				if((confidenceIntervalSizeThreshold != null && converged(dist)) || isCancelled())
+					break;
+			}
+		}
+		catch(InterruptedException e) {
+			throw new ProbCogException(e);
+		}
+		catch(ExecutionException e) {
+			if(e.getCause() instanceof ProbCogException)
+				throw (ProbCogException)e.getCause();
+			throw new ProbCogException(e.getCause());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * a sampling worker for parallel inference, which draws a given number of samples
+	 * into a fresh distribution each time it is called
+	 */
+	protected class Worker implements Callable<SampledDistribution> {
+		protected Random random;
+		protected WeightedSample s;
+		public int numSamples;
+		
+		public Worker(long seed) {
+			random = new Random(seed);
+			s = new WeightedSample(bn);
+		}
+		
+		@Override
+		public SampledDistribution call() throws ProbCogException {
+			SampledDistribution dist = new SampledDistribution(bn);
+			dist.setDebugMode(debug);
+			for(int i = 0; i < numSamples && !isCancelled(); i++) {
+				WeightedSample ret = getWeightedSample(s, nodeOrder, evidenceDomainIndices, random);
+				if(ret != null)
+					dist.addSample(ret);
+			}
+			return dist;
+		}
 	}
 	
 	public WeightedSample getWeightedSample(WeightedSample s, int[] nodeOrder, int[] evidenceDomainIndices) throws ProbCogException {
+		return getWeightedSample(s, nodeOrder, evidenceDomainIndices, generator);
+	}
+	
+	/**
+	 * draws a weighted sample using the given random number generator
+	 * @param s the sample object to write to
+	 * @param nodeOrder a topological ordering of the node indices
+	 * @param evidenceDomainIndices the evidence (domain indices, -1 for non-evidence nodes)
+	 * @param generator the random number generator to use
+	 * @return the sample or null if no sample could be obtained in the maximum number of trials (and failed steps may be skipped)
+	 * @throws ProbCogException
+	 */
+	public WeightedSample getWeightedSample(WeightedSample s, int[] nodeOrder, int[] evidenceDomainIndices, Random generator) throws ProbCogException {
 		s.trials = 0;
 		boolean successful = false;
 loop:	while(!successful) {
@@ -90,7 +208,7 @@ loop:	while(!successful) {
 				// for evidence nodes, adjust the weight
 				if(domainIdx >= 0) { 
 					s.nodeDomainIndices[nodeIdx] = domainIdx;
-					double prob = getCPTProbability(nodes[nodeIdx], s.nodeDomainIndices);
+					double prob = getCPTProbability(nodeIdx, s.nodeDomainIndices);
 					if(prob == 0.0) {
 						if(debug)
 							out.println("!!! evidence probability was 0 at node " + nodes[nodeIdx]);
@@ -100,7 +218,7 @@ loop:	while(!successful) {
 				} 
 				// for non-evidence nodes, do forward sampling
 				else {
-					domainIdx = sampleForward(nodes[nodeIdx], s.nodeDomainIndices);
+					domainIdx = compiledNet.sampleForward(nodeIdx, s.nodeDomainIndices, generator);
 					if(domainIdx < 0) {
 						if(debug)
 							out.println("!!! could not sample forward because of column with only 0s in CPT of " + nodes[nodeIdx].getName());
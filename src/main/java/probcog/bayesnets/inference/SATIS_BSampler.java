@@ -36,6 +36,7 @@ import probcog.logic.TrueFalse;
 import probcog.logic.WorldVariables;
 import probcog.logic.sat.ClausalKB;
 import probcog.logic.sat.Clause;
+import probcog.logic.sat.FastSampleSAT;
 import probcog.logic.sat.SampleSAT;
 import probcog.srl.Database;
 import probcog.srl.StringVariable;
@@ -123,10 +124,11 @@ public class SATIS_BSampler extends BackwardSampling {
 				}
 			// construct sampler
 			WorldVariables worldVars = this.coupling.getWorldVars();
-			sat = new SampleSAT(ckb, new PossibleWorld(worldVars), worldVars, evidence);
+			sat = new FastSampleSAT(ckb, new PossibleWorld(worldVars), worldVars, evidence);
 		}
 		// pass on parameters
 		sat.setDebugMode(this.debug);
+		sat.setCancellationToken(cancellationToken);
 	}
 	
 	/**
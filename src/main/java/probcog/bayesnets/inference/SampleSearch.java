@@ -23,9 +23,9 @@ import java.util.HashMap;
 import java.util.Vector;
 
 import probcog.bayesnets.core.BeliefNetworkEx;
+import probcog.bayesnets.core.CompiledNetwork;
 import probcog.exception.ProbCogException;
 import edu.ksu.cis.bnj.ver3.core.BeliefNode;
-import edu.ksu.cis.bnj.ver3.core.CPF;
 import edu.tum.cs.util.Stopwatch;
 import edu.tum.cs.util.datastruct.Map2D;
 
@@ -138,7 +138,7 @@ public class SampleSearch extends Sampler {
 				out.println();
 				*/
 			}
-			if(converged())
+			if(converged() || isCancelled())
 				break;
 		}
 		
@@ -174,7 +174,7 @@ public class SampleSearch extends Sampler {
 			if(domainIdx >= 0) { 
 				s.nodeDomainIndices[nodeIdx] = domainIdx;
 				samplingProb[nodeIdx] = 1.0;
-				double prob = getCPTProbability(nodes[nodeIdx], s.nodeDomainIndices);
+				double prob = getCPTProbability(nodeIdx, s.nodeDomainIndices);
 				if(prob != 0.0) {
 					++i;
 					continue;
@@ -198,6 +198,8 @@ public class SampleSearch extends Sampler {
 					out.println("      impossible case; backtracking...");
 			}
 			// if we get here, we need to backtrack to the last non-evidence node
+			if(isCancelled())
+				return null;
 			s.trials++;
 			do {
 				// kill the current node's exclusions
@@ -231,25 +233,20 @@ public class SampleSearch extends Sampler {
 	 * @return  the index of the domain element of 'node' that is sampled, or -1 if sampling is impossible because all entries in the relevant column are 0
 	 */
 	protected SampledAssignment sampleForwardPrior(BeliefNode node, int[] nodeDomainIndices, boolean[] excluded) {
-		CPF cpf = node.getCPF();
-		BeliefNode[] domProd = cpf.getDomainProduct();
-		int[] addr = new int[domProd.length];
-		// get the addresses of the first two relevant fields and the difference between them
-		for(int i = 1; i < addr.length; i++)
-			addr[i] = nodeDomainIndices[this.nodeIndices.get(domProd[i])];		
-		addr[0] = 0; // (the first element in the index into the domain of the node we are sampling)
-		int realAddr = cpf.addr2realaddr(addr);
-		addr[0] = 1;
-		int diff = cpf.addr2realaddr(addr) - realAddr; // diff is the address difference between two consecutive entries in the relevant column
+		CompiledNetwork net = getCompiledNetwork();
+		int nodeIdx = getNodeIndex(node);
+		double[] cpt = net.cpts[nodeIdx];
+		int realAddr = net.getColumnAddress(nodeIdx, nodeDomainIndices); // address of the first relevant entry
+		int diff = net.strides[nodeIdx][0]; // diff is the address difference between two consecutive entries in the relevant column
 		// get probabilities for outcomes
-		double[] cpt_entries = new double[domProd[0].getDomain().getOrder()];
+		double[] cpt_entries = new double[net.domainSizes[nodeIdx]];
 		double sum = 0;
 		for(int i = 0; i < cpt_entries.length; i++) {
 			double value;
 			if(excluded[i])
 				value = 0.0;
 			else
-				value = cpf.getDouble(realAddr); 
+				value = cpt[realAddr]; 
 			cpt_entries[i] = value;
 			sum += value;
 			realAddr += diff;
@@ -265,26 +262,18 @@ public class SampleSearch extends Sampler {
 		if(this.importanceDist == null)
 			return sampleForwardPrior(node, nodeDomainIndices, excluded);
 		
-		CPF cpf = node.getCPF();
-		BeliefNode[] domProd = cpf.getDomainProduct();
-		int[] addr = new int[domProd.length];
-		// get the addresses of the first two relevant fields and the difference between them
-		for(int i = 1; i < addr.length; i++)
-			addr[i] = nodeDomainIndices[this.nodeIndices.get(domProd[i])];		
-		addr[0] = 0; // (the first element in the index into the domain of the node we are sampling)
-		int realAddr = cpf.addr2realaddr(addr);
-		addr[0] = 1;
-		int diff = cpf.addr2realaddr(addr) - realAddr; // diff is the address difference between two consecutive entries in the relevant column
+		CompiledNetwork net = getCompiledNetwork();
+		int nodeIdx = getNodeIndex(node);
+		double[] cpt = net.cpts[nodeIdx];
+		int realAddr = net.getColumnAddress(nodeIdx, nodeDomainIndices); // address of the first relevant entry
+		int diff = net.strides[nodeIdx][0]; // diff is the address difference between two consecutive entries in the relevant column
 		// get probabilities for outcomes
 		// If we are sampling in top. order, we always additionally filter
 		// values that are zero given the parents
-		double[] samplingDist = importanceDist.getDistribution(getNodeIndex(node));
+		double[] samplingDist = importanceDist.getDistribution(nodeIdx);
 		double sum = 0;
 		for(int i = 0; i < samplingDist.length; i++) {
-			Double cptValue = null;
-			if(usingTopologicalOrdering)
-				cptValue = cpf.getDouble(realAddr);
-			if(excluded[i] || (cptValue != null && cptValue.equals(0.0)))
+			if(excluded[i] || (usingTopologicalOrdering && cpt[realAddr] == 0.0))
 				samplingDist[i] = 0.0;
 			sum += samplingDist[i];
 			realAddr += diff;
@@ -323,7 +312,7 @@ public class SampleSearch extends Sampler {
 			// do weighting
 			s.weight = 1.0;
 			for(int i = 0; i < nodes.length; i++) {
-				s.weight *= getCPTProbability(nodes[i], s.nodeDomainIndices) / samplingProb[i];
+				s.weight *= getCPTProbability(i, s.nodeDomainIndices) / samplingProb[i];
 			}
 			// directly add to distribution
 			super.addSample(s);
@@ -383,10 +372,10 @@ public class SampleSearch extends Sampler {
 					if(evidenceDomainIndices[nodeIdx] < 0) {
 						partAssign = partAssign.multiply(BigInteger.valueOf(nodes[nodeIdx].getDomain().getOrder()));
 						partAssign = partAssign.add(BigInteger.valueOf(s.nodeDomainIndices[nodeIdx]));
-						s.weight *= getCPTProbability(nodes[nodeIdx], s.nodeDomainIndices) / maxQ.get(i, partAssign);
+						s.weight *= getCPTProbability(nodeIdx, s.nodeDomainIndices) / maxQ.get(i, partAssign);
 					}
 					else
-						s.weight *= getCPTProbability(nodes[nodeIdx], s.nodeDomainIndices);
+						s.weight *= getCPTProbability(nodeIdx, s.nodeDomainIndices);
 				}					
 				dist.addSample(s);
 			}
@@ -90,6 +90,28 @@ public class SampledDistribution extends BasicSampledDistribution implements Clo
 		steps++;
 	}
 	
+	/**
+	 * adds the sample data of another distribution (over the same network) to this distribution,
+	 * i.e. the result is the same as if all the samples that were added to the other
+	 * distribution had been added to this distribution
+	 * @param d the distribution whose data to add
+	 */
+	public synchronized void merge(SampledDistribution d) {
+		synchronized(d) {
+			Z += d.Z;
+			if(maxWeight < d.maxWeight)
+				maxWeight = d.maxWeight;
+			for(int i = 0; i < values.length; i++) {
+				double[] v = values[i], v2 = d.values[i];
+				for(int j = 0; j < v.length; j++)
+					v[j] += v2[j];
+			}
+			trials += d.trials;
+			operations += d.operations;
+			steps += d.steps;
+		}
+	}
+	
 	@Override
 	public void printVariableDistribution(PrintStream out, int index) {
 		BeliefNode node = nodes[index];
@@ -107,7 +129,11 @@ public class SampledDistribution extends BasicSampledDistribution implements Clo
 	
 	@Override
 	public synchronized SampledDistribution clone() throws CloneNotSupportedException {
-		return (SampledDistribution)super.clone();
+		SampledDistribution d = (SampledDistribution)super.clone();
+		d.values = new double[values.length][];
+		for(int i = 0; i < values.length; i++)
+			d.values[i] = values[i].clone();
+		return d;
 	}
 
 	@Override
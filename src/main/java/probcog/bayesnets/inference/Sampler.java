@@ -22,15 +22,17 @@ import java.io.PrintStream;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
 
 import probcog.bayesnets.core.BeliefNetworkEx;
+import probcog.bayesnets.core.CompiledNetwork;
 import probcog.exception.ProbCogException;
+import probcog.inference.CancellationToken;
 import probcog.inference.IParameterHandler;
 import probcog.inference.ParameterHandler;
 import probcog.inference.BasicSampledDistribution.ConfidenceInterval;
 
 import edu.ksu.cis.bnj.ver3.core.BeliefNode;
-import edu.ksu.cis.bnj.ver3.core.CPF;
 import edu.tum.cs.util.Stopwatch;
 
 public abstract class Sampler implements ITimeLimitedInference, IParameterHandler {
@@ -46,6 +48,28 @@ public abstract class Sampler implements ITimeLimitedInference, IParameterHandle
 	protected PrintStream out;
 	protected boolean initialized = false;
 	protected IDistributionBuilder distributionBuilder;
+	/**
+	 * array-backed representation of the network, which is used for all CPT lookups (see {@link #getCompiledNetwork()})
+	 */
+	protected CompiledNetwork compiledNet = null;
+	/**
+	 * token via which cancellation of the inference process can be requested
+	 */
+	protected CancellationToken cancellationToken = new CancellationToken();
+	/**
+	 * the most recently published copy of the distribution, which is returned by {@link #pollResults()}
+	 */
+	protected final AtomicReference<SampledDistribution> snapshot = new AtomicReference<SampledDistribution>();
+	/**
+	 * the minimum number of samples after which a new snapshot of the distribution is published (if one was requested)
+	 */
+	protected int snapshotInterval = 100;
+	protected int samplesSinceSnapshot = 0;
+	/**
+	 * whether results were polled since the last snapshot was published; snapshots are published only on request, 
+	 * because obtaining the distribution can be expensive (e.g. for distribution builders that reweight all samples)
+	 */
+	protected volatile boolean snapshotRequested = false;
 	
 	/**
 	 * general sampler setting: how many samples to pull from the distribution
@@ -78,6 +102,7 @@ public abstract class Sampler implements ITimeLimitedInference, IParameterHandle
 		paramHandler.add("confidenceIntervalSizeThreshold", "setConfidenceIntervalSizeThreshold");
 		paramHandler.add("randomSeed", "setRandomSeed");
 		paramHandler.add("verbose", "setVerbose");
+		paramHandler.add("snapshotInterval", "setSnapshotInterval");
 	}
 	
 	protected SampledDistribution createDistribution() throws ProbCogException {
@@ -87,7 +112,7 @@ public abstract class Sampler implements ITimeLimitedInference, IParameterHandle
 		return dist;
 	}
 	
-	protected synchronized void addSample(WeightedSample s) throws ProbCogException {
+	protected void addSample(WeightedSample s) throws ProbCogException {
 		// security check: in debug mode, check if sample respects evidence
 		if(debug) {
 			for(int i = 0; i < evidenceDomainIndices.length; i++)
@@ -96,6 +121,57 @@ public abstract class Sampler implements ITimeLimitedInference, IParameterHandle
 		}
 		// add to distribution builder
 		distributionBuilder.addSample(s);
+		if(++samplesSinceSnapshot >= snapshotInterval)
+			publishSnapshotIfRequested();
+	}
+	
+	/**
+	 * publishes a snapshot of the current distribution if results were polled since the last snapshot was published
+	 * @throws ProbCogException
+	 */
+	protected void publishSnapshotIfRequested() throws ProbCogException {
+		if(snapshotRequested)
+			publishSnapshot();
+	}
+	
+	/**
+	 * publishes a copy of the current distribution, which is subsequently returned by {@link #pollResults()}.
+	 * Must be called by the thread that builds up the distribution.
+	 * @throws ProbCogException
+	 */
+	protected void publishSnapshot() throws ProbCogException {
+		samplesSinceSnapshot = 0;
+		snapshotRequested = false;
+		if(distributionBuilder == null)
+			return;
+		SampledDistribution dist = distributionBuilder.getDistribution();
+		if(dist == null)
+			return;
+		try {
+			snapshot.set(dist.clone());
+		} 
+		catch (CloneNotSupportedException e) {
+			throw new ProbCogException(e);
+		}
+	}
+	
+	public void setSnapshotInterval(int snapshotInterval) {
+		this.snapshotInterval = snapshotInterval;
+	}
+	
+	public void setCancellationToken(CancellationToken token) {
+		this.cancellationToken = token;
+	}
+	
+	public CancellationToken getCancellationToken() {
+		return cancellationToken;
+	}
+	
+	/**
+	 * @return true if cancellation of the inference process was requested, in which case sampling loops should terminate
+	 */
+	protected boolean isCancelled() {
+		return cancellationToken.isCancelled();
 	}
 	
 	public void setQueryVars(Collection<Integer> queryVars) {
@@ -109,6 +185,16 @@ public abstract class Sampler implements ITimeLimitedInference, IParameterHandle
 		SampledDistribution dist = distributionBuilder.getDistribution();
 		if(dist.getNumSamples() % this.convergenceCheckInterval != 0)
 			return false; // TODO assumes that all algorithms call this method after each step
+		return converged(dist);
+	}
+	
+	/**
+	 * checks whether the given distribution satisfies the convergence criterion (regardless of the number of samples it contains)
+	 * @param dist the distribution to check
+	 * @return true if the convergence criterion is satisfied
+	 * @throws ProbCogException
+	 */
+	protected boolean converged(SampledDistribution dist) throws ProbCogException {
 		// determine convergence based on confidence interval sizes
 		if(confidenceIntervalSizeThreshold != null) {
 			if(!dist.usesConfidenceComputation())
@@ -131,22 +217,16 @@ public abstract class Sampler implements ITimeLimitedInference, IParameterHandle
 	}
 	
 	/**
-	 * polls the results during time-limited inference
-	 * @return
+	 * polls the results during time-limited inference. This does not block the inference process:
+	 * The most recently published snapshot of the distribution is returned (see {@link #publishSnapshot()}), and 
+	 * the publication of a new snapshot is requested, which the inference process will provide after at most
+	 * {@link #snapshotInterval} further samples.
+	 * @return the snapshot (which must not be modified) or null if no snapshot was published yet 
 	 * @throws ProbCogException 
 	 */
-	public synchronized SampledDistribution pollResults() throws ProbCogException {
-		if(distributionBuilder == null)
-			return null;
-		SampledDistribution dist = distributionBuilder.getDistribution();
-		if(dist == null)
-			return null;
-		try {
-			return dist.clone();
-		} 
-		catch (CloneNotSupportedException e) {
-			throw new ProbCogException(e);
-		}
+	public SampledDistribution pollResults() throws ProbCogException {
+		snapshotRequested = true;
+		return snapshot.get();
 	}
 	
 	/**
@@ -215,6 +295,16 @@ public abstract class Sampler implements ITimeLimitedInference, IParameterHandle
 		return -1;		
 	}
 
+	/**
+	 * gets the compiled representation of the network, compiling it if necessary
+	 * @return the compiled network
+	 */
+	public CompiledNetwork getCompiledNetwork() {
+		if(compiledNet == null)
+			compiledNet = new CompiledNetwork(bn);
+		return compiledNet;
+	}
+
 	/**
 	 * gets the CPT entry of the given node for the configuration of parents that is provided in the array of domain indices
 	 * @param node
@@ -222,12 +312,17 @@ public abstract class Sampler implements ITimeLimitedInference, IParameterHandle
 	 * @return the probability value
 	 */
 	protected double getCPTProbability(BeliefNode node, int[] nodeDomainIndices) {
-		CPF cpf = node.getCPF();
-		BeliefNode[] domProd = cpf.getDomainProduct();
-		int[] addr = new int[domProd.length];
-		for(int i = 0; i < addr.length; i++)
-			addr[i] = nodeDomainIndices[this.nodeIndices.get(domProd[i])];
-		return cpf.getDouble(addr);
+		return getCompiledNetwork().getProbability(nodeIndices.get(node), nodeDomainIndices);
+	}
+	
+	/**
+	 * gets the CPT entry of the given node for the configuration of parents that is provided in the array of domain indices
+	 * @param nodeIdx the index of the node
+	 * @param nodeDomainIndices domain indices for each node in the network (only the parents of the node are required to be set) 
+	 * @return the probability value
+	 */
+	protected double getCPTProbability(int nodeIdx, int[] nodeDomainIndices) {
+		return getCompiledNetwork().getProbability(nodeIdx, nodeDomainIndices);
 	}
 	
 	public void setNumSamples(int numSamples) {
@@ -264,6 +359,7 @@ public abstract class Sampler implements ITimeLimitedInference, IParameterHandle
 	public final void initialize() throws ProbCogException {
 		Stopwatch sw = new Stopwatch();
 		sw.start();
+		getCompiledNetwork();
 		_initialize();
 		distributionBuilder = createDistributionBuilder();
 		sw.stop();
@@ -282,7 +378,10 @@ public abstract class Sampler implements ITimeLimitedInference, IParameterHandle
 		// run inference
 		Stopwatch sw = new Stopwatch();
 		sw.start();
+		snapshot.set(null);
+		samplesSinceSnapshot = 0;
 		_infer();
+		publishSnapshot();
 		inferenceTime = sw.getElapsedTimeSecs();
 		
 		report(String.format("total inference time: %fs (initialization: %fs; core %fs)\n", getTotalInferenceTime(), getInitTime(), getInferenceTime()));
@@ -322,47 +421,24 @@ public abstract class Sampler implements ITimeLimitedInference, IParameterHandle
 	 * @return  the index of the domain element of 'node' that is sampled, or -1 if sampling is impossible because all entries in the relevant column are 0 
 	 */
 	protected int sampleForward(BeliefNode node, int[] nodeDomainIndices) {
-		CPF cpf = node.getCPF();
-		BeliefNode[] domProd = cpf.getDomainProduct();
-		int[] addr = new int[domProd.length];
-		// get the addresses of the first two relevant fields and the difference between them
-		for(int i = 1; i < addr.length; i++)
-			addr[i] = nodeDomainIndices[this.nodeIndices.get(domProd[i])];		
-		addr[0] = 0; // (the first element in the index into the domain of the node we are sampling)
-		int realAddr = cpf.addr2realaddr(addr);
-		addr[0] = 1;
-		int diff = cpf.addr2realaddr(addr) - realAddr; // diff is the address difference between two consecutive entries in the relevant column
-		// get probabilities for outcomes
-		double[] cpt_entries = new double[domProd[0].getDomain().getOrder()];
-		double sum = 0;
-		for(int i = 0; i < cpt_entries.length; i++){
-			cpt_entries[i] = cpf.getDouble(realAddr);
-			sum += cpt_entries[i];
-			realAddr += diff;
-		}
-		// if the column contains only zeros, it is an impossible case -> cannot sample
-		if(sum == 0)
-			return -1;
-		return sample(cpt_entries, sum, generator);
+		return sampleForward(nodeIndices.get(node), nodeDomainIndices);
+	}
+	
+	/**
+	 * samples forward, i.e. samples a value for the node with the given index given its parents
+	 * @param nodeIdx  the index of the node for which to sample a value
+	 * @param nodeDomainIndices  array of domain indices for all nodes in the network; the values for the node's parents must be set already
+	 * @return  the index of the domain element that is sampled, or -1 if sampling is impossible because all entries in the relevant column are 0 
+	 */
+	protected int sampleForward(int nodeIdx, int[] nodeDomainIndices) {
+		return getCompiledNetwork().sampleForward(nodeIdx, nodeDomainIndices, generator);
 	}
 	
 	public double[] getConditionalDistribution(BeliefNode node, int[] nodeDomainIndices) {
-		CPF cpf = node.getCPF();
-		BeliefNode[] domProd = cpf.getDomainProduct();
-		int[] addr = new int[domProd.length];
-		// get the addresses of the first two relevant fields and the difference between them
-		for(int i = 1; i < addr.length; i++)
-			addr[i] = nodeDomainIndices[this.nodeIndices.get(domProd[i])];		
-		addr[0] = 0; // (the first element in the index into the domain of the node we are sampling)
-		int realAddr = cpf.addr2realaddr(addr);
-		addr[0] = 1;
-		int diff = cpf.addr2realaddr(addr) - realAddr; // diff is the address difference between two consecutive entries in the relevant column
-		// get probabilities for outcomes
-		double[] cpt_entries = new double[domProd[0].getDomain().getOrder()];
-		for(int i = 0; i < cpt_entries.length; i++){
-			cpt_entries[i] = cpf.getDouble(realAddr);
-			realAddr += diff;
-		}
+		int nodeIdx = nodeIndices.get(node);
+		CompiledNetwork net = getCompiledNetwork();
+		double[] cpt_entries = new double[net.domainSizes[nodeIdx]];
+		net.getConditionalDistribution(nodeIdx, nodeDomainIndices, cpt_entries);
 		return cpt_entries;
 	}
 	
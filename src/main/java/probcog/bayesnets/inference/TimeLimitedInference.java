@@ -22,6 +22,7 @@ import java.util.Vector;
 
 import probcog.exception.ProbCogException;
 import probcog.inference.BasicSampledDistribution;
+import probcog.inference.CancellationToken;
 import probcog.inference.IParameterHandler;
 import probcog.inference.ParameterHandler;
 import probcog.inference.BasicSampledDistribution.DistributionComparison;
@@ -35,6 +36,7 @@ public class TimeLimitedInference implements IParameterHandler {
 	protected ITimeLimitedInference inference;
 	protected double time, interval;
 	protected InferenceThread thread;
+	protected CancellationToken cancellationToken;
 	protected BasicSampledDistribution referenceDistribution = null;
 	/**
 	 * mean-squared errors
@@ -67,7 +69,10 @@ public class TimeLimitedInference implements IParameterHandler {
 	
 	public SampledDistribution run() throws ProbCogException {
 		// start the inference thread
+		cancellationToken = new CancellationToken();
+		inference.setCancellationToken(cancellationToken);
 		thread = new InferenceThread();
+		thread.setDaemon(true);
 		thread.start();
 		// wait, repeatedly polling intermediate results
 		Stopwatch sw = new Stopwatch();
@@ -95,15 +100,17 @@ public class TimeLimitedInference implements IParameterHandler {
 					}
 				}
 			}
+			// request the inference thread to terminate and give it some time to wrap up
+			cancellationToken.cancel();
+			thread.join((long)(1000*interval));
 		}
 		catch (InterruptedException e) {
 			throw new ProbCogException(e);
 		}
-		// get final results, terminating the inference thread if it is still running
-		SampledDistribution results = pollResults(false);
-		if(thread.isAlive())
-			thread.stop();
-		return results;
+		if(thread.exception != null)
+			throw thread.exception;
+		// get final results
+		return pollResults(false);
 	}
 	
 	/**
@@ -144,13 +151,20 @@ public class TimeLimitedInference implements IParameterHandler {
 	}
 
 	protected class InferenceThread extends Thread {
+		/**
+		 * the exception that terminated the inference process, if any
+		 */
+		public volatile ProbCogException exception = null;
 		
 		public void run() {
 			try {
 				inference.infer();			
 			}
+			catch(ProbCogException e) {
+				exception = e;
+			}
 			catch(Exception e) {
-				throw new RuntimeException(e);
+				exception = new ProbCogException(e);
 			}			
 		}
 		
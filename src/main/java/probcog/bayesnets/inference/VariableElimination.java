@@ -18,249 +18,288 @@
  ******************************************************************************/
 package probcog.bayesnets.inference;
 
-import java.util.HashSet;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 import probcog.bayesnets.core.BeliefNetworkEx;
+import probcog.bayesnets.core.CompiledNetwork;
 import probcog.exception.ProbCogException;
-import edu.ksu.cis.bnj.ver3.core.BeliefNode;
-import edu.ksu.cis.bnj.ver3.core.CPF;
-import edu.ksu.cis.bnj.ver3.core.CPT;
-import edu.ksu.cis.bnj.ver3.core.values.ValueDouble;
 import edu.tum.cs.util.Stopwatch;
-import edu.tum.cs.util.StringTool;
 
 /**
- * The variable elimination algorithm for exact inference in Bayesian networks (see, e.g., AIMA ch. 14)
+ * The variable elimination algorithm for exact inference in Bayesian networks (see, e.g., AIMA ch. 14).
+ * Factors are represented as flat arrays of doubles; the elimination order is either the reverse 
+ * topological order or is determined using one of the heuristics in {@link EliminationOrder.Heuristic}.
  * @author Dominik Jain
  */
 public class VariableElimination extends Sampler {
 	protected int[] nodeOrder;
 	protected Stopwatch timer;
-	protected int[] nodeDomainIndices;
 	protected SampledDistribution dist;
+	/**
+	 * the heuristic with which to compute the elimination order; if null, variables are eliminated in reverse topological order
+	 */
+	protected EliminationOrder.Heuristic heuristic = EliminationOrder.Heuristic.MinFill;
 	
 	public VariableElimination(BeliefNetworkEx bn) throws ProbCogException {
 		super(bn);
 		nodeOrder = bn.getTopologicalOrder();
+		paramHandler.add("eliminationOrder", "setEliminationOrder");
+	}
+	
+	/**
+	 * sets the way in which the elimination order is determined
+	 * @param order "Topological" for reverse topological order or the name of a {@link EliminationOrder.Heuristic}
+	 */
+	public void setEliminationOrder(String order) {
+		if(order.equalsIgnoreCase("Topological"))
+			heuristic = null;
+		else
+			heuristic = EliminationOrder.Heuristic.valueOf(order);
 	}
 
-	protected class Factor {
-		CPF cpf;
-		
-		public Factor(BeliefNode n) {
-			cpf = n.getCPF();
-			BeliefNode[] domprod = cpf.getDomainProduct();
-			for(int i = 0; i < domprod.length; i++) {
-				if(evidenceDomainIndices[getNodeIndex(domprod[i])] != 0) {
-					cpf = removeEvidence(cpf);
-					break;	
-				}
-			}
-		}
+	/**
+	 * a factor whose values are stored in a flat array; the last variable varies fastest
+	 */
+	protected static class Factor {
+		/**
+		 * the indices of the nodes the factor depends on
+		 */
+		int[] vars;
+		int[] strides;
+		double[] values;
 		
-		protected CPF removeEvidence(CPF cpf) {
-			BeliefNode[] domprod = cpf.getDomainProduct();
-			Vector<BeliefNode> domprod2 = new Vector<BeliefNode>();
-			for(int i = 0; i < domprod.length; i++)
-				if(evidenceDomainIndices[getNodeIndex(domprod[i])] == -1)
-					domprod2.add(domprod[i]);
-			CPF cpf2 = new CPT(domprod2.toArray(new BeliefNode[domprod2.size()]));
-			int[] addr = new int[domprod.length];
-			int[] addr2 = new int[domprod2.size()];
-			removeEvidence(cpf, cpf2, 0, addr, 0, addr2);
-			return cpf2;
-		}
-		
-		protected void removeEvidence(CPF cpf, CPF cpf2, int i, int[] addr, int j, int[] addr2) {
-			if(i == addr.length) {
-				cpf2.put(addr2, cpf.get(addr));
-				return;
+		public Factor(int[] vars, int[] domainSizes) throws ProbCogException {
+			this.vars = vars;
+			strides = new int[vars.length];
+			long size = 1;
+			for(int j = vars.length-1; j >= 0; j--) {
+				strides[j] = (int)size;
+				size *= domainSizes[vars[j]];
+				if(size > Integer.MAX_VALUE)
+					throw new ProbCogException("Out of memory: Needed at least " + (double)size*8 + " bytes to represent function");
 			}
-			
-			BeliefNode[] domprod = cpf.getDomainProduct();
-			BeliefNode[] domprod2 = cpf2.getDomainProduct();			
-			BeliefNode node = domprod[i];
-			boolean transfer = false;
-			if(j < domprod2.length) 
-				transfer = domprod2[j] == domprod[i];
-			int evidence = evidenceDomainIndices[getNodeIndex(node)];
-			if(evidence != -1) { // this should never happen
-				addr[i] = evidence;
-				if(transfer)
-					addr2[j] = evidence; 
-				removeEvidence(cpf, cpf2, i+1, addr, transfer ? j+1 : j, addr2);
+			try {
+				values = new double[(int)size];
 			}
-			else {
-				int domSize = node.getDomain().getOrder();
-				for(int domIdx = 0; domIdx < domSize; domIdx++) {
-					addr[i] = domIdx;
-					if(transfer)
-						addr2[j] = domIdx; 
-					removeEvidence(cpf, cpf2, i+1, addr, transfer ? j+1 : j, addr2);
-				}
+			catch(OutOfMemoryError e) {
+				throw new ProbCogException("Out of memory: Needed at least " + (double)size*8 + " bytes to represent function");
 			}
 		}
 		
-		public Factor(CPF cpf) {
-			this.cpf = cpf;
-		}
-		
-		public double getValue(int[] nodeDomainIndices) {
-			BeliefNode[] domProd = cpf.getDomainProduct();
-			int[] addr = new int[domProd.length];
-			for(int i = 0; i < addr.length; i++)
-				addr[i] = nodeDomainIndices[getNodeIndex(domProd[i])];
-			return cpf.getDouble(addr);
-		}
-		
-		public Factor sumOut(BeliefNode n) {			
-			BeliefNode[] domprod = cpf.getDomainProduct();
-			BeliefNode[] domprod2 = new BeliefNode[domprod.length-1];
-			int j = 0;
-			for(int i = 0; i < domprod.length; i++)
-				if(domprod[i] != n)
-					domprod2[j++] = domprod[i];
-			CPF cpf2 = new CPT(domprod2);
-			int[] addr = new int[domprod.length];
-			int[] addr2 = new int[domprod2.length];
-			sumOut(cpf2, n, 0, addr, 0, addr2);
-			return new Factor(cpf2);
+		/**
+		 * @return the stride of the given node in this factor's table or 0 if the factor does not depend on it
+		 */
+		public int getStride(int var) {
+			for(int j = 0; j < vars.length; j++)
+				if(vars[j] == var)
+					return strides[j];
+			return 0;
 		}
 		
-		protected void sumOut(CPF cpf2, BeliefNode n, int i, int[] addr, int j, int[] addr2) {
-			if(i == addr.length) {
-				int realaddr2 = cpf2.addr2realaddr(addr2);
-				double v = cpf2.getDouble(realaddr2);
-				v += cpf.getDouble(addr);
-				cpf2.put(realaddr2, new ValueDouble(v));
-				return;
-			}
-						
-			BeliefNode node = this.cpf.getDomainProduct()[i];
-			int evidence = evidenceDomainIndices[getNodeIndex(node)];
-			if(evidence != -1) { // this should never happen
-				addr[i] = evidence;
-				if(node != n)
-					addr2[j] = evidence; 
-				sumOut(cpf2, n, i+1, addr, node == n ? j : j+1, addr2);
-			}
-			else {
-				int domSize = node.getDomain().getOrder();
-				for(int domIdx = 0; domIdx < domSize; domIdx++) {
-					addr[i] = domIdx;
-					if(node != n)
-						addr2[j] = domIdx; 
-					sumOut(cpf2, n, i+1, addr, node == n ? j : j+1, addr2);
-				}
-			}
+		public boolean contains(int var) {
+			for(int v : vars)
+				if(v == var)
+					return true;
+			return false;
 		}
 		
 		public String toString() {
-			return "F(" + StringTool.join(",", cpf.getDomainProduct()) + ")";
+			return "F" + Arrays.toString(vars);
 		}
 	}
-
-	protected Factor join(Iterable<Factor> factors) {	
-		HashSet<BeliefNode> domain = new HashSet<BeliefNode>();
-		for(Factor f : factors) {
-			for(BeliefNode n : f.cpf.getDomainProduct())
-				domain.add(n);
+	
+	/**
+	 * creates the factor for the CPT of the given node, reduced by the evidence
+	 */
+	protected Factor getCPTFactor(int node) throws ProbCogException {
+		CompiledNetwork net = getCompiledNetwork();
+		int[] dp = net.domProd[node], st = net.strides[node];
+		int numVars = 0, offset = 0;
+		for(int j = 0; j < dp.length; j++) {
+			if(evidenceDomainIndices[dp[j]] == -1)
+				numVars++;
+			else
+				offset += st[j] * evidenceDomainIndices[dp[j]];
 		}
-		BeliefNode[] domProd = domain.toArray(new BeliefNode[domain.size()]);
-		CPF cpf;
-		try {
-			cpf = new CPT(domProd);
-		} catch (OutOfMemoryError e) {
-			e.printStackTrace();
-			double size = 1;
-			for(int i = 0; i < domProd.length; i++)
-				size *= domProd[i].getDomain().getOrder();
-			throw new RuntimeException("Out of memory: Needed at least " + size*8 + " bytes to represent function");
+		int[] vars = new int[numVars];
+		int[] cptStrides = new int[numVars];
+		numVars = 0;
+		for(int j = 0; j < dp.length; j++)
+			if(evidenceDomainIndices[dp[j]] == -1) {
+				cptStrides[numVars] = st[j];
+				vars[numVars++] = dp[j];
+			}
+		Factor f = new Factor(vars, net.domainSizes);
+		double[] cpt = net.cpts[node];
+		int[] counter = new int[numVars];
+		int addr = offset;
+		for(int k = 0; k < f.values.length; k++) {
+			f.values[k] = cpt[addr];
+			// increment the counter (last variable fastest), updating the CPT address
+			for(int j = numVars-1; j >= 0; j--) {
+				addr += cptStrides[j];
+				if(++counter[j] < net.domainSizes[vars[j]])
+					break;
+				addr -= cptStrides[j] * counter[j];
+				counter[j] = 0;
+			}
 		}
-		int[] addr = new int[domProd.length];
-		fillCPF(factors, cpf, 0, addr);
-		return new Factor(cpf);
+		return f;
 	}
-	
-	protected void fillCPF(Iterable<Factor> factors, CPF cpf, int i, int[] addr) {
-		if(i == addr.length) {
+
+	/**
+	 * computes the product of the given factors
+	 */
+	protected Factor join(ArrayList<Factor> factors) throws ProbCogException {
+		int[] domainSizes = getCompiledNetwork().domainSizes;
+		// determine the union of the factors' variables
+		boolean[] inDomain = new boolean[nodes.length];
+		int numVars = 0;
+		for(Factor f : factors)
+			for(int v : f.vars)
+				if(!inDomain[v]) {
+					inDomain[v] = true;
+					numVars++;
+				}
+		int[] vars = new int[numVars];
+		numVars = 0;
+		for(Factor f : factors)
+			for(int v : f.vars)
+				if(inDomain[v]) {
+					inDomain[v] = false;
+					vars[numVars++] = v;
+				}
+		Factor result = new Factor(vars, domainSizes);
+		// iterate over the result's entries, maintaining the corresponding addresses in the factors
+		int numFactors = factors.size();
+		int[][] strides = new int[numFactors][numVars];
+		for(int i = 0; i < numFactors; i++)
+			for(int j = 0; j < numVars; j++)
+				strides[i][j] = factors.get(i).getStride(vars[j]);
+		double[][] tables = new double[numFactors][];
+		for(int i = 0; i < numFactors; i++)
+			tables[i] = factors.get(i).values;
+		int[] addr = new int[numFactors];
+		int[] counter = new int[numVars];
+		double[] values = result.values;
+		for(int k = 0; k < values.length; k++) {
 			double value = 1.0;
-			for(Factor f : factors) {
-				value *= f.getValue(nodeDomainIndices);
+			for(int i = 0; i < numFactors; i++)
+				value *= tables[i][addr[i]];
+			values[k] = value;
+			for(int j = numVars-1; j >= 0; j--) {
+				for(int i = 0; i < numFactors; i++)
+					addr[i] += strides[i][j];
+				if(++counter[j] < domainSizes[vars[j]])
+					break;
+				for(int i = 0; i < numFactors; i++)
+					addr[i] -= strides[i][j] * counter[j];
+				counter[j] = 0;
 			}
-			try {
-				cpf.put(addr, new ValueDouble(value));
-			}
-			catch(Exception e) {
-				System.err.println(StringTool.join(", ", cpf.getDomainProduct()));
-				throw new RuntimeException(e);
-			}
-			return;
-		}
-		BeliefNode[] domProd = cpf.getDomainProduct(); 
-		int domSize = domProd[i].getDomain().getOrder();
-		for(int j = 0; j < domSize; j++) {
-			addr[i] = j;
-			nodeDomainIndices[getNodeIndex(domProd[i])] = j;
-			fillCPF(factors, cpf, i+1, addr);
 		}
+		return result;
 	}
 	
-	protected Vector<Factor> sumout(Vector<Factor> factors, BeliefNode n) {
-		Vector<Factor> newFacs = new Vector<Factor>();
-		Vector<Factor> joinFacs = new Vector<Factor>();
+	/**
+	 * sums out a variable from a factor
+	 */
+	protected Factor sumOut(Factor f, int var) throws ProbCogException {
+		int[] vars = new int[f.vars.length-1];
+		int j = 0, stride = 0;
+		for(int v : f.vars)
+			if(v != var)
+				vars[j++] = v;
+			else
+				stride = f.getStride(var);
+		Factor result = new Factor(vars, getCompiledNetwork().domainSizes);
+		int blockSize = stride * getCompiledNetwork().domainSizes[var];
+		double[] values = f.values, values2 = result.values;
+		for(int k = 0; k < values.length; k++)
+			values2[(k / blockSize) * stride + k % stride] += values[k];
+		return result;
+	}
+	
+	protected ArrayList<Factor> sumout(ArrayList<Factor> factors, int node) throws ProbCogException {
+		ArrayList<Factor> newFacs = new ArrayList<Factor>();
+		ArrayList<Factor> joinFacs = new ArrayList<Factor>();
 		for(Factor f : factors) {
-			BeliefNode[] domProd = f.cpf.getDomainProduct();
-			boolean sumover = false;
-			for(int i = 0; i < domProd.length; i++)
-				if(domProd[i] == n)
-					sumover = true;
-			if(sumover)
+			if(f.contains(node))
 				joinFacs.add(f);
 			else
 				newFacs.add(f);
 		}
+		if(joinFacs.isEmpty())
+			return factors;
 		Factor joinedFac = join(joinFacs);
-		if(debug) out.println("Summing out " + n + " from " + joinedFac);
-		newFacs.add(joinedFac.sumOut(n));
+		if(debug) out.println("Summing out " + nodes[node] + " from " + joinedFac);
+		newFacs.add(sumOut(joinedFac, node));
 		return newFacs;
 	}
 	
-	protected void computeMarginal(BeliefNode Q) {
-		Vector<Factor> factors = new Vector<Factor>();
+	/**
+	 * determines the nodes whose CPTs are relevant to the query, i.e. the ancestors of the query node and the evidence nodes
+	 */
+	protected boolean[] getRelevantNodes(int queryNode) {
+		CompiledNetwork net = getCompiledNetwork();
+		boolean[] relevant = new boolean[nodes.length];
+		relevant[queryNode] = true;
+		for(int i = 0; i < nodes.length; i++)
+			if(evidenceDomainIndices[i] != -1)
+				relevant[i] = true;
+		// (parents precede their children in the topological order)
 		for(int i = nodeOrder.length-1; i >= 0; i--) {
-			if(!debug) out.printf("  %s  %d \r", Q.getName(), i);
-			int nodeIdx = nodeOrder[i];
-			BeliefNode node = nodes[nodeIdx];
-			if(debug) out.println("Current node: " + node);			
-			
-			factors.add(new Factor(node));
+			int node = nodeOrder[i];
+			if(relevant[node])
+				for(int j = 1; j < net.domProd[node].length; j++)
+					relevant[net.domProd[node][j]] = true;
+		}
+		return relevant;
+	}
+	
+	protected void computeMarginal(int Q, int[] elimOrder) throws ProbCogException {
+		boolean[] relevant = getRelevantNodes(Q);
+		ArrayList<Factor> factors = new ArrayList<Factor>();
+		for(int i = 0; i < nodes.length; i++)
+			if(relevant[i])
+				factors.add(getCPTFactor(i));
+		for(int i = 0; i < elimOrder.length; i++) {
+			if(!debug) out.printf("  %s  %d \r", nodes[Q].getName(), elimOrder.length-i);
+			int node = elimOrder[i];
+			if(node == Q || evidenceDomainIndices[node] != -1 || !relevant[node])
+				continue;
+			if(debug) out.println("Current node: " + nodes[node]);			
+			factors = sumout(factors, node);
 			if(debug) out.println(factors);
-			
-			if(evidenceDomainIndices[nodeIdx] == -1 && node != Q)				
-				factors = sumout(factors, node);			
 		}
 		if(!debug) out.println();
 		
-		if(debug) out.printf("%d final factors: %s\n", factors.size(), StringTool.join(", ", factors));
+		if(debug) out.printf("%d final factors: %s\n", factors.size(), factors);
 		
 		// save results to distribution
-		int nodeIdx = getNodeIndex(Q);
-		double[] marginal = new double[Q.getDomain().getOrder()];
+		Factor f = join(factors);
+		double[] marginal = dist.values[Q];
+		int stride = f.getStride(Q);
 		double Z = 0.0;
 		for(int i = 0; i < marginal.length; i++) {
-			nodeDomainIndices[nodeIdx] = i;
-			marginal[i] = 1.0;
-			for(Factor f : factors) {			
-				marginal[i] *= f.getValue(nodeDomainIndices);
-			}
-			//out.println(factors.get(0).getValue(nodeDomainIndices));
+			marginal[i] = f.values[i * stride];
 			Z += marginal[i];
 		}
 		for(int i = 0; i < marginal.length; i++)
 			marginal[i] /= Z;
-		dist.values[nodeIdx] = marginal;
+	}
+	
+	/**
+	 * @return the order in which to eliminate variables
+	 */
+	protected int[] getEliminationOrder() {
+		if(heuristic == null) {
+			int[] order = new int[nodeOrder.length];
+			for(int i = 0; i < order.length; i++)
+				order[i] = nodeOrder[nodeOrder.length-1-i];
+			return order;
+		}
+		return new EliminationOrder(getCompiledNetwork(), heuristic, evidenceDomainIndices).order;
 	}
 	
 	public void _infer() throws ProbCogException {
@@ -270,9 +309,16 @@ public class VariableElimination extends Sampler {
 
 		dist = createDistribution();
 		dist.Z = 1.0;
-		nodeDomainIndices = evidenceDomainIndices.clone();
-		for(Integer nodeIdx : queryVars)
-			computeMarginal(nodes[nodeIdx]);		
+		int[] elimOrder = getEliminationOrder();
+		for(Integer nodeIdx : queryVars) {
+			if(isCancelled())
+				return;
+			if(evidenceDomainIndices[nodeIdx] != -1) {
+				dist.values[nodeIdx][evidenceDomainIndices[nodeIdx]] = 1.0;
+				continue;
+			}
+			computeMarginal(nodeIdx, elimOrder);
+		}
 		((ImmediateDistributionBuilder)distributionBuilder).setDistribution(dist);
 		
 		sw.stop();
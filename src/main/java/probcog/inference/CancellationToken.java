@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.inference;
+
+/**
+ * A flag that is used to request the cooperative cancellation of a (long-running) inference
+ * procedure. The procedure checks the token in its main loops and, once cancellation has been
+ * requested, stops as soon as possible, retaining the results it has obtained so far.
+ * A token can be shared by several components (e.g. a sampler and the SAT solver it uses).
+ * @author Dominik Jain
+ */
+public class CancellationToken {
+	protected volatile boolean cancelled = false;
+
+	/**
+	 * requests cancellation
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+}
@@ -110,6 +110,19 @@ public class ParameterHandler {
 		addSubhandler(h.getParameterHandler());
 	}
 	
+	/**
+	 * removes a subhandler that was previously added, such that parameters are no longer passed on to it
+	 * @param h the subhandler to remove
+	 */
+	public void removeSubhandler(ParameterHandler h) {
+		subhandlers.remove(h);
+		h.parenthandlers.remove(this);
+	}
+	
+	public void removeSubhandler(IParameterHandler h) {
+		removeSubhandler(h.getParameterHandler());
+	}
+	
 	/**
 	 * handles all of the parameters given in a parameter mapping
 	 * @param paramMapping a mapping from parameter names to values
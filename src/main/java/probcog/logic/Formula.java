@@ -19,7 +19,6 @@
 package probcog.logic;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
@@ -95,6 +94,8 @@ public abstract class Formula {
 
 	/**
 	 * generates all groundings and adds them to the given collection
+	 * (using a {@link FormulaGrounder}; when grounding several formulas for the same database, 
+	 * use a single grounder instance instead)
 	 * @param collection
 	 * @param db
 	 * @param worldVars
@@ -102,10 +103,7 @@ public abstract class Formula {
 	 * @throws ProbCogException
 	 */
 	public void addAllGroundingsTo(Collection<Formula> collection, Database db, WorldVariables worldVars, FormulaSimplification simplify) throws ProbCogException {
-		HashMap<String, String> vars = new HashMap<String, String>();
-		getVariables(db, vars);
-		String[] varNames = vars.keySet().toArray(new String[vars.size()]);
-		generateGroundings(collection, db, new HashMap<String, String>(), varNames, 0, vars, worldVars, simplify);
+		new FormulaGrounder(db, worldVars).addAllGroundingsTo(this, collection, simplify);
 	}
 
 	/**
@@ -0,0 +1,908 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.logic;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import probcog.exception.ProbCogException;
+import probcog.logic.Formula.FormulaSimplification;
+import probcog.srl.GenericDatabase;
+import probcog.srl.Signature;
+
+/**
+ * Grounding engine for (quantifier-free) formulas, which represents constants and predicates
+ * as integers and ground atoms by integer tuples that are resolved via the hash index of the
+ * {@link WorldVariables} collection (rather than by constructing their string representations).
+ * Groundings are generated as a join over the variables' domains: The variables are bound
+ * in an order that completes literals whose truth values are determined by the evidence
+ * as early as possible, and whenever a partial binding already determines the truth value
+ * of the formula, all of its extensions are pruned (as they would simplify to True or False).
+ * The ground formulas that are generated are the same as the ones generated by
+ * {@link Formula#generateGroundings}; formulas that cannot be compiled (i.e. formulas
+ * containing quantifiers) are grounded using that method.
+ * An instance can be used to ground any number of formulas for the same database and
+ * set of ground atoms.
+ * @author Dominik Jain
+ */
+public class FormulaGrounder {
+	protected static final int FALSE = 0, TRUE = 1, UNKNOWN = 2;
+
+	protected GenericDatabase<?,?> db;
+	protected WorldVariables worldVars;
+	/**
+	 * the interned domains (arrays of constant IDs), indexed by domain name
+	 */
+	protected HashMap<String, int[]> domains = new HashMap<String, int[]>();
+	/**
+	 * truth values of ground atoms according to the evidence (indexed by ground atom index), encoded as the truth value plus 1 (0 = not yet looked up)
+	 */
+	protected byte[] evidence;
+	/**
+	 * for each predicate ID, the fraction of its ground atoms whose truth value is given by the evidence (NaN if not yet computed)
+	 */
+	protected double[] evidenceFractions = new double[0];
+
+	/**
+	 * @param db the database containing the constants and the evidence
+	 * @param worldVars the set of ground atoms (which must be complete for the formulas to be grounded)
+	 */
+	public FormulaGrounder(GenericDatabase<?,?> db, WorldVariables worldVars) {
+		this.db = db;
+		this.worldVars = worldVars;
+		evidence = new byte[worldVars.size()];
+	}
+
+	protected int getConstantID(String constant) {
+		return worldVars.internConstant(constant);
+	}
+
+	protected int getPredicateID(String predicate) {
+		return worldVars.internPredicate(predicate);
+	}
+
+	/**
+	 * @return the truth value of the given ground atom according to the evidence (TRUE, FALSE or UNKNOWN)
+	 */
+	protected int getEvidence(GroundAtom ga) throws ProbCogException {
+		int e = evidence[ga.index];
+		if(e == 0) {
+			String value;
+			synchronized(db) { // the database may be extended upon lookups (Prolog values)
+				value = db.getSingleVariableValue(ga.toString(), false);
+			}
+			if(value == null)
+				e = UNKNOWN + 1;
+			else if(value.equals("True"))
+				e = TRUE + 1;
+			else if(value.equals("False"))
+				e = FALSE + 1;
+			else
+				throw new ProbCogException("Database contains invalid boolean value '" + value + "' for atom " + ga.toString());
+			evidence[ga.index] = (byte)e;
+		}
+		return e - 1;
+	}
+
+	/**
+	 * @return the fraction of the ground atoms of the given predicate whose truth value is given by the evidence
+	 */
+	protected double getEvidenceFraction(int pred) throws ProbCogException {
+		if(pred >= evidenceFractions.length) {
+			int oldLength = evidenceFractions.length;
+			evidenceFractions = Arrays.copyOf(evidenceFractions, pred + 1);
+			Arrays.fill(evidenceFractions, oldLength, evidenceFractions.length, Double.NaN);
+		}
+		if(Double.isNaN(evidenceFractions[pred])) {
+			Signature sig = db.getSignature(worldVars.getPredicate(pred));
+			if(sig != null && sig.isLogical)
+				evidenceFractions[pred] = 1.0;
+			else {
+				int numAtoms = 0, numEvidence = 0;
+				for(GroundAtom ga : worldVars)
+					if(ga.getPredicateID() == pred) {
+						numAtoms++;
+						if(getEvidence(ga) != UNKNOWN)
+							numEvidence++;
+					}
+				evidenceFractions[pred] = numAtoms == 0 ? 0.0 : (double)numEvidence / numAtoms;
+			}
+		}
+		return evidenceFractions[pred];
+	}
+
+	protected int[] getDomain(String domName, String varName, Formula f) throws ProbCogException {
+		int[] dom = domains.get(domName);
+		if(dom == null) {
+			Iterable<String> domain = db.getDomain(domName);
+			if(domain == null)
+				throw new ProbCogException("Domain named '" + domName + "' (of variable " + varName + " in formula " + f.toString() + ") not found in the database!");
+			Vector<Integer> elements = new Vector<Integer>();
+			for(String element : domain)
+				elements.add(getConstantID(element));
+			dom = new int[elements.size()];
+			for(int i = 0; i < dom.length; i++)
+				dom[i] = elements.get(i);
+			domains.put(domName, dom);
+		}
+		return dom;
+	}
+
+	/**
+	 * callback for ground formulas that are generated one at a time
+	 */
+	public interface Callback {
+		public void onGroundedFormula(Formula gf) throws ProbCogException;
+	}
+
+	/**
+	 * generates all groundings of the given formula and adds them to the given collection
+	 * @param f the formula to ground
+	 * @param collection the collection to which to add the ground formulas
+	 * @param simplify whether to use the evidence in the database to simplify ground formulas
+	 * @throws ProbCogException
+	 */
+	public void addAllGroundingsTo(Formula f, Collection<Formula> collection, FormulaSimplification simplify) throws ProbCogException {
+		ground(f, collection::add, simplify);
+	}
+
+	/**
+	 * generates all groundings of the given formula, passing each ground formula to the given callback
+	 * as soon as it has been generated (the ground formulas are not retained by the grounder). 
+	 * Only formulas that cannot be compiled (i.e. formulas with quantifiers) have their groundings
+	 * collected before they are passed on.
+	 * @param f the formula to ground
+	 * @param callback the callback to invoke for each ground formula
+	 * @param simplify whether to use the evidence in the database to simplify ground formulas
+	 * @throws ProbCogException
+	 */
+	public void ground(Formula f, Callback callback, FormulaSimplification simplify) throws ProbCogException {
+		Plan plan = createPlan(f, simplify);
+		plan.run(callback, 0, plan.getFirstDomainSize());
+	}
+
+	/**
+	 * callback for ground formulas that are generated for one of several formulas
+	 */
+	public interface IndexedCallback {
+		/**
+		 * @param formulaIndex the index of the formula from which the ground formula was instantiated
+		 * @param gf the ground formula
+		 */
+		public void onGroundedFormula(int formulaIndex, Formula gf) throws ProbCogException;
+	}
+
+	/**
+	 * the maximum number of bindings (i.e. potential groundings) that a grounding task is to consider in parallel mode
+	 */
+	protected static final double MAX_TASK_BINDINGS = 1 << 16;
+
+	/**
+	 * generates all groundings of several formulas, optionally in parallel, where the work is split
+	 * by formula and by ranges of the domain of the variable that is bound first, and the resulting
+	 * tasks are run in a fork-join pool.
+	 * The callback is always invoked in the calling thread, and the ground formulas are passed to it
+	 * in the same order as in sequential grounding; in parallel mode, the ground formulas of a task 
+	 * are collected until the ground formulas of all preceding tasks have been passed on.
+	 * To bound the memory that is required for collected ground formulas, the work is split into 
+	 * tasks of bounded size, and at most 2*numThreads tasks are submitted ahead of the task whose 
+	 * ground formulas are currently being passed on.
+	 * @param formulas the formulas to ground
+	 * @param simplifications the simplification to apply for each formula
+	 * @param callback the callback to invoke for each ground formula
+	 * @param numThreads the number of threads to use (if it is 1, the formulas are grounded sequentially)
+	 * @throws ProbCogException
+	 */
+	public void ground(Formula[] formulas, FormulaSimplification[] simplifications, IndexedCallback callback, int numThreads) throws ProbCogException {
+		if(numThreads <= 1) {
+			for(int i = 0; i < formulas.length; i++) {
+				final int formulaIndex = i;
+				try {
+					ground(formulas[i], gf -> callback.onGroundedFormula(formulaIndex, gf), simplifications[i]);
+				}
+				catch(Exception e) {
+					throw new ProbCogException("Error while grounding formula '" + formulas[i].toString() + "'", e);
+				}
+			}
+			return;
+		}
+		// create the plans and partition the work
+		// (all interning takes place here, such that the tasks only read from the shared data structures)
+		Vector<GroundingTask> tasks = new Vector<GroundingTask>();
+		for(int i = 0; i < formulas.length; i++) {
+			Plan plan;
+			try {
+				plan = createPlan(formulas[i], simplifications[i]);
+			}
+			catch(ProbCogException e) {
+				throw new ProbCogException("Error while grounding formula '" + formulas[i].toString() + "'", e);
+			}
+			int size = plan.getFirstDomainSize();
+			int numParts = 1;
+			if(plan.root != null) {
+				double numBindingsPerValue = plan.getNumBindings() / Math.max(size, 1);
+				int maxValuesPerTask = (int)Math.max(1, Math.min(size, MAX_TASK_BINDINGS / numBindingsPerValue));
+				numParts = Math.max(1, Math.max(Math.min(size, 4 * numThreads), (size + maxValuesPerTask - 1) / maxValuesPerTask));
+			}
+			for(int k = 0; k < numParts; k++)
+				tasks.add(new GroundingTask(i, plan, (int)((long)size * k / numParts), (int)((long)size * (k+1) / numParts)));
+		}
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			int window = 2 * numThreads;
+			for(int t = 0; t < Math.min(window, tasks.size()); t++)
+				pool.execute(tasks.get(t));
+			for(int t = 0; t < tasks.size(); t++) {
+				GroundingTask task = tasks.get(t);
+				Vector<Formula> groundings = task.join();
+				if(task.exception != null)
+					throw new ProbCogException("Error while grounding formula '" + formulas[task.formulaIndex].toString() + "'", task.exception);
+				tasks.set(t, null);
+				for(Formula gf : groundings)
+					callback.onGroundedFormula(task.formulaIndex, gf);
+				// the task's ground formulas have been passed on, so the next task can be submitted
+				if(t + window < tasks.size())
+					pool.execute(tasks.get(t + window));
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * grounds a formula for a range of values of the variable that is bound first (using its own copy of the plan)
+	 */
+	protected class GroundingTask extends RecursiveTask<Vector<Formula>> {
+		private static final long serialVersionUID = 1L;
+		protected int formulaIndex;
+		protected Plan plan;
+		protected int from, to;
+		protected Exception exception = null;
+
+		public GroundingTask(int formulaIndex, Plan plan, int from, int to) {
+			this.formulaIndex = formulaIndex;
+			this.plan = plan;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Vector<Formula> compute() {
+			Vector<Formula> ret = new Vector<Formula>();
+			try {
+				plan.copy().run(ret::add, from, to);
+			}
+			catch(ProbCogException|RuntimeException e) {
+				exception = e;
+			}
+			return ret;
+		}
+	}
+
+	/**
+	 * creates the plan for grounding the given formula
+	 * @return the plan (whose root is null if the formula cannot be compiled)
+	 * @throws ProbCogException
+	 */
+	protected Plan createPlan(Formula f, FormulaSimplification simplify) throws ProbCogException {
+		HashMap<String, String> vars = new HashMap<String, String>();
+		f.getVariables(db, vars);
+		String[] varNames = vars.keySet().toArray(new String[vars.size()]);
+		Plan plan = new Plan(f, varNames, vars, simplify);
+		plan.root = plan.compile(f);
+		if(plan.root != null) {
+			int[][] varDomains = new int[varNames.length][];
+			for(int i = 0; i < varNames.length; i++)
+				varDomains[i] = getDomain(vars.get(varNames[i]), varNames[i], f);
+			plan.prepare(varDomains);
+		}
+		return plan;
+	}
+
+	/**
+	 * the compiled representation of a formula that is being grounded, along with the state of the join
+	 */
+	protected class Plan {
+		protected Formula formula;
+		protected String[] varNames;
+		protected Map<String, String> var2domName;
+		protected HashMap<String, Integer> varIndices = new HashMap<String, Integer>();
+		protected Node root;
+		protected Vector<Leaf> leaves = new Vector<Leaf>();
+		/**
+		 * the current binding (constant ID for each variable, -1 if unbound)
+		 */
+		protected int[] binding;
+		/**
+		 * the variables in the order in which they are bound
+		 */
+		protected int[] order;
+		protected int[][] orderedDomains;
+		/**
+		 * checkAt[d] is true if binding the first d variables (in the binding order) completes a leaf, such that the formula should be evaluated
+		 */
+		protected boolean[] checkAt;
+		/**
+		 * whether the formula has no groundings (because a domain is empty)
+		 */
+		protected boolean isEmpty = false;
+		protected FormulaSimplification simplify;
+		protected Callback callback;
+		/**
+		 * the range of indices into the domain of the variable that is bound first that is to be considered
+		 */
+		protected int rangeFrom, rangeTo;
+
+		public Plan(Formula formula, String[] varNames, Map<String, String> var2domName, FormulaSimplification simplify) {
+			this.formula = formula;
+			this.varNames = varNames;
+			this.var2domName = var2domName;
+			this.simplify = simplify;
+			for(int i = 0; i < varNames.length; i++)
+				varIndices.put(varNames[i], i);
+			binding = new int[varNames.length];
+			Arrays.fill(binding, -1);
+		}
+
+		/**
+		 * @return the compiled node or null if the formula contains elements that are not supported
+		 */
+		protected Node compile(Formula f) {
+			if(f instanceof Atom || f instanceof Literal) {
+				Atom atom = f instanceof Atom ? (Atom)f : ((Literal)f).atom;
+				int[] terms = new int[atom.params.size()];
+				int i = 0;
+				for(String param : atom.params) {
+					if(Atom.isVariable(param) && !varIndices.containsKey(param))
+						return null;
+					terms[i++] = getTerm(param);
+				}
+				if(f instanceof Atom)
+					return addLeaf(new AtomNode(atom, terms, true, false));
+				return addLeaf(new AtomNode(atom, terms, ((Literal)f).isPositive, true));
+			}
+			if(f instanceof Equality) {
+				Equality eq = (Equality)f;
+				return addLeaf(new EqualityNode(getTerm(eq.left), getTerm(eq.right)));
+			}
+			if(f instanceof TrueFalse) {
+				return new ConstantNode((TrueFalse)f);
+			}
+			if(f instanceof Negation || f instanceof Conjunction || f instanceof Disjunction || f instanceof Implication || f instanceof Biimplication) {
+				Formula[] children = ((ComplexFormula)f).children;
+				Node[] nodes = new Node[children.length];
+				for(int i = 0; i < children.length; i++) {
+					nodes[i] = compile(children[i]);
+					if(nodes[i] == null)
+						return null;
+				}
+				if(f instanceof Negation)
+					return new NegationNode(nodes[0]);
+				if(f instanceof Conjunction)
+					return new JunctionNode(nodes, true);
+				if(f instanceof Disjunction)
+					return new JunctionNode(nodes, false);
+				if(f instanceof Implication)
+					return new ImplicationNode(nodes[0], nodes[1]);
+				return new BiimplicationNode(nodes[0], nodes[1]);
+			}
+			return null;
+		}
+
+		protected Node addLeaf(Leaf l) {
+			leaves.add(l);
+			return l;
+		}
+
+		/**
+		 * @return the term representation of the given variable or constant: a variable index (&gt;= 0) or a (negative) encoding of a constant ID
+		 */
+		protected int getTerm(String name) {
+			Integer var = varIndices.get(name);
+			if(var != null)
+				return var;
+			return -getConstantID(name) - 1;
+		}
+
+		/**
+		 * @return a copy of this plan (with its own binding state) that can be run independently
+		 */
+		public Plan copy() {
+			Plan p = new Plan(formula, varNames, var2domName, simplify);
+			if(root != null) {
+				p.root = p.compile(formula);
+				p.order = order;
+				p.orderedDomains = orderedDomains;
+				p.checkAt = checkAt;
+				p.isEmpty = isEmpty;
+			}
+			return p;
+		}
+
+		/**
+		 * @return the size of the domain of the variable that is bound first (1 if the formula cannot be compiled or has no variables)
+		 */
+		/**
+		 * @return the number of complete bindings of the variables (i.e. the product of the domain sizes)
+		 */
+		public double getNumBindings() {
+			if(root == null || isEmpty)
+				return 0;
+			double n = 1;
+			for(int[] dom : orderedDomains)
+				n *= dom.length;
+			return n;
+		}
+
+		public int getFirstDomainSize() {
+			if(root == null || isEmpty || order.length == 0)
+				return 1;
+			return orderedDomains[0].length;
+		}
+
+		/**
+		 * determines the order in which the variables are bound and the depths at which to evaluate the formula
+		 * @param varDomains the domain of each variable
+		 */
+		public void prepare(int[][] varDomains) throws ProbCogException {
+			int n = varNames.length;
+			for(int[] dom : varDomains)
+				if(dom.length == 0) {
+					isEmpty = true;
+					return;
+				}
+			// determine the order in which to bind the variables:
+			// greedily choose the variable that completes the leaves that are most likely to be determined by the evidence
+			order = new int[n];
+			boolean[] chosen = new boolean[n];
+			for(int d = 0; d < n; d++) {
+				int best = -1;
+				double bestScore = -1;
+				for(int v = 0; v < n; v++) {
+					if(chosen[v])
+						continue;
+					double score = 0;
+					if(simplify != FormulaSimplification.None) {
+						chosen[v] = true;
+						for(Leaf l : leaves)
+							if(l.dependsOn(v) && l.isBound(chosen))
+								score += l.getDeterminationScore();
+						chosen[v] = false;
+					}
+					if(best == -1 || score > bestScore || (score == bestScore && varDomains[v].length < varDomains[best].length)) {
+						best = v;
+						bestScore = score;
+					}
+				}
+				order[d] = best;
+				chosen[best] = true;
+			}
+			orderedDomains = new int[n][];
+			for(int d = 0; d < n; d++)
+				orderedDomains[d] = varDomains[order[d]];
+			// determine the depths at which the formula can be evaluated
+			checkAt = new boolean[n];
+			if(simplify != FormulaSimplification.None) {
+				Arrays.fill(chosen, false);
+				for(int d = 1; d < n; d++) {
+					chosen[order[d-1]] = true;
+					for(Leaf l : leaves)
+						if(l.dependsOn(order[d-1]) && l.isBound(chosen)) {
+							checkAt[d] = true;
+							break;
+						}
+				}
+			}
+		}
+
+		/**
+		 * generates the groundings for the given range of values of the variable that is bound first
+		 * @param callback the callback to pass the ground formulas to
+		 * @param from the first index (into the domain of the variable that is bound first) to consider
+		 * @param to the index after the last index to consider
+		 */
+		public void run(Callback callback, int from, int to) throws ProbCogException {
+			if(root == null) {
+				Vector<Formula> groundings = new Vector<Formula>();
+				synchronized(db) { // the database may be extended upon lookups (Prolog values), and groundings may be generated in several threads
+					formula.generateGroundings(groundings, db, new HashMap<String, String>(), varNames, 0, var2domName, worldVars, simplify);
+				}
+				for(Formula gf : groundings)
+					callback.onGroundedFormula(gf);
+				return;
+			}
+			if(isEmpty)
+				return;
+			this.callback = callback;
+			rangeFrom = from;
+			rangeTo = to;
+			join(0);
+		}
+
+		protected void join(int depth) throws ProbCogException {
+			if(depth == order.length) {
+				Formula f = root.ground(binding, simplify != FormulaSimplification.None);
+				if(f instanceof TrueFalse) {
+					if(!((TrueFalse)f).isTrue() && simplify == FormulaSimplification.OnDisallowFalse)
+						throwUnsatisfiable();
+					return;
+				}
+				callback.onGroundedFormula(f);
+				return;
+			}
+			int var = order[depth];
+			boolean check = depth + 1 < order.length && checkAt[depth + 1];
+			int[] dom = orderedDomains[depth];
+			int from = depth == 0 ? rangeFrom : 0, to = depth == 0 ? rangeTo : dom.length;
+			for(int i = from; i < to; i++) {
+				binding[var] = dom[i];
+				if(check) {
+					// if the partial binding determines the truth value, all extensions simplify to True/False
+					int value = root.evaluate(binding);
+					if(value != UNKNOWN) {
+						if(value == FALSE && simplify == FormulaSimplification.OnDisallowFalse)
+							throwUnsatisfiable();
+						continue;
+					}
+				}
+				join(depth + 1);
+			}
+			binding[var] = -1;
+		}
+
+		protected void throwUnsatisfiable() throws ProbCogException {
+			throw new ProbCogException("Unsatisfiable hard formula encountered: " + formula.toString() + " with binding " + getBindingMap().toString() + " cannot be satisfied (given the evidence).");
+		}
+
+		protected Map<String, String> getBindingMap() {
+			HashMap<String, String> ret = new HashMap<String, String>();
+			for(int i = 0; i < varNames.length; i++)
+				if(binding[i] != -1)
+					ret.put(varNames[i], worldVars.getConstant(binding[i]));
+			return ret;
+		}
+	}
+
+	protected abstract class Node {
+		/**
+		 * evaluates the formula under the given (partial) binding using the evidence
+		 * @return TRUE or FALSE if the truth value is determined, UNKNOWN otherwise
+		 */
+		public abstract int evaluate(int[] binding) throws ProbCogException;
+
+		/**
+		 * grounds the formula for the given (full) binding
+		 * @param simplify whether to simplify the ground formula based on the evidence (as in {@link Formula#simplify})
+		 */
+		public abstract Formula ground(int[] binding, boolean simplify) throws ProbCogException;
+	}
+
+	protected abstract class Leaf extends Node {
+		/**
+		 * the terms that appear in the leaf (variable indices or encoded constants, see {@link Plan#getTerm})
+		 */
+		protected int[] terms;
+
+		public boolean dependsOn(int var) {
+			for(int t : terms)
+				if(t == var)
+					return true;
+			return false;
+		}
+
+		public boolean isBound(boolean[] boundVars) {
+			for(int t : terms)
+				if(t >= 0 && !boundVars[t])
+					return false;
+			return true;
+		}
+
+		/**
+		 * @return a score that indicates how likely it is for the leaf to be determined once all of its variables are bound
+		 */
+		public abstract double getDeterminationScore() throws ProbCogException;
+	}
+
+	protected class AtomNode extends Leaf {
+		protected Atom atom;
+		protected int pred;
+		protected boolean isPositive, isLiteral;
+		/**
+		 * the argument IDs of the current ground atom
+		 */
+		protected int[] args;
+
+		public AtomNode(Atom atom, int[] terms, boolean isPositive, boolean isLiteral) {
+			this.atom = atom;
+			this.isPositive = isPositive;
+			this.isLiteral = isLiteral;
+			pred = getPredicateID(atom.predName);
+			this.terms = terms;
+			args = new int[terms.length];
+		}
+
+		@Override
+		public double getDeterminationScore() throws ProbCogException {
+			return getEvidenceFraction(pred);
+		}
+
+		/**
+		 * @return the ground atom for the current binding or null if the binding does not determine it
+		 */
+		protected GroundAtom getGroundAtom(int[] binding) throws ProbCogException {
+			for(int i = 0; i < terms.length; i++) {
+				int t = terms[i];
+				if(t >= 0) {
+					if(binding[t] == -1)
+						return null;
+					args[i] = binding[t];
+				}
+				else
+					args[i] = -t - 1;
+			}
+			GroundAtom ga = worldVars.get(pred, args);
+			if(ga == null)
+				throw new ProbCogException("Could not find ground atom '" + getGroundAtomString() + "' in set of world variables.");
+			return ga;
+		}
+
+		protected String getGroundAtomString() {
+			StringBuffer sb = new StringBuffer(atom.predName + "(");
+			for(int i = 0; i < args.length; i++) {
+				if(i > 0)
+					sb.append(',');
+				sb.append(worldVars.getConstant(args[i]));
+			}
+			sb.append(')');
+			return sb.toString();
+		}
+
+		@Override
+		public int evaluate(int[] binding) throws ProbCogException {
+			GroundAtom ga = getGroundAtom(binding);
+			if(ga == null)
+				return UNKNOWN;
+			int value = getEvidence(ga);
+			if(value == UNKNOWN || isPositive)
+				return value;
+			return 1 - value;
+		}
+
+		@Override
+		public Formula ground(int[] binding, boolean simplify) throws ProbCogException {
+			GroundAtom ga = getGroundAtom(binding);
+			if(simplify) {
+				int value = getEvidence(ga);
+				if(value != UNKNOWN)
+					return TrueFalse.getInstance((value == TRUE) == isPositive);
+			}
+			if(isLiteral)
+				return new GroundLiteral(isPositive, ga);
+			return ga;
+		}
+	}
+
+	protected class EqualityNode extends Leaf {
+		public EqualityNode(int left, int right) {
+			terms = new int[]{left, right};
+		}
+
+		@Override
+		public double getDeterminationScore() {
+			return 1.0;
+		}
+
+		protected int getConstant(int term, int[] binding) {
+			return term >= 0 ? binding[term] : -term - 1;
+		}
+
+		@Override
+		public int evaluate(int[] binding) {
+			int a = getConstant(terms[0], binding), b = getConstant(terms[1], binding);
+			if(a == -1 || b == -1)
+				return UNKNOWN;
+			return a == b ? TRUE : FALSE;
+		}
+
+		@Override
+		public Formula ground(int[] binding, boolean simplify) {
+			return TrueFalse.getInstance(evaluate(binding) == TRUE);
+		}
+	}
+
+	protected class ConstantNode extends Node {
+		protected TrueFalse value;
+
+		public ConstantNode(TrueFalse value) {
+			this.value = value;
+		}
+
+		@Override
+		public int evaluate(int[] binding) {
+			return value.isTrue() ? TRUE : FALSE;
+		}
+
+		@Override
+		public Formula ground(int[] binding, boolean simplify) {
+			return value;
+		}
+	}
+
+	protected class NegationNode extends Node {
+		protected Node child;
+
+		public NegationNode(Node child) {
+			this.child = child;
+		}
+
+		@Override
+		public int evaluate(int[] binding) throws ProbCogException {
+			return negate(child.evaluate(binding));
+		}
+
+		@Override
+		public Formula ground(int[] binding, boolean simplify) throws ProbCogException {
+			Formula f = child.ground(binding, simplify);
+			if(simplify)
+				return negate(f);
+			return new Negation(f);
+		}
+	}
+
+	/**
+	 * a conjunction or disjunction
+	 */
+	protected class JunctionNode extends Node {
+		protected Node[] children;
+		protected boolean isConjunction;
+
+		public JunctionNode(Node[] children, boolean isConjunction) {
+			this.children = children;
+			this.isConjunction = isConjunction;
+		}
+
+		@Override
+		public int evaluate(int[] binding) throws ProbCogException {
+			int dominant = isConjunction ? FALSE : TRUE;
+			int ret = 1 - dominant;
+			for(Node child : children) {
+				int value = child.evaluate(binding);
+				if(value == dominant)
+					return dominant;
+				if(value == UNKNOWN)
+					ret = UNKNOWN;
+			}
+			return ret;
+		}
+
+		@Override
+		public Formula ground(int[] binding, boolean simplify) throws ProbCogException {
+			Formula[] groundChildren = new Formula[children.length];
+			for(int i = 0; i < children.length; i++)
+				groundChildren[i] = children[i].ground(binding, simplify);
+			if(simplify)
+				return simplifyJunction(groundChildren, isConjunction);
+			if(isConjunction)
+				return new Conjunction(groundChildren);
+			return new Disjunction(groundChildren);
+		}
+	}
+
+	protected class ImplicationNode extends Node {
+		protected Node antecedent, consequent;
+
+		public ImplicationNode(Node antecedent, Node consequent) {
+			this.antecedent = antecedent;
+			this.consequent = consequent;
+		}
+
+		@Override
+		public int evaluate(int[] binding) throws ProbCogException {
+			int a = antecedent.evaluate(binding);
+			if(a == FALSE)
+				return TRUE;
+			int c = consequent.evaluate(binding);
+			if(c == TRUE)
+				return TRUE;
+			if(a == TRUE && c == FALSE)
+				return FALSE;
+			return UNKNOWN;
+		}
+
+		@Override
+		public Formula ground(int[] binding, boolean simplify) throws ProbCogException {
+			Formula a = antecedent.ground(binding, simplify), c = consequent.ground(binding, simplify);
+			if(simplify) // as in Implication.simplify
+				return simplifyJunction(new Formula[]{negate(a), c}, false);
+			return new Implication(a, c);
+		}
+	}
+
+	protected class BiimplicationNode extends Node {
+		protected Node left, right;
+
+		public BiimplicationNode(Node left, Node right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		public int evaluate(int[] binding) throws ProbCogException {
+			int l = left.evaluate(binding);
+			if(l == UNKNOWN)
+				return UNKNOWN;
+			int r = right.evaluate(binding);
+			if(r == UNKNOWN)
+				return UNKNOWN;
+			return l == r ? TRUE : FALSE;
+		}
+
+		@Override
+		public Formula ground(int[] binding, boolean simplify) throws ProbCogException {
+			Formula l = left.ground(binding, simplify), r = right.ground(binding, simplify);
+			if(simplify) { // as in Biimplication.simplify
+				Formula c1 = simplifyJunction(new Formula[]{negate(l), r}, false);
+				Formula c2 = simplifyJunction(new Formula[]{l, negate(r)}, false);
+				return simplifyJunction(new Formula[]{c1, c2}, true);
+			}
+			return new Biimplication(l, r);
+		}
+	}
+
+	protected static int negate(int value) {
+		if(value == UNKNOWN)
+			return UNKNOWN;
+		return 1 - value;
+	}
+
+	/**
+	 * negates a simplified formula (as in {@link Negation#simplify})
+	 */
+	protected static Formula negate(Formula f) {
+		if(f instanceof TrueFalse)
+			return ((TrueFalse)f).opposite();
+		return new Negation(f);
+	}
+
+	/**
+	 * combines simplified formulas into a conjunction or disjunction (as in {@link Conjunction#simplify} and {@link Disjunction#simplify})
+	 */
+	protected static Formula simplifyJunction(Formula[] children, boolean isConjunction) {
+		Vector<Formula> simplifiedChildren = new Vector<Formula>();
+		for(Formula child : children) {
+			if(child instanceof TrueFalse) {
+				if(((TrueFalse)child).isTrue() != isConjunction)
+					return child;
+				continue;
+			}
+			simplifiedChildren.add(child);
+		}
+		if(simplifiedChildren.isEmpty())
+			return TrueFalse.getInstance(isConjunction);
+		if(isConjunction)
+			return new Conjunction(simplifiedChildren);
+		return new Disjunction(simplifiedChildren);
+	}
+}
@@ -28,11 +28,23 @@ import edu.tum.cs.util.StringTool;
 
 /**
  * Represents a logical ground atom.
+ * Once the ground atom has been added to a {@link WorldVariables} collection, it is
+ * represented by the predicate ID and argument IDs that are interned by the collection,
+ * and string representations are built only on demand.
  * @author Dominik Jain
  */
 public class GroundAtom extends GroundedFormula {
-	public String predicate;
-	public String[] args;
+	/**
+	 * the predicate name and arguments (only for ground atoms that are not yet part of a WorldVariables collection)
+	 */
+	protected String predicate;
+	protected String[] args;
+	/**
+	 * the collection the ground atom belongs to (or null) and the integer representation of the ground atom within that collection
+	 */
+	protected WorldVariables vars;
+	protected int predicateID;
+	protected int[] argIDs;
 	public int index;
 
 	public GroundAtom(String predicate, String[] args) {
@@ -52,6 +64,54 @@ public class GroundAtom extends GroundedFormula {
 		index = -1;
 	}
 
+	/**
+	 * sets the integer representation of the ground atom within the collection it is added to
+	 */
+	protected void setIDs(WorldVariables vars, int predicateID, int[] argIDs) {
+		this.vars = vars;
+		this.predicateID = predicateID;
+		this.argIDs = argIDs;
+		predicate = null;
+		args = null;
+	}
+
+	public String getPredicate() {
+		if(vars == null)
+			return predicate;
+		return vars.getPredicate(predicateID);
+	}
+
+	/**
+	 * @return the ground atom's arguments (a new array if the ground atom is part of a WorldVariables collection)
+	 */
+	public String[] getArgs() {
+		if(vars == null)
+			return args;
+		String[] ret = new String[argIDs.length];
+		for(int i = 0; i < ret.length; i++)
+			ret[i] = vars.getConstant(argIDs[i]);
+		return ret;
+	}
+
+	public String getArg(int i) {
+		if(vars == null)
+			return args[i];
+		return vars.getConstant(argIDs[i]);
+	}
+
+	public int getNumArgs() {
+		if(vars == null)
+			return args.length;
+		return argIDs.length;
+	}
+
+	/**
+	 * @return the interned predicate ID (only valid once the ground atom is part of a WorldVariables collection)
+	 */
+	public int getPredicateID() {
+		return predicateID;
+	}
+
 	public boolean isTrue(IPossibleWorld w) {
 		return w.isTrue(this);
 	}
@@ -67,7 +127,15 @@ public class GroundAtom extends GroundedFormula {
 
 	@Override
 	public String toString() {
-		return predicate + "(" + StringTool.join(",", args) + ")";
+		if(vars == null)
+			return predicate + "(" + StringTool.join(",", args) + ")";
+		StringBuffer sb = new StringBuffer(vars.getPredicate(predicateID)).append('(');
+		for(int i = 0; i < argIDs.length; i++) {
+			if(i > 0)
+				sb.append(',');
+			sb.append(vars.getConstant(argIDs[i]));
+		}
+		return sb.append(')').toString();
 	}
 
 	@Override
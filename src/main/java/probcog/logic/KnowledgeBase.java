@@ -21,6 +21,7 @@ package probcog.logic;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Vector;
@@ -107,16 +108,27 @@ public class KnowledgeBase implements Iterable<Formula> {
 	 * @throws ProbCogException
 	 */
 	public KnowledgeBase ground(Database db, WorldVariables worldVars, FormulaSimplification simplify) throws ProbCogException {
+		return ground(db, worldVars, simplify, 1);
+	}
+
+	/**
+	 * grounds this knowledge base (using a set of entities and the corresponding set of ground atoms)
+	 * @param db
+	 * @param worldVars the set of ground atoms
+	 * @param simplify whether to use the evidence in the database to simplify ground formulas
+	 * @param numThreads the number of threads to use for grounding (the result does not depend on it)
+	 * @return
+	 * @throws ProbCogException
+	 */
+	public KnowledgeBase ground(Database db, WorldVariables worldVars, FormulaSimplification simplify, int numThreads) throws ProbCogException {
 		KnowledgeBase ret = new KnowledgeBase();
-		Integer formulaID = 0;
-		for(Formula f : formulas) {
-			int i = ret.formulas.size();
-			f.addAllGroundingsTo(ret.formulas, db, worldVars, simplify);
-			for(; i < ret.formulas.size(); i++) {
-				ret.templateIDs.put(ret.formulas.get(i), formulaID);
-			}
-			formulaID++;
-		}
+		FormulaSimplification[] simplifications = new FormulaSimplification[formulas.size()];
+		Arrays.fill(simplifications, simplify);
+		FormulaGrounder grounder = new FormulaGrounder(db, worldVars);
+		grounder.ground(formulas.toArray(new Formula[formulas.size()]), simplifications, (formulaID, gf) -> {
+			ret.formulas.add(gf);
+			ret.templateIDs.put(gf, formulaID);
+		}, numThreads);
 		return ret;
 	}
 
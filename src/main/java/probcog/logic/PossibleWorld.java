@@ -26,52 +26,146 @@ import probcog.srl.Database;
 
 /**
  * Represents a possible world for a given set of world variables (ground atoms).
+ * The truth values are stored as a bit set (one bit per ground atom, packed into
+ * 64-bit words), which allows worlds to be copied, compared and accumulated a word
+ * at a time.
  * @author Dominik Jain
  */
 public class PossibleWorld implements IPossibleWorld {
 	
 	protected WorldVariables worldVars;
-	protected boolean[] state;
+	/**
+	 * the truth values of the ground atoms, where the value of the ground atom with index i is bit i%64 of word i/64
+	 */
+	protected long[] bits;
+	protected int size;
 
 	public PossibleWorld(WorldVariables worldVars) {
 		this.worldVars = worldVars;
-		this.state = new boolean[worldVars.size()];
+		this.size = worldVars.size();
+		this.bits = new long[numWords(size)];
 	}
 	
 	public PossibleWorld(WorldVariables worldVars, boolean[] state) {
 		if(state.length != worldVars.size())
 			throw new IllegalArgumentException("Size of state array does not much number of variables");
 		this.worldVars = worldVars;
-		this.state = state;
+		this.size = state.length;
+		this.bits = pack(state);
+	}
+
+	protected PossibleWorld(WorldVariables worldVars, long[] bits, int size) {
+		this.worldVars = worldVars;
+		this.bits = bits;
+		this.size = size;
+	}
+
+	protected static int numWords(int size) {
+		return (size + 63) >>> 6;
+	}
+
+	protected static long[] pack(boolean[] state) {
+		long[] bits = new long[numWords(state.length)];
+		for(int i = 0; i < state.length; i++)
+			if(state[i])
+				bits[i >>> 6] |= 1L << i;
+		return bits;
 	}
 
 	public boolean isTrue(GroundAtom ga) {
-		return state[ga.index];
+		return get(ga.index);
 	}
 
 	public void set(String gndAtom, boolean value) {
-		state[worldVars.get(gndAtom).index] = value;
+		set(worldVars.get(gndAtom).index, value);
 	}
 	
 	public void set(GroundAtom gndAtom, boolean value) {
-		state[gndAtom.index] = value;
+		set(gndAtom.index, value);
 	}
 
 	public void set(int idxGndAtom, boolean value) {
-		state[idxGndAtom] = value;
+		if(value)
+			bits[idxGndAtom >>> 6] |= 1L << idxGndAtom;
+		else
+			bits[idxGndAtom >>> 6] &= ~(1L << idxGndAtom);
 	}
 
 	public boolean get(int idxGndAtom) {
-		return state[idxGndAtom];
+		return (bits[idxGndAtom >>> 6] & (1L << idxGndAtom)) != 0;
 	}
 
 	public PossibleWorld clone() {
-		return new PossibleWorld(worldVars, state.clone());
+		return new PossibleWorld(worldVars, bits.clone(), size);
 	}
 	
+	/**
+	 * @return a copy of the state as an array of truth values (indexed by ground atom index)
+	 */
 	public boolean[] getState() {
+		boolean[] state = new boolean[size];
+		for(int i = 0; i < size; i++)
+			state[i] = get(i);
 		return state;
 	}
+
+	/**
+	 * @return the bit set that stores the state (which is not copied, i.e. changes are reflected in this world); 
+	 * bit i%64 of word i/64 is the truth value of the ground atom with index i
+	 */
+	public long[] getBits() {
+		return bits;
+	}
+
+	/**
+	 * @return the number of ground atoms that are true in this world
+	 */
+	public int countTrue() {
+		int n = 0;
+		for(long w : bits)
+			n += Long.bitCount(w);
+		return n;
+	}
+
+	/**
+	 * @return a snapshot of the current state, which can be restored via {@link #restore(long[])} or compared against via {@link #diff(long[])}
+	 */
+	public long[] snapshot() {
+		return bits.clone();
+	}
+
+	/**
+	 * restores a state that was previously obtained via {@link #snapshot()}
+	 */
+	public void restore(long[] snapshot) {
+		System.arraycopy(snapshot, 0, bits, 0, bits.length);
+	}
+
+	/**
+	 * @return the indices of the ground atoms whose truth values differ from the ones in the given snapshot (in ascending order)
+	 */
+	public int[] diff(long[] snapshot) {
+		int n = 0;
+		for(int i = 0; i < bits.length; i++)
+			n += Long.bitCount(bits[i] ^ snapshot[i]);
+		int[] ret = new int[n];
+		n = 0;
+		for(int i = 0; i < bits.length; i++)
+			for(long w = bits[i] ^ snapshot[i]; w != 0; w &= w - 1)
+				ret[n++] = (i << 6) + Long.numberOfTrailingZeros(w);
+		return ret;
+	}
+
+	/**
+	 * adds the given weight to the entries of the given array that correspond to the ground atoms that are true in this world
+	 * @param sums an array indexed by ground atom index
+	 * @param weight
+	 */
+	public void accumulateTrue(double[] sums, double weight) {
+		for(int i = 0; i < bits.length; i++)
+			for(long w = bits[i]; w != 0; w &= w - 1)
+				sums[(i << 6) + Long.numberOfTrailingZeros(w)] += weight;
+	}
 	
 	public WorldVariables getVariables() {
 		return worldVars;
@@ -90,8 +184,8 @@ public class PossibleWorld implements IPossibleWorld {
 	}
 
     public void setState(boolean[] state){
-        if (state.length == this.state.length)
-            this.state = state;
+        if (state.length == this.size)
+            System.arraycopy(pack(state), 0, bits, 0, bits.length);
         else 
             throw new IllegalArgumentException("Size of state array does not match number of variables!");        
     }
@@ -40,7 +40,7 @@ public class PossibleWorldFromDatabase implements IPossibleWorld {
 
 	public boolean isTrue(GroundAtom ga) {
 		try {
-			Signature sig = rbn.getSignature(ga.predicate);			
+			Signature sig = rbn.getSignature(ga.getPredicate());			
 			if(sig.isBoolean()) {
 				String value = db.getSingleVariableValue(ga.toString(), closedWorld);
 				if(value == null)
@@ -54,7 +54,7 @@ public class PossibleWorldFromDatabase implements IPossibleWorld {
 				String value = db.getSingleVariableValue(varName, closedWorld);
 				if(value == null)
 					throw new RuntimeException("Value of " + varName + " not in the database that is used as a possible world; perhaps it must always be given because it is used in a precondition/decision node.");
-				boolean tv = value.equals(ga.args[ga.args.length-1]);
+				boolean tv = value.equals(ga.getArg(ga.getNumArgs()-1));
 				//System.out.println("value of atom " + ga + " corresponding to non-boolean function is " + (tv ? "true" : "false"));
 				return tv;
 			}
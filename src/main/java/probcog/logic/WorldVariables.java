@@ -18,45 +18,108 @@
  ******************************************************************************/
 package probcog.logic;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.Vector;
-
-import edu.tum.cs.util.StringTool;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Contains the set of variables of a propositionalized first-order knowledge base, 
  * i.e. a set of ground atoms, where each is assigned a unique index 
- * (which can be used to represent a possible world as an array of booleans) 
+ * (which can be used to represent a possible world as an array of booleans).
+ * Predicates and constants are interned, such that each ground atom is represented by
+ * a predicate ID and a tuple of argument IDs; ground atoms are stored in a dense array
+ * (indexed by ground atom index) and are retrieved via an open addressing hash index
+ * over their integer representations. String representations are built only on demand (except for ground atoms
+ * with constants that contain commas or parentheses, which are additionally indexed by string representation).
+ * Variables can be added and retrieved concurrently; indices are assigned atomically
+ * (in the order in which the variables are added).
  * 
  * @author Dominik Jain
  */
 public class WorldVariables implements Iterable<GroundAtom> {
-	protected HashMap<String, GroundAtom> vars;
+	/**
+	 * the interned predicate names and constants (indexed by ID)
+	 */
+	protected Vector<String> predicates, constants;
+	protected ConcurrentHashMap<String, Integer> predicateIDs, constantIDs;
+	/**
+	 * the ground atoms, indexed by ground atom index
+	 */
+	protected volatile GroundAtom[] atoms;
 	/**
 	 * maps indices of ground atoms to Blocks (or null if var not in block)
 	 */
-	protected HashMap<Integer, Block> var2block;
-	protected HashMap<Integer, GroundAtom> varsByIndex;
+	protected volatile Block[] blocks;
+	/**
+	 * open addressing hash table mapping integer representations of ground atoms (see {@link #hash}) to ground atom indices (-1 = empty slot)
+	 */
+	protected volatile int[] table;
+	/**
+	 * the number of ground atoms; it is updated only once a ground atom has been fully added, such that concurrent lookups never see incomplete entries
+	 */
+	protected volatile int size;
+	/**
+	 * the ground atoms with an argument that renders the parsing of their string representations ambiguous
+	 * (see {@link #isAmbiguous(String)}), indexed by string representation
+	 */
+	protected ConcurrentHashMap<String, GroundAtom> ambiguousAtoms;
 
 	/**
 	 * constructs an empty set of variables
 	 */
 	public WorldVariables() {
-		vars = new HashMap<String, GroundAtom>();
-		var2block = new HashMap<Integer, Block>();
-		varsByIndex = new HashMap<Integer, GroundAtom>();
+		predicates = new Vector<String>();
+		constants = new Vector<String>();
+		predicateIDs = new ConcurrentHashMap<String, Integer>();
+		constantIDs = new ConcurrentHashMap<String, Integer>();
+		ambiguousAtoms = new ConcurrentHashMap<String, GroundAtom>();
+		atoms = new GroundAtom[16];
+		blocks = new Block[16];
+		table = new int[32];
+		Arrays.fill(table, -1);
+		size = 0;
 	}
 
 	/**
 	 * adds a variable (ground atom)
 	 * @param gndAtom
 	 */
-	public void add(GroundAtom gndAtom) {
-		gndAtom.setIndex(vars.size());
-		vars.put(gndAtom.toString(), gndAtom);
-		varsByIndex.put(gndAtom.index, gndAtom);
+	public synchronized void add(GroundAtom gndAtom) {
+		int pred = internPredicate(gndAtom.getPredicate());
+		String[] args = gndAtom.getArgs();
+		int[] argIDs = new int[args.length];
+		boolean ambiguous = false;
+		for(int i = 0; i < args.length; i++) {
+			argIDs[i] = internConstant(args[i]);
+			ambiguous |= isAmbiguous(args[i]);
+		}
+		int index = size;
+		if(index == atoms.length) {
+			atoms = Arrays.copyOf(atoms, 2 * index);
+			blocks = Arrays.copyOf(blocks, 2 * index);
+		}
+		gndAtom.setIndex(index);
+		gndAtom.setIDs(this, pred, argIDs);
+		atoms[index] = gndAtom;
+		if(2 * (index + 1) > table.length)
+			table = buildTable(index + 1, 2 * table.length);
+		else
+			insert(table, pred, argIDs, index);
+		if(ambiguous)
+			ambiguousAtoms.put(gndAtom.toString(), gndAtom);
+		size = index + 1;
+	}
+
+	/**
+	 * @return whether the given constant contains characters that prevent a string representation of a ground atom
+	 * from being split into its arguments (commas, parentheses or surrounding whitespace)
+	 */
+	protected static boolean isAmbiguous(String constant) {
+		return constant.indexOf(',') != -1 || constant.indexOf('(') != -1 || constant.indexOf(')') != -1 || !constant.trim().equals(constant);
 	}
 
 	/**
@@ -64,43 +127,213 @@ public class WorldVariables implements Iterable<GroundAtom> {
 	 * (each individual ground atom will be added to the set of logical variables if it has not already been added)
 	 * @param block
 	 */
-	public Block addBlock(Vector<GroundAtom> block) {
+	public synchronized Block addBlock(Vector<GroundAtom> block) {
 		Block b = new Block(block);
 		for(GroundAtom ga : block) {
-            if(!vars.containsKey(ga.toString()))
+            if(ga.vars != this && get(ga.getPredicate(), ga.getArgs()) == null)
             	add(ga);
-            var2block.put(ga.index, b);
+            if(ga.vars == this)
+            	blocks[ga.index] = b;
 		}
+		blocks = blocks; // publish the block assignments to concurrent readers
 		return b;
 	}
 
+	/**
+	 * @return an open addressing hash table containing the first n ground atoms
+	 */
+	protected int[] buildTable(int n, int capacity) {
+		int[] t = new int[capacity];
+		Arrays.fill(t, -1);
+		for(int i = 0; i < n; i++)
+			insert(t, atoms[i].predicateID, atoms[i].argIDs, i);
+		return t;
+	}
+
+	protected static void insert(int[] table, int pred, int[] args, int index) {
+		int mask = table.length - 1;
+		int slot = hash(pred, args) & mask;
+		while(table[slot] != -1)
+			slot = (slot + 1) & mask;
+		table[slot] = index;
+	}
+
+	protected static int hash(int pred, int[] args) {
+		int h = pred;
+		for(int a : args)
+			h = (h ^ a) * 0x9E3779B1;
+		return h ^ (h >>> 15);
+	}
+
+	/**
+	 * @return the ID of the given predicate, which is interned if it has not been seen before
+	 */
+	public synchronized int internPredicate(String predicate) {
+		Integer id = predicateIDs.get(predicate);
+		if(id == null) {
+			id = predicates.size();
+			predicates.add(predicate);
+			predicateIDs.put(predicate, id);
+		}
+		return id;
+	}
+
+	/**
+	 * @return the ID of the given constant, which is interned if it has not been seen before
+	 */
+	public synchronized int internConstant(String constant) {
+		Integer id = constantIDs.get(constant);
+		if(id == null) {
+			id = constants.size();
+			constants.add(constant);
+			constantIDs.put(constant, id);
+		}
+		return id;
+	}
+
+	/**
+	 * @return the ID of the given predicate or -1 if there is no such predicate
+	 */
+	public int getPredicateID(String predicate) {
+		Integer id = predicateIDs.get(predicate);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @return the ID of the given constant or -1 if there is no such constant
+	 */
+	public int getConstantID(String constant) {
+		Integer id = constantIDs.get(constant);
+		return id == null ? -1 : id;
+	}
+
+	public String getPredicate(int predicateID) {
+		return predicates.get(predicateID);
+	}
+
+	public String getConstant(int constantID) {
+		return constants.get(constantID);
+	}
+
+	/**
+	 * retrieves the variable (ground atom) with the given integer representation
+	 * @param predicateID
+	 * @param argIDs
+	 * @return the ground atom or null if there is no such ground atom
+	 */
+	public GroundAtom get(int predicateID, int[] argIDs) {
+		int n = size;
+		GroundAtom[] atoms = this.atoms;
+		int[] table = this.table;
+		int mask = table.length - 1;
+		for(int slot = hash(predicateID, argIDs) & mask;; slot = (slot + 1) & mask) {
+			int i = table[slot];
+			if(i == -1)
+				return null;
+			if(i < n) {
+				GroundAtom ga = atoms[i];
+				if(ga.predicateID == predicateID && Arrays.equals(ga.argIDs, argIDs))
+					return ga;
+			}
+		}
+	}
+
+	/**
+	 * retrieves the variable (ground atom) with the given predicate and arguments
+	 * @return the ground atom or null if there is no such ground atom
+	 */
+	public GroundAtom get(String predicate, String[] args) {
+		int pred = getPredicateID(predicate);
+		if(pred == -1)
+			return null;
+		int[] argIDs = new int[args.length];
+		for(int i = 0; i < args.length; i++) {
+			argIDs[i] = getConstantID(args[i]);
+			if(argIDs[i] == -1)
+				return null;
+		}
+		return get(pred, argIDs);
+	}
+
 	/**
 	 * retrieves the variable (ground atom) that corresponds to the given string representation
+	 * (e.g. "pred(a,b)"; whitespace around arguments is ignored)
 	 * @param gndAtom
-	 * @return
+	 * @return the ground atom or null if there is no such ground atom
 	 */
 	public GroundAtom get(String gndAtom) {
-		return vars.get(gndAtom);
+		// ground atoms whose string representations cannot be split are looked up by their exact string representation
+		if(!ambiguousAtoms.isEmpty()) {
+			GroundAtom ga = ambiguousAtoms.get(gndAtom);
+			if(ga != null)
+				return ga;
+		}
+		return parseAndGet(gndAtom.trim());
 	}
 
-	public GroundAtom get(Integer index) {
-		return varsByIndex.get(index);
+	/**
+	 * retrieves a ground atom by splitting its string representation into the predicate and the arguments
+	 * @return the ground atom or null if the string cannot be parsed or there is no such ground atom
+	 */
+	protected GroundAtom parseAndGet(String gndAtom) {
+		int open = gndAtom.indexOf('(');
+		int end = gndAtom.length() - 1;
+		if(open <= 0 || gndAtom.charAt(end) != ')')
+			return null;
+		int pred = getPredicateID(gndAtom.substring(0, open).trim());
+		if(pred == -1)
+			return null;
+		if(gndAtom.substring(open + 1, end).trim().isEmpty()) // zero-arity predicate
+			return get(pred, new int[0]);
+		int numArgs = 1;
+		for(int i = open + 1; i < end; i++)
+			if(gndAtom.charAt(i) == ',')
+				numArgs++;
+		int[] argIDs = new int[numArgs];
+		for(int i = 0, start = open + 1; i < numArgs; i++) {
+			int next = gndAtom.indexOf(',', start);
+			if(next == -1 || next > end)
+				next = end;
+			argIDs[i] = getConstantID(gndAtom.substring(start, next).trim());
+			if(argIDs[i] == -1)
+				return null;
+			start = next + 1;
+		}
+		return get(pred, argIDs);
+	}
+
+	public GroundAtom get(int index) {
+		if(index >= size)
+			return null;
+		return atoms[index];
 	}
 
-	public Block getBlock(Integer idxGA) {
-		return var2block.get(idxGA);
+	public Block getBlock(int idxGA) {
+		if(idxGA >= size)
+			return null;
+		return blocks[idxGA];
 	}
 
 	public int size() {
-		return vars.size();
+		return size;
 	}
 	
 	public Set<String> getVariableStrings() {
-		return vars.keySet();
+		HashSet<String> ret = new HashSet<String>();
+		for(GroundAtom ga : this)
+			ret.add(ga.toString());
+		return ret;
 	}
 
 	public String toString() {
-		return "<" + StringTool.join(" \n", vars.keySet()) + ">";
+		StringBuffer sb = new StringBuffer("<");
+		for(GroundAtom ga : this) {
+			if(sb.length() > 1)
+				sb.append(" \n");
+			sb.append(ga.toString());
+		}
+		sb.append(">");
+		return sb.toString();
 	}
 
 	public static class Block implements Iterable<GroundAtom> {
@@ -149,7 +382,21 @@ public class WorldVariables implements Iterable<GroundAtom> {
 		}
 	}
 
-	public Iterator<GroundAtom> iterator() {		
-		return this.vars.values().iterator();
+	public Iterator<GroundAtom> iterator() {
+		final int n = size;
+		final GroundAtom[] atoms = this.atoms;
+		return new Iterator<GroundAtom>() {
+			int i = 0;
+
+			public boolean hasNext() {
+				return i < n;
+			}
+
+			public GroundAtom next() {
+				if(i >= n)
+					throw new NoSuchElementException();
+				return atoms[i++];
+			}
+		};
 	}
 }
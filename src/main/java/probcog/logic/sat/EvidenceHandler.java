@@ -68,7 +68,7 @@ public class EvidenceHandler {
 				if(block == null) 
 					throw new ProbCogException(String.format("There is no variable block to which the non-boolean variable assignment '%s' can be mapped.", var.toString()));				
 				for(GroundAtom ga : block)
-					this.evidence.put(ga.index, var.value.equals(ga.args[ga.args.length-1]));				
+					this.evidence.put(ga.index, var.value.equals(ga.getArg(ga.getNumArgs()-1)));				
 				evidenceBlocks.add(block);
 			}
 			else {
@@ -0,0 +1,598 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.logic.sat;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map.Entry;
+
+import probcog.exception.ProbCogException;
+import probcog.logic.GroundLiteral;
+import probcog.logic.PossibleWorld;
+import probcog.logic.WorldVariables;
+import probcog.logic.WorldVariables.Block;
+import probcog.srl.AbstractVariable;
+import edu.tum.cs.util.StringTool;
+
+/**
+ * An implementation of SampleSAT that is equivalent to {@link SampleSAT} but uses array-based data structures:
+ * Clauses are stored as packed integer literals (atom index times 2, plus 1 for negative literals),
+ * ground atom occurrences are stored in a compressed array per atom, and for each clause, the number of true
+ * literals and the sum of the indices of the atoms of the true literals are maintained (such that the
+ * bottleneck atom of a clause with a single true literal is known without searching). The unsatisfied
+ * clauses are kept in an indexed set that supports constant-time addition and removal.
+ * Once the constraints have been initialized, no objects are allocated during the search.
+ * <p>Individual clauses can be deactivated and reactivated (see {@link #setActive(int, boolean)}), such that
+ * algorithms which solve a sequence of problems over subsets of a fixed set of clauses (such as MC-SAT)
+ * need to compile the clauses only once. The true literal counts are maintained for all clauses, while
+ * only active clauses contribute to the set of unsatisfied clauses and to the break counts. As every run starts
+ * from a random state, the latter are recomputed by the next run rather than updated when clauses are
+ * (de)activated, i.e. a run costs time linear in the number of literals, but no recompilation.</p>
+ * @author Dominik Jain
+ */
+public class FastSampleSAT extends SampleSAT {
+	/**
+	 * the number of (compiled) clauses
+	 */
+	protected int numClauses = 0;
+	/**
+	 * the literals of clause c are lits[clauseStart[c]] ... lits[clauseStart[c+1]-1]
+	 */
+	protected int[] clauseStart = new int[16];
+	/**
+	 * packed literals: (atom index << 1) | 1 if the literal is negative
+	 */
+	protected int[] lits = new int[64];
+	protected int numLits = 0;
+	/**
+	 * the number of true literals in each clause
+	 */
+	protected int[] numTrue = new int[16];
+	/**
+	 * whether each clause is active, i.e. part of the problem to be solved
+	 */
+	protected boolean[] active = new boolean[16];
+	/**
+	 * the sum of the indices of the atoms whose literals are true in each clause; for clauses with a single true literal, this is the bottleneck atom
+	 */
+	protected int[] trueSum = new int[16];
+	/**
+	 * the occurrences of atom a are occs[occStart[a]] ... occs[occStart[a+1]-1], each of which is (clause index << 1) | 1 if the literal is negative
+	 */
+	protected int[] occStart;
+	protected int[] occs = new int[64];
+	/**
+	 * the unsatisfied clauses (first numUnsat entries) and, for each clause, its position in the array (or -1)
+	 */
+	protected int[] unsat = new int[16], unsatPos = new int[16];
+	protected int numUnsat = 0;
+	/**
+	 * the number of clauses in which each atom is the only true literal (i.e. the number of clauses that become unsatisfied when flipping it)
+	 */
+	protected int[] breakCount;
+	/**
+	 * the state's bit set (see {@link PossibleWorld#getBits()}), which is modified directly
+	 */
+	protected long[] value;
+	protected boolean[] isEvidence;
+	/**
+	 * the index of the block of each atom (or -1) and the blocks' atom indices
+	 */
+	protected int[] blockOf;
+	protected int[][] blocks;
+	protected boolean compiled = false;
+	/**
+	 * whether the compiled clauses, occurrences and blocks were adopted from another sampler (see {@link #shareConstraints(FastSampleSAT)})
+	 */
+	protected boolean sharedConstraints = false;
+
+	/**
+	 * @param kb a collection of clauses to satisfy (such as a ClausalKB)
+	 * @param state a possible world to write to (can be arbitrarily initialized, as it is completely reinitialized)
+	 * @param vars the set of variables the SAT problem is defined on
+	 * @param db an evidence database indicating truth values of evidence atoms (which are to be respected by the algorithm); the state is initialized to respect it and the respective variables are never touched again
+	 * @throws ProbCogException
+	 */
+	public FastSampleSAT(Iterable<? extends probcog.logic.sat.Clause> kb, PossibleWorld state, WorldVariables vars, Iterable<? extends AbstractVariable<?>> db) throws ProbCogException {
+		super(kb, state, vars, db);
+	}
+
+	/**
+	 * initializes the sampler without a set of constraints
+	 * @param state a possible world to write to (can be arbitrarily initialized, as it is completely reinitialized)
+	 * @param vars the set of variables the SAT problem is defined on
+	 * @param db an evidence database indicating truth values of evidence atoms (which are to be respected by the algorithm); the state is initialized to respect it and the respective variables are never touched again
+	 * @throws ProbCogException
+	 */
+	public FastSampleSAT(PossibleWorld state, WorldVariables vars, Iterable<? extends AbstractVariable<?>> db) throws ProbCogException {
+		this(null, state, vars, db);
+	}
+
+	@Override
+	public void initConstraints(Iterable<? extends probcog.logic.sat.Clause> kb) throws ProbCogException {
+		if(compiled && useUnitPropagation)
+			throw new ProbCogException("Resetting the set of constraints is not allowed when using unit propagation, because unit propagation extends the evidence database, which currently cannot be reversed.");
+		if(sharedConstraints) { // the compiled data belongs to another sampler and must not be overwritten
+			clauseStart = new int[16];
+			lits = new int[64];
+			occs = new int[64];
+			blockOf = null;
+			sharedConstraints = false;
+		}
+		initVariables();
+		numClauses = numLits = 0;
+		if(useUnitPropagation) {
+			// unit propagation is performed on the object-based representation, which we subsequently compile
+			super.initConstraints(kb);
+			for(Constraint c : constraints)
+				addClause(((Clause)c).getLiterals());
+		}
+		else {
+			this.kb = kb;
+			for(probcog.logic.sat.Clause c : kb)
+				addClause(c.lits);
+			evidenceHandler.setEvidenceInState(state);
+		}
+		clauseStart[numClauses] = numLits;
+		buildOccurrences();
+		for(Entry<Integer, Boolean> e : evidence.entrySet())
+			isEvidence[e.getKey()] = true;
+		compiled = true;
+	}
+
+	/**
+	 * adopts the compiled clauses of another sampler instead of compiling them again. The adopted data (clauses,
+	 * occurrences, blocks and evidence flags) is only read during the search and can thus be shared by samplers
+	 * that run in parallel, while the counts and the clauses' activation flags are allocated for this sampler.
+	 * @param other a sampler for the same variables and evidence whose constraints have been initialized
+	 * @throws ProbCogException
+	 */
+	public void shareConstraints(FastSampleSAT other) throws ProbCogException {
+		if(!other.compiled)
+			throw new ProbCogException("The constraints of the sampler to share them with have not been initialized");
+		if(useUnitPropagation || other.useUnitPropagation)
+			throw new ProbCogException("Constraints cannot be shared when using unit propagation, because unit propagation extends the evidence database.");
+		kb = other.kb;
+		numClauses = other.numClauses;
+		numLits = other.numLits;
+		clauseStart = other.clauseStart;
+		lits = other.lits;
+		occStart = other.occStart;
+		occs = other.occs;
+		isEvidence = other.isEvidence;
+		blockOf = other.blockOf;
+		blocks = other.blocks;
+		int size = clauseStart.length;
+		active = Arrays.copyOf(other.active, size);
+		numTrue = new int[size];
+		trueSum = new int[size];
+		unsat = new int[size];
+		unsatPos = new int[size];
+		breakCount = new int[occStart.length - 1];
+		evidenceHandler.setEvidenceInState(state);
+		sharedConstraints = true;
+		compiled = true;
+	}
+
+	/**
+	 * (re)allocates the per-atom data structures if the set of variables has changed
+	 */
+	protected void initVariables() {
+		int n = vars.size();
+		if(blockOf != null && blockOf.length == n) {
+			Arrays.fill(isEvidence, false);
+			return;
+		}
+		occStart = new int[n+1];
+		breakCount = new int[n];
+		isEvidence = new boolean[n];
+		blockOf = new int[n];
+		IdentityHashMap<Block, Integer> blockIndices = new IdentityHashMap<Block, Integer>();
+		for(int i = 0; i < n; i++) {
+			Block block = vars.getBlock(i);
+			if(block == null) {
+				blockOf[i] = -1;
+				continue;
+			}
+			Integer b = blockIndices.get(block);
+			if(b == null) {
+				b = blockIndices.size();
+				blockIndices.put(block, b);
+			}
+			blockOf[i] = b;
+		}
+		blocks = new int[blockIndices.size()][];
+		for(Entry<Block, Integer> e : blockIndices.entrySet()) {
+			Block block = e.getKey();
+			int[] atoms = new int[block.size()];
+			for(int j = 0; j < atoms.length; j++)
+				atoms[j] = block.get(j).index;
+			blocks[e.getValue()] = atoms;
+		}
+	}
+
+	/**
+	 * compiles a clause, removing duplicate literals: the incremental counts assume that each atom occurs at most
+	 * once per clause (a duplicate atom would be counted twice in the clause's true literal count and sum)
+	 * @param clauseLits the clause's literals
+	 * @throws ProbCogException if the clause contains an atom both positively and negatively
+	 */
+	protected void addClause(GroundLiteral[] clauseLits) throws ProbCogException {
+		if(numClauses + 2 > clauseStart.length) {
+			int size = 2 * (numClauses + 2);
+			clauseStart = Arrays.copyOf(clauseStart, size);
+			numTrue = Arrays.copyOf(numTrue, size);
+			trueSum = Arrays.copyOf(trueSum, size);
+			active = Arrays.copyOf(active, size);
+			unsat = Arrays.copyOf(unsat, size);
+			unsatPos = Arrays.copyOf(unsatPos, size);
+		}
+		if(numLits + clauseLits.length > lits.length)
+			lits = Arrays.copyOf(lits, 2 * (numLits + clauseLits.length));
+		int start = numLits;
+		literals:
+		for(GroundLiteral lit : clauseLits) {
+			int packed = (lit.gndAtom.index << 1) | (lit.isPositive ? 0 : 1);
+			for(int i = start; i < numLits; i++) {
+				if(lits[i] == packed)
+					continue literals;
+				if((lits[i] ^ packed) == 1) {
+					numLits = start;
+					throw new ProbCogException("Tried to compile tautological clause " + StringTool.join(" v ", clauseLits));
+				}
+			}
+			lits[numLits++] = packed;
+		}
+		active[numClauses] = true;
+		clauseStart[numClauses++] = start;
+	}
+
+	/**
+	 * builds the per-atom occurrence arrays from the clauses' literals
+	 */
+	protected void buildOccurrences() {
+		int n = occStart.length - 1;
+		Arrays.fill(occStart, 0);
+		for(int i = 0; i < numLits; i++)
+			occStart[(lits[i] >> 1) + 1]++;
+		for(int a = 0; a < n; a++)
+			occStart[a+1] += occStart[a];
+		if(occs.length < numLits)
+			occs = new int[2 * numLits];
+		// fill the arrays, using breakCount as a temporary fill pointer
+		int[] fill = breakCount;
+		System.arraycopy(occStart, 0, fill, 0, n);
+		for(int c = 0; c < numClauses; c++)
+			for(int i = clauseStart[c]; i < clauseStart[c+1]; i++)
+				occs[fill[lits[i] >> 1]++] = (c << 1) | (lits[i] & 1);
+	}
+
+	@Override
+	protected void initialize() throws ProbCogException {
+		if(!compiled)
+			initConstraints(kb);
+		log.debug("setting random state...");
+		setRandomState();
+		if(log.isDebugPrinted()) state.print();
+		value = state.getBits();
+		Arrays.fill(breakCount, 0);
+		numUnsat = 0;
+		for(int c = 0; c < numClauses; c++) {
+			int nt = 0, sum = 0;
+			for(int i = clauseStart[c]; i < clauseStart[c+1]; i++)
+				if(isTrue(lits[i])) {
+					nt++;
+					sum += lits[i] >> 1;
+				}
+			numTrue[c] = nt;
+			trueSum[c] = sum;
+			unsatPos[c] = -1;
+			if(!active[c])
+				continue;
+			if(nt == 0)
+				addUnsat(c);
+			else if(nt == 1)
+				breakCount[sum]++;
+		}
+	}
+	
+	/**
+	 * @return the number of clauses (active or not) that were compiled by the last call to {@link #initConstraints(Iterable)}
+	 */
+	public int getNumClauses() {
+		return numClauses;
+	}
+	
+	/**
+	 * activates or deactivates a clause; the set of unsatisfied clauses and the break counts are recomputed by the next run
+	 * @param c the index of the clause (in the order in which the clauses were passed to {@link #initConstraints(Iterable)})
+	 * @param isActive whether the clause is to be part of the problem
+	 */
+	public void setActive(int c, boolean isActive) {
+		active[c] = isActive;
+	}
+	
+	/**
+	 * activates or deactivates the clauses with indices from (inclusive) to to (exclusive)
+	 */
+	public void setActive(int from, int to, boolean isActive) {
+		for(int c = from; c < to; c++)
+			setActive(c, isActive);
+	}
+	
+	public void setAllActive(boolean isActive) {
+		setActive(0, numClauses, isActive);
+	}
+	
+	/**
+	 * @param c the index of a clause
+	 * @return whether the clause (active or not) is satisfied in the current state
+	 */
+	public boolean isSatisfied(int c) {
+		return numTrue[c] > 0;
+	}
+	
+	/**
+	 * @return whether all the clauses with indices from (inclusive) to to (exclusive) are satisfied in the current state
+	 */
+	public boolean areSatisfied(int from, int to) {
+		for(int c = from; c < to; c++)
+			if(numTrue[c] == 0)
+				return false;
+		return true;
+	}
+
+	@Override
+	public void run() throws ProbCogException {
+		initialize();
+		int step = 1;
+		boolean debugEnabled = log.isDebugEnabled();
+		while(numUnsat > 0 && !cancellationToken.isCancelled()) {
+			if(debugEnabled) {
+				log.debug("SAT step " + step + ", " + numUnsat + " constraints unsatisfied");
+				checkIntegrity();
+			}
+			makeMove();
+			step++;
+		}
+	}
+
+	protected final boolean isTrue(int lit) {
+		return get(lit >> 1) != ((lit & 1) == 1);
+	}
+
+	protected final boolean get(int atom) {
+		return (value[atom >>> 6] & (1L << atom)) != 0;
+	}
+
+	protected final void addUnsat(int c) {
+		unsatPos[c] = numUnsat;
+		unsat[numUnsat++] = c;
+	}
+
+	protected final void removeUnsat(int c) {
+		int pos = unsatPos[c];
+		int last = unsat[--numUnsat];
+		unsat[pos] = last;
+		unsatPos[last] = pos;
+		unsatPos[c] = -1;
+	}
+
+	@Override
+	protected void walkSATMove() {
+		// pick an unsatisfied clause
+		int c = unsat[rand.nextInt(numUnsat)];
+		// with probability p, satisfy the clause randomly, otherwise greedily
+		if(rand.nextDouble() < this.pWalkSAT)
+			satisfyRandomly(c);
+		else
+			satisfyGreedily(c);
+	}
+
+	protected void satisfyRandomly(int c) {
+		int start = clauseStart[c], len = clauseStart[c+1] - start;
+		while(true) {
+			int atom = lits[start + rand.nextInt(len)] >> 1;
+			if(isEvidence[atom])
+				continue;
+			if(pickSecondAtRandomAndFlip(atom))
+				return;
+		}
+	}
+
+	/**
+	 * flips the atom of the given clause which yields the greatest improvement (breaking ties randomly)
+	 * @param c
+	 */
+	protected void satisfyGreedily(int c) {
+		int best = -1, bestSecond = -1;
+		int bestDelta = Integer.MIN_VALUE;
+		for(int i = clauseStart[c]; i < clauseStart[c+1]; i++) {
+			int atom = lits[i] >> 1;
+			if(isEvidence[atom])
+				continue;
+			int delta = deltaCost(atom);
+			// if the atom is in a block, we must consider the cost of flipping the second atom
+			int second = -1;
+			int b = blockOf[atom];
+			if(b >= 0) {
+				int[] block = blocks[b];
+				int trueOne = getTrueOne(block);
+				int delta2 = Integer.MIN_VALUE;
+				if(atom != trueOne) { // the second one to flip must be the true one
+					if(trueOne >= 0 && !isEvidence[trueOne]) {
+						second = trueOne;
+						delta2 = deltaCost(second);
+					}
+				}
+				else { // as the second flip any one of the others (that has no evidence)
+					for(int a2 : block) {
+						if(isEvidence[a2] || a2 == atom)
+							continue;
+						int d = deltaCost(a2);
+						if(d > delta2) {
+							delta2 = d;
+							second = a2;
+						}
+					}
+				}
+				if(second == -1)
+					continue;
+				delta += delta2;
+			}
+			if(delta > bestDelta || (delta == bestDelta && rand.nextInt(2) == 1)) {
+				best = atom;
+				bestSecond = second;
+				bestDelta = delta;
+			}
+		}
+		if(best == -1)
+			return;
+		flip(best);
+		if(bestSecond != -1)
+			flip(bestSecond);
+	}
+
+	@Override
+	protected void SAMove() {
+		int n = isEvidence.length;
+		while(true) {
+			int atom = rand.nextInt(n);
+			if(isEvidence[atom])
+				continue;
+			if(pickSecondAtRandomAndFlip(atom))
+				return;
+		}
+	}
+
+	/**
+	 * attempts to flip the given atom, choosing an appropriate second atom (at random where applicable) if the atom is in a block
+	 * @param atom
+	 * @return true if the atom could be flipped
+	 */
+	protected boolean pickSecondAtRandomAndFlip(int atom) {
+		int second = -1;
+		int b = blockOf[atom];
+		if(b >= 0) {
+			int[] block = blocks[b];
+			int trueOne = getTrueOne(block);
+			if(atom == trueOne) { // pick the second one at random among the others
+				int numOthers = 0;
+				for(int a2 : block)
+					if(a2 != atom && !isEvidence[a2])
+						numOthers++;
+				if(numOthers == 0)
+					return false;
+				int k = rand.nextInt(numOthers);
+				for(int a2 : block)
+					if(a2 != atom && !isEvidence[a2] && k-- == 0) {
+						second = a2;
+						break;
+					}
+			}
+			else if(trueOne >= 0) { // the second one to flip must be the true one
+				if(isEvidence[trueOne])
+					return false;
+				second = trueOne;
+			}
+		}
+		flip(atom);
+		if(second != -1)
+			flip(second);
+		return true;
+	}
+
+	protected final int getTrueOne(int[] block) {
+		for(int a : block)
+			if(get(a))
+				return a;
+		return -1;
+	}
+
+	/**
+	 * computes the change in the number of satisfied clauses that results from flipping the given atom
+	 * @param atom
+	 * @return
+	 */
+	protected final int deltaCost(int atom) {
+		int delta = -breakCount[atom];
+		for(int k = occStart[atom]; k < occStart[atom+1]; k++)
+			if(numTrue[occs[k] >> 1] == 0 && active[occs[k] >> 1])
+				delta++;
+		return delta;
+	}
+
+	/**
+	 * flips the given atom, updating the clauses' true literal counts, the break counts and the set of unsatisfied clauses
+	 * @param atom
+	 */
+	protected void flip(int atom) {
+		value[atom >>> 6] ^= 1L << atom;
+		boolean v = get(atom);
+		for(int k = occStart[atom]; k < occStart[atom+1]; k++) {
+			int o = occs[k];
+			int c = o >> 1;
+			if(v != ((o & 1) == 1)) { // the literal became true
+				int nt = ++numTrue[c];
+				if(active[c]) {
+					if(nt == 1) {
+						removeUnsat(c);
+						breakCount[atom]++;
+					}
+					else if(nt == 2) // the previously true literal is no longer a bottleneck
+						breakCount[trueSum[c]]--;
+				}
+				trueSum[c] += atom;
+			}
+			else { // the literal became false
+				int nt = --numTrue[c];
+				trueSum[c] -= atom;
+				if(!active[c])
+					continue;
+				if(nt == 0) {
+					addUnsat(c);
+					breakCount[atom]--;
+				}
+				else if(nt == 1) // the remaining true literal is now a bottleneck
+					breakCount[trueSum[c]]++;
+			}
+		}
+	}
+
+	@Override
+	protected void checkIntegrity() throws ProbCogException {
+		int[] expectedBreakCount = new int[breakCount.length];
+		for(int c = 0; c < numClauses; c++) {
+			int nt = 0, sum = 0;
+			for(int i = clauseStart[c]; i < clauseStart[c+1]; i++)
+				if(isTrue(lits[i])) {
+					nt++;
+					sum += lits[i] >> 1;
+				}
+			if(nt != numTrue[c] || sum != trueSum[c])
+				throw new ProbCogException("True literal counts of clause " + c + " corrupted");
+			if((nt == 0 && active[c]) != (unsatPos[c] != -1))
+				throw new ProbCogException("Unsatisfied clauses corrupted");
+			if(nt == 1 && active[c])
+				expectedBreakCount[sum]++;
+		}
+		if(!Arrays.equals(expectedBreakCount, breakCount))
+			throw new ProbCogException("Break counts corrupted");
+	}
+}
@@ -25,6 +25,7 @@ import java.util.Random;
 import java.util.Vector;
 
 import probcog.exception.ProbCogException;
+import probcog.inference.CancellationToken;
 import probcog.inference.IParameterHandler;
 import probcog.inference.ParameterHandler;
 import probcog.logging.PrintLogger;
@@ -76,6 +77,10 @@ public class SampleSAT implements IParameterHandler, VerbosePrinter {
 	 */
 	protected double pWalkSAT = 0.5; // 0.5
 	protected PrintLogger log;
+	/**
+	 * token via which the search can be asked to terminate (in which case the state may not be a satisfying one)
+	 */
+	protected CancellationToken cancellationToken = new CancellationToken();
 	
 	/**
 	 * @param kb a collection of clauses to satisfy (such as a ClausalKB)
@@ -118,6 +123,10 @@ public class SampleSAT implements IParameterHandler, VerbosePrinter {
 	public void setDebugMode(boolean active) {
 		debug = active;
 	}
+	
+	public void setCancellationToken(CancellationToken token) {
+		this.cancellationToken = token;
+	}
 
 	/**
 	 * enables unit propagation when initializing the set of constraints
@@ -258,13 +267,14 @@ public class SampleSAT implements IParameterHandler, VerbosePrinter {
 	}
 	
 	/**
-	 * solves the SAT problem by first initializing the state randomly (respecting the evidence, however) and then performing greedy and SA moves (as determined by parameter p)  
+	 * solves the SAT problem by first initializing the state randomly (respecting the evidence, however) and then performing greedy and SA moves (as determined by parameter p).
+	 * If cancellation is requested via the cancellation token, the search is aborted and the state need not satisfy all constraints.  
 	 * @throws ProbCogException 
 	 */
 	public void run() throws ProbCogException {		
 		initialize();		
 		int step = 1;
-		while(unsatisfiedConstraints.size() > 0) {
+		while(unsatisfiedConstraints.size() > 0 && !cancellationToken.isCancelled()) {
 			// debug code
 			if(log.isDebugEnabled()) {				
 				log.debug("SAT step " + step + ", " + unsatisfiedConstraints.size() + " constraints unsatisfied");
@@ -522,6 +532,14 @@ public class SampleSAT implements IParameterHandler, VerbosePrinter {
 		this.pWalkSAT = p;
 	}
 	
+	public double getPSampleSAT() {
+		return pSampleSAT;
+	}
+	
+	public double getPWalkSAT() {
+		return pWalkSAT;
+	}
+	
 	protected abstract class Constraint {
 		public abstract void satisfyGreedily();
 		public abstract void satisfyRandomly();
@@ -0,0 +1,591 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.logic.sat.weighted;
+
+import java.util.Arrays;
+
+import probcog.exception.ProbCogException;
+import probcog.logging.PrintLogger.Level;
+import probcog.logic.PossibleWorld;
+import probcog.logic.WorldVariables;
+import probcog.logic.sat.FastSampleSAT;
+import probcog.srl.Database;
+
+/**
+ * An array-based implementation of MaxWalkSAT, which extends {@link FastSampleSAT} with clause weights.
+ * For each atom, it maintains the sum of the weights of the unsatisfied clauses that flipping the atom would satisfy
+ * (make score) and the sum of the weights of the satisfied clauses that flipping the atom would break (break score),
+ * such that the change in cost caused by a flip is obtained in constant time rather than by scanning the atom's occurrences.
+ * <p>Besides WalkSAT-style selection among the atoms of an unsatisfied clause (as in {@link MaxWalkSAT}), tabu search
+ * and Novelty+ are supported, the noise of which can be adapted automatically (Hoos, 2002).
+ * The search can be restarted several times ({@link #setMaxTries(int)}), the best state across all tries being retained.</p>
+ * @author Dominik Jain
+ */
+public class FastMaxWalkSAT extends FastSampleSAT implements IMaxSAT {
+
+	public enum Heuristic {
+		/**
+		 * with probability pWalkSAT, flip a random atom of the clause, otherwise the one with the best score
+		 */
+		WalkSAT,
+		/**
+		 * flip the atom of the clause with the best score among the ones that were not flipped in the last tabuTenure steps
+		 * (unless the flip would yield a new best state)
+		 */
+		Tabu,
+		/**
+		 * flip the atom with the best score unless it is the most recently flipped one, in which case the second best
+		 * atom is flipped with probability noise; with probability randomWalkProb, flip a random atom of the clause instead
+		 */
+		NoveltyPlus
+	}
+
+	protected int maxSteps = 1000;
+	protected int maxTries = 1;
+	protected Heuristic heuristic = Heuristic.WalkSAT;
+	protected int tabuTenure = 10;
+	protected double noise = 0.5;
+	protected double randomWalkProb = 0.01;
+	protected boolean adaptiveNoise = false;
+	/**
+	 * the noise currently in effect (the probability of a random move for WalkSAT, the noise parameter for Novelty+)
+	 */
+	protected double currentNoise;
+
+	/**
+	 * the weight of each clause and whether it is a hard constraint
+	 */
+	protected double[] weight;
+	protected boolean[] isHard;
+	/**
+	 * the sum of the weights of the unsatisfied active clauses containing each atom
+	 */
+	protected double[] makeScore;
+	/**
+	 * the sum of the weights of the active clauses in which each atom is the only true literal
+	 */
+	protected double[] breakScore;
+	/**
+	 * the sum of the weights of the unsatisfied active clauses
+	 */
+	protected double unsatWeight;
+	/**
+	 * the unsatisfied hard clauses (first numUnsatHard entries) and, for each clause, its position in the array (or -1)
+	 */
+	protected int[] unsatHard, unsatHardPos;
+	protected int numUnsatHard = 0;
+	/**
+	 * the step in which each atom was last flipped
+	 */
+	protected long[] lastFlip;
+	protected long step;
+	/**
+	 * the second atom to flip (or -1) for the move most recently evaluated by {@link #moveScore(int)}
+	 */
+	protected int moveSecond;
+	protected static final double INFEASIBLE = Double.NEGATIVE_INFINITY;
+	/**
+	 * the parameters of adaptive noise: the fraction of the number of clauses after which the noise is increased
+	 * if there was no improvement, and the factor by which it is increased/decreased (Hoos, 2002)
+	 */
+	protected static final double ADAPTIVE_NOISE_THETA = 1.0 / 6, ADAPTIVE_NOISE_PHI = 0.2;
+
+	protected PossibleWorld bestState = null;
+	protected long[] bestBits;
+	protected double bestCost;
+	protected int bestHardMissing;
+
+	public FastMaxWalkSAT(WeightedClausalKB kb, PossibleWorld state, WorldVariables vars, Database db) throws ProbCogException {
+		super(kb, state, vars, db.getEntries());
+		this.pSampleSAT = 1.0; // by default, always make WalkSAT-style moves (never global random moves)
+		paramHandler.add("maxTries", "setMaxTries", "the number of times the search is (re)started from a random state");
+		paramHandler.add("heuristic", "setHeuristic", "the variable selection heuristic: WalkSAT, Tabu or NoveltyPlus");
+		paramHandler.add("tabuTenure", "setTabuTenure", "the number of steps for which a flipped atom must not be flipped again (tabu heuristic)");
+		paramHandler.add("noise", "setNoise", "the probability of choosing the second best atom if the best one was flipped most recently (Novelty+ heuristic)");
+		paramHandler.add("randomWalkProb", "setRandomWalkProb", "the probability of flipping a random atom of the selected clause (Novelty+ heuristic)");
+		paramHandler.add("adaptiveNoise", "setAdaptiveNoise", "whether to adapt the noise (pWalkSAT for WalkSAT, noise for Novelty+) to search stagnation");
+	}
+
+	@Override
+	public void initConstraints(Iterable<? extends probcog.logic.sat.Clause> kb) throws ProbCogException {
+		if(useUnitPropagation)
+			throw new ProbCogException("Unit propagation is not supported by " + getClass().getSimpleName());
+		// the compiled clauses contain each atom at most once (see FastSampleSAT#addClause), which the make and
+		// break scores rely on: a duplicate atom would contribute its clause's weight to its make score twice
+		super.initConstraints(kb);
+		weight = new double[numClauses];
+		isHard = new boolean[numClauses];
+		int c = 0;
+		for(probcog.logic.sat.Clause cl : kb) {
+			WeightedClause wc = (WeightedClause)cl;
+			weight[c] = wc.weight;
+			isHard[c] = wc.isHard;
+			c++;
+		}
+		allocateScores();
+	}
+
+	@Override
+	public void shareConstraints(FastSampleSAT other) throws ProbCogException {
+		if(!(other instanceof FastMaxWalkSAT))
+			throw new ProbCogException("Constraints can only be shared with another instance of " + FastMaxWalkSAT.class.getSimpleName());
+		super.shareConstraints(other);
+		weight = ((FastMaxWalkSAT)other).weight;
+		isHard = ((FastMaxWalkSAT)other).isHard;
+		allocateScores();
+	}
+
+	/**
+	 * allocates the data structures for the unsatisfied hard clauses and (if the set of variables has changed) the per-atom scores
+	 */
+	protected void allocateScores() {
+		unsatHard = new int[numClauses];
+		unsatHardPos = new int[numClauses];
+		int n = vars.size();
+		if(makeScore == null || makeScore.length != n) {
+			makeScore = new double[n];
+			breakScore = new double[n];
+			lastFlip = new long[n];
+		}
+	}
+
+	@Override
+	protected void initialize() throws ProbCogException {
+		super.initialize();
+		Arrays.fill(makeScore, 0.0);
+		Arrays.fill(breakScore, 0.0);
+		Arrays.fill(lastFlip, Long.MIN_VALUE / 2);
+		unsatWeight = 0;
+		numUnsatHard = 0;
+		for(int c = 0; c < numClauses; c++) {
+			unsatHardPos[c] = -1;
+			if(!active[c])
+				continue;
+			if(numTrue[c] == 0) {
+				unsatWeight += weight[c];
+				if(isHard[c])
+					addUnsatHard(c);
+				for(int i = clauseStart[c]; i < clauseStart[c+1]; i++)
+					makeScore[lits[i] >> 1] += weight[c];
+			}
+			else if(numTrue[c] == 1)
+				breakScore[trueSum[c]] += weight[c];
+		}
+	}
+
+	@Override
+	public void run() throws ProbCogException {
+		bestCost = Double.MAX_VALUE;
+		bestHardMissing = Integer.MAX_VALUE;
+		step = 0;
+		boolean debugEnabled = log.isDebugEnabled();
+		for(int t = 1; t <= maxTries && !cancellationToken.isCancelled(); t++) {
+			initialize();
+			if(bestBits == null || bestBits.length != value.length)
+				bestBits = new long[value.length];
+			currentNoise = adaptiveNoise ? 0.0 : (heuristic == Heuristic.NoveltyPlus ? noise : pWalkSAT);
+			double tryBestCost = Double.MAX_VALUE;
+			long lastImprovement = step;
+			for(int i = 1; i <= maxSteps; i++) {
+				double cost = numUnsat == 0 ? 0.0 : unsatWeight; // avoid reporting accumulated rounding errors as costs
+				if(cost < bestCost) {
+					bestCost = cost;
+					bestHardMissing = numUnsatHard;
+					System.arraycopy(value, 0, bestBits, 0, value.length);
+					log.out(Level.INFO, Level.DEBUG, "  try %d, step %d: %d hard constraints unsatisfied, sum of unsatisfied weights: %f [NEW BEST]", t, i, numUnsatHard, cost);
+					onNewBest();
+				}
+				if(adaptiveNoise) {
+					if(cost < tryBestCost) {
+						tryBestCost = cost;
+						lastImprovement = step;
+						currentNoise -= currentNoise * ADAPTIVE_NOISE_PHI / 2;
+					}
+					else if(step - lastImprovement > numClauses * ADAPTIVE_NOISE_THETA) {
+						currentNoise += (1 - currentNoise) * ADAPTIVE_NOISE_PHI;
+						lastImprovement = step;
+					}
+				}
+				if(numUnsat == 0 || cancellationToken.isCancelled())
+					break;
+				if(debugEnabled)
+					checkIntegrity();
+				step++;
+				makeMove();
+			}
+			if(bestCost == 0.0)
+				break;
+		}
+		bestState = state.clone();
+		if(bestBits != null)
+			bestState.restore(bestBits);
+		log.info(String.format("solution quality: sum of unsatisfied constraints: %f, hard constraints unsatisfied: %d", bestCost, bestHardMissing));
+	}
+
+	/**
+	 * called whenever a new best state was found (after {@link #bestCost} and {@link #bestHardMissing} have been updated)
+	 */
+	protected void onNewBest() {
+	}
+
+	@Override
+	protected void walkSATMove() {
+		// pick an unsatisfied clause, preferring hard constraints
+		int c = numUnsatHard > 0 ? unsatHard[rand.nextInt(numUnsatHard)] : unsat[rand.nextInt(numUnsat)];
+		switch(heuristic) {
+		case Tabu:
+			tabuMove(c);
+			break;
+		case NoveltyPlus:
+			noveltyPlusMove(c);
+			break;
+		default:
+			if(rand.nextDouble() < currentNoise)
+				satisfyRandomly(c);
+			else
+				satisfyGreedily(c);
+		}
+	}
+
+	/**
+	 * computes the decrease in cost that results from flipping the given atom (and, if it is in a block, an appropriate
+	 * second atom, which is stored in {@link #moveSecond})
+	 * @param atom
+	 * @return the decrease in cost or {@link #INFEASIBLE} if the atom cannot be flipped
+	 */
+	protected double moveScore(int atom) {
+		double score = makeScore[atom] - breakScore[atom];
+		moveSecond = -1;
+		int b = blockOf[atom];
+		if(b < 0)
+			return score;
+		int[] block = blocks[b];
+		int trueOne = getTrueOne(block);
+		if(atom != trueOne) { // the second one to flip must be the true one
+			if(trueOne < 0 || isEvidence[trueOne])
+				return INFEASIBLE;
+			moveSecond = trueOne;
+			return score + makeScore[trueOne] - breakScore[trueOne];
+		}
+		// as the second flip, use the best of the others (that have no evidence)
+		double score2 = INFEASIBLE;
+		for(int a2 : block) {
+			if(isEvidence[a2] || a2 == atom)
+				continue;
+			double s = makeScore[a2] - breakScore[a2];
+			if(moveSecond == -1 || s > score2) {
+				score2 = s;
+				moveSecond = a2;
+			}
+		}
+		return moveSecond == -1 ? INFEASIBLE : score + score2;
+	}
+
+	@Override
+	protected void satisfyGreedily(int c) {
+		int best = -1, bestSecond = -1;
+		double bestScore = INFEASIBLE;
+		for(int i = clauseStart[c]; i < clauseStart[c+1]; i++) {
+			int atom = lits[i] >> 1;
+			if(isEvidence[atom])
+				continue;
+			double score = moveScore(atom);
+			if(score == INFEASIBLE)
+				continue;
+			if(best == -1 || score > bestScore || (score == bestScore && rand.nextInt(2) == 1)) {
+				best = atom;
+				bestSecond = moveSecond;
+				bestScore = score;
+			}
+		}
+		flipMove(best, bestSecond);
+	}
+
+	protected void tabuMove(int c) {
+		int best = -1, bestSecond = -1;
+		double bestScore = INFEASIBLE;
+		for(int i = clauseStart[c]; i < clauseStart[c+1]; i++) {
+			int atom = lits[i] >> 1;
+			if(isEvidence[atom])
+				continue;
+			double score = moveScore(atom);
+			if(score == INFEASIBLE)
+				continue;
+			// tabu atoms are admissible only if flipping them yields a new best state (aspiration)
+			if(step - lastFlip[atom] <= tabuTenure && unsatWeight - score >= bestCost)
+				continue;
+			if(best == -1 || score > bestScore || (score == bestScore && rand.nextInt(2) == 1)) {
+				best = atom;
+				bestSecond = moveSecond;
+				bestScore = score;
+			}
+		}
+		if(best == -1) // all atoms are tabu
+			satisfyRandomly(c);
+		else
+			flipMove(best, bestSecond);
+	}
+
+	protected void noveltyPlusMove(int c) {
+		if(rand.nextDouble() < randomWalkProb) {
+			satisfyRandomly(c);
+			return;
+		}
+		// determine the best and second best atoms (breaking ties in favour of the one flipped least recently) as well as the most recently flipped one
+		int best = -1, bestSecond = -1, second = -1, secondSecond = -1, youngest = -1;
+		double bestScore = INFEASIBLE, secondScore = INFEASIBLE;
+		for(int i = clauseStart[c]; i < clauseStart[c+1]; i++) {
+			int atom = lits[i] >> 1;
+			if(isEvidence[atom])
+				continue;
+			double score = moveScore(atom);
+			if(score == INFEASIBLE)
+				continue;
+			if(youngest == -1 || lastFlip[atom] > lastFlip[youngest])
+				youngest = atom;
+			if(best == -1 || score > bestScore || (score == bestScore && lastFlip[atom] < lastFlip[best])) {
+				second = best;
+				secondSecond = bestSecond;
+				secondScore = bestScore;
+				best = atom;
+				bestSecond = moveSecond;
+				bestScore = score;
+			}
+			else if(second == -1 || score > secondScore || (score == secondScore && lastFlip[atom] < lastFlip[second])) {
+				second = atom;
+				secondSecond = moveSecond;
+				secondScore = score;
+			}
+		}
+		if(best == youngest && second != -1 && rand.nextDouble() < currentNoise)
+			flipMove(second, secondSecond);
+		else
+			flipMove(best, bestSecond);
+	}
+
+	/**
+	 * flips the given atom (if any) and the given second atom (if any)
+	 */
+	protected final void flipMove(int atom, int second) {
+		if(atom == -1)
+			return;
+		flip(atom);
+		if(second != -1)
+			flip(second);
+	}
+
+	/**
+	 * flips the given atom, updating the clauses' true literal counts, the break counts and make/break scores, and
+	 * the sets of unsatisfied clauses
+	 * @param atom
+	 */
+	@Override
+	protected void flip(int atom) {
+		value[atom >>> 6] ^= 1L << atom;
+		lastFlip[atom] = step;
+		boolean v = get(atom);
+		for(int k = occStart[atom]; k < occStart[atom+1]; k++) {
+			int o = occs[k];
+			int c = o >> 1;
+			if(v != ((o & 1) == 1)) { // the literal became true
+				int nt = ++numTrue[c];
+				if(active[c]) {
+					double w = weight[c];
+					if(nt == 1) {
+						removeUnsatisfied(c);
+						for(int i = clauseStart[c]; i < clauseStart[c+1]; i++)
+							makeScore[lits[i] >> 1] -= w;
+						breakCount[atom]++;
+						breakScore[atom] += w;
+					}
+					else if(nt == 2) { // the previously true literal is no longer a bottleneck
+						breakCount[trueSum[c]]--;
+						breakScore[trueSum[c]] -= w;
+					}
+				}
+				trueSum[c] += atom;
+			}
+			else { // the literal became false
+				int nt = --numTrue[c];
+				trueSum[c] -= atom;
+				if(!active[c])
+					continue;
+				double w = weight[c];
+				if(nt == 0) {
+					addUnsatisfied(c);
+					for(int i = clauseStart[c]; i < clauseStart[c+1]; i++)
+						makeScore[lits[i] >> 1] += w;
+					breakCount[atom]--;
+					breakScore[atom] -= w;
+				}
+				else if(nt == 1) { // the remaining true literal is now a bottleneck
+					breakCount[trueSum[c]]++;
+					breakScore[trueSum[c]] += w;
+				}
+			}
+		}
+	}
+
+	protected final void addUnsatisfied(int c) {
+		addUnsat(c);
+		unsatWeight += weight[c];
+		if(isHard[c])
+			addUnsatHard(c);
+	}
+
+	protected final void removeUnsatisfied(int c) {
+		removeUnsat(c);
+		unsatWeight -= weight[c];
+		if(isHard[c]) {
+			int pos = unsatHardPos[c];
+			int last = unsatHard[--numUnsatHard];
+			unsatHard[pos] = last;
+			unsatHardPos[last] = pos;
+			unsatHardPos[c] = -1;
+		}
+	}
+
+	protected final void addUnsatHard(int c) {
+		unsatHardPos[c] = numUnsatHard;
+		unsatHard[numUnsatHard++] = c;
+	}
+
+	@Override
+	protected void checkIntegrity() throws ProbCogException {
+		super.checkIntegrity();
+		double[] expectedMake = new double[makeScore.length], expectedBreak = new double[breakScore.length];
+		double expectedUnsatWeight = 0;
+		int expectedUnsatHard = 0;
+		for(int c = 0; c < numClauses; c++) {
+			if(!active[c])
+				continue;
+			if(numTrue[c] == 0) {
+				expectedUnsatWeight += weight[c];
+				if(isHard[c])
+					expectedUnsatHard++;
+				for(int i = clauseStart[c]; i < clauseStart[c+1]; i++)
+					expectedMake[lits[i] >> 1] += weight[c];
+			}
+			else if(numTrue[c] == 1)
+				expectedBreak[trueSum[c]] += weight[c];
+		}
+		if(expectedUnsatHard != numUnsatHard || !approxEquals(expectedUnsatWeight, unsatWeight))
+			throw new ProbCogException("Unsatisfied clause weights corrupted");
+		for(int a = 0; a < makeScore.length; a++)
+			if(!approxEquals(expectedMake[a], makeScore[a]) || !approxEquals(expectedBreak[a], breakScore[a]))
+				throw new ProbCogException("Make/break scores of atom " + a + " corrupted");
+	}
+
+	protected static boolean approxEquals(double a, double b) {
+		return Math.abs(a - b) <= 1e-6 * (1 + Math.abs(a));
+	}
+
+	@Override
+	public PossibleWorld getBestState() {
+		return bestState;
+	}
+
+	/**
+	 * @return the sum of the weights of the clauses that are unsatisfied in the best state
+	 */
+	public double getBestCost() {
+		return bestCost;
+	}
+
+	/**
+	 * @return the number of hard clauses that are unsatisfied in the best state
+	 */
+	public int getBestHardMissing() {
+		return bestHardMissing;
+	}
+
+	@Override
+	public void setMaxSteps(int steps) {
+		maxSteps = steps;
+	}
+
+	/**
+	 * sets the number of times the search is started from a random state, each try performing up to maxSteps steps
+	 * @param maxTries
+	 */
+	public void setMaxTries(int maxTries) {
+		this.maxTries = maxTries;
+	}
+
+	/**
+	 * @param name the name of the heuristic (case-insensitive; "Novelty+" is accepted for {@link Heuristic#NoveltyPlus})
+	 * @throws ProbCogException if there is no such heuristic
+	 */
+	public void setHeuristic(String name) throws ProbCogException {
+		for(Heuristic h : Heuristic.values())
+			if(h.name().equalsIgnoreCase(name.replace("+", "Plus"))) {
+				heuristic = h;
+				return;
+			}
+		throw new ProbCogException("Unknown heuristic '" + name + "'; valid values: " + Arrays.toString(Heuristic.values()));
+	}
+
+	public void setTabuTenure(int tabuTenure) {
+		this.tabuTenure = tabuTenure;
+	}
+
+	public void setNoise(double noise) {
+		this.noise = noise;
+	}
+
+	public void setRandomWalkProb(double p) {
+		this.randomWalkProb = p;
+	}
+
+	public void setAdaptiveNoise(boolean adaptiveNoise) {
+		this.adaptiveNoise = adaptiveNoise;
+	}
+
+	/**
+	 * copies the search settings (number of steps and tries, heuristic and its parameters) from another instance
+	 * @param other
+	 */
+	public void copySettingsFrom(FastMaxWalkSAT other) {
+		maxSteps = other.maxSteps;
+		maxTries = other.maxTries;
+		heuristic = other.heuristic;
+		tabuTenure = other.tabuTenure;
+		noise = other.noise;
+		randomWalkProb = other.randomWalkProb;
+		adaptiveNoise = other.adaptiveNoise;
+		pSampleSAT = other.pSampleSAT;
+		pWalkSAT = other.pWalkSAT;
+	}
+
+	@Override
+	public String getAlgorithmName() {
+		String params;
+		switch(heuristic) {
+		case Tabu:
+			params = String.format("tenure=%d", tabuTenure);
+			break;
+		case NoveltyPlus:
+			params = adaptiveNoise ? String.format("adaptive, wp=%f", randomWalkProb) : String.format("noise=%f, wp=%f", noise, randomWalkProb);
+			break;
+		default:
+			params = adaptiveNoise ? "adaptive" : String.format("p=%f", pWalkSAT);
+		}
+		return String.format("%s[%s, %s, tries=%d]", getClass().getSimpleName(), heuristic, params, maxTries);
+	}
+}
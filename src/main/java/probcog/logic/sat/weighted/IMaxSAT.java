@@ -19,12 +19,13 @@
 package probcog.logic.sat.weighted;
 
 import probcog.exception.ProbCogException;
+import probcog.inference.IParameterHandler;
 
 /**
  * An interface for Maximum SAT
  * @author Dominik Jain
  */
-public interface IMaxSAT {
+public interface IMaxSAT extends IParameterHandler {
 	public void run() throws ProbCogException;
 	public void setMaxSteps(int steps);
 	public probcog.logic.PossibleWorld getBestState();
@@ -18,10 +18,19 @@
  ******************************************************************************/
 package probcog.logic.sat.weighted;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 import probcog.exception.ProbCogException;
+import probcog.inference.CancellationToken;
 import probcog.inference.IParameterHandler;
 import probcog.inference.ParameterHandler;
 import probcog.logic.Formula;
@@ -29,6 +38,7 @@ import probcog.logic.GroundAtom;
 import probcog.logic.GroundLiteral;
 import probcog.logic.PossibleWorld;
 import probcog.logic.WorldVariables;
+import probcog.logic.sat.FastSampleSAT;
 import probcog.logic.sat.SampleSAT;
 import probcog.logic.sat.weighted.WeightedClausalKB.FormulaAndClauses;
 import probcog.srl.Database;
@@ -51,6 +61,41 @@ public class MCSAT implements IParameterHandler {
 	protected ParameterHandler paramHandler;
 	protected SampleSAT sat;
 	protected Vector<SoftEvidence> softEvidence;
+	protected CancellationToken cancellationToken = new CancellationToken();
+	/**
+	 * the most recently published copy of the distribution, which is returned by {@link #pollResults()}
+	 */
+	protected final AtomicReference<GroundAtomDistribution> snapshot = new AtomicReference<GroundAtomDistribution>();
+	/**
+	 * the number of steps after which a new snapshot of the distribution is published
+	 */
+	protected int snapshotInterval = 10;
+	/**
+	 * whether to compile all clauses into the SAT sampler once and to switch constraints between steps by 
+	 * (de)activating clauses rather than reinstantiating the sampler's constraints in every step
+	 * (requires a {@link FastSampleSAT})
+	 */
+	protected boolean incrementalConstraints = true;
+	/**
+	 * for incremental constraint switching: the formulas, the indices of their first clauses in the SAT sampler
+	 * (formulaClauseStart[i+1] being the end index for formula i) and the index of the first soft evidence clause
+	 */
+	protected FormulaAndClauses[] formulas;
+	protected int[] formulaClauseStart;
+	/**
+	 * for incremental constraint switching: exp(-w) for each formula with weight w, such that a formula that
+	 * is satisfied is selected with probability 1-exp(-w) if a uniform random number exceeds the value
+	 */
+	protected double[] formulaThreshold;
+	protected int softEvidenceStart;
+	/**
+	 * the number of Markov chains to run in parallel (each in its own thread)
+	 */
+	protected int numChains = 1;
+	/**
+	 * whether to use the array-based SAT sampler rather than the object-based one
+	 */
+	protected boolean fastSampleSAT = true;
 	
 	public class SoftEvidence {
 		public WeightedClause wc;
@@ -71,12 +116,15 @@ public class MCSAT implements IParameterHandler {
 		this.dist = new GroundAtomDistribution(vars);
 		this.paramHandler = new ParameterHandler(this);
 		this.softEvidence = new Vector<SoftEvidence>();
-		PossibleWorld state = new PossibleWorld(vars);
-		sat = new SampleSAT(state, vars, db.getEntries());				
+		sat = newSAT();
 		paramHandler.addSubhandler(sat.getParameterHandler());
+		paramHandler.add("fastSampleSAT", "setFastSampleSAT", "whether to use the array-based SampleSAT engine (required for incremental constraint switching)");
 		paramHandler.add("infoInterval", "setInfoInterval");
 		paramHandler.add("verbose", "setVerbose");
 		paramHandler.add("random", "setRandom");
+		paramHandler.add("snapshotInterval", "setSnapshotInterval");
+		paramHandler.add("incrementalConstraints", "setIncrementalConstraints");
+		paramHandler.add("numChains", "setNumChains");
 	}	
 	
 	public WeightedClausalKB getKB() {
@@ -98,6 +146,59 @@ public class MCSAT implements IParameterHandler {
 	public void setRandom(Random random) {
 		this.rand = random;
 	}
+	
+	public void setSnapshotInterval(int interval) {
+		this.snapshotInterval = interval;
+	}
+	
+	/**
+	 * selects the SAT sampler to use
+	 * @param fast whether to use {@link FastSampleSAT} rather than {@link SampleSAT}
+	 * @throws ProbCogException
+	 */
+	public void setFastSampleSAT(boolean fast) throws ProbCogException {
+		if(fast == (sat instanceof FastSampleSAT))
+			return;
+		paramHandler.removeSubhandler(sat.getParameterHandler());
+		fastSampleSAT = fast;
+		SampleSAT previous = sat;
+		sat = newSAT();
+		// retain the settings of the previous sampler (parameters are not necessarily resubmitted to the new one)
+		sat.setPSampleSAT(previous.getPSampleSAT());
+		sat.setPWalkSAT(previous.getPWalkSAT());
+		sat.setRandom(rand);
+		sat.setCancellationToken(cancellationToken);
+		paramHandler.addSubhandler(sat.getParameterHandler());
+	}
+	
+	protected SampleSAT newSAT() throws ProbCogException {
+		PossibleWorld state = new PossibleWorld(vars);
+		if(fastSampleSAT)
+			return new FastSampleSAT(state, vars, db.getEntries());
+		return new SampleSAT(state, vars, db.getEntries());
+	}
+	
+	public void setIncrementalConstraints(boolean enabled) {
+		this.incrementalConstraints = enabled;
+	}
+	
+	/**
+	 * sets the number of Markov chains, each of which is run in a separate thread with its own SAT sampler;
+	 * the samples of all chains are combined 
+	 * @param numChains
+	 */
+	public void setNumChains(int numChains) {
+		this.numChains = numChains;
+	}
+	
+	/**
+	 * sets the token via which the sampling process (including the SAT sampler's search) can be asked to terminate
+	 * @param token
+	 */
+	public void setCancellationToken(CancellationToken token) {
+		this.cancellationToken = token;
+		sat.setCancellationToken(token);
+	}
 
 	public GroundAtomDistribution run(int steps) throws ProbCogException {
 		if(debug) {
@@ -109,23 +210,179 @@ public class MCSAT implements IParameterHandler {
 		verbose = verbose || debug;
 		if(verbose) 
 			System.out.printf("%s sampling (%d weighted formulas)...\n", this.getAlgorithmName(), this.kb.size());		
+		snapshot.set(null);
+		
+		// create the chains; the first chain uses this object's SAT sampler and random number generator
+		Chain[] chains = new Chain[numChains];
+		chains[0] = new Chain(sat, rand, true);
+		for(int c = 1; c < numChains; c++) {
+			SampleSAT chainSAT = newSAT();
+			chainSAT.setPSampleSAT(sat.getPSampleSAT());
+			chainSAT.setPWalkSAT(sat.getPWalkSAT());
+			chainSAT.setCancellationToken(cancellationToken);
+			// the chain's SAT sampler uses the chain's (seeded) random number generator, such that results are reproducible
+			Random chainRandom = new Random(rand.nextLong());
+			chainSAT.setRandom(chainRandom);
+			chains[c] = new Chain(chainSAT, chainRandom, false);
+		}
 		
-		// find initial state satisfying all hard constraints
+		// find initial states satisfying all hard constraints
 		if(verbose) System.out.println("finding initial state...");
-		Vector<WeightedClause> M = new Vector<WeightedClause>();
-		for(FormulaAndClauses fac : kb.getFormulasAndClauses()) {
-			WeightedFormula wf = fac.weightedFormula;
-			if(wf.isHard) {
-				M.addAll(fac.weightedClauses);
+		Vector<WeightedClause> allClauses = null;
+		if(incrementalConstraints)
+			allClauses = initIncrementalConstraints();
+		for(Chain chain : chains)
+			chain.initialize(allClauses);
+		
+		// actual MC-SAT sampling, performed in rounds, after each of which the chains' samples are merged (in a fixed order)
+		ExecutorService executor = numChains > 1 ? Executors.newFixedThreadPool(numChains) : null;
+		try {
+			List<Chain> tasks = Arrays.asList(chains);
+			int roundSize = Math.max(snapshotInterval, 1) * numChains;
+			for(int taken = 0; taken < steps && !cancellationToken.isCancelled();) {
+				int n = Math.min(roundSize, steps - taken);
+				for(int c = 0; c < numChains; c++)
+					chains[c].numSteps = n / numChains + (c < n % numChains ? 1 : 0);
+				if(executor == null)
+					chains[0].call();
+				else
+					for(Future<Void> f : executor.invokeAll(tasks))
+						f.get();
+				for(Chain chain : chains)
+					dist.merge(chain.roundDist);
+				publishSnapshot();
+				taken += n;
 			}
-		}		
-		sat.setDebugMode(debug);
-		sat.initConstraints(M);
-		sat.run();
+		}
+		catch(InterruptedException e) {
+			throw new ProbCogException(e);
+		}
+		catch(ExecutionException e) {
+			if(e.getCause() instanceof ProbCogException)
+				throw (ProbCogException)e.getCause();
+			throw new ProbCogException(e.getCause());
+		}
+		finally {
+			if(executor != null)
+				executor.shutdownNow();
+		}
+		dist.normalize();
+		publishSnapshot();
 		
-		// actual MC-SAT sampling
-		for(int i = 0; i < steps; i++) {
-			
+		return dist;
+	}
+	
+	/**
+	 * determines the sequence of all clauses (including the soft evidence clauses) that are compiled into the SAT 
+	 * samplers for incremental constraint switching, along with the formulas' clause index ranges
+	 * @return the clauses
+	 */
+	protected Vector<WeightedClause> initIncrementalConstraints() {
+		List<FormulaAndClauses> facs = kb.getFormulasAndClauses();
+		formulas = facs.toArray(new FormulaAndClauses[facs.size()]);
+		formulaClauseStart = new int[formulas.length+1];
+		formulaThreshold = new double[formulas.length];
+		Vector<WeightedClause> clauses = new Vector<WeightedClause>();
+		for(int i = 0; i < formulas.length; i++) {
+			formulaClauseStart[i] = clauses.size();
+			formulaThreshold[i] = Math.exp(-formulas[i].weightedFormula.weight);
+			clauses.addAll(formulas[i].weightedClauses);
+		}
+		formulaClauseStart[formulas.length] = softEvidenceStart = clauses.size();
+		for(SoftEvidence se : softEvidence)
+			clauses.add(se.wc);
+		return clauses;
+	}
+	
+	/**
+	 * an MC-SAT Markov chain with its own SAT sampler (and thus state), random number generator and soft 
+	 * evidence counts; when called, it takes numSteps steps, collecting the samples in its round distribution 
+	 */
+	protected class Chain implements Callable<Void> {
+		protected SampleSAT sat;
+		protected Random rand;
+		protected boolean incremental, isMain;
+		protected GroundAtomDistribution roundDist;
+		protected double[] softEvidenceCounts;
+		protected Vector<WeightedClause> M = new Vector<WeightedClause>();
+		/**
+		 * the number of steps taken so far
+		 */
+		protected int step = 0;
+		/**
+		 * the number of steps to take in the next call
+		 */
+		public int numSteps;
+		
+		/**
+		 * @param sat the chain's SAT sampler
+		 * @param rand the chain's random number generator
+		 * @param isMain whether this is the main chain (which reports progress)
+		 */
+		public Chain(SampleSAT sat, Random rand, boolean isMain) {
+			this.sat = sat;
+			this.rand = rand;
+			this.isMain = isMain;
+			incremental = incrementalConstraints && sat instanceof FastSampleSAT;
+			roundDist = new GroundAtomDistribution(vars);
+			softEvidenceCounts = new double[softEvidence.size()];
+		}
+		
+		/**
+		 * initializes the chain's SAT sampler and finds an initial state that satisfies all hard constraints
+		 * @param allClauses for incremental constraint switching, the clauses to compile
+		 * @throws ProbCogException
+		 */
+		public void initialize(List<WeightedClause> allClauses) throws ProbCogException {
+			sat.setDebugMode(debug);
+			if(incremental) {
+				FastSampleSAT fsat = (FastSampleSAT)sat;
+				fsat.initConstraints(allClauses);
+				for(int i = 0; i < formulas.length; i++)
+					fsat.setActive(formulaClauseStart[i], formulaClauseStart[i+1], formulas[i].weightedFormula.isHard);
+				fsat.setActive(softEvidenceStart, allClauses.size(), false);
+			}
+			else {
+				M.clear();
+				for(FormulaAndClauses fac : kb.getFormulasAndClauses()) {
+					WeightedFormula wf = fac.weightedFormula;
+					if(wf.isHard) {
+						M.addAll(fac.weightedClauses);
+					}
+				}		
+				sat.initConstraints(M);
+			}
+			sat.run();
+		}
+		
+		@Override
+		public Void call() throws ProbCogException {
+			roundDist.clear();
+			for(int j = 0; j < numSteps && !cancellationToken.isCancelled(); j++) {
+				int numConstraints = incremental ? selectConstraintsIncrementally() : selectConstraints();
+				step++;
+				if(isMain && verbose && step % infoInterval == 0) {
+					System.out.printf("MC-SAT step %d: %d constraints to be satisfied\n", step, numConstraints);
+					if(debug && !incremental) {
+						for(WeightedClause wc : M)
+							System.out.println("    " + wc);
+					}
+				}
+				sat.run();
+				// if the SAT sampler was cancelled, its state is not a valid sample
+				if(cancellationToken.isCancelled())
+					break;
+				roundDist.addSample(sat.getState(), 1.0);
+			}
+			return null;
+		}
+		
+		/**
+		 * selects the constraints to be satisfied in the current step by instantiating the SAT sampler's constraints
+		 * @return the number of clauses to be satisfied
+		 * @throws ProbCogException
+		 */
+		protected int selectConstraints() throws ProbCogException {
 			M.clear();
 			
 			for(FormulaAndClauses fac : kb.getFormulasAndClauses()) {
@@ -138,34 +395,52 @@ public class MCSAT implements IParameterHandler {
 			}
 			
 			// soft evidence clauses
-			if(i > 0)
-				for(SoftEvidence se : this.softEvidence) {
+			if(step > 0)
+				for(int j = 0; j < softEvidence.size(); j++) {
+					SoftEvidence se = softEvidence.get(j);
 					if(se.wc.isTrue(sat.getState())) {
-						se.count += 1;
-						if(se.count/i < se.p)
+						softEvidenceCounts[j] += 1;
+						if(softEvidenceCounts[j]/step < se.p)
 							M.add(se.wc);							
 					}
-				}			
-			
-			if(verbose && (i+1) % infoInterval == 0) {
-				System.out.printf("MC-SAT step %d: %d constraints to be satisfied\n", i+1, M.size());
-				if(debug) {
-					for(WeightedClause wc : M)
-						System.out.println("    " + wc);
 				}
-			}
-			sat.initConstraints(M);
-			sat.run();
 			
-			synchronized(dist) {
-				dist.addSample(sat.getState(), 1.0);
-			}
-		}
-		synchronized(dist) {
-			dist.normalize();
+			sat.initConstraints(M);
+			return M.size();
 		}
 		
-		return dist;
+		/**
+		 * selects the constraints to be satisfied in the current step by activating the clauses of the
+		 * formulas that were chosen (based on the truth values of the clauses in the current state)
+		 * @return the number of active clauses
+		 */
+		protected int selectConstraintsIncrementally() {
+			FastSampleSAT fsat = (FastSampleSAT)sat;
+			int numActive = 0;
+			for(int i = 0; i < formulas.length; i++) {
+				int from = formulaClauseStart[i], to = formulaClauseStart[i+1];
+				boolean satisfy = false;
+				if(fsat.areSatisfied(from, to))
+					satisfy = formulas[i].weightedFormula.isHard || rand.nextDouble() > formulaThreshold[i];
+				fsat.setActive(from, to, satisfy);
+				if(satisfy)
+					numActive += to - from;
+			}
+			// soft evidence clauses
+			for(int j = 0; j < softEvidence.size(); j++) {
+				SoftEvidence se = softEvidence.get(j);
+				int c = softEvidenceStart + j;
+				boolean satisfy = false;
+				if(step > 0 && fsat.isSatisfied(c)) {
+					softEvidenceCounts[j] += 1;
+					satisfy = softEvidenceCounts[j]/step < se.p;
+				}
+				fsat.setActive(c, satisfy);
+				if(satisfy)
+					numActive++;
+			}
+			return numActive;
+		}
 	}
 	
 	public void setP(double p) {
@@ -184,15 +459,31 @@ public class MCSAT implements IParameterHandler {
 		}
 		
 		public void addSample(PossibleWorld w, double weight){
-			for(GroundAtom ga : w.getVariables()){
-				if(w.isTrue(ga)){
-					sums[ga.index] += weight;
-				}
-			}
+			w.accumulateTrue(sums, weight);
 			Z += weight;
 			numSamples++;
 		}
 		
+		/**
+		 * adds the samples of another distribution to this one
+		 * @param other a distribution over the same set of variables
+		 */
+		public void merge(GroundAtomDistribution other) {
+			for(int i = 0; i < sums.length; i++)
+				sums[i] += other.sums[i];
+			Z += other.Z;
+			numSamples += other.numSamples;
+		}
+		
+		/**
+		 * removes all samples from this distribution
+		 */
+		public void clear() {
+			Arrays.fill(sums, 0.0);
+			Z = 0.0;
+			numSamples = 0;
+		}
+		
 		public void normalize(){
 			if(Z != 1.0) {
 				for(int i = 0; i < sums.length; i++){
@@ -207,7 +498,9 @@ public class MCSAT implements IParameterHandler {
 		}
 		
 		public GroundAtomDistribution clone() throws CloneNotSupportedException {
-			return (GroundAtomDistribution)super.clone();
+			GroundAtomDistribution d = (GroundAtomDistribution)super.clone();
+			d.sums = sums.clone();
+			return d;
 		}
 	}
 
@@ -215,17 +508,22 @@ public class MCSAT implements IParameterHandler {
 		return dist.getResult(ga.index);
 	}
 	
-	public GroundAtomDistribution pollResults() throws ProbCogException {
-		GroundAtomDistribution ret = null;
-		synchronized(dist) {
-			try {
-				ret = this.dist.clone();
-			} 
-			catch (CloneNotSupportedException e) {
-				throw new ProbCogException(e);
-			}
+	protected void publishSnapshot() throws ProbCogException {
+		try {
+			snapshot.set(dist.clone());
+		} 
+		catch (CloneNotSupportedException e) {
+			throw new ProbCogException(e);
 		}
-		return ret;
+	}
+	
+	/**
+	 * polls the results while sampling is in progress without blocking the sampler 
+	 * @return the most recently published snapshot of the distribution (which must not be modified) or null if none was published yet
+	 * @throws ProbCogException
+	 */
+	public GroundAtomDistribution pollResults() throws ProbCogException {
+		return snapshot.get();
 	}
 
 	public ParameterHandler getParameterHandler() {
@@ -163,7 +163,7 @@ public class MaxWalkSAT extends SampleSAT implements IMaxSAT {
 								newBest ? "[NEW BEST]" : ""));
 			}
 			
-			if(sumOfWeightsOfUnsatisfiedConstraints == 0)
+			if(sumOfWeightsOfUnsatisfiedConstraints == 0 || unsatisfiedConstraints.isEmpty()) // (the sum may deviate from 0 due to rounding errors)
 				break;
 			
 			makeMove();
@@ -0,0 +1,288 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.logic.sat.weighted;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import probcog.exception.ProbCogException;
+import probcog.inference.CancellationToken;
+import probcog.logic.PossibleWorld;
+import probcog.logic.WorldVariables;
+import probcog.logic.sat.FastSampleSAT;
+import probcog.srl.Database;
+
+/**
+ * Portfolio MaxWalkSAT: runs several independent walks of {@link FastMaxWalkSAT} on a pool of threads and returns
+ * the best state found by any of them.
+ * The first walk uses the settings of a template instance; the other walks use different random seeds and
+ * cycle through the variable selection heuristics and noise levels (see {@link #configureWalk(FastMaxWalkSAT, int)}).
+ * The clauses are compiled once, by the template, and the walks share the compiled clauses
+ * (see {@link FastSampleSAT#shareConstraints(FastSampleSAT)}).
+ * The cost of the best state found so far is shared among the walks via an atomic variable, such that only actual
+ * improvements require synchronization. All walks are stopped as soon as a state that satisfies all clauses is found
+ * or, optionally, if the hard constraints are satisfied and the best state has not improved for a given amount of time.
+ * @author Dominik Jain
+ */
+public class ParallelMaxWalkSAT {
+	protected WeightedClausalKB kb;
+	protected WorldVariables vars;
+	protected Database db;
+	protected FastMaxWalkSAT template;
+	protected int numThreads;
+	protected int numWalks;
+	protected Long stagnationTimeMs = null;
+	protected Random rand = new Random();
+	protected boolean verbose = false;
+	protected CancellationToken cancellationToken = new CancellationToken();
+	/**
+	 * the bits of the cost of the best state found so far (see {@link Double#doubleToLongBits(double)})
+	 */
+	protected final AtomicLong bestCostBits = new AtomicLong();
+	protected long[] bestBits;
+	protected double bestCost;
+	protected int bestHardMissing;
+	protected int bestWalk;
+	protected volatile long lastImprovementTime;
+	/**
+	 * the interval (in milliseconds) in which the stopping criterion is checked
+	 */
+	protected static final long POLL_INTERVAL_MS = 20;
+	/**
+	 * the noise levels the diversified walks cycle through
+	 */
+	protected static final double[] NOISE_LEVELS = {0.5, 0.2, 0.35, 0.65};
+
+	/**
+	 * @param kb the weighted clauses
+	 * @param vars the set of variables the MAX-SAT problem is defined on
+	 * @param db the evidence database
+	 * @param template the instance whose settings are used by the first walk (and, except for heuristic and noise, by all other walks)
+	 * and which compiles the clauses for all walks
+	 * @param numThreads the number of threads to run walks in
+	 */
+	public ParallelMaxWalkSAT(WeightedClausalKB kb, WorldVariables vars, Database db, FastMaxWalkSAT template, int numThreads) {
+		this.kb = kb;
+		this.vars = vars;
+		this.db = db;
+		this.template = template;
+		this.numThreads = numThreads;
+		this.numWalks = numThreads;
+	}
+
+	/**
+	 * sets the total number of walks (default: the number of threads)
+	 * @param numWalks
+	 */
+	public void setNumWalks(int numWalks) {
+		this.numWalks = numWalks;
+	}
+
+	/**
+	 * sets the time after which the search is stopped if the best state satisfies all hard constraints and has not improved
+	 * @param stagnationTimeMs the time in milliseconds or null to run all walks to completion
+	 */
+	public void setStagnationTimeMs(Long stagnationTimeMs) {
+		this.stagnationTimeMs = stagnationTimeMs;
+	}
+
+	public void setRandom(Random rand) {
+		this.rand = rand;
+	}
+
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * configures the walk with the given index: walk 0 retains the template's settings, while the others cycle through
+	 * WalkSAT, Novelty+ (with and without adaptive noise) and tabu search with varying noise levels and tabu tenures
+	 * @param walk
+	 * @param index
+	 */
+	protected void configureWalk(FastMaxWalkSAT walk, int index) {
+		if(index == 0)
+			return;
+		double noiseLevel = NOISE_LEVELS[(index / 3) % NOISE_LEVELS.length];
+		switch(index % 3) {
+		case 0:
+			walk.heuristic = FastMaxWalkSAT.Heuristic.WalkSAT;
+			walk.adaptiveNoise = false;
+			walk.setPWalkSAT(noiseLevel);
+			break;
+		case 1:
+			walk.heuristic = FastMaxWalkSAT.Heuristic.NoveltyPlus;
+			walk.adaptiveNoise = (index / 3) % 2 == 0;
+			walk.noise = noiseLevel;
+			break;
+		default:
+			walk.heuristic = FastMaxWalkSAT.Heuristic.Tabu;
+			walk.tabuTenure = 5 + 5 * ((index / 3) % 4);
+		}
+	}
+
+	/**
+	 * runs the walks
+	 * @throws ProbCogException
+	 */
+	public void run() throws ProbCogException {
+		template.initConstraints(kb);
+		bestCostBits.set(Double.doubleToLongBits(Double.MAX_VALUE));
+		bestCost = Double.MAX_VALUE;
+		bestHardMissing = Integer.MAX_VALUE;
+		bestBits = null;
+		bestWalk = -1;
+		lastImprovementTime = System.currentTimeMillis();
+		cancellationToken = new CancellationToken();
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for(int i = 0; i < numWalks; i++) {
+				final int index = i;
+				final long seed = rand.nextLong();
+				futures.add(executor.submit(() -> {
+					if(!cancellationToken.isCancelled())
+						new Walk(index, seed).run();
+					return null;
+				}));
+			}
+			executor.shutdown();
+			while(!executor.awaitTermination(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+				if(!cancellationToken.isCancelled() && isStagnant()) {
+					if(verbose)
+						System.out.printf("portfolio MaxWalkSAT: no improvement within %d ms, stopping\n", stagnationTimeMs);
+					cancellationToken.cancel();
+				}
+			}
+			for(Future<Void> f : futures)
+				getResult(f);
+		}
+		catch(InterruptedException e) {
+			throw new ProbCogException(e);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		if(verbose)
+			System.out.printf("portfolio MaxWalkSAT: best state found by walk %d, sum of unsatisfied weights: %f, hard constraints unsatisfied: %d\n", bestWalk, bestCost, bestHardMissing);
+	}
+
+	protected synchronized boolean isStagnant() {
+		return stagnationTimeMs != null && bestHardMissing == 0 && System.currentTimeMillis() - lastImprovementTime > stagnationTimeMs;
+	}
+
+	protected void getResult(Future<Void> f) throws ProbCogException {
+		try {
+			f.get();
+		}
+		catch(InterruptedException e) {
+			throw new ProbCogException(e);
+		}
+		catch(ExecutionException e) {
+			if(e.getCause() instanceof ProbCogException)
+				throw (ProbCogException)e.getCause();
+			throw new ProbCogException(e.getCause());
+		}
+	}
+
+	/**
+	 * offers a walk's new best state, which replaces the overall best state if it is better
+	 * @param walk
+	 */
+	protected void offer(Walk walk) {
+		double cost = walk.getBestCost();
+		// filter states that are no improvement without locking
+		long current;
+		do {
+			current = bestCostBits.get();
+			if(cost >= Double.longBitsToDouble(current))
+				return;
+		} while(!bestCostBits.compareAndSet(current, Double.doubleToLongBits(cost)));
+		synchronized(this) {
+			// another walk may have stored an even better state in the meantime
+			if(cost >= bestCost)
+				return;
+			bestCost = cost;
+			bestHardMissing = walk.getBestHardMissing();
+			bestWalk = walk.index;
+			if(bestBits == null)
+				bestBits = walk.bestBits.clone();
+			else
+				System.arraycopy(walk.bestBits, 0, bestBits, 0, bestBits.length);
+			lastImprovementTime = System.currentTimeMillis();
+			if(verbose)
+				System.out.printf("  walk %d: %d hard constraints unsatisfied, sum of unsatisfied weights: %f [NEW BEST]\n", walk.index, bestHardMissing, cost);
+		}
+	}
+
+	/**
+	 * @return the best state found by any of the walks
+	 */
+	public synchronized PossibleWorld getBestState() {
+		PossibleWorld w = new PossibleWorld(vars);
+		if(bestBits != null)
+			w.restore(bestBits);
+		return w;
+	}
+
+	/**
+	 * @return the sum of the weights of the clauses that are unsatisfied in the best state
+	 */
+	public synchronized double getBestCost() {
+		return bestCost;
+	}
+
+	/**
+	 * @return the number of hard clauses that are unsatisfied in the best state
+	 */
+	public synchronized int getBestHardMissing() {
+		return bestHardMissing;
+	}
+
+	protected class Walk extends FastMaxWalkSAT {
+		protected int index;
+
+		public Walk(int index, long seed) throws ProbCogException {
+			// (several fields of the enclosing instance are shadowed by the ones inherited from SampleSAT)
+			super(ParallelMaxWalkSAT.this.kb, new PossibleWorld(ParallelMaxWalkSAT.this.vars), ParallelMaxWalkSAT.this.vars, ParallelMaxWalkSAT.this.db);
+			this.index = index;
+			shareConstraints(template);
+			copySettingsFrom(template);
+			configureWalk(this, index);
+			setRandom(new Random(seed));
+			setCancellationToken(ParallelMaxWalkSAT.this.cancellationToken);
+			setVerbose(false);
+		}
+
+		@Override
+		protected void onNewBest() {
+			offer(this);
+			// a state satisfying all clauses cannot be improved upon
+			if(numUnsat == 0)
+				ParallelMaxWalkSAT.this.cancellationToken.cancel();
+		}
+	}
+}
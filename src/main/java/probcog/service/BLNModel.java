@@ -25,6 +25,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Vector;
 
+import edu.ksu.cis.bnj.ver3.core.BeliefNode;
 import edu.tum.cs.util.StringTool;
 import edu.tum.cs.util.datastruct.Pair;
 import probcog.exception.ProbCogException;
@@ -44,6 +45,10 @@ public class BLNModel extends Model {
 
 	protected BayesianLogicNetwork bln;
 	protected GroundBLN gbln;
+	/**
+	 * the ground model key (see {@link Model#getGroundModelKey(Database, boolean)}) of the database for which gbln was last updated
+	 */
+	protected String gblnKey;
 	protected Database db;
 	protected String filenames;
 	
@@ -55,14 +60,62 @@ public class BLNModel extends Model {
 	
 	@Override
 	public void instantiate() throws ProbCogException {
+		// the ground network structure depends on the evidence only in ways that are checked upon reuse,
+		// so the key need not include the evidence
+		String key = getGroundModelKey(db, false);
+		if(gbln != null && !key.equals(gblnKey))
+			releaseGroundModel();
+		boolean fromCache = false;
+		if(gbln == null && groundModelCache != null) {
+			gbln = (GroundBLN)groundModelCache.take(key);
+			if(gbln != null) {
+				paramHandler.addSubhandler(gbln);
+				fromCache = true;
+			}
+		}
+		// if only evidence changed that the network structure does not depend on, reuse the ground network
+		if(gbln != null) {
+			if(gbln.updateDatabase(db)) {
+				gblnKey = key;
+				return;
+			}
+			if(fromCache)
+				groundModelCache.reportStale();
+			paramHandler.removeSubhandler(gbln);
+		}
 		gbln = bln.ground(db);
+		gbln.setIncrementalGrounding(true); // (can be overridden via parameters)
 		paramHandler.addSubhandler(gbln);
 		gbln.instantiateGroundNetwork();
+		gblnKey = key;
+	}
+	
+	@Override
+	public void releaseGroundModel() {
+		if(gbln == null)
+			return;
+		paramHandler.removeSubhandler(gbln);
+		if(groundModelCache != null && gbln.supportsIncrementalGrounding()) 
+			groundModelCache.put(gblnKey, gbln, estimateSize(gbln));
+		gbln = null;
+		gblnKey = null;
+	}
+	
+	/**
+	 * @return a rough estimate of the memory occupied by the given ground model in bytes 
+	 */
+	protected static long estimateSize(GroundBLN gbln) {
+		long size = 0;
+		for(BeliefNode node : gbln.getGroundNetwork().bn.getNodes())
+			size += 256 + 16 * node.getCPF().size();
+		return size;
 	}
 	
 	@Override
 	public void beginSession(Map<String, Object> params) throws ProbCogException {
 		super.beginSession(params);
+		if(db != null)
+			paramHandler.removeSubhandler(db);
 		db = new Database(bln.rbn);
 		paramHandler.addSubhandler(db);
 	}
@@ -73,7 +126,13 @@ public class BLNModel extends Model {
 		paramHandler.addSubhandler(inference);		
 		inference.setGroundBLN(gbln);
 		inference.setQueries(queries);
-		Collection<probcog.srl.directed.inference.InferenceResult> results = inference.run();
+		Collection<probcog.srl.directed.inference.InferenceResult> results;
+		try {
+			results = inference.run();
+		}
+		finally {
+			paramHandler.removeSubhandler(inference); // the inference object is specific to this query
+		}
 		
 		// store results in common InferenceResult format
 		Vector<InferenceResult> ret = new Vector<InferenceResult>();
@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Vector;
+
+import probcog.exception.ProbCogException;
+
+/**
+ * The binary request/response protocol of the network front-end of the ProbCog service (see {@link NetworkServer}).
+ * <p>
+ * Every message is a frame that consists of a 32-bit payload length followed by the payload.
+ * All integers are big-endian, strings are encoded as a 32-bit byte count followed by the string's UTF-8 bytes,
+ * and a string array is encoded as a 32-bit element count followed by the elements.
+ * The payload starts with a message type byte and a 32-bit request ID (chosen by the client and echoed in the response):
+ * <ul>
+ * <li>query request ({@link #QUERY}): model name, queries (string array), number of evidence tuples followed by the
+ *     tuples (string arrays with the function name, the arguments and, for non-Boolean functions, the value)</li>
+ * <li>results response ({@link #RESULTS}): number of results followed by the results, each of which consists
+ *     of the function name, the arguments (string array) and the probability (64-bit IEEE 754 double)</li>
+ * <li>error response ({@link #ERROR}): error message</li>
+ * </ul>
+ * Clients can send several requests without waiting for responses (pipelining); responses are sent in the order in which
+ * the requests were received.
+ * @author Dominik Jain
+ */
+public class BinaryProtocol {
+	public static final byte QUERY = 1;
+	public static final byte RESULTS = 2;
+	public static final byte ERROR = 3;
+	/**
+	 * the maximum payload size of a frame
+	 */
+	public static final int MAX_FRAME_SIZE = 64 << 20;
+
+	public static class Request {
+		public int id;
+		public String modelName;
+		public Vector<String> queries;
+		public Vector<String[]> evidence;
+
+		public Request(int id, String modelName, Vector<String> queries, Vector<String[]> evidence) {
+			this.id = id;
+			this.modelName = modelName;
+			this.queries = queries;
+			this.evidence = evidence;
+		}
+	}
+
+	public static class Response {
+		public int id;
+		/**
+		 * the inference results (null if an error occurred)
+		 */
+		public Vector<InferenceResult> results;
+		/**
+		 * the error message (null if the request was processed successfully)
+		 */
+		public String error;
+
+		public Response(int id, Vector<InferenceResult> results, String error) {
+			this.id = id;
+			this.results = results;
+			this.error = error;
+		}
+	}
+
+	public static ByteBuffer encodeRequest(int id, String modelName, Collection<String> queries, Collection<String[]> evidence) {
+		Frame f = new Frame(QUERY, id);
+		try {
+			f.putString(modelName);
+			f.putStrings(queries.toArray(new String[queries.size()]));
+			f.out.writeInt(evidence.size());
+			for(String[] tuple : evidence)
+				f.putStrings(tuple);
+		}
+		catch(IOException e) { // cannot happen when writing to memory
+			throw new RuntimeException(e);
+		}
+		return f.toBuffer();
+	}
+
+	public static ByteBuffer encodeResults(int id, Collection<InferenceResult> results) {
+		Frame f = new Frame(RESULTS, id);
+		try {
+			f.out.writeInt(results.size());
+			for(InferenceResult r : results) {
+				f.putString(r.functionName);
+				f.putStrings(r.params);
+				f.out.writeDouble(r.probability);
+			}
+		}
+		catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+		return f.toBuffer();
+	}
+
+	public static ByteBuffer encodeError(int id, String message) {
+		Frame f = new Frame(ERROR, id);
+		try {
+			f.putString(message == null ? "unknown error" : message);
+		}
+		catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+		return f.toBuffer();
+	}
+
+	/**
+	 * decodes the payload of a request frame
+	 * @param payload the payload (without the length prefix)
+	 * @return the request
+	 * @throws ProbCogException if the payload is malformed
+	 */
+	public static Request decodeRequest(ByteBuffer payload) throws ProbCogException {
+		try {
+			byte type = payload.get();
+			int id = payload.getInt();
+			if(type != QUERY)
+				throw new ProbCogException("Unsupported request type " + type);
+			String modelName = getString(payload);
+			Vector<String> queries = new Vector<String>();
+			for(String q : getStrings(payload))
+				queries.add(q);
+			int numEvidence = getCount(payload);
+			Vector<String[]> evidence = new Vector<String[]>(numEvidence);
+			for(int i = 0; i < numEvidence; i++)
+				evidence.add(getStrings(payload));
+			return new Request(id, modelName, queries, evidence);
+		}
+		catch(BufferUnderflowException e) {
+			throw new ProbCogException("Truncated request");
+		}
+	}
+
+	/**
+	 * decodes the payload of a response frame
+	 * @param payload the payload (without the length prefix)
+	 * @return the response
+	 * @throws ProbCogException if the payload is malformed
+	 */
+	public static Response decodeResponse(ByteBuffer payload) throws ProbCogException {
+		try {
+			byte type = payload.get();
+			int id = payload.getInt();
+			if(type == ERROR)
+				return new Response(id, null, getString(payload));
+			if(type != RESULTS)
+				throw new ProbCogException("Unsupported response type " + type);
+			int numResults = getCount(payload);
+			Vector<InferenceResult> results = new Vector<InferenceResult>(numResults);
+			for(int i = 0; i < numResults; i++) {
+				String functionName = getString(payload);
+				String[] params = getStrings(payload);
+				results.add(new InferenceResult(functionName, params, payload.getDouble()));
+			}
+			return new Response(id, results, null);
+		}
+		catch(BufferUnderflowException e) {
+			throw new ProbCogException("Truncated response");
+		}
+	}
+
+	/**
+	 * reads a count, checking that it is consistent with the number of remaining bytes (each counted element occupying at least 4 bytes)
+	 */
+	protected static int getCount(ByteBuffer b) throws ProbCogException {
+		int n = b.getInt();
+		if(n < 0 || n > b.remaining() / 4)
+			throw new ProbCogException("Invalid element count " + n);
+		return n;
+	}
+
+	protected static String getString(ByteBuffer b) throws ProbCogException {
+		int len = b.getInt();
+		if(len < 0 || len > b.remaining())
+			throw new ProbCogException("Invalid string length " + len);
+		String s = new String(b.array(), b.arrayOffset() + b.position(), len, StandardCharsets.UTF_8);
+		b.position(b.position() + len);
+		return s;
+	}
+
+	protected static String[] getStrings(ByteBuffer b) throws ProbCogException {
+		String[] ret = new String[getCount(b)];
+		for(int i = 0; i < ret.length; i++)
+			ret[i] = getString(b);
+		return ret;
+	}
+
+	/**
+	 * a frame under construction
+	 */
+	protected static class Frame {
+		protected ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		protected DataOutputStream out = new DataOutputStream(bytes);
+
+		public Frame(byte type, int id) {
+			try {
+				out.writeInt(0); // placeholder for the length
+				out.writeByte(type);
+				out.writeInt(id);
+			}
+			catch(IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		public void putString(String s) throws IOException {
+			byte[] b = s.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(b.length);
+			out.write(b);
+		}
+
+		public void putStrings(String[] a) throws IOException {
+			out.writeInt(a.length);
+			for(String s : a)
+				putString(s);
+		}
+
+		/**
+		 * @return the frame (length prefix and payload), ready to be written
+		 */
+		public ByteBuffer toBuffer() {
+			ByteBuffer b = ByteBuffer.wrap(bytes.toByteArray());
+			b.putInt(0, b.capacity() - 4);
+			return b;
+		}
+	}
+}
@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A least-recently-used cache of ground models (e.g. ground BLNs or MRFs), whose total (estimated) size is bounded.
+ * Ground models are identified by a canonical key (see {@link Model#getGroundModelKey(probcog.srl.Database, boolean)}).
+ * Since ground models are stateful, they are checked out of the cache for exclusive use (see {@link #take(String)})
+ * and returned to it after use (see {@link #put(String, Object, long)}).
+ * @author Dominik Jain
+ */
+public class GroundModelCache {
+	protected LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	/**
+	 * the maximum total size (in bytes) of the cached ground models
+	 */
+	protected long maxSize;
+	protected long size = 0;
+	protected long hits = 0, misses = 0, staleHits = 0, evictions = 0;
+
+	protected static class Entry {
+		public Object groundModel;
+		public long size;
+
+		public Entry(Object groundModel, long size) {
+			this.groundModel = groundModel;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * @param maxSize the maximum total size (in bytes) of the cached ground models
+	 */
+	public GroundModelCache(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * removes the ground model with the given key from the cache (for exclusive use by the caller)
+	 * @param key the key of the ground model
+	 * @return the ground model or null if there is no ground model with the given key in the cache
+	 */
+	public synchronized Object take(String key) {
+		Entry e = entries.remove(key);
+		if(e == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		size -= e.size;
+		return e.groundModel;
+	}
+
+	/**
+	 * records that a ground model obtained from the cache could not be reused after all
+	 * (e.g. because evidence that its structure depends on differs)
+	 */
+	public synchronized void reportStale() {
+		staleHits++;
+	}
+
+	/**
+	 * adds a ground model to the cache (replacing any ground model with the same key), evicting the least recently used
+	 * ground models as necessary to satisfy the size limit
+	 * @param key the key of the ground model
+	 * @param groundModel the ground model
+	 * @param size the (estimated) size of the ground model in bytes
+	 */
+	public synchronized void put(String key, Object groundModel, long size) {
+		Entry prev = entries.remove(key);
+		if(prev != null)
+			this.size -= prev.size;
+		if(size > maxSize) {
+			evictions++;
+			return;
+		}
+		Iterator<Entry> i = entries.values().iterator();
+		while(this.size + size > maxSize) {
+			this.size -= i.next().size;
+			i.remove();
+			evictions++;
+		}
+		entries.put(key, new Entry(groundModel, size));
+		this.size += size;
+	}
+
+	/**
+	 * @param instanceID the identifier of a model instance
+	 * @return the prefix of the keys of the ground models that were instantiated by the model instance
+	 */
+	public static String getInstanceKeyPrefix(int instanceID) {
+		return instanceID + "#";
+	}
+
+	/**
+	 * removes the ground models of a model instance, which can no longer be reused once the instance is discarded
+	 * (as they reference the instance)
+	 * @param instanceID the identifier of the model instance (see {@link Model#getInstanceID()})
+	 * @return the number of ground models that were removed
+	 */
+	public synchronized int invalidateInstance(int instanceID) {
+		String prefix = getInstanceKeyPrefix(instanceID);
+		int numRemoved = 0;
+		Iterator<java.util.Map.Entry<String, Entry>> i = entries.entrySet().iterator();
+		while(i.hasNext()) {
+			java.util.Map.Entry<String, Entry> e = i.next();
+			if(e.getKey().startsWith(prefix)) {
+				size -= e.getValue().size;
+				i.remove();
+				numRemoved++;
+			}
+		}
+		return numRemoved;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+
+	public synchronized void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+		Iterator<Entry> i = entries.values().iterator();
+		while(size > maxSize) {
+			size -= i.next().size;
+			i.remove();
+			evictions++;
+		}
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the number of cache hits where the ground model could not be reused after all
+	 */
+	public synchronized long getStaleHits() {
+		return staleHits;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return the fraction of lookups for which a reusable ground model was found
+	 */
+	public synchronized double getHitRate() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0.0 : (double)(hits - staleHits) / lookups;
+	}
+
+	/**
+	 * @return the total (estimated) size of the cached ground models in bytes
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public synchronized int getNumEntries() {
+		return entries.size();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("GroundModelCache[%d entries, %d/%d bytes, %d hits (%d stale), %d misses, %d evictions]", entries.size(), size, maxSize, hits, staleHits, misses, evictions);
+	}
+}
@@ -41,6 +41,10 @@ public class MLNModel extends Model {
 	protected MarkovLogicNetwork mln;
 	protected Database db;
 	protected MarkovRandomField mrf;
+	/**
+	 * the ground model key (see {@link Model#getGroundModelKey(Database, boolean)}) of the database for which mrf was instantiated
+	 */
+	protected String mrfKey;
 	
 	public MLNModel(String name, String mln) throws ProbCogException {
 		super(name);
@@ -63,9 +67,14 @@ public class MLNModel extends Model {
 		InferenceAlgorithm ia = new MCSAT(mrf);
 		paramHandler.addSubhandler(ia);
 		Vector<InferenceResult> res = new Vector<InferenceResult>();
-		for(probcog.srl.mln.inference.InferenceResult r : ia.infer(queries)) {
-			InferenceResult r2 = new InferenceResult(r.ga.predicate, r.ga.args, r.value);
-			res.add(r2);
+		try {
+			for(probcog.srl.mln.inference.InferenceResult r : ia.infer(queries)) {
+				InferenceResult r2 = new InferenceResult(r.ga.getPredicate(), r.ga.getArgs(), r.value);
+				res.add(r2);
+			}
+		}
+		finally {
+			paramHandler.removeSubhandler(ia); // the inference algorithm is specific to this query
 		}
 		return res;
 	}
@@ -107,6 +116,32 @@ public class MLNModel extends Model {
 
 	@Override
 	public void instantiate() throws ProbCogException {
-		mrf = mln.ground(db);		
+		// the ground model is simplified using the evidence, so it can only be reused for the same evidence
+		String key = getGroundModelKey(db, true);
+		if(mrf != null && key.equals(mrfKey))
+			return;
+		releaseGroundModel();
+		if(groundModelCache != null) 
+			mrf = (MarkovRandomField)groundModelCache.take(key);
+		if(mrf == null)
+			mrf = mln.ground(db);
+		mrfKey = key;
+	}
+	
+	@Override
+	public void releaseGroundModel() {
+		if(mrf == null)
+			return;
+		if(groundModelCache != null)
+			groundModelCache.put(mrfKey, mrf, estimateSize(mrf));
+		mrf = null;
+		mrfKey = null;
+	}
+	
+	/**
+	 * @return a rough estimate of the memory occupied by the given ground model in bytes 
+	 */
+	protected static long estimateSize(MarkovRandomField mrf) {
+		return 256L * mrf.getNumFormulas() + 128L * mrf.getWorldVariables().size();
 	}
 }
@@ -21,13 +21,19 @@ package probcog.service;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeSet;
 import java.util.Vector;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import probcog.exception.ProbCogException;
 import probcog.inference.IParameterHandler;
 import probcog.inference.ParameterHandler;
+import probcog.srl.Database;
 import probcog.srl.Signature;
+import probcog.srl.Variable;
+
+import edu.tum.cs.util.StringTool;
 
 /**
  * Abstract base class for models that can be used in the ProbCog service.
@@ -53,6 +59,16 @@ public abstract class Model implements IParameterHandler {
 	protected ParameterHandler paramHandler;
 	protected HashMap<String, Object> actualParams;
 	protected boolean haveSession = false;
+	/**
+	 * cache in which ground models can be stored for reuse (may be shared among several models; null if no cache is used) 
+	 */
+	protected GroundModelCache groundModelCache = null;
+	/**
+	 * an identifier that is unique among all model instances; ground models reference the model instance they were
+	 * instantiated from (e.g. its network and signatures), so they must not be reused by other instances
+	 */
+	protected final int instanceID = instanceCounter.getAndIncrement();
+	protected static final AtomicInteger instanceCounter = new AtomicInteger();
 	
 	public Model(String name) throws ProbCogException {
 		defaultParameters = new HashMap<String,Object>();
@@ -64,6 +80,58 @@ public abstract class Model implements IParameterHandler {
 	protected abstract void _setEvidence(Iterable<String[]> evidence) throws ProbCogException;
 	public abstract void instantiate() throws ProbCogException;
 	
+	/**
+	 * releases the current ground model, returning it to the ground model cache (if any) for later reuse
+	 */
+	public abstract void releaseGroundModel();
+	
+	public void setGroundModelCache(GroundModelCache cache) {
+		this.groundModelCache = cache;
+	}
+	
+	/**
+	 * @return the identifier that is unique among all model instances
+	 */
+	public int getInstanceID() {
+		return instanceID;
+	}
+	
+	/**
+	 * computes a canonical key identifying the ground model that is instantiated for a database, which is made up of 
+	 * the model instance's identifier (see {@link GroundModelCache#getInstanceKeyPrefix(int)}), the model name,
+	 * and the domains (and, optionally, the evidence)
+	 * @param db the evidence database
+	 * @param includeEvidence whether to include the evidence (i.e. whether the ground model depends on it)
+	 * @return the key
+	 * @throws ProbCogException
+	 */
+	protected String getGroundModelKey(Database db, boolean includeEvidence) throws ProbCogException {
+		StringBuilder key = new StringBuilder(GroundModelCache.getInstanceKeyPrefix(instanceID)).append(name);
+		TreeSet<String> types = new TreeSet<String>();
+		for(Signature sig : db.getModel().getSignatures()) {
+			for(String t : sig.argTypes)
+				types.add(t);
+			if(!sig.isBoolean())
+				types.add(sig.returnType);
+		}
+		for(String t : types) {
+			Iterable<String> dom = db.getDomain(t);
+			if(dom == null)
+				continue;
+			TreeSet<String> elems = new TreeSet<String>();
+			for(String e : dom)
+				elems.add(e);
+			key.append('|').append(t).append('=').append(StringTool.join(",", elems));
+		}
+		if(includeEvidence) {
+			TreeSet<String> evidence = new TreeSet<String>();
+			for(Variable var : db.getEntries())
+				evidence.add(var.getName() + "=" + var.getValue());
+			key.append("|evidence=").append(StringTool.join(";", evidence));
+		}
+		return key.toString();
+	}
+	
 	/**
 	 * runs the actual inference method, without mapping constants  
 	 * @param queries
@@ -20,7 +20,9 @@ package probcog.service;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.HashMap;
+import java.util.Map.Entry;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParserFactory;
@@ -35,14 +37,33 @@ import probcog.exception.ProbCogException;
 
 /**
  * Represents a pool of models.
+ * Since the models in the pool are stateful (evidence, ground model), each model is backed by a bounded
+ * set of interchangeable instances, which are handed out for exclusive use in sessions (see {@link #openSession(String)}),
+ * such that requests pertaining to the same model can be processed concurrently.
  * @author Dominik Jain
  */
 public class ModelPool {
-	protected HashMap<String, Model> pool;
+	protected HashMap<String, ModelInstances> pool;
 	protected File poolPath;
+	/**
+	 * the maximum number of instances of each model (i.e. the maximum number of concurrent sessions per model)
+	 */
+	protected int maxInstances = Runtime.getRuntime().availableProcessors();
+	/**
+	 * the maximum number of idle instances of each model that are retained for reuse
+	 */
+	protected int maxIdleInstances = Runtime.getRuntime().availableProcessors();
+	/**
+	 * the cache of ground models that is shared by all instances of all models in the pool
+	 */
+	protected GroundModelCache groundModelCache = new GroundModelCache(Runtime.getRuntime().maxMemory() / 4);
+	/**
+	 * default parameters that apply to all models in the pool (overriding the models' own default parameters)
+	 */
+	protected HashMap<String, Object> defaultParameters = new HashMap<String, Object>();
 	
 	public ModelPool(String poolFilename) throws ProbCogException {
-		pool = new HashMap<String, Model>();
+		pool = new HashMap<String, ModelInstances>();
 		
 		File poolFile = new File(poolFilename);
 		poolPath = poolFile.getParentFile();
@@ -57,8 +78,145 @@ public class ModelPool {
 		}
 	}
 	
+	/**
+	 * gets the primary instance of a model, which is to be used only to retrieve information on the model 
+	 * (e.g. its signatures); for queries, use a session.
+	 * The primary instance is never handed out to sessions, so it can safely be read concurrently.
+	 * @param name the name of the model
+	 * @return the model or null if there is no model with the given name
+	 */
 	public Model getModel(String name) {
-		return pool.get(name);
+		ModelInstances instances = pool.get(name);
+		if(instances == null)
+			return null;
+		return instances.primary;
+	}
+	
+	/**
+	 * opens a session for the given model, i.e. obtains an instance of the model for exclusive use, 
+	 * waiting for an instance to become available if the maximum number of instances is in use.
+	 * The session must be closed after use.
+	 * @param name the name of the model
+	 * @return the session
+	 * @throws ProbCogException
+	 */
+	public ModelSession openSession(String name) throws ProbCogException {
+		ModelInstances instances = pool.get(name);
+		if(instances == null)
+			throw new ProbCogException("Unknown model '" + name + "'");
+		Model model = instances.acquire();
+		synchronized(defaultParameters) {
+			for(Entry<String, Object> param : defaultParameters.entrySet())
+				model.setDefaultParameter(param.getKey(), param.getValue());
+		}
+		return new ModelSession(instances, model);
+	}
+	
+	/**
+	 * sets a default parameter for all models in the pool, which is applied to model instances whenever a session is opened
+	 * @param key
+	 * @param value
+	 */
+	public void setDefaultParameter(String key, Object value) {
+		synchronized(defaultParameters) {
+			defaultParameters.put(key, value);
+		}
+	}
+	
+	/**
+	 * sets the maximum number of instances per model, which limits the number of concurrent sessions per model
+	 * @param maxInstances
+	 */
+	public void setMaxInstances(int maxInstances) {
+		if(maxInstances < 1)
+			throw new IllegalArgumentException("The maximum number of instances must be positive");
+		this.maxInstances = maxInstances;
+	}
+	
+	/**
+	 * sets the maximum number of idle instances per model that are retained for reuse (the least recently used ones being evicted) 
+	 * @param maxIdleInstances
+	 */
+	public void setMaxIdleInstances(int maxIdleInstances) {
+		this.maxIdleInstances = maxIdleInstances;
+	}
+	
+	/**
+	 * @return the cache of ground models (e.g. for the retrieval of statistics)
+	 */
+	public GroundModelCache getGroundModelCache() {
+		return groundModelCache;
+	}
+	
+	/**
+	 * sets the maximum total (estimated) size of the ground models that are cached for reuse
+	 * @param maxBytes the size limit in bytes (0 to disable caching)
+	 */
+	public void setGroundModelCacheSize(long maxBytes) {
+		groundModelCache.setMaxSize(maxBytes);
+	}
+	
+	/**
+	 * The instances of a model: idle instances are kept in order of recency of use, such that the instance
+	 * that was last released (and whose state is thus most likely to be reusable) is handed out first
+	 */
+	protected class ModelInstances {
+		protected PoolReader.ModelData data;
+		/**
+		 * the instance that was loaded when the pool was read, which is reserved for the retrieval of information
+		 * on the model and is never used in sessions (whose queries modify the instance's state)
+		 */
+		protected Model primary;
+		protected ArrayDeque<Model> idle = new ArrayDeque<Model>();
+		/**
+		 * the number of instances that are currently in use or being loaded 
+		 */
+		protected int numActive = 0;
+		
+		public ModelInstances(PoolReader.ModelData data) throws ProbCogException {
+			this.data = data;
+			this.primary = data.instantiate();
+			// instances for sessions are loaded on demand (see acquire)
+		}
+		
+		public Model acquire() throws ProbCogException {
+			synchronized(this) {
+				try {
+					while(numActive >= maxInstances)
+						wait();
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new ProbCogException("Interrupted while waiting for an instance of model " + data.name, e);
+				}
+				numActive++;
+				if(!idle.isEmpty())
+					return idle.pop();
+			}
+			// load a new instance (outside of the lock for this model, as this may take a while);
+			// loading is serialized pool-wide, because the model readers are not thread-safe
+			try {
+				synchronized(ModelPool.this) {
+					return data.instantiate();
+				}
+			}
+			catch(ProbCogException | RuntimeException e) {
+				synchronized(this) {
+					numActive--;
+					notify();
+				}
+				throw e;
+			}
+		}
+		
+		public synchronized void release(Model model) {
+			numActive--;
+			idle.push(model);
+			// the ground models of evicted instances can no longer be reused
+			while(idle.size() > maxIdleInstances) 
+				groundModelCache.invalidateInstance(idle.removeLast().getInstanceID());
+			notify();
+		}
 	}
 	
 	/**
@@ -109,6 +267,9 @@ public class ModelPool {
 				else
 					throw new ProbCogException(String.format("Unknown model type '%s'", type));
 				m.setConstantMap(constantMap);
+				m.setGroundModelCache(groundModelCache);
+				for(Entry<String, String> param : params.entrySet())
+					m.setDefaultParameter(param.getKey(), param.getValue());
 				return m;
 			}
 		}
@@ -135,6 +296,9 @@ public class ModelPool {
 				String filename = attrs.getValue("name");
 				currentModel.files.put(type, filename);
 			}
+			else if(qName.equals("param")) {
+				currentModel.params.put(attrs.getValue("name"), attrs.getValue("value"));
+			}
 			else if(qName.equals("constantMap")) {
 				String from = attrs.getValue("from");
 				String to = attrs.getValue("to");
@@ -145,7 +309,7 @@ public class ModelPool {
 		public void endElement(String uri, String name, String qName) {
 			try {
 				if(qName.equals("model"))
-					pool.put(currentModel.name, currentModel.instantiate());				
+					pool.put(currentModel.name, new ModelInstances(currentModel));
 			}
 			catch (Exception e) {
 				throw new RuntimeException(e.getMessage());					
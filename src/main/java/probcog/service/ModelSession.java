@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.service;
+
+import java.util.Collection;
+import java.util.Vector;
+
+import probcog.exception.ProbCogException;
+
+/**
+ * A session in which an instance of a model from a model pool is used exclusively, such that
+ * evidence and ground model are isolated from other sessions. Closing the session returns the
+ * instance to the pool and its ground model to the pool's ground model cache.
+ * @author Dominik Jain
+ */
+public class ModelSession implements AutoCloseable {
+	protected ModelPool.ModelInstances instances;
+	protected Model model;
+	
+	protected ModelSession(ModelPool.ModelInstances instances, Model model) {
+		this.instances = instances;
+		this.model = model;
+	}
+	
+	/**
+	 * @return the model instance that is exclusively available to this session
+	 */
+	public Model getModel() {
+		if(model == null)
+			throw new IllegalStateException("Session was closed");
+		return model;
+	}
+	
+	/**
+	 * processes a query by setting the evidence, instantiating the model and running the inference procedure
+	 * @param queries a collection of queries (see {@link Server#query(String, Collection, Collection)})
+	 * @param evidence a collection of evidence tuples (see {@link Server#query(String, Collection, Collection)})
+	 * @return a vector of inference results with constants already mapped
+	 * @throws ProbCogException
+	 */
+	public Vector<InferenceResult> query(Collection<String> queries, Collection<String[]> evidence) throws ProbCogException {
+		Model model = getModel();
+		model.setEvidence(evidence);
+		model.instantiate();
+		return model.infer(queries);
+	}
+	
+	@Override
+	public void close() {
+		if(model == null)
+			return;
+		model.releaseGroundModel(); // make the ground model available to other sessions
+		instances.release(model);
+		model = null;
+	}
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.service;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Collection;
+import java.util.Vector;
+
+import probcog.exception.ProbCogException;
+
+/**
+ * Simple (blocking) client for the network front-end of the ProbCog service (see {@link NetworkServer}),
+ * which supports pipelining by sending several requests before receiving the responses.
+ * @author Dominik Jain
+ */
+public class NetworkClient implements Closeable {
+	protected SocketChannel channel;
+	protected int nextRequestID = 0;
+	protected ByteBuffer header = ByteBuffer.allocate(4);
+
+	public NetworkClient(String host, int port) throws IOException {
+		channel = SocketChannel.open(new InetSocketAddress(host, port));
+		channel.socket().setTcpNoDelay(true);
+	}
+
+	/**
+	 * sends a query request without waiting for the response
+	 * @param modelName the name of the model to query
+	 * @param queries the queries (see {@link Server#query(String, Collection, Collection)})
+	 * @param evidence the evidence tuples (see {@link Server#query(String, Collection, Collection)})
+	 * @return the ID of the request
+	 * @throws IOException
+	 */
+	public int send(String modelName, Collection<String> queries, Collection<String[]> evidence) throws IOException {
+		int id = nextRequestID++;
+		ByteBuffer frame = BinaryProtocol.encodeRequest(id, modelName, queries, evidence);
+		while(frame.hasRemaining())
+			channel.write(frame);
+		return id;
+	}
+
+	/**
+	 * receives the next response (responses arrive in the order in which the requests were sent)
+	 * @return the response
+	 * @throws IOException
+	 * @throws ProbCogException if the response is malformed
+	 */
+	public BinaryProtocol.Response receive() throws IOException, ProbCogException {
+		header.clear();
+		readFully(header);
+		int length = header.getInt(0);
+		if(length < 0 || length > BinaryProtocol.MAX_FRAME_SIZE)
+			throw new ProbCogException("Invalid frame length " + length);
+		ByteBuffer payload = ByteBuffer.allocate(length);
+		readFully(payload);
+		payload.flip();
+		return BinaryProtocol.decodeResponse(payload);
+	}
+
+	/**
+	 * sends a query request and waits for the response
+	 * @return the inference results
+	 * @throws IOException
+	 * @throws ProbCogException if the server reported an error
+	 */
+	public Vector<InferenceResult> query(String modelName, Collection<String> queries, Collection<String[]> evidence) throws IOException, ProbCogException {
+		send(modelName, queries, evidence);
+		BinaryProtocol.Response response = receive();
+		if(response.error != null)
+			throw new ProbCogException(response.error);
+		return response.results;
+	}
+
+	protected void readFully(ByteBuffer b) throws IOException {
+		while(b.hasRemaining())
+			if(channel.read(b) < 0)
+				throw new EOFException("Connection closed by server");
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
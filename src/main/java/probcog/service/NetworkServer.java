@@ -0,0 +1,333 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import probcog.exception.ProbCogException;
+import probcog.logging.PrintLogger;
+import probcog.logging.VerbosePrinter;
+
+/**
+ * Non-blocking network front-end for a {@link Server}, which accepts requests in the binary protocol
+ * defined by {@link BinaryProtocol}.
+ * A single thread handles all network I/O, while requests are processed by a pool of worker threads;
+ * several requests can be pipelined on a connection, the responses being sent in the order of the requests.
+ * @author Dominik Jain
+ */
+public class NetworkServer implements Runnable, Closeable, VerbosePrinter {
+	protected Server server;
+	protected ServerSocketChannel serverChannel;
+	protected Selector selector;
+	protected ExecutorService workers;
+	/**
+	 * connections for which responses were completed by worker threads (to be flushed by the I/O thread)
+	 */
+	protected ConcurrentLinkedQueue<Connection> completed = new ConcurrentLinkedQueue<Connection>();
+	protected volatile boolean running = true;
+	protected boolean verbose = false;
+	protected PrintLogger log = new PrintLogger(this);
+
+	/**
+	 * @param server the server to process requests
+	 * @param address the address to bind to (use port 0 to bind to an arbitrary free port)
+	 * @param numWorkers the number of worker threads that process requests
+	 * @throws IOException
+	 */
+	public NetworkServer(Server server, InetSocketAddress address, int numWorkers) throws IOException {
+		this.server = server;
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(address);
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		workers = Executors.newFixedThreadPool(numWorkers);
+	}
+
+	/**
+	 * @return the port the server is listening on
+	 */
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	@Override
+	public boolean getVerboseMode() {
+		return verbose;
+	}
+
+	@Override
+	public boolean getDebugMode() {
+		return false;
+	}
+
+	/**
+	 * reports an error that cannot be sent to a client (regardless of whether verbose mode is enabled)
+	 */
+	protected void reportError(String format, Object... args) {
+		System.err.println("NetworkServer: " + String.format(format, args));
+		log.log(PrintLogger.Level.WARN, format, args);
+	}
+
+	/**
+	 * runs the I/O loop until the server is closed
+	 */
+	public void run() {
+		try {
+			while(running) {
+				selector.select();
+				if(!running)
+					break;
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if(!key.isValid())
+						continue;
+					if(key.isAcceptable())
+						accept();
+					else {
+						Connection conn = (Connection)key.attachment();
+						try {
+							if(key.isReadable())
+								conn.read();
+							if(key.isValid() && key.isWritable())
+								conn.flush();
+						}
+						catch(IOException e) {
+							conn.close();
+						}
+					}
+				}
+				// write the responses that were completed in the meantime
+				Connection conn;
+				while((conn = completed.poll()) != null) {
+					try {
+						conn.flush();
+					}
+					catch(IOException e) {
+						conn.close();
+					}
+				}
+			}
+		}
+		catch(IOException e) {
+			if(running)
+				reportError("I/O error, shutting down: %s", e);
+		}
+		finally {
+			shutdown();
+		}
+	}
+
+	/**
+	 * starts the I/O loop in a new (daemon) thread
+	 * @return the thread
+	 */
+	public Thread start() {
+		Thread t = new Thread(this, "ProbCog NetworkServer");
+		t.setDaemon(true);
+		t.start();
+		return t;
+	}
+
+	@Override
+	public void close() {
+		running = false;
+		selector.wakeup();
+	}
+
+	protected void shutdown() {
+		workers.shutdownNow();
+		try {
+			for(SelectionKey key : selector.keys())
+				key.channel().close();
+			selector.close();
+		}
+		catch(IOException e) {
+		}
+	}
+
+	protected void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if(channel == null)
+			return;
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+		key.attach(new Connection(channel, key));
+		if(verbose) System.out.println("connection from " + channel.getRemoteAddress());
+	}
+
+	/**
+	 * a response whose data is set by a worker thread once the request has been processed
+	 */
+	protected static class PendingResponse {
+		public volatile ByteBuffer data;
+	}
+
+	protected class Connection {
+		protected SocketChannel channel;
+		protected SelectionKey key;
+		protected ByteBuffer in = ByteBuffer.allocate(8192);
+		/**
+		 * the responses to the requests received so far, in the order of the requests (accessed by the I/O thread only)
+		 */
+		protected ArrayDeque<PendingResponse> responses = new ArrayDeque<PendingResponse>();
+
+		public Connection(SocketChannel channel, SelectionKey key) {
+			this.channel = channel;
+			this.key = key;
+		}
+
+		/**
+		 * reads available data and dispatches all requests that were completely received
+		 */
+		public void read() throws IOException {
+			if(channel.read(in) < 0) {
+				close();
+				return;
+			}
+			in.flip();
+			while(in.remaining() >= 4) {
+				int length = in.getInt(in.position());
+				if(length < 0 || length > BinaryProtocol.MAX_FRAME_SIZE) {
+					log.info("closing connection from %s: invalid frame length %d", channel.getRemoteAddress(), length);
+					close();
+					return;
+				}
+				if(in.remaining() < 4 + length) {
+					if(in.capacity() < 4 + length) { // grow the buffer to hold the entire frame
+						ByteBuffer larger = ByteBuffer.allocate(4 + length);
+						larger.put(in);
+						in = larger;
+						return;
+					}
+					break;
+				}
+				in.position(in.position() + 4);
+				ByteBuffer payload = ByteBuffer.allocate(length);
+				int limit = in.limit();
+				in.limit(in.position() + length);
+				payload.put(in);
+				payload.flip();
+				in.limit(limit);
+				dispatch(payload);
+			}
+			in.compact();
+		}
+
+		protected void dispatch(ByteBuffer payload) {
+			final PendingResponse response = new PendingResponse();
+			responses.add(response);
+			final BinaryProtocol.Request request;
+			try {
+				request = BinaryProtocol.decodeRequest(payload);
+			}
+			catch(ProbCogException e) {
+				response.data = BinaryProtocol.encodeError(payload.limit() >= 5 ? payload.getInt(1) : -1, e.getMessage());
+				completed.add(this);
+				return;
+			}
+			try {
+				workers.execute(() -> {
+					ByteBuffer data;
+					try {
+						data = BinaryProtocol.encodeResults(request.id, server.query(request.modelName, request.queries, request.evidence));
+					}
+					catch(Throwable e) {
+						data = BinaryProtocol.encodeError(request.id, e.toString());
+					}
+					response.data = data;
+					completed.add(this);
+					selector.wakeup();
+				});
+			}
+			catch(RejectedExecutionException e) { // server is shutting down
+				response.data = BinaryProtocol.encodeError(request.id, "server is shutting down");
+				completed.add(this);
+			}
+		}
+
+		/**
+		 * writes completed responses (in order) for as long as the channel accepts data
+		 */
+		public void flush() throws IOException {
+			if(!channel.isOpen())
+				return;
+			PendingResponse head;
+			while((head = responses.peek()) != null && head.data != null) {
+				channel.write(head.data);
+				if(head.data.hasRemaining()) {
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					return;
+				}
+				responses.poll();
+			}
+			key.interestOps(SelectionKey.OP_READ);
+		}
+
+		public void close() {
+			key.cancel();
+			try {
+				channel.close();
+			}
+			catch(IOException e) {
+			}
+		}
+	}
+
+	public static void main(String[] args) {
+		if(args.length < 2) {
+			System.out.println("usage: NetworkServer <model pool file> <port> [number of worker threads] [-v]");
+			return;
+		}
+		try {
+			boolean verbose = args[args.length-1].equals("-v");
+			int numWorkers = args.length > 2 && !args[2].equals("-v") ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+			Server server = new Server(args[0]);
+			server.setVerbose(verbose);
+			NetworkServer ns = new NetworkServer(server, new InetSocketAddress(Integer.parseInt(args[1])), numWorkers);
+			ns.setVerbose(verbose);
+			System.out.println("ProbCog server listening on port " + ns.getPort());
+			ns.run();
+		}
+		catch(ProbCogException | IOException | NumberFormatException e) {
+			System.err.println("Error: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
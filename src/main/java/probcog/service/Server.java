@@ -40,11 +40,25 @@ import probcog.logic.parser.ParseException;
  */
 public class Server {
 	ModelPool modelPool; 
+	/**
+	 * whether to log queries, evidence and results to stdout
+	 */
+	protected boolean verbose = true;
 	
 	public Server(String modelPoolFile) throws ProbCogException {
 		modelPool = new ModelPool(modelPoolFile);
 	}
 	
+	/**
+	 * sets whether queries, evidence and results are to be logged to stdout;
+	 * this also sets the verbosity of the models' inference methods
+	 * @param verbose
+	 */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+		modelPool.setDefaultParameter("verbose", verbose);
+	}
+	
 	protected static Vector<String[]> readListOfLispTuples(String s) {
 		Vector<String[]> ret = new Vector<String[]>();		
 		s = s.substring(2, s.length()-2); // remove leading and trailing braces
@@ -69,6 +83,10 @@ public class Server {
 		// read queries		
 		Collection<String[]> queryTuples = readListOfLispTuples(query);
 		Vector<String> queries = queriesFromTuples(queryTuples);
+		if(verbose) {
+			for(String q : queries)
+				System.out.println("query: " + q);
+		}
 		
 		// read evidence
 		Collection<String[]> evidenceTuples = readListOfLispTuples(evidence);
@@ -88,6 +106,10 @@ public class Server {
 		return modelPool.getModel(modelName);
 	}
 	
+	public ModelPool getModelPool() {
+		return modelPool;
+	}
+	
 	/**
 	 * translates a list of LISP-style tuples, such as (sitsAtIn ?PERSON ?SEATING-LOCATION M),
 	 * to regular query strings, such as "sitsAtIn(a1,a2,M)"
@@ -108,7 +130,6 @@ public class Server {
 					sb.append(tuple[i]);
 			}
 			sb.append(')');
-			System.out.println("query: " + sb.toString());
 			queries.add(sb.toString());
 		}
 		return queries;
@@ -123,16 +144,13 @@ public class Server {
 	 * @throws ProbCogException 
 	 */
 	public Vector<InferenceResult> query(String modelName, Collection<String> queries, Collection<String[]> evidence) throws ProbCogException {
-		// get model
-		Model model = modelPool.getModel(modelName);		
-		// set evidence		
-		model.setEvidence(evidence);
-		// instantiate model and perform inference
-		System.out.printf("instantiating model from %s\n", model.toString());
-		model.instantiate();
-		Vector<InferenceResult> results = model.infer(queries);
+		// obtain an instance of the model for exclusive use, set evidence, instantiate it and perform inference
+		Vector<InferenceResult> results;
+		try(ModelSession session = modelPool.openSession(modelName)) {
+			if(verbose) System.out.printf("instantiating model from %s\n", session.getModel().toString());
+			results = session.query(queries, evidence);
+		}
 		// output evidence and results
-		boolean verbose = true;
 		if(verbose) {
 			System.out.println("\nEvidence:");
 			for(String[] e : evidence)
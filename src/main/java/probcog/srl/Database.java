@@ -41,6 +41,20 @@ public class Database extends GenericDatabase<Variable, String> {
 	}
 	
 	public String getVariableValue(String varName, boolean closedWorld) throws ProbCogException {
+		if(lookupLog == null)
+			return lookupVariableValue(varName, closedWorld);
+		try {
+			String value = lookupVariableValue(varName, closedWorld);
+			lookupLog.addVariableLookup(varName, closedWorld, value);
+			return value;
+		}
+		catch(ProbCogException | RuntimeException e) {
+			lookupLog.addFailedVariableLookup(varName, closedWorld);
+			throw e;
+		}
+	}
+	
+	protected String lookupVariableValue(String varName, boolean closedWorld) throws ProbCogException {
 		String lowerCaseName = varName.toLowerCase();
 		Variable var = this.entries.get(lowerCaseName);
 		// if we have the value, return it
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.srl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map.Entry;
+
+import probcog.exception.ProbCogException;
+
+import edu.tum.cs.util.StringTool;
+
+/**
+ * Records the database lookups that a computation depends on (the domains as well as the values
+ * of variables and the results of functional lookups), such that it can later be determined whether
+ * the computation would have had the same result had it been carried out for a different database.
+ * A log is attached to a database via {@link GenericDatabase#setLookupLog(DatabaseLookupLog)}.
+ * @author Dominik Jain
+ */
+public class DatabaseLookupLog {
+	/**
+	 * marker for variable lookups that failed (i.e. raised an exception)
+	 */
+	protected static final String FAILED = new String("<lookup failed>");
+
+	protected HashMap<String, HashSet<String>> domains;
+	/**
+	 * maps variable names to the values that were looked up using the closed-world assumption
+	 */
+	protected HashMap<String, String> closedWorldLookups = new HashMap<String, String>();
+	/**
+	 * maps variable names to the values that were looked up without the closed-world assumption
+	 */
+	protected HashMap<String, String> openWorldLookups = new HashMap<String, String>();
+	protected HashMap<String, ParameterSetLookup> parameterSetLookups = new HashMap<String, ParameterSetLookup>();
+
+	protected static class ParameterSetLookup {
+		public RelationKey key;
+		public String[] keyValues;
+		public String[] result;
+
+		public ParameterSetLookup(RelationKey key, String[] keyValues, String[] result) {
+			this.key = key;
+			this.keyValues = keyValues;
+			this.result = result;
+		}
+	}
+
+	/**
+	 * creates a log for lookups in the given database, taking a snapshot of its domains
+	 * @param db
+	 */
+	public DatabaseLookupLog(GenericDatabase<?,?> db) {
+		domains = copyDomains(db);
+	}
+
+	/**
+	 * copies the sets of elements of the types (sub-types not included), which, given the model's taxonomy, determine all domains 
+	 */
+	protected static HashMap<String, HashSet<String>> copyDomains(GenericDatabase<?,?> db) {
+		HashMap<String, HashSet<String>> ret = new HashMap<String, HashSet<String>>();
+		for(Entry<String, HashSet<String>> e : db.domains.entrySet())
+			ret.put(e.getKey(), new HashSet<String>(e.getValue()));
+		return ret;
+	}
+
+	public void addVariableLookup(String varName, boolean closedWorld, String value) {
+		(closedWorld ? closedWorldLookups : openWorldLookups).put(varName, value);
+	}
+
+	public void addFailedVariableLookup(String varName, boolean closedWorld) {
+		addVariableLookup(varName, closedWorld, FAILED);
+	}
+
+	public void addParameterSetLookup(RelationKey key, String[] keyValues, String[] result) {
+		parameterSetLookups.put(key.toString() + StringTool.join(",", keyValues), new ParameterSetLookup(key, keyValues.clone(), result));
+	}
+
+	/**
+	 * @return the total number of distinct lookups that were recorded
+	 */
+	public int size() {
+		return closedWorldLookups.size() + openWorldLookups.size() + parameterSetLookups.size();
+	}
+
+	/**
+	 * determines whether all the recorded lookups yield the same results in the given database
+	 * @param db the database in which to repeat the lookups
+	 * @return true if the domains of the given database are the same and all lookups yield the same results
+	 */
+	public boolean isConsistentWith(GenericDatabase<?,?> db) {
+		if(!domains.equals(db.domains))
+			return false;
+		for(ParameterSetLookup l : parameterSetLookups.values())
+			if(!Arrays.equals(l.result, db.getParameterSet(l.key, l.keyValues)))
+				return false;
+		return isConsistentWith(db, closedWorldLookups, true) && isConsistentWith(db, openWorldLookups, false);
+	}
+
+	protected static boolean isConsistentWith(GenericDatabase<?,?> db, HashMap<String, String> lookups, boolean closedWorld) {
+		for(Entry<String, String> e : lookups.entrySet()) {
+			String value;
+			try {
+				value = db.getSingleVariableValue(e.getKey(), closedWorld);
+			}
+			catch(ProbCogException | RuntimeException ex) {
+				value = FAILED;
+			}
+			String prevValue = e.getValue();
+			if(value == FAILED || prevValue == FAILED) {
+				if(value != prevValue)
+					return false;
+			}
+			else if(value == null ? prevValue != null : !value.equals(prevValue))
+				return false;
+		}
+		return true;
+	}
+}
@@ -77,6 +77,10 @@ public abstract class GenericDatabase<VariableType extends AbstractVariable<?>,
 
 	protected boolean debug = false;
 	protected boolean verbose = false;
+	/**
+	 * log in which lookups are recorded (null if lookups are not to be recorded)
+	 */
+	protected DatabaseLookupLog lookupLog = null;
 	protected ParameterHandler paramHandler;
 
 	/**
@@ -272,9 +276,22 @@ public abstract class GenericDatabase<VariableType extends AbstractVariable<?>,
 		// System.out.println("doing lookup for " + this.key + " with " +
 		// StringTool.join(", ", keyValues));
 		HashMap<String, String[]> m = functionalDependencies.get(key);
-		if(m == null)
-			return null;
-		return m.get(StringTool.join(",", keyValues));
+		String[] ret = m == null ? null : m.get(StringTool.join(",", keyValues));
+		if(lookupLog != null)
+			lookupLog.addParameterSetLookup(key, keyValues, ret);
+		return ret;
+	}
+	
+	/**
+	 * sets the log in which subsequent variable lookups and functional lookups are to be recorded
+	 * @param log the log or null to stop recording
+	 */
+	public void setLookupLog(DatabaseLookupLog log) {
+		this.lookupLog = log;
+	}
+	
+	public DatabaseLookupLog getLookupLog() {
+		return lookupLog;
 	}
 	
 	public void readBLOGDB(String databaseFilename) throws ProbCogException {
@@ -853,14 +853,14 @@ public class RelationalBeliefNetwork extends BeliefNetworkEx implements Relation
 	 * @return
 	 */
 	public String gndAtom2VarName(GroundAtom ga) {
-		if(getSignature(ga.predicate).isBoolean())
+		if(getSignature(ga.getPredicate()).isBoolean())
 			return ga.toString();
 		else {
-			StringBuffer s = new StringBuffer(ga.predicate + "(");
-			for(int i = 0; i < ga.args.length-1; i++) {
+			StringBuffer s = new StringBuffer(ga.getPredicate() + "(");
+			for(int i = 0; i < ga.getNumArgs()-1; i++) {
 				if(i > 0)
 					s.append(',');
-				s.append(ga.args[i]);
+				s.append(ga.getArg(i));
 			}
 			s.append(')');
 			return s.toString();
@@ -43,6 +43,10 @@ public abstract class AbstractBayesianLogicNetwork extends ABLModel implements I
 	 * whether to allow that some nodes aren't instantiated because no fragment is applicable (simply skip them if this is true)
 	 */
 	protected boolean allowPartialInstantiation;
+	/**
+	 * the compiled template CPFs that are shared by the ground networks instantiated from this model
+	 */
+	protected TemplateCPFStore cpfStore = new TemplateCPFStore();
 	
 	/**
 	 * @param declsFile
@@ -70,6 +74,13 @@ public abstract class AbstractBayesianLogicNetwork extends ABLModel implements I
 		this.allowPartialInstantiation = allow;
 	}
 
+	/**
+	 * @return the store of compiled template CPFs, which must be cleared whenever the CPFs of the templates are modified 
+	 */
+	public TemplateCPFStore getCPFStore() {
+		return cpfStore;
+	}
+
 	protected abstract void initKB() throws ProbCogException;
 	
 	public abstract AbstractGroundBLN ground(Database db) throws ProbCogException;
@@ -35,6 +35,7 @@ import probcog.inference.IParameterHandler;
 import probcog.inference.ParameterHandler;
 import probcog.srl.BooleanDomain;
 import probcog.srl.Database;
+import probcog.srl.DatabaseLookupLog;
 import probcog.srl.ParameterGrounder;
 import probcog.srl.Signature;
 import probcog.srl.directed.CombiningRule;
@@ -43,6 +44,7 @@ import probcog.srl.directed.RelationalBeliefNetwork;
 import probcog.srl.directed.RelationalNode;
 import probcog.srl.directed.ParentGrounder.ParentGrounding;
 import probcog.srl.directed.RelationalNode.Aggregator;
+import probcog.srl.directed.bln.TemplateCPFStore.CompiledCPF;
 
 import edu.ksu.cis.bnj.ver3.core.BeliefNode;
 import edu.ksu.cis.bnj.ver3.core.CPF;
@@ -100,6 +102,20 @@ public abstract class AbstractGroundBLN implements IParameterHandler {
 	 * maps a ground node (in the ground network) to the template node in the fragment network it was instantiated from 
 	 */
 	protected HashMap<BeliefNode, RelationalNode> groundNode2TemplateNode;
+	/**
+	 * whether to support incremental grounding, i.e. the reuse of the ground network for databases that differ only in evidence 
+	 * that the structure of the network does not depend on (see {@link #updateDatabase(Database)})
+	 */
+	protected boolean incrementalGrounding = false;
+	/**
+	 * the database lookups that the structure of the ground network (as instantiated for the current database) depends on
+	 * (null if incremental grounding was disabled when the network was instantiated)
+	 */
+	protected DatabaseLookupLog structureLookups = null;
+	/**
+	 * whether auxiliary nodes were added when the network was instantiated
+	 */
+	protected boolean addAuxiliaryVars;
 	
 	public AbstractGroundBLN(AbstractBayesianLogicNetwork bln, Database db) throws ProbCogException {
 		init(bln, db);
@@ -116,6 +132,7 @@ public abstract class AbstractGroundBLN implements IParameterHandler {
 		paramHandler = new ParameterHandler(this);
 		paramHandler.add("verbose", "setVerbose");
 		paramHandler.add("debug", "setDebugMode");
+		paramHandler.add("incrementalGrounding", "setIncrementalGrounding");
 		this.bln = bln;
 		db.finalize(); // before we start grounding with the DB, make sure it's really finalized
 		this.db = db;		
@@ -173,14 +190,22 @@ public abstract class AbstractGroundBLN implements IParameterHandler {
 		}
 		
 		// go through all function names and generate all groundings for each of them
+		// (recording the database lookups the structure depends on if we are to support incremental grounding)
 		instantiatedVariables = new HashSet<String>();
 		cpfCache = new HashMap<String, Value[]>();
-		Iterable<String> functionNames = this.bln.rbn.getFunctionNames(); // functionTemplates.keySet(); 
-		for(String functionName : functionNames) {
-			if(verbose) System.out.println("    " + functionName);
-			Collection<String[]> parameterSets = ParameterGrounder.generateGroundings(bln.rbn, functionName, db);
-			for(String[] params : parameterSets) 
-				instantiateVariable(functionName, params);
+		structureLookups = incrementalGrounding ? new DatabaseLookupLog(db) : null;
+		db.setLookupLog(structureLookups);
+		try {
+			Iterable<String> functionNames = this.bln.rbn.getFunctionNames(); // functionTemplates.keySet(); 
+			for(String functionName : functionNames) {
+				if(verbose) System.out.println("    " + functionName);
+				Collection<String[]> parameterSets = ParameterGrounder.generateGroundings(bln.rbn, functionName, db);
+				for(String[] params : parameterSets) 
+					instantiateVariable(functionName, params);
+			}
+		}
+		finally {
+			db.setLookupLog(null);
 		}
 		
 		// clean up
@@ -189,6 +214,7 @@ public abstract class AbstractGroundBLN implements IParameterHandler {
 		cpfCache = null;
 		
 		// add auxiliary variables for formulaic constraints
+		this.addAuxiliaryVars = addAuxiliaryVars;
 		if(addAuxiliaryVars) {
 			if(verbose) System.out.println("  formulaic nodes");
 			hardFormulaNodes = new Vector<BeliefNode>();
@@ -201,6 +227,60 @@ public abstract class AbstractGroundBLN implements IParameterHandler {
 		}
 	}
 	
+	/**
+	 * replaces the evidence database, reusing the ground network that was instantiated for the previous database if possible.
+	 * This is possible if incremental grounding is enabled and the new database yields the same results for all the lookups
+	 * that the structure of the network depends on, i.e. it has the same domains and agrees on the results of 
+	 * functional lookups, precondition and decision parents; the network and its CPFs are then retained and 
+	 * only the parts that depend on the evidence are updated.
+	 * @param db the new database
+	 * @return true if the network was updated for the new database; false if the network cannot be reused, in which case
+	 * the ground model is left unchanged (and a new one must be instantiated for the new database)
+	 * @throws ProbCogException
+	 */
+	public boolean updateDatabase(Database db) throws ProbCogException {
+		if(!incrementalGrounding || !supportsIncrementalGrounding())
+			return false;
+		Stopwatch sw = new Stopwatch();
+		sw.start();
+		db.finalize();
+		if(!structureLookups.isConsistentWith(db)) {
+			if(verbose) System.out.println("ground network cannot be reused: structure depends on changed evidence");
+			return false;
+		}
+		this.db = db;
+		this.databaseFile = null;
+		onDatabaseUpdated();
+		if(verbose) System.out.println(String.format("reused ground network with %d nodes for new evidence in %.4fs", groundBN.bn.getNodes().length, sw.getElapsedTimeSecs()));
+		return true;
+	}
+	
+	/**
+	 * updates the parts of the ground network that depend on the evidence after the database has been replaced
+	 * (the database lookups the structure depends on being unchanged); only called if {@link #supportsEvidenceUpdates()}
+	 * @throws ProbCogException
+	 */
+	protected void onDatabaseUpdated() throws ProbCogException {}
+	
+	/**
+	 * @return true if {@link #onDatabaseUpdated()} updates all the parts of the network that depend on the evidence;
+	 * if not, the network is never reused for another database, and a new ground model must be instantiated instead
+	 */
+	protected boolean supportsEvidenceUpdates() {
+		return false;
+	}
+	
+	public void setIncrementalGrounding(boolean enabled) {
+		incrementalGrounding = enabled;
+	}
+	
+	/**
+	 * @return true if the network was instantiated with support for incremental grounding, i.e. if it can be updated for other databases
+	 */
+	public boolean supportsIncrementalGrounding() {
+		return supportsEvidenceUpdates() && groundBN != null && structureLookups != null;
+	}
+	
 	/**
 	 * instantiates the variable that corresponds to the given function name and actual parameters
 	 * by looking for a template and applying it, or simply returns the variable if it was previously instantiated
@@ -719,18 +799,17 @@ public abstract class AbstractGroundBLN implements IParameterHandler {
 		if(srcDomainProd.length == targetDomainProd.length) {			
 			targetCPF.build(targetDomainProd, ((CPT)srcRelNode.node.getCPF()).getValues());
 		}
-		// - otherwise we must extract the relevant columns that apply to the constant setting
+		// - otherwise we must extract the relevant columns that apply to the constant setting,
+		//   which are shared by all instances with the same setting (see TemplateCPFStore)
 		else {
-			Value[] subCPF;						
-			// get the subpart from the cache if possible
-			cpfID += constantSettings.toString(); 
-			subCPF = cpfCache.get(cpfID);
-			if(subCPF == null) {
-				subCPF = getSubCPFValues(srcRelNode.node.getCPF(), constantSettings);
-				cpfCache.put(cpfID, subCPF);
+			int[] settings = new int[srcDomainProd.length];
+			for(int i = 0; i < srcDomainProd.length; i++) {
+				Integer setting = constantSettings.get(srcDomainProd[i]);
+				settings[i] = setting == null ? -1 : setting;
 			}
-			
-			targetCPF.build(targetDomainProd, subCPF);
+			CompiledCPF subCPF = bln.getCPFStore().get(srcRelNode, settings);
+			targetCPF.build(targetDomainProd, subCPF.values);
+			cpfID = subCPF.id;
 		}
 		cpfIDs.put(targetNode, cpfID);
 		
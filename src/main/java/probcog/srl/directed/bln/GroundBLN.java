@@ -21,6 +21,7 @@ package probcog.srl.directed.bln;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Set;
+import java.util.Vector;
 
 import probcog.exception.ProbCogException;
 import probcog.logic.Formula;
@@ -63,6 +64,10 @@ public class GroundBLN extends AbstractGroundBLN {
 	 * TODO: maybe simplification should depend on the algorithm that is used
 	 */
 	protected boolean useFormulaSimplification = false;
+	/**
+	 * the number of threads to use for the grounding of the formulas
+	 */
+	protected int groundingThreads = 1;
 	
 	public GroundBLN(AbstractBayesianLogicNetwork bln, Database db) throws ProbCogException {
 		super(bln, db);
@@ -77,12 +82,17 @@ public class GroundBLN extends AbstractGroundBLN {
 		super.init(bln, db);
 		coupling = new VariableLogicCoupling();
 		this.paramHandler.add("simplifyFormulas", "setFormulaSimplification");
+		this.paramHandler.add("groundingThreads", "setGroundingThreads");
 	}
 	
 	public void setFormulaSimplification(boolean enabled) {
 		useFormulaSimplification = enabled;
 	}
 	
+	public void setGroundingThreads(int numThreads) {
+		groundingThreads = numThreads;
+	}
+	
 	@Override
 	protected void onAddGroundAtomNode(BeliefNode var, String[] params, Signature sig) {
 		if(sig.isBoolean()) {			
@@ -119,7 +129,7 @@ public class GroundBLN extends AbstractGroundBLN {
 		WorldVariables worldVars = coupling.getWorldVars();
 		state = new PossibleWorld(worldVars);
 		BayesianLogicNetwork bln = (BayesianLogicNetwork)this.bln;
-		gkb = bln.kb.ground(this.db, worldVars, useFormulaSimplification ? FormulaSimplification.OnDisallowFalse : FormulaSimplification.None); 
+		gkb = bln.kb.ground(this.db, worldVars, useFormulaSimplification ? FormulaSimplification.OnDisallowFalse : FormulaSimplification.None, groundingThreads); 
 		if(verbose) System.out.printf("    %d formulas resulted in %s ground formulas\n", bln.kb.size(), gkb.size());
 		HashMap<String, Value[]> cpfCache = new HashMap<String, Value[]>();
 		int i = 0;
@@ -188,6 +198,26 @@ public class GroundBLN extends AbstractGroundBLN {
 		state = null;
 	}
 	
+	@Override
+	protected void onDatabaseUpdated() throws ProbCogException {
+		// the ground formulas (and thus the formulaic nodes) depend on the evidence only if they were simplified using it
+		if(hardFormulaNodes == null || !useFormulaSimplification)
+			return;
+		// remove the formulaic nodes (in reverse order, as they were added last) and ground them anew
+		for(int i = hardFormulaNodes.size()-1; i >= 0; i--) {
+			BeliefNode node = hardFormulaNodes.get(i);
+			groundBN.removeNode(node);
+			cpfIDs.remove(node);
+		}
+		hardFormulaNodes = new Vector<BeliefNode>();
+		groundFormulaicNodes();
+	}
+	
+	@Override
+	protected boolean supportsEvidenceUpdates() {
+		return true;
+	}
+	
 	/**
 	 * adds a node corresponding to a hard constraint to the network - along with the necessary edges
 	 * @param nodeName  	name of the node to add for the constraint
@@ -276,10 +306,10 @@ public class GroundBLN extends AbstractGroundBLN {
 	 * @return
 	 */
 	public String getVariableName(GroundAtom gndAtom) {
-		if(bln.rbn.isBoolean(gndAtom.predicate)) 
+		if(bln.rbn.isBoolean(gndAtom.getPredicate())) 
 			return gndAtom.toString();				
 		else 
-			return gndAtom.predicate + "(" + StringTool.join(",", gndAtom.args, 0, gndAtom.args.length-1) + ")";		
+			return gndAtom.getPredicate() + "(" + StringTool.join(",", gndAtom.getArgs(), 0, gndAtom.getNumArgs()-1) + ")";		
 	}
 	
 	/**
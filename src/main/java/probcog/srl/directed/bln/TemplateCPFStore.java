@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.srl.directed.bln;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import probcog.srl.directed.RelationalNode;
+
+import edu.ksu.cis.bnj.ver3.core.BeliefNode;
+import edu.ksu.cis.bnj.ver3.core.CPF;
+import edu.ksu.cis.bnj.ver3.core.Value;
+
+/**
+ * A store of compiled template CPFs, i.e. of the CPFs that result from the CPF of a template
+ * (relational node) when some of the template's parents are fixed to constant values (as is the
+ * case for constant and precondition parents).
+ * Each compiled CPF is identified by its structural signature (the template and the settings of
+ * the fixed parents) and is shared by reference among all the ground nodes that are instantiated
+ * with the same signature (in any number of ground networks), such that instantiating a ground
+ * node's CPF amounts to a lookup.
+ * The value arrays of compiled CPFs must not be modified. Whenever the CPF of a template is
+ * changed, the store must be cleared.
+ * @author Dominik Jain
+ */
+public class TemplateCPFStore {
+	protected ConcurrentHashMap<Signature, CompiledCPF> cpfs = new ConcurrentHashMap<Signature, CompiledCPF>();
+
+	public static class CompiledCPF {
+		/**
+		 * the CPF values for the ground node's domain product
+		 */
+		public final Value[] values;
+		/**
+		 * the CPF ID (equivalence class ID), which is shared by all ground nodes using this CPF
+		 */
+		public final String id;
+
+		public CompiledCPF(Value[] values, String id) {
+			this.values = values;
+			this.id = id;
+		}
+	}
+
+	protected static class Signature {
+		protected int template;
+		protected int[] settings;
+		protected int hash;
+
+		public Signature(int template, int[] settings) {
+			this.template = template;
+			this.settings = settings;
+			this.hash = 31 * template + Arrays.hashCode(settings);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Signature))
+				return false;
+			Signature other = (Signature)o;
+			return template == other.template && Arrays.equals(settings, other.settings);
+		}
+	}
+
+	/**
+	 * retrieves the compiled CPF for the given template and setting of fixed parents, compiling it if necessary
+	 * @param template the template whose CPF is to be instantiated
+	 * @param settings for each element of the template CPF's domain product, the index of the domain element the node is fixed to or -1 if it is not fixed
+	 *                 (the array is not retained, i.e. it can be reused by the caller)
+	 * @return the compiled CPF
+	 */
+	public CompiledCPF get(RelationalNode template, int[] settings) {
+		Signature sig = new Signature(template.index, settings);
+		CompiledCPF cpf = cpfs.get(sig);
+		if(cpf == null) {
+			sig.settings = settings.clone();
+			cpf = compile(template.node.getCPF(), sig);
+			CompiledCPF existing = cpfs.putIfAbsent(sig, cpf);
+			if(existing != null)
+				cpf = existing;
+		}
+		return cpf;
+	}
+
+	/**
+	 * extracts the values of the sub-CPF that corresponds to the given signature, enumerating the addresses
+	 * of the free nodes in the order of the domain product (with the last node changing fastest)
+	 */
+	protected CompiledCPF compile(CPF cpf, Signature sig) {
+		BeliefNode[] domProd = cpf.getDomainProduct();
+		int[] settings = sig.settings;
+		int[] addr = new int[domProd.length];
+		int size = 1;
+		for(int i = 0; i < domProd.length; i++) {
+			if(settings[i] == -1)
+				size *= domProd[i].getDomain().getOrder();
+			else
+				addr[i] = settings[i];
+		}
+		Value[] values = new Value[size];
+		for(int k = 0; k < size; k++) {
+			values[k] = cpf.get(addr);
+			// advance to the next address
+			for(int i = domProd.length - 1; i >= 0; i--) {
+				if(settings[i] != -1)
+					continue;
+				if(++addr[i] < domProd[i].getDomain().getOrder())
+					break;
+				addr[i] = 0;
+			}
+		}
+		return new CompiledCPF(values, sig.template + Arrays.toString(settings));
+	}
+
+	/**
+	 * removes all compiled CPFs (which is required whenever template CPFs are modified)
+	 */
+	public void clear() {
+		cpfs.clear();
+	}
+
+	public int size() {
+		return cpfs.size();
+	}
+}
@@ -60,6 +60,6 @@ public class BlockVariable implements IVariableLogicCoupler {
 	}	
 	
 	public Iterable<String> getOriginalParams() {
-		return new ArraySlice<String>(block.get(0).args, 0, -1);
+		return new ArraySlice<String>(block.get(0).getArgs(), 0, -1);
 	}
 }
\ No newline at end of file
@@ -48,6 +48,6 @@ public class BooleanVariable implements IVariableLogicCoupler {
 	}
 	
 	public Iterable<String> getOriginalParams() {
-		return new ArraySlice<String>(ga.args, 0);
+		return new ArraySlice<String>(ga.getArgs(), 0);
 	}
 }
\ No newline at end of file
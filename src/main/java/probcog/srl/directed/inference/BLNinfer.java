@@ -328,6 +328,7 @@ public class BLNinfer implements IParameterHandler {
 						cpf.put(i, new ValueDouble(lowProb));
 				cpf.normalizeByDomain();
 			}
+			bln.getCPFStore().clear();
 		}
 
 		// read evidence database
@@ -24,6 +24,7 @@ import probcog.bayesnets.core.BeliefNetworkEx;
 import probcog.bayesnets.inference.ITimeLimitedInference;
 import probcog.bayesnets.inference.SampledDistribution;
 import probcog.exception.ProbCogException;
+import probcog.inference.CancellationToken;
 import probcog.srl.directed.bln.AbstractGroundBLN;
 
 /**
@@ -76,6 +77,7 @@ public class BNSampler extends Sampler implements ITimeLimitedInference {
 		sampler.setInfoInterval(infoInterval);
 		sampler.setMaxTrials(maxTrials);
 		sampler.setSkipFailedSteps(skipFailedSteps);
+		sampler.setCancellationToken(cancellationToken);
 		sampler.initialize();
 	}
 	
@@ -102,6 +104,13 @@ public class BNSampler extends Sampler implements ITimeLimitedInference {
 		return "BNInference:" + samplerClass.getSimpleName();
 	}
 	
+	@Override
+	public void setCancellationToken(CancellationToken token) {
+		super.setCancellationToken(token);
+		if(sampler != null)
+			sampler.setCancellationToken(token);
+	}
+	
 	public SampledDistribution pollResults() throws ProbCogException {
 		if(sampler == null)
 			return null;
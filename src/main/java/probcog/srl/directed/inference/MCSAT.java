@@ -24,6 +24,7 @@ import probcog.bayesnets.core.BeliefNetworkEx;
 import probcog.bayesnets.inference.ITimeLimitedInference;
 import probcog.bayesnets.inference.SampledDistribution;
 import probcog.exception.ProbCogException;
+import probcog.inference.CancellationToken;
 import probcog.logic.Disjunction;
 import probcog.logic.Formula;
 import probcog.logic.GroundLiteral;
@@ -76,6 +77,7 @@ public class MCSAT extends Sampler implements ITimeLimitedInference {
 		hardConstraintsInCPTs = null;
 		// construct sampler
 		sampler = new probcog.logic.sat.weighted.MCSAT(kb, gbln.getWorldVars(), gbln.getDatabase());
+		sampler.setCancellationToken(cancellationToken);
 		// pass on parameter handling
 		paramHandler.addSubhandler(sampler.getParameterHandler());
 	}
@@ -141,7 +143,25 @@ public class MCSAT extends Sampler implements ITimeLimitedInference {
 		return dist;
 	}
 
-	public SampledDistribution pollResults() throws ProbCogException {		
-		return getSampledDistribution(sampler.pollResults());
+	@Override
+	public void setCancellationToken(CancellationToken token) {
+		super.setCancellationToken(token);
+		if(sampler != null)
+			sampler.setCancellationToken(token);
+	}
+
+	public SampledDistribution pollResults() throws ProbCogException {
+		if(sampler == null)
+			return null;
+		GroundAtomDistribution gad = sampler.pollResults();
+		if(gad == null)
+			return null;
+		try {
+			// the snapshot is shared and must not be normalized in place
+			return getSampledDistribution(gad.clone());
+		}
+		catch(CloneNotSupportedException e) {
+			throw new ProbCogException(e);
+		}
 	}
 }
@@ -31,6 +31,7 @@ import probcog.logic.PossibleWorld;
 import probcog.logic.WorldVariables;
 import probcog.logic.sat.ClausalKB;
 import probcog.logic.sat.Clause;
+import probcog.logic.sat.FastSampleSAT;
 import probcog.logic.sat.SampleSAT;
 import probcog.srl.AbstractVariable;
 import probcog.srl.directed.bln.GroundBLN;
@@ -64,7 +65,7 @@ public class SATIS extends BNSampler {
 
 		// create SAT sampler
 		PossibleWorld state = new PossibleWorld(gbln.getWorldVars());
-		ss = new SampleSAT(state, gbln.getWorldVars(), gbln.getDatabase().getEntries());
+		ss = new FastSampleSAT(state, gbln.getWorldVars(), gbln.getDatabase().getEntries());
 		//ss = new SampleSATPriors(state, gbln.getWorldVars(), gbln.getDatabase().getEntries(), gbln.getGroundNetwork());
 		paramHandler.addSubhandler(ss.getParameterHandler());
 	}
@@ -27,6 +27,7 @@ import edu.ksu.cis.bnj.ver3.core.BeliefNode;
 import edu.tum.cs.util.Stopwatch;
 import probcog.bayesnets.inference.SampledDistribution;
 import probcog.exception.ProbCogException;
+import probcog.inference.CancellationToken;
 import probcog.inference.IParameterHandler;
 import probcog.inference.ParameterHandler;
 import probcog.srl.directed.bln.AbstractGroundBLN;
@@ -46,6 +47,10 @@ public abstract class Sampler implements IParameterHandler {
 	protected AbstractGroundBLN gbln;
 	double inferenceTime, initTime;
 	protected boolean initialized = false;
+	/**
+	 * token via which cancellation of the inference process can be requested
+	 */
+	protected CancellationToken cancellationToken = new CancellationToken();
 	
 	public Sampler(AbstractGroundBLN gbln) throws ProbCogException {
 		this.gbln = gbln;
@@ -144,6 +149,10 @@ public abstract class Sampler implements IParameterHandler {
 		this.verbose = verbose;
 	}
 	
+	public void setCancellationToken(CancellationToken token) {
+		this.cancellationToken = token;
+	}
+	
 	public ParameterHandler getParameterHandler() {
 		return paramHandler;
 	}
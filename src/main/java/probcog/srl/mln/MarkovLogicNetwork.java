@@ -69,6 +69,10 @@ public class MarkovLogicNetwork implements RelationalModel {
      */
     protected HashMap<String, Integer> functionalPreds;
     double sumAbsWeights = 0;
+    /**
+     * the number of threads to use for the grounding of formulas
+     */
+    protected int groundingThreads = 1;
 
     /**
      * constructs a Markov logic network from an MLN file
@@ -153,6 +157,19 @@ public class MarkovLogicNetwork implements RelationalModel {
     public Vector<WeightedFormula> getFormulas() {
     	return formulas;
     }
+    
+    /**
+     * sets the number of threads to use when grounding the formulas of this MLN
+     * (if greater than 1, the work is split by formula and by ranges of the domain of one of the formula's variables)
+     * @param numThreads
+     */
+    public void setGroundingThreads(int numThreads) {
+    	this.groundingThreads = numThreads;
+    }
+    
+    public int getGroundingThreads() {
+    	return groundingThreads;
+    }
 
     /**
      * returns the signature for the given predicate
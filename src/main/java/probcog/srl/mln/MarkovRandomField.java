@@ -25,6 +25,7 @@ import java.util.Vector;
 
 import probcog.exception.ProbCogException;
 import probcog.logic.Formula;
+import probcog.logic.FormulaGrounder;
 import probcog.logic.GroundAtom;
 import probcog.logic.IPossibleWorld;
 import probcog.logic.WorldVariables;
@@ -43,7 +44,11 @@ import probcog.srl.Variable;
 public class MarkovRandomField implements Iterable<WeightedFormula> {
     protected Database db;
     public MarkovLogicNetwork mln;
+    /**
+     * the ground formulas (null if they were not stored)
+     */
     protected Vector<WeightedFormula> weightedFormulas;
+    protected int numFormulas;
     protected WorldVariables vars;
     /**
      * whether to simplify grounded formulas based on evidence
@@ -53,7 +58,9 @@ public class MarkovRandomField implements Iterable<WeightedFormula> {
     /**
      * @param mln a Markov logic network
      * @param db an evidence database containing the set of objects for which to ground the MLN  
-     * @param storeFormula whether to store the grounded formulas that are generated
+     * @param storeFormula whether to store the grounded formulas that are generated; if false, the ground formulas
+     *        are only passed to the callback (and are regenerated whenever they are requested via {@link #streamFormulas(GroundingCallback)}),
+     *        such that consumers can build their own representations without all ground formulas being held in memory
      * @param gc an optional callback (which is called for each grounded formula), may be null
      * @throws ProbCogException 
      * @throws ProbCogException 
@@ -112,7 +119,7 @@ public class MarkovRandomField implements Iterable<WeightedFormula> {
         		if(trueOne != null) {
         			for(GroundAtom ga : block)
         				if(ga != trueOne && !db.contains(ga.toString()))
-        					db.addVariable(new Variable(ga.predicate, ga.args, "False", mln));
+        					db.addVariable(new Variable(ga.getPredicate(), ga.getArgs(), "False", mln));
         		}
         		// add the block to the set of vars
     			vars.addBlock(block);
@@ -144,27 +151,58 @@ public class MarkovRandomField implements Iterable<WeightedFormula> {
      * @throws ProbCogException 
      */
     protected void groundFormulas(boolean makelist, GroundingCallback gc) throws ProbCogException {
-        weightedFormulas = new Vector<WeightedFormula>();
-        for(WeightedFormula wf : mln.getFormulas()) {
-        	double weight = wf.weight;
-        	boolean isHard = wf.isHard;
-        	FormulaSimplification simplification = simplifyGroundedFormulas ? (isHard ? FormulaSimplification.OnDisallowFalse : FormulaSimplification.On) : FormulaSimplification.None;
-        	Vector<Formula> groundings;
-        	try {
-        		groundings = wf.formula.getAllGroundings(db, vars, simplification);
-        	}
-        	catch(Exception e) {
-        		throw new ProbCogException("Error while grounding formula '" + wf.formula.toString() + "'", e);
-        	}
-        	//System.out.printf("%d groundings of formula %s\n", groundings.size(), form.toString());
-            for(Formula gf : groundings) {            	
-            	WeightedFormula gwf = new WeightedFormula(gf, weight, isHard);
-                if(makelist)
-                    weightedFormulas.add(gwf);
-                if(gc != null)
-                    gc.onGroundedFormula(gwf, this);
-            }
+        weightedFormulas = makelist ? new Vector<WeightedFormula>() : null;
+        numFormulas = 0;
+        generateFormulas((wf, mrf) -> {
+        	numFormulas++;
+        	if(makelist)
+        		weightedFormulas.add(wf);
+        	if(gc != null)
+        		gc.onGroundedFormula(wf, mrf);
+        });
+    }
+    
+    /**
+     * generates the ground formulas, passing each one to the given callback as soon as it has been generated
+     * @param gc the callback
+     * @throws ProbCogException
+     */
+    protected void generateFormulas(GroundingCallback gc) throws ProbCogException {
+        Vector<WeightedFormula> wfs = mln.getFormulas();
+        Formula[] formulas = new Formula[wfs.size()];
+        FormulaSimplification[] simplifications = new FormulaSimplification[wfs.size()];
+        for(int i = 0; i < formulas.length; i++) {
+        	WeightedFormula wf = wfs.get(i);
+        	formulas[i] = wf.formula;
+        	simplifications[i] = simplifyGroundedFormulas ? (wf.isHard ? FormulaSimplification.OnDisallowFalse : FormulaSimplification.On) : FormulaSimplification.None;
         }
+        FormulaGrounder grounder = new FormulaGrounder(db, vars);
+        grounder.ground(formulas, simplifications, (i, gf) -> {
+        	WeightedFormula wf = wfs.get(i);
+        	gc.onGroundedFormula(new WeightedFormula(gf, wf.weight, wf.isHard), this);
+        }, mln.getGroundingThreads());
+    }
+    
+    /**
+     * passes all ground formulas to the given callback, one at a time. If the ground formulas were not stored
+     * when the MRF was created, they are regenerated, such that they need never be held in memory all at once.
+     * @param gc the callback
+     * @throws ProbCogException
+     */
+    public void streamFormulas(GroundingCallback gc) throws ProbCogException {
+    	if(weightedFormulas != null) {
+    		for(WeightedFormula wf : weightedFormulas)
+    			gc.onGroundedFormula(wf, this);
+    	}
+    	else
+    		generateFormulas(gc);
+    }
+    
+    /**
+     * @return whether the ground formulas are stored (and can thus be iterated over)
+     */
+    public boolean storesFormulas() {
+    	return weightedFormulas != null;
     }
     
     /**
@@ -175,41 +213,43 @@ public class MarkovRandomField implements Iterable<WeightedFormula> {
         return db;
     }
 
+	/**
+	 * iterates over the stored ground formulas (use {@link #streamFormulas(GroundingCallback)} if they may not have been stored)
+	 */
 	public Iterator<WeightedFormula> iterator() {
+		if(weightedFormulas == null)
+			throw new IllegalStateException("The ground formulas of this MRF were not stored; use streamFormulas to process them.");
 		return weightedFormulas.iterator();
 	}
 	
-	public void print(PrintStream out) {
-		for(WeightedFormula wf : this)
-			out.println(wf.toString());
+	public void print(PrintStream out) throws ProbCogException {
+		streamFormulas((wf, mrf) -> out.println(wf.toString()));
 	}
 	
 	/**
 	 * gets the sum of weights of formulas satisfied in the given possible world
 	 * @return
+	 * @throws ProbCogException 
 	 */
-	public double getWorldValue(IPossibleWorld w) {
-		double s = 0;
-		for(WeightedFormula wf : this)
+	public double getWorldValue(IPossibleWorld w) throws ProbCogException {
+		double[] s = new double[1];
+		streamFormulas((wf, mrf) -> {
 			if(wf.formula.isTrue(w))
-				s += wf.weight;
-		return s;
+				s[0] += wf.weight;
+		});
+		return s[0];
 	}
 	
-	public double getSumOfUnsatClauseWeights(IPossibleWorld w) {
-		double s = 0;
-		for(WeightedFormula wf : this) {
-			if(!wf.formula.isTrue(w)) {
-				s += wf.weight;
-				//System.out.println("UNSAT: " + wf);
-			}
-			else 
-				;//System.out.printf("%s\n", wf);
-		}
-		return s;
+	public double getSumOfUnsatClauseWeights(IPossibleWorld w) throws ProbCogException {
+		double[] s = new double[1];
+		streamFormulas((wf, mrf) -> {
+			if(!wf.formula.isTrue(w))
+				s[0] += wf.weight;
+		});
+		return s[0];
 	}
 	
 	public int getNumFormulas() {
-		return this.weightedFormulas.size();
+		return numFormulas;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.srl.mln.inference;
+
+import probcog.exception.ProbCogException;
+import probcog.logic.GroundAtom;
+import probcog.logic.PossibleWorld;
+import probcog.srl.mln.MarkovRandomField;
+import probcog.wcsp.ParallelBranchAndBound;
+import probcog.wcsp.WCSP;
+import probcog.wcsp.WCSPConverter;
+
+/**
+ * MPE inference for MLNs that converts the ground MRF to a WCSP and solves it in-process
+ * using parallel branch and bound search (see {@link ParallelBranchAndBound}).
+ * Unlike {@link Toulbar2Inference}, it requires neither an external executable nor a WCSP file.
+ *
+ * @author Dominik Jain
+ */
+public class BranchAndBoundInference extends MPEInferenceAlgorithm {
+
+	protected PossibleWorld state;
+	protected WCSPConverter wcspConverter;
+	protected int numThreads = Runtime.getRuntime().availableProcessors();
+	protected Long timeLimitMs = null;
+
+	public BranchAndBoundInference(MarkovRandomField mrf) throws ProbCogException {
+		super(mrf);
+		state = new PossibleWorld(mrf.getWorldVariables());
+		wcspConverter = new WCSPConverter(mrf);
+		paramHandler.addSubhandler(wcspConverter);
+		paramHandler.add("numThreads", Integer.class, n -> { this.numThreads = n; },
+				"the number of threads to use for the search (default: the number of available processors)");
+		paramHandler.add("timeLimitMs", "setTimeLimitMs");
+	}
+
+	/**
+	 * sets a time limit for the search, after which the best solution found so far is returned
+	 * @param timeLimitMs
+	 */
+	public void setTimeLimitMs(Long timeLimitMs) {
+		this.timeLimitMs = timeLimitMs;
+	}
+
+	@Override
+	public double getResult(GroundAtom ga) {
+		return state.get(ga.index) ? 1.0 : 0.0;
+	}
+
+	@Override
+	public PossibleWorld inferMPE() throws ProbCogException {
+		log.info("Converting MRF to WCSP");
+		WCSP wcsp = wcspConverter.run();
+		ParallelBranchAndBound bb = new ParallelBranchAndBound(wcsp, wcspConverter.getCostUpperBound(), numThreads);
+		if(timeLimitMs != null)
+			bb.setTimeLimitMs(timeLimitMs);
+		bb.setVerbose(debug);
+		log.info("Running branch and bound search with %d threads", numThreads);
+		int[] solution = bb.findSolution();
+		if(solution == null)
+			throw new ProbCogException("No solution was found by branch and bound search");
+		log.info("Solution costs: %d%s", bb.getBestSolutionCosts(), bb.isOptimal() ? "" : " (search incomplete)");
+
+		// set evidence (as the WCSP does not contain evidence variables) and the solution state
+		state.setEvidence(mrf.getDb());
+		for(int i = 0; i < solution.length; i++)
+			wcspConverter.setGroundAtomState(state, i, solution[i]);
+		return state;
+	}
+
+	@Override
+	public PossibleWorld getSolution() {
+		return state;
+	}
+}
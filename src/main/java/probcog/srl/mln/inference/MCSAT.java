@@ -34,7 +34,8 @@ public class MCSAT extends InferenceAlgorithm {
 	
 	public MCSAT(MarkovRandomField mrf) throws ProbCogException {
 		super(mrf);
-		WeightedClausalKB wckb = new WeightedClausalKB(mrf, true);
+		WeightedClausalKB wckb = new WeightedClausalKB();
+		mrf.streamFormulas((wf, m) -> wckb.addFormula(wf, true));
 		sampler = new probcog.logic.sat.weighted.MCSAT(wckb, mrf.getWorldVariables(), mrf.getDb());
 		paramHandler.add("maxSteps", "setMaxSteps");
 		paramHandler.addSubhandler(sampler.getParameterHandler());
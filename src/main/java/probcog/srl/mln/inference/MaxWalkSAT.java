@@ -18,29 +18,53 @@
  ******************************************************************************/
 package probcog.srl.mln.inference;
 
+import java.util.Random;
+
 import probcog.exception.ProbCogException;
 import probcog.logic.GroundAtom;
 import probcog.logic.IPossibleWorld;
 import probcog.logic.PossibleWorld;
+import probcog.logic.sat.weighted.FastMaxWalkSAT;
+import probcog.logic.sat.weighted.IMaxSAT;
+import probcog.logic.sat.weighted.ParallelMaxWalkSAT;
 import probcog.logic.sat.weighted.WeightedClausalKB;
 import probcog.srl.mln.MarkovRandomField;
 
 /**
  * MaxWalkSAT MPE inference for MLNs.
+ * By default, the object-based {@link probcog.logic.sat.weighted.MaxWalkSAT} is used; the array-based
+ * {@link FastMaxWalkSAT}, which supports further variable selection heuristics and restarts, can be enabled
+ * via the parameter fastEngine.
+ * In portfolio mode, several independent walks of the array-based engine are run in parallel
+ * (see {@link ParallelMaxWalkSAT}).
  * @author Dominik Jain
  */
 public class MaxWalkSAT extends MPEInferenceAlgorithm {
 	
-	protected probcog.logic.sat.weighted.MaxWalkSAT sat;
+	protected IMaxSAT sat;
+	protected WeightedClausalKB wckb;
+	protected PossibleWorld state;
 	protected PossibleWorld solution;
 	protected int maxSteps = 5000;
+	protected boolean portfolio = false;
+	protected int numThreads = Runtime.getRuntime().availableProcessors();
+	protected Integer numWalks = null;
+	protected Long stagnationTimeMs = null;
+	protected Random rand = null;
 	
 	public MaxWalkSAT(MarkovRandomField mrf) throws ProbCogException {
 		super(mrf);
-        WeightedClausalKB wckb = new WeightedClausalKB(mrf, WeightedClausalKB.ConversionMode.NEGATION_IF_CLAUSE_RESULTS);
-        PossibleWorld state = new PossibleWorld(mrf.getWorldVariables());
+        wckb = new WeightedClausalKB();
+        mrf.streamFormulas((wf, m) -> wckb.addFormula(wf, WeightedClausalKB.ConversionMode.NEGATION_IF_CLAUSE_RESULTS));
+        state = new PossibleWorld(mrf.getWorldVariables());
         sat = new probcog.logic.sat.weighted.MaxWalkSAT(wckb, state, mrf.getWorldVariables(), mrf.getDb());
         paramHandler.add("maxSteps", "setMaxSteps");
+        paramHandler.add("fastEngine", "setFastEngine", "whether to use the array-based MaxWalkSAT engine with incremental make/break scores (supporting the parameters heuristic, maxTries, tabuTenure, noise, randomWalkProb and adaptiveNoise)");
+        paramHandler.add("portfolio", "setPortfolio", "whether to run several independent walks of the array-based engine in parallel (with different seeds and noise settings) and return the best state");
+        paramHandler.add("numThreads", Integer.class, n -> { this.numThreads = n; }, "the number of threads to use in portfolio mode (default: the number of available processors)");
+        paramHandler.add("numWalks", Integer.class, n -> { this.numWalks = n; }, "the number of walks in portfolio mode (default: the number of threads)");
+        paramHandler.add("stagnationTimeMs", "setStagnationTimeMs");
+        paramHandler.add("random", "setRandom", "the random number generator from which the seeds of the walks are drawn in portfolio mode");
         paramHandler.addSubhandler(sat);        
 	}
 	
@@ -48,6 +72,52 @@ public class MaxWalkSAT extends MPEInferenceAlgorithm {
 		this.maxSteps = maxSteps;
 	}
 	
+	/**
+	 * selects the MaxWalkSAT engine to use
+	 * @param fast whether to use {@link FastMaxWalkSAT} rather than {@link probcog.logic.sat.weighted.MaxWalkSAT}
+	 * @throws ProbCogException
+	 */
+	public void setFastEngine(boolean fast) throws ProbCogException {
+		if(fast == (sat instanceof FastMaxWalkSAT))
+			return;
+		paramHandler.removeSubhandler(sat);
+		if(fast)
+			sat = new FastMaxWalkSAT(wckb, state, mrf.getWorldVariables(), mrf.getDb());
+		else
+			sat = new probcog.logic.sat.weighted.MaxWalkSAT(wckb, state, mrf.getWorldVariables(), mrf.getDb());
+		// the new engine receives any parameters that were previously submitted
+		paramHandler.addSubhandler(sat);
+	}
+	
+	/**
+	 * enables portfolio mode, in which several independent walks of {@link FastMaxWalkSAT} are run in parallel
+	 * (which implies the use of the array-based engine)
+	 * @param portfolio
+	 * @throws ProbCogException
+	 */
+	public void setPortfolio(boolean portfolio) throws ProbCogException {
+		this.portfolio = portfolio;
+		if(portfolio)
+			setFastEngine(true);
+	}
+	
+	/**
+	 * sets the time after which the search is stopped in portfolio mode if all hard constraints are satisfied and the best state has not improved
+	 * @param stagnationTimeMs
+	 */
+	public void setStagnationTimeMs(Long stagnationTimeMs) {
+		this.stagnationTimeMs = stagnationTimeMs;
+	}
+	
+	/**
+	 * sets the random number generator from which the seeds of the walks are drawn in portfolio mode
+	 * (the parameter is also passed on to the engine)
+	 * @param rand
+	 */
+	public void setRandom(Random rand) {
+		this.rand = rand;
+	}
+	
 	@Override
 	public double getResult(GroundAtom ga) {
 		return solution.get(ga.index) ? 1.0 : 0.0;
@@ -55,6 +125,8 @@ public class MaxWalkSAT extends MPEInferenceAlgorithm {
 
 	@Override
 	public IPossibleWorld inferMPE() throws ProbCogException {
+		if(portfolio)
+			return inferMPEPortfolio();
         sat.setMaxSteps(maxSteps);
         sat.setVerbose(this.verbose);
         sat.run();	 
@@ -62,12 +134,30 @@ public class MaxWalkSAT extends MPEInferenceAlgorithm {
         return solution;
 	}
 
+	protected PossibleWorld inferMPEPortfolio() throws ProbCogException {
+		setFastEngine(true); // the array-based engine provides the walks' settings and compiles the clauses they share
+		FastMaxWalkSAT template = (FastMaxWalkSAT)sat;
+		template.setMaxSteps(maxSteps);
+		ParallelMaxWalkSAT pmws = new ParallelMaxWalkSAT(wckb, mrf.getWorldVariables(), mrf.getDb(), template, numThreads);
+		if(numWalks != null)
+			pmws.setNumWalks(numWalks);
+		pmws.setStagnationTimeMs(stagnationTimeMs);
+		if(rand != null)
+			pmws.setRandom(rand);
+		pmws.setVerbose(verbose);
+		pmws.run();
+		solution = pmws.getBestState();
+		return solution;
+	}
+
 	public PossibleWorld getSolution() {
 		return solution;
 	}
 
 	@Override
 	public String getAlgorithmName() {
+		if(portfolio)
+			return String.format("MAP:Portfolio[%d walks, %d threads]:%s", numWalks != null ? numWalks : numThreads, numThreads, sat.getAlgorithmName());
 		return String.format("MAP:%s", sat.getAlgorithmName());
 	}
 }
@@ -26,8 +26,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 
-import probcog.wcsp.Constraint.Tuple;
-
 import edu.tum.cs.util.Stopwatch;
 import edu.tum.cs.util.datastruct.Map2Set;
 import edu.tum.cs.util.datastruct.Map2Stack;
@@ -181,22 +179,7 @@ public class BranchAndBound {
 			// go through all constraints that contain varIdx and add to lowerBound
 			if(relevantConstraints != null)
 				for(Constraint c : varIdx2constraint.get(varIdx)) {				
-					int numRequiredTuples = 1;
-					for(int constraintVarIdx : c.getVarIndices()) {
-						if(!assignment.containsKey(constraintVarIdx))
-							numRequiredTuples *= wcsp.getDomainSize(constraintVarIdx);
-					}
-					long min = Long.MAX_VALUE;
-					int numPresentTuples = 0;
-					for(Tuple t : c.getTuples()) {
-						if(t.couldApply(c, assignment)) {
-							min = Math.min(min, t.cost);
-							++numPresentTuples;
-						}
-					}
-					assert numPresentTuples <= numRequiredTuples;
-					if(numPresentTuples < numRequiredTuples)
-						min = Math.min(min, c.getDefaultCosts());
+					long min = c.getMinCost(assignment, wcsp);
 					//System.out.printf("adding %d to lower bound for %s\n", min, c);
 					lowerBound += min;
 					lowerBoundAdditions.push(c, min);
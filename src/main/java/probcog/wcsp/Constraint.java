@@ -19,57 +19,232 @@
 package probcog.wcsp;
 
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map.Entry;
 
 /**
   * Represents a WCSP constraint.
+  * A constraint is represented either densely, by a table containing the costs of all assignments to its variables,
+  * or sparsely, by a map of explicitly given tuples and default costs applying to all other assignments.
+  * Use {@link #create(long, int[], int[], int)} to obtain the dense representation whenever the table is small enough.
   * @author Dominik Jain
   */
 public class Constraint {
+	/**
+	 * the maximum number of entries of a dense cost table
+	 */
+	public static final int MAX_DENSE_SIZE = 4096;
+	
+	/**
+	 * the explicitly given tuples (null if the constraint is dense)
+	 */
 	protected HashMap<ArrayKey, Tuple> tuples;
+	/**
+	 * the costs of all assignments to the variables (null if the constraint is sparse), indexed in mixed radix, i.e.
+	 * the domain indices of the variables are multiplied by the strides, the last variable's stride being 1
+	 */
+	protected long[] costTable;
+	/**
+	 * the domain sizes of the variables and the strides for the computation of indices into the cost table (dense constraints only) 
+	 */
+	protected int[] domSizes, strides;
 	/**
 	 * array of variable indices encompassed by this constraint
 	 */
 	protected int[] varIndices;
 	protected long defaultCost;
 	
+	/**
+	 * constructs a sparse constraint
+	 * @param defaultCost the costs of all assignments for which no tuple is given
+	 * @param varIndices the indices of the variables encompassed by the constraint
+	 * @param initialTuples the expected number of tuples
+	 */
 	public Constraint(long defaultCost, int[] varIndices, int initialTuples) {
 		this.varIndices = varIndices;
 		this.defaultCost = defaultCost;		
 		tuples = new HashMap<ArrayKey, Tuple>(initialTuples);
 	}
 	
+	/**
+	 * constructs a dense constraint, all assignments initially having the default costs
+	 * @param defaultCost the costs of all assignments for which no tuple is given
+	 * @param varIndices the indices of the variables encompassed by the constraint
+	 * @param domSizes the domain sizes of the variables encompassed by the constraint
+	 */
+	public Constraint(long defaultCost, int[] varIndices, int[] domSizes) {
+		this.varIndices = varIndices;
+		this.defaultCost = defaultCost;
+		initCostTable(domSizes);
+	}
+	
+	/**
+	 * creates a constraint, which is dense if the number of assignments to its variables does not exceed {@link #MAX_DENSE_SIZE}
+	 * and sparse otherwise
+	 * @param defaultCost the costs of all assignments for which no tuple is given
+	 * @param varIndices the indices of the variables encompassed by the constraint
+	 * @param wcspDomSizes the domain sizes of all the variables of the WCSP
+	 * @param initialTuples the expected number of tuples (for the sparse case)
+	 * @return the constraint
+	 */
+	public static Constraint create(long defaultCost, int[] varIndices, int[] wcspDomSizes, int initialTuples) {
+		int[] domSizes = new int[varIndices.length];
+		long size = 1;
+		for(int i = 0; i < varIndices.length; i++) {
+			domSizes[i] = wcspDomSizes[varIndices[i]];
+			size *= domSizes[i];
+			if(size > MAX_DENSE_SIZE)
+				return new Constraint(defaultCost, varIndices, initialTuples);
+		}
+		return new Constraint(defaultCost, varIndices, domSizes);
+	}
+	
+	protected void initCostTable(int[] domSizes) {
+		this.domSizes = domSizes;
+		strides = new int[varIndices.length];
+		int size = 1;
+		for(int i = varIndices.length-1; i >= 0; i--) {
+			strides[i] = size;
+			size *= domSizes[i];
+		}
+		costTable = new long[size];
+		Arrays.fill(costTable, defaultCost);
+	}
+	
+	/**
+	 * converts this constraint to the dense representation
+	 * @param domSizes the domain sizes of the variables encompassed by the constraint
+	 */
+	protected void makeDense(int[] domSizes) {
+		HashMap<ArrayKey, Tuple> tuples = this.tuples;
+		initCostTable(domSizes);
+		for(Tuple t : tuples.values())
+			costTable[getTableIndex(t.domIndices)] = t.cost;
+		this.tuples = null;
+	}
+	
+	/**
+	 * @return true if the constraint is represented by a dense cost table
+	 */
+	public boolean isDense() {
+		return costTable != null;
+	}
+	
+	/**
+	 * @return the dense cost table (see {@link #costTable}) or null if the constraint is sparse
+	 */
+	public long[] getCostTable() {
+		return costTable;
+	}
+	
+	protected int getTableIndex(int[] domainIndices) {
+		int idx = 0;
+		for(int i = 0; i < domainIndices.length; i++)
+			idx += domainIndices[i] * strides[i];
+		return idx;
+	}
+	
+	protected int[] getDomainIndices(int tableIndex) {
+		int[] domIndices = new int[varIndices.length];
+		for(int i = 0; i < domIndices.length; i++)
+			domIndices[i] = (tableIndex / strides[i]) % domSizes[i];
+		return domIndices;
+	}
+	
 	public void addTuple(int[] domainIndices, long cost) {
-		tuples.put(new ArrayKey(domainIndices), new Tuple(domainIndices, cost));
+		if(costTable != null)
+			costTable[getTableIndex(domainIndices)] = cost;
+		else
+			tuples.put(new ArrayKey(domainIndices), new Tuple(domainIndices, cost));
 	}
 	
 	public void addTuple(Tuple t) {
-		tuples.put(new ArrayKey(t.domIndices), t);
+		if(costTable != null)
+			costTable[getTableIndex(t.domIndices)] = t.cost;
+		else
+			tuples.put(new ArrayKey(t.domIndices), t);
 	}
 	
 	public long getCost(int[] domainIndices) {
+		if(costTable != null)
+			return costTable[getTableIndex(domainIndices)];
 		Tuple t = tuples.get(new ArrayKey(domainIndices));
 		if(t == null)
 			return defaultCost;
 		return t.cost;
 	}
 	
+	/**
+	 * computes the minimum costs of the assignments to the constraint's variables that are consistent with the given partial assignment 
+	 * @param partialAssignment a partial assignment, mapping variable indices to domain indices
+	 * @param wcsp the WCSP this constraint belongs to
+	 * @return the minimum costs
+	 */
+	public long getMinCost(java.util.Map<Integer,Integer> partialAssignment, WCSP wcsp) {
+		if(costTable != null)
+			return getMinCost(partialAssignment, 0, 0);
+		int numRequiredTuples = 1;
+		for(int varIdx : varIndices) {
+			if(!partialAssignment.containsKey(varIdx))
+				numRequiredTuples *= wcsp.getDomainSize(varIdx);
+		}
+		long min = Long.MAX_VALUE;
+		int numPresentTuples = 0;
+		for(Tuple t : tuples.values()) {
+			if(t.couldApply(this, partialAssignment)) {
+				min = Math.min(min, t.cost);
+				++numPresentTuples;
+			}
+		}
+		assert numPresentTuples <= numRequiredTuples;
+		if(numPresentTuples < numRequiredTuples)
+			min = Math.min(min, defaultCost);
+		return min;
+	}
+	
+	protected long getMinCost(java.util.Map<Integer,Integer> partialAssignment, int i, int tableIndex) {
+		if(i == varIndices.length)
+			return costTable[tableIndex];
+		Integer a = partialAssignment.get(varIndices[i]);
+		if(a != null)
+			return getMinCost(partialAssignment, i+1, tableIndex + a * strides[i]);
+		long min = Long.MAX_VALUE;
+		for(int b = 0; b < domSizes[i]; b++)
+			min = Math.min(min, getMinCost(partialAssignment, i+1, tableIndex + b * strides[i]));
+		return min;
+	}
+	
 	public int[] getVarIndices() {
 		return varIndices;
 	}
 	
+	/**
+	 * @return the tuples, i.e. the assignments whose costs are not the default costs (for dense constraints, the tuples
+	 * are created on demand, such that modifying them does not affect the constraint)
+	 */
 	public java.util.Collection<Tuple> getTuples() {
-		return tuples.values();
+		if(costTable == null)
+			return tuples.values();
+		ArrayList<Tuple> ret = new ArrayList<Tuple>();
+		for(int i = 0; i < costTable.length; i++)
+			if(costTable[i] != defaultCost)
+				ret.add(new Tuple(getDomainIndices(i), costTable[i]));
+		return ret;
 	}
 	
 	public Tuple getTuple(int[] setting) {
+		if(costTable != null) {
+			long cost = costTable[getTableIndex(setting)];
+			return cost == defaultCost ? null : new Tuple(setting.clone(), cost);
+		}
 		return tuples.get(new ArrayKey(setting));
 	}
 	
 	public Tuple getTuple(ArrayKey k) {
+		if(costTable != null)
+			return getTuple(k.array);
 		return tuples.get(k);
 	}
 	
@@ -77,7 +252,17 @@ public class Constraint {
 		return defaultCost;
 	}
 	
+	/**
+	 * sets the default costs, i.e. the costs of all assignments for which no tuple is given
+	 * (for dense constraints, these are the assignments that have the current default costs)
+	 * @param c the new default costs
+	 */
 	public void setDefaultCosts(long c) {
+		if(costTable != null) {
+			for(int i = 0; i < costTable.length; i++)
+				if(costTable[i] == defaultCost)
+					costTable[i] = c;
+		}
 		this.defaultCost = c;
 	}
 	
@@ -85,7 +270,13 @@ public class Constraint {
 	 * @return the number of tuples in this constraint
 	 */
 	public int size() {
-		return tuples.size();
+		if(costTable == null)
+			return tuples.size();
+		int n = 0;
+		for(long cost : costTable)
+			if(cost != defaultCost)
+				n++;
+		return n;
 	}
 	
 	/**
@@ -94,7 +285,26 @@ public class Constraint {
 	 * method, as its contents are modified.
 	 */
 	public void merge(Constraint c2) {
-		long c2defaultCosts = c2.getDefaultCosts();	
+		long c2defaultCosts = c2.getDefaultCosts();
+		// if this constraint is sparse but c2 is dense (and therefore small), use the dense representation
+		if(costTable == null && c2.costTable != null)
+			makeDense(c2.domSizes);
+		if(costTable != null) {
+			if(c2.costTable != null) {
+				long[] costTable2 = c2.costTable;
+				for(int i = 0; i < costTable.length; i++)
+					costTable[i] += costTable2[i];
+			}
+			else {
+				if(c2defaultCosts != 0L)
+					for(int i = 0; i < costTable.length; i++)
+						costTable[i] += c2defaultCosts;
+				for(Tuple t2 : c2.getTuples())
+					costTable[getTableIndex(t2.domIndices)] += t2.cost - c2defaultCosts;
+			}
+			defaultCost += c2defaultCosts;
+			return;
+		}
 		boolean c1TupleUpdateRequired = c2defaultCosts != 0L;
 		// add contents of c2's tuples to c1
 		HashSet<Tuple> processedTuples = c1TupleUpdateRequired ? new HashSet<Tuple>(c2.size()) : null;
@@ -138,8 +348,22 @@ public class Constraint {
 			varIdx2arrayIdx.put(varIndices[k], k);
 			sameOrder = sameOrder && varIndices[k] == c2varIndices[k];
 		}
-		// if the order isn't the same, reorder all of c2's tuples
-		if(!sameOrder) {
+		// if the order isn't the same, reorder c2's cost table or all of c2's tuples
+		if(!sameOrder && c2.costTable != null) {
+			int[] domSizes2 = new int[varIndices.length];
+			for(int k = 0; k < varIndices.length; k++)
+				domSizes2[varIdx2arrayIdx.get(c2varIndices[k])] = c2.domSizes[k];
+			Constraint reordered = new Constraint(c2.defaultCost, varIndices, domSizes2);
+			for(int i = 0; i < c2.costTable.length; i++) {
+				int[] domIndices2 = c2.getDomainIndices(i);
+				int idx = 0;
+				for(int k = 0; k < varIndices.length; k++)
+					idx += domIndices2[k] * reordered.strides[varIdx2arrayIdx.get(c2varIndices[k])];
+				reordered.costTable[idx] = c2.costTable[i];
+			}
+			c2 = reordered;
+		}
+		else if(!sameOrder) {
 			for(Tuple t2 : c2.getTuples()) {
 				int[] domIndices = new int[t2.domIndices.length];
 				for(int k = 0; k < varIndices.length; k++)
@@ -161,10 +385,10 @@ public class Constraint {
 		}
 		out.print(defaultCost);
 		out.print(' ');
+		java.util.Collection<Tuple> tuples = getTuples();
 		out.println(tuples.size());
 		// actual constraint tuples
-		for(Entry<ArrayKey, Tuple> e : tuples.entrySet()) {
-			Tuple t = e.getValue();
+		for(Tuple t : tuples) {
 			for(int domIdx : t.domIndices) {
 				out.print(domIdx);
 				out.print(' ');				
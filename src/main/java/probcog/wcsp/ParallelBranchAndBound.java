@@ -0,0 +1,533 @@
+/*******************************************************************************
+ * Copyright (C) 2012 Dominik Jain.
+ *
+ * This file is part of ProbCog.
+ *
+ * ProbCog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProbCog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProbCog. If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package probcog.wcsp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import probcog.exception.ProbCogException;
+import probcog.wcsp.Constraint.Tuple;
+
+/**
+ * Parallel depth-first branch and bound search for WCSPs, which runs in-process (unlike toulbar2).
+ * <ul>
+ * <li>Constraints are compiled into dense cost tables (arrays of primitive costs, indexed by the assignment to the constraint's scope),
+ *     which are copied from dense constraints (see {@link Constraint#isDense()}).</li>
+ * <li>Before the search, costs are moved from the constraints to unary costs and from there to a constant lower bound
+ *     by means of cost projections (node and arc consistency, which preserves the costs of all complete assignments).</li>
+ * <li>During the search, the lower bound is the sum of the costs of the assigned values and, for each unassigned variable,
+ *     the minimum unary cost, where the unary costs include the costs of constraints in which all other variables are assigned
+ *     (forward checking).</li>
+ * <li>The next variable is the one minimizing the ratio of the number of values not pruned by the bound and the weighted degree,
+ *     where constraint weights are increased whenever an assignment to one of the constraint's variables leads to a dead end (dom/wdeg).</li>
+ * <li>Subtrees are forked as tasks of a {@link ForkJoinPool} whenever there are not enough tasks for the worker threads to steal;
+ *     all workers share the upper bound (i.e. the costs of the best solution found so far).</li>
+ * </ul>
+ * @author Dominik Jain
+ */
+public class ParallelBranchAndBound {
+	/**
+	 * the maximum number of entries in a constraint's cost table
+	 */
+	public static final int MAX_TABLE_SIZE = 1 << 24;
+
+	protected WCSP wcsp;
+	protected int numVars;
+	protected int[] domSizes;
+	protected long top;
+	/**
+	 * the variables, strides and cost tables of the (non-unary) constraints
+	 */
+	protected int[][] scopes, strides;
+	protected long[][] tables;
+	/**
+	 * for each variable, the indices of the (non-unary) constraints it appears in
+	 */
+	protected int[][] var2constraints;
+	protected long[][] unaryCosts;
+	/**
+	 * the constant lower bound obtained by projecting unary costs
+	 */
+	protected long constantCosts = 0;
+
+	protected int numThreads;
+	protected long timeLimitMs = 0;
+	protected boolean verbose = false;
+
+	protected volatile long upperBound;
+	protected int[] bestSolution = null;
+	protected volatile boolean timeLimitReached;
+	protected long deadline;
+	protected AtomicLong numNodes = new AtomicLong();
+	/**
+	 * the number of tasks that have been forked but not yet completed their own part of the search
+	 */
+	protected AtomicInteger numPendingTasks = new AtomicInteger();
+
+	/**
+	 * @param wcsp the WCSP to solve
+	 * @param initialUpperBound the costs that solutions must be strictly below (e.g. the WCSP's top costs)
+	 * @param numThreads the number of worker threads
+	 * @throws ProbCogException if a constraint's cost table is too large or the costs could overflow
+	 */
+	public ParallelBranchAndBound(WCSP wcsp, long initialUpperBound, int numThreads) throws ProbCogException {
+		this.wcsp = wcsp;
+		this.numThreads = numThreads;
+		numVars = wcsp.getNumVariables();
+		domSizes = new int[numVars];
+		for(int i = 0; i < numVars; i++)
+			domSizes[i] = wcsp.getDomainSize(i);
+		top = Math.min(wcsp.getTop(), initialUpperBound);
+		upperBound = top;
+		compileConstraints();
+		projectCosts();
+	}
+
+	public void setTimeLimitMs(long timeLimitMs) {
+		this.timeLimitMs = timeLimitMs;
+	}
+
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * compiles the constraints into cost tables, where all costs are capped at top
+	 */
+	protected void compileConstraints() throws ProbCogException {
+		unaryCosts = new long[numVars][];
+		for(int i = 0; i < numVars; i++)
+			unaryCosts[i] = new long[domSizes[i]];
+		ArrayList<int[]> scopeList = new ArrayList<int[]>();
+		ArrayList<int[]> strideList = new ArrayList<int[]>();
+		ArrayList<long[]> tableList = new ArrayList<long[]>();
+		int[] varDegrees = new int[numVars];
+		for(Constraint c : wcsp) {
+			int[] scope = c.getVarIndices();
+			int[] stride = new int[scope.length];
+			long size = 1;
+			for(int i = scope.length-1; i >= 0; i--) {
+				stride[i] = (int)size;
+				size *= domSizes[scope[i]];
+				if(size > MAX_TABLE_SIZE)
+					throw new ProbCogException("Constraint on " + scope.length + " variables is too large for a cost table");
+			}
+			long[] table;
+			if(c.isDense()) { // dense constraints use the same indexing
+				table = c.getCostTable().clone();
+				for(int i = 0; i < table.length; i++)
+					table[i] = Math.min(table[i], top);
+			}
+			else {
+				table = new long[(int)size];
+				Arrays.fill(table, Math.min(c.getDefaultCosts(), top));
+				for(Tuple t : c.getTuples()) {
+					int idx = 0;
+					for(int i = 0; i < scope.length; i++)
+						idx += t.domIndices[i] * stride[i];
+					table[idx] = Math.min(t.cost, top);
+				}
+			}
+			if(scope.length == 0)
+				constantCosts = Math.min(top, constantCosts + table[0]);
+			else if(scope.length == 1) {
+				long[] u = unaryCosts[scope[0]];
+				for(int a = 0; a < u.length; a++)
+					u[a] = Math.min(top, u[a] + table[a]);
+			}
+			else {
+				scopeList.add(scope);
+				strideList.add(stride);
+				tableList.add(table);
+				for(int v : scope)
+					varDegrees[v]++;
+			}
+		}
+		scopes = scopeList.toArray(new int[scopeList.size()][]);
+		strides = strideList.toArray(new int[strideList.size()][]);
+		tables = tableList.toArray(new long[tableList.size()][]);
+		var2constraints = new int[numVars][];
+		for(int i = 0; i < numVars; i++)
+			var2constraints[i] = new int[varDegrees[i]];
+		for(int c = 0; c < scopes.length; c++)
+			for(int v : scopes[c])
+				var2constraints[v][--varDegrees[v]] = c;
+		// the lower bound is a sum of at most one (capped) cost per constraint and variable, which must not overflow
+		if((double)top * (wcsp.size() + numVars + 1) >= Long.MAX_VALUE)
+			throw new ProbCogException("Costs are too large for the branch and bound search (top = " + top + ")");
+	}
+
+	/**
+	 * projects the constraints' costs onto the unary costs and the unary costs onto the constant costs
+	 * (soft arc and node consistency)
+	 */
+	protected void projectCosts() {
+		for(int c = 0; c < scopes.length; c++) {
+			int[] scope = scopes[c];
+			long[] table = tables[c];
+			for(int i = 0; i < scope.length; i++) {
+				int x = scope[i], d = domSizes[x], stride = strides[c][i];
+				long[] min = new long[d];
+				Arrays.fill(min, top);
+				for(int idx = 0; idx < table.length; idx++) {
+					int a = (idx / stride) % d;
+					if(table[idx] < min[a])
+						min[a] = table[idx];
+				}
+				for(int idx = 0; idx < table.length; idx++)
+					if(table[idx] < top)
+						table[idx] -= min[(idx / stride) % d];
+				for(int a = 0; a < d; a++)
+					unaryCosts[x][a] = Math.min(top, unaryCosts[x][a] + min[a]);
+			}
+		}
+		for(int x = 0; x < numVars; x++) {
+			long[] u = unaryCosts[x];
+			long min = top;
+			for(int a = 0; a < u.length; a++)
+				min = Math.min(min, u[a]);
+			for(int a = 0; a < u.length; a++)
+				if(u[a] < top)
+					u[a] -= min;
+			constantCosts = Math.min(top, constantCosts + min);
+		}
+	}
+
+	/**
+	 * runs the search
+	 * @return the best solution (an array of domain indices, one for each variable) or null if there is no solution with costs below
+	 * the initial upper bound
+	 */
+	public int[] findSolution() {
+		deadline = timeLimitMs > 0 ? System.currentTimeMillis() + timeLimitMs : Long.MAX_VALUE;
+		timeLimitReached = false;
+		numPendingTasks.set(1);
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			pool.invoke(new SearchTask(new SearchState(), -1));
+		}
+		finally {
+			pool.shutdown();
+		}
+		if(verbose)
+			System.out.printf("branch and bound: %d nodes, best costs %d%s\n", numNodes.get(), upperBound, timeLimitReached ? " (time limit reached)" : "");
+		return bestSolution;
+	}
+
+	/**
+	 * @return the costs of the best solution found
+	 */
+	public long getBestSolutionCosts() {
+		return upperBound;
+	}
+
+	/**
+	 * @return true if the search space was exhausted, i.e. the best solution found is optimal
+	 */
+	public boolean isOptimal() {
+		return !timeLimitReached;
+	}
+
+	/**
+	 * @return the number of search nodes that were expanded
+	 */
+	public long getNumNodes() {
+		return numNodes.get();
+	}
+
+	protected synchronized void offerSolution(long costs, int[] assignment) {
+		if(costs < upperBound) {
+			bestSolution = assignment.clone();
+			upperBound = costs;
+			if(verbose)
+				System.out.println("new solution with costs " + costs);
+		}
+	}
+
+	/**
+	 * the state of a search: a partial assignment along with the unary costs it induces
+	 */
+	protected class SearchState {
+		/**
+		 * the domain index assigned to each variable (-1 if unassigned)
+		 */
+		public int[] assignment;
+		/**
+		 * the unary costs of each variable, including the costs of constraints in which all other variables are assigned
+		 */
+		public long[][] costs;
+		/**
+		 * the number of unassigned variables of each constraint
+		 */
+		public int[] numUnassigned;
+		/**
+		 * the constant costs plus the costs of all the assigned values
+		 */
+		public long assignedCosts;
+		public int numAssigned;
+		/**
+		 * the weights of the constraints (for the dom/wdeg heuristic)
+		 */
+		public int[] weights;
+
+		public SearchState() {
+			assignment = new int[numVars];
+			Arrays.fill(assignment, -1);
+			costs = new long[numVars][];
+			for(int i = 0; i < numVars; i++)
+				costs[i] = unaryCosts[i].clone();
+			numUnassigned = new int[scopes.length];
+			for(int c = 0; c < scopes.length; c++)
+				numUnassigned[c] = scopes[c].length;
+			assignedCosts = constantCosts;
+			numAssigned = 0;
+			weights = new int[scopes.length];
+			Arrays.fill(weights, 1);
+		}
+
+		public SearchState(SearchState s) {
+			assignment = s.assignment.clone();
+			costs = new long[numVars][];
+			for(int i = 0; i < numVars; i++)
+				costs[i] = s.costs[i].clone();
+			numUnassigned = s.numUnassigned.clone();
+			assignedCosts = s.assignedCosts;
+			numAssigned = s.numAssigned;
+			weights = s.weights.clone();
+		}
+
+		public void assign(int x, int a) {
+			assignment[x] = a;
+			assignedCosts += costs[x][a];
+			numAssigned++;
+			for(int c : var2constraints[x])
+				if(--numUnassigned[c] == 1)
+					addRemainingCosts(c, 1);
+		}
+
+		public void unassign(int x) {
+			int[] cs = var2constraints[x];
+			for(int i = cs.length-1; i >= 0; i--) {
+				int c = cs[i];
+				if(numUnassigned[c]++ == 1)
+					addRemainingCosts(c, -1);
+			}
+			numAssigned--;
+			assignedCosts -= costs[x][assignment[x]];
+			assignment[x] = -1;
+		}
+
+		/**
+		 * adds the costs of a constraint with a single unassigned variable to (or subtracts them from) that variable's unary costs
+		 * @param c the constraint index
+		 * @param sign 1 to add, -1 to subtract
+		 */
+		protected void addRemainingCosts(int c, int sign) {
+			int[] scope = scopes[c], stride = strides[c];
+			int base = 0, y = -1, yStride = 0;
+			for(int i = 0; i < scope.length; i++) {
+				int a = assignment[scope[i]];
+				if(a == -1) {
+					y = scope[i];
+					yStride = stride[i];
+				}
+				else
+					base += a * stride[i];
+			}
+			long[] table = tables[c], cost = costs[y];
+			for(int a = 0, idx = base; a < cost.length; a++, idx += yStride)
+				cost[a] += sign * table[idx];
+		}
+
+		/**
+		 * increases the weights of the constraints linking the given variable to unassigned variables
+		 */
+		public void increaseWeights(int x) {
+			for(int c : var2constraints[x])
+				if(numUnassigned[c] > 0)
+					weights[c]++;
+		}
+	}
+
+	/**
+	 * depth-first search of the subtree below a search state, which forks parts of the subtree as new tasks
+	 * if there are not enough tasks for idle worker threads
+	 */
+	protected class SearchTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		protected SearchState s;
+		/**
+		 * the variable that was assigned last in the initial state (-1 if none)
+		 */
+		protected int initialVar;
+		// the search stack: for each depth, the variable, its candidate values (sorted by costs), the index of the next value,
+		// the lower bound without the variable's costs and whether the variable is currently assigned
+		protected int[] frameVar, frameNext, frameCount;
+		protected int[][] frameValues;
+		protected long[] frameBaseBound;
+		protected boolean[] frameAssigned;
+		protected long[] minCosts;
+
+		public SearchTask(SearchState s, int initialVar) {
+			this.s = s;
+			this.initialVar = initialVar;
+		}
+
+		@Override
+		protected void compute() {
+			int maxDepth = numVars - s.numAssigned;
+			frameVar = new int[maxDepth];
+			frameNext = new int[maxDepth];
+			frameCount = new int[maxDepth];
+			frameValues = new int[maxDepth][];
+			frameBaseBound = new long[maxDepth];
+			frameAssigned = new boolean[maxDepth];
+			minCosts = new long[numVars];
+			ArrayList<SearchTask> forked = new ArrayList<SearchTask>();
+			try {
+				int depth = expand(0, initialVar) ? 1 : 0;
+				while(depth > 0 && !timeLimitReached) {
+					int f = depth-1, x = frameVar[f];
+					if(frameAssigned[f]) {
+						s.unassign(x);
+						frameAssigned[f] = false;
+					}
+					if(frameNext[f] == frameCount[f]) {
+						depth--;
+						continue;
+					}
+					int a = frameValues[f][frameNext[f]++];
+					long ub = upperBound;
+					if(frameBaseBound[f] + s.costs[x][a] >= ub) { // values are sorted by costs, so all remaining values can be pruned
+						frameNext[f] = frameCount[f];
+						continue;
+					}
+					// fork the remaining values as separate tasks if workers could use more tasks
+					if(frameNext[f] < frameCount[f] && depth < maxDepth && numPendingTasks.get() < 2 * numThreads) {
+						for(int i = frameNext[f]; i < frameCount[f]; i++) {
+							int b = frameValues[f][i];
+							if(frameBaseBound[f] + s.costs[x][b] >= ub)
+								break;
+							SearchState child = new SearchState(s);
+							child.assign(x, b);
+							SearchTask t = new SearchTask(child, x);
+							numPendingTasks.incrementAndGet();
+							t.fork();
+							forked.add(t);
+						}
+						frameNext[f] = frameCount[f];
+					}
+					s.assign(x, a);
+					frameAssigned[f] = true;
+					if(expand(depth, x))
+						depth++;
+				}
+			}
+			finally {
+				numPendingTasks.decrementAndGet();
+			}
+			for(SearchTask t : forked)
+				t.join();
+		}
+
+		/**
+		 * expands the current search node: checks the lower bound, records solutions and otherwise selects
+		 * the next variable and its candidate values
+		 * @param depth the depth at which to push the new frame
+		 * @param lastVar the variable that was assigned last (-1 if none)
+		 * @return true if a frame was pushed
+		 */
+		protected boolean expand(int depth, int lastVar) {
+			if((numNodes.incrementAndGet() & 1023) == 0 && System.currentTimeMillis() > deadline)
+				timeLimitReached = true;
+			long ub = upperBound;
+			if(s.numAssigned == numVars) {
+				if(s.assignedCosts < ub)
+					offerSolution(s.assignedCosts, s.assignment);
+				return false;
+			}
+			// compute the lower bound
+			long lb = s.assignedCosts;
+			for(int x = 0; x < numVars; x++) {
+				if(s.assignment[x] != -1)
+					continue;
+				long[] c = s.costs[x];
+				long min = c[0];
+				for(int a = 1; a < c.length; a++)
+					if(c[a] < min)
+						min = c[a];
+				minCosts[x] = min;
+				lb += min;
+			}
+			if(lb >= ub) {
+				if(lastVar != -1)
+					s.increaseWeights(lastVar);
+				return false;
+			}
+			// select the variable with minimum dom/wdeg
+			int best = -1;
+			long bestDom = 0, bestWdeg = 1;
+			for(int x = 0; x < numVars; x++) {
+				if(s.assignment[x] != -1)
+					continue;
+				long base = lb - minCosts[x];
+				long[] c = s.costs[x];
+				long dom = 0;
+				for(int a = 0; a < c.length; a++)
+					if(base + c[a] < ub)
+						dom++;
+				long wdeg = 1;
+				for(int con : var2constraints[x])
+					if(s.numUnassigned[con] >= 2)
+						wdeg += s.weights[con];
+				if(best == -1 || dom * bestWdeg < bestDom * wdeg) {
+					best = x;
+					bestDom = dom;
+					bestWdeg = wdeg;
+				}
+			}
+			// push the frame with the candidate values, sorted by costs
+			long base = lb - minCosts[best];
+			long[] c = s.costs[best];
+			int[] values = frameValues[depth];
+			if(values == null || values.length < c.length)
+				values = frameValues[depth] = new int[c.length];
+			int n = 0;
+			for(int a = 0; a < c.length; a++) {
+				if(base + c[a] >= ub)
+					continue;
+				int i = n++;
+				for(; i > 0 && c[values[i-1]] > c[a]; i--)
+					values[i] = values[i-1];
+				values[i] = a;
+			}
+			frameVar[depth] = best;
+			frameNext[depth] = 0;
+			frameCount[depth] = n;
+			frameBaseBound[depth] = base;
+			frameAssigned[depth] = false;
+			return true;
+		}
+	}
+}
@@ -129,7 +129,7 @@ public class WCSP implements Iterable<Constraint> {
 					varIndices[j-1] = Integer.parseInt(elems[j]);
 				long defaultCost = Long.parseLong(elems[1+arity]);
 				int numTuples = Integer.parseInt(elems[1+arity+1]);
-				Constraint c = new Constraint(defaultCost, varIndices, numTuples);
+				Constraint c = Constraint.create(defaultCost, varIndices, domSizes, numTuples);
 				for(int j = 0; j < numTuples; j++) {
 					elems = br.readLine().split(" ");
 					int[] assignment = new int[arity];
@@ -19,14 +19,22 @@
 package probcog.wcsp;
 
 import java.io.PrintStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import probcog.exception.ProbCogException;
 import probcog.inference.IParameterHandler;
@@ -42,6 +50,7 @@ import probcog.logic.GroundLiteral;
 import probcog.logic.IPossibleWorld;
 import probcog.logic.Negation;
 import probcog.logic.PossibleWorld;
+import probcog.logic.TrueFalse;
 import probcog.logic.WorldVariables;
 import probcog.logic.WorldVariables.Block;
 import probcog.logic.sat.weighted.WeightedFormula;
@@ -82,6 +91,27 @@ public class WCSPConverter implements IParameterHandler, VerbosePrinter {
      */
 	protected HashMap<Integer, Vector<GroundAtom>> varIdx2groundAtoms;
 	protected HashMap<String, String> func_dom;
+	/**
+	 * the domain sizes of the WCSP variables
+	 */
+	protected int[] domSizes;
+	/**
+	 * maps domain names to arrays of the domain elements (in the order that defines the WCSP variables' domain indices)
+	 */
+	protected HashMap<String, Object[]> domArrays;
+	/**
+	 * maps formula structures (see {@link #getStructureKey(Formula, int[])}) to the constraint templates generated for them
+	 */
+	protected ConcurrentHashMap<String, ConstraintTemplate> constraintTemplates = new ConcurrentHashMap<String, ConstraintTemplate>();
+	protected AtomicInteger numTemplateReuses = new AtomicInteger();
+	/**
+	 * the number of threads with which to generate constraints
+	 */
+	protected int numThreads = Runtime.getRuntime().availableProcessors();
+	/**
+	 * the number of formulas processed by a single constraint generation task
+	 */
+	protected static final int FORMULA_BATCH_SIZE = 256;
 	protected HashMap<Formula, Long> wcspConstraints = new HashMap<Formula, Long>();
 	protected PrintStream ps;
 	protected long hardCost = -1;
@@ -104,6 +134,8 @@ public class WCSPConverter implements IParameterHandler, VerbosePrinter {
         paramHandler.add("debug", "setDebug");
         paramHandler.add("wcspWeightScalingFactor", Double.class, f -> { this.divisor = 1.0/f; },
         		"the scaling factor with which to multiply weights for the weight to integer cost conversion (by default, it is automatically computed from the weights)");
+        paramHandler.add("wcspConversionThreads", Integer.class, n -> { this.numThreads = n; },
+        		"the number of threads with which to generate WCSP constraints from ground formulas (default: the number of available processors)");
     }
     
     public void setCacheConstraints(boolean cache) {
@@ -164,7 +196,7 @@ public class WCSPConverter implements IParameterHandler, VerbosePrinter {
     	initialize();        
 
     	// instantiate WCSP
-        int[] domSizes = new int[vars.size()];
+        domSizes = new int[vars.size()];
         for(int i = 0; i < vars.size(); i++) {
         	HashSet<String> domSet = doms.get(func_dom.get(vars.get(i))); 
             domSizes[i] = domSet == null ? 2 : domSet.size();
@@ -176,28 +208,96 @@ public class WCSPConverter implements IParameterHandler, VerbosePrinter {
     	log.info("Generating evidence constraints...");
         generateEvidenceConstraints(wcsp);
         
-        // generate constraints for weighted formulas, merging constraints with the same domains
+        // generate constraints for weighted formulas (in batches, in parallel), merging constraints with the same domains
         log.info("Generating constraints for %d weighted formulas...", mrf.getNumFormulas());
         HashMap<ArrayKey, Constraint> collectedConstraints = new HashMap<ArrayKey, Constraint>();
-        for(WeightedFormula wf : mrf) {
-        	Constraint c = generateConstraint(wf);
-        	if(c != null) {
-        		// check if we have a previous constraint with the same domain
-        		ArrayKey key = new ArrayKey(c.getVarIndices());
-        		Constraint prevConstraint = collectedConstraints.get(key);
-        		if(prevConstraint != null)
-        			prevConstraint.merge(c);
-        		else {
-        			collectedConstraints.put(key, c);
-        			wcsp.addConstraint(c);
-        		}
+        numTemplateReuses.set(0);
+        if(numThreads <= 1) {
+        	mrf.streamFormulas((wf, m) -> addConstraint(wcsp, collectedConstraints, generateConstraint(wf, world)));
+        }
+        else {
+        	// batches are submitted as the formulas are streamed and their results are merged in order (keeping the number of pending batches bounded)
+        	ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        	ArrayDeque<Future<Constraint[]>> pending = new ArrayDeque<Future<Constraint[]>>();
+        	ArrayList<ArrayList<WeightedFormula>> batch = new ArrayList<ArrayList<WeightedFormula>>();
+        	batch.add(new ArrayList<WeightedFormula>(FORMULA_BATCH_SIZE));
+        	try {
+        		mrf.streamFormulas((wf, m) -> {
+        			batch.get(0).add(wf);
+        			if(batch.get(0).size() == FORMULA_BATCH_SIZE) {
+        				final List<WeightedFormula> formulas = batch.set(0, new ArrayList<WeightedFormula>(FORMULA_BATCH_SIZE));
+        				pending.add(executor.submit(() -> generateConstraints(formulas)));
+        				while(pending.size() > 2 * numThreads)
+        					addConstraints(wcsp, collectedConstraints, getResult(pending.poll()));
+        			}
+        		});
+        		final List<WeightedFormula> formulas = batch.get(0);
+        		pending.add(executor.submit(() -> generateConstraints(formulas)));
+        		while(!pending.isEmpty())
+        			addConstraints(wcsp, collectedConstraints, getResult(pending.poll()));
+        	}
+        	finally {
+        		executor.shutdownNow();
         	}
         }
+        log.info("Reused the tuples of structurally identical formulas for %d formulas (%d distinct structures)", numTemplateReuses.get(), constraintTemplates.size());
         
        log.info("Constructed %d constraints in total", wcsp.size());
         
         return wcsp;
     }
+    
+    /**
+     * generates the constraints for a batch of weighted formulas
+     * @param formulas the weighted formulas
+     * @return the constraints (null entries for formulas that require no constraint)
+     * @throws ProbCogException
+     */
+    protected Constraint[] generateConstraints(List<WeightedFormula> formulas) throws ProbCogException {
+    	PossibleWorld w = new PossibleWorld(mrf.getWorldVariables());
+    	Constraint[] ret = new Constraint[formulas.size()];
+    	for(int i = 0; i < ret.length; i++)
+    		ret[i] = generateConstraint(formulas.get(i), w);
+    	return ret;
+    }
+    
+    protected Constraint[] getResult(Future<Constraint[]> f) throws ProbCogException {
+    	try {
+    		return f.get();
+    	}
+    	catch(InterruptedException e) {
+    		throw new ProbCogException(e);
+    	}
+    	catch(ExecutionException e) {
+    		if(e.getCause() instanceof ProbCogException)
+    			throw (ProbCogException)e.getCause();
+    		throw new ProbCogException(e.getCause());
+    	}
+    }
+    
+    protected void addConstraints(WCSP wcsp, HashMap<ArrayKey, Constraint> collectedConstraints, Constraint[] constraints) {
+    	for(Constraint c : constraints)
+    		addConstraint(wcsp, collectedConstraints, c);
+    }
+    
+    /**
+     * adds a constraint to the WCSP, merging it into a previous constraint with the same domain (if any)
+     * @param wcsp the WCSP
+     * @param collectedConstraints the constraints added so far, indexed by their variable indices
+     * @param c the constraint (may be null)
+     */
+    protected void addConstraint(WCSP wcsp, HashMap<ArrayKey, Constraint> collectedConstraints, Constraint c) {
+    	if(c == null)
+    		return;
+    	ArrayKey key = new ArrayKey(c.getVarIndices());
+    	Constraint prevConstraint = collectedConstraints.get(key);
+    	if(prevConstraint != null)
+    		prevConstraint.merge(c);
+    	else {
+    		collectedConstraints.put(key, c);
+    		wcsp.addConstraint(c);
+    	}
+    }
 
     /**
      * this method generates a variable for each ground atom; for blocks, only one variable is created
@@ -220,16 +320,16 @@ public class WCSPConverter implements IParameterHandler, VerbosePrinter {
             	handledBlocks.add(block);
                 
                 // generate the new variable name
-                StringBuffer shortened = new StringBuffer(ga.predicate);
-                int funcArgIdx = mln.getFunctionallyDeterminedArgument(ga.predicate);
+                StringBuffer shortened = new StringBuffer(ga.getPredicate());
+                int funcArgIdx = mln.getFunctionallyDeterminedArgument(ga.getPredicate());
                 shortened.append('(');
                 int k = 0;
-                for(int j = 0; j < ga.args.length; j++) {
+                for(int j = 0; j < ga.getNumArgs(); j++) {
                 	if(j == funcArgIdx)
                 		continue;
                     if(k++ > 0)
                         shortened.append(',');
-                    shortened.append(ga.args[j]);
+                    shortened.append(ga.getArg(j));
                 }
                 shortened.append(')');
                 
@@ -237,7 +337,7 @@ public class WCSPConverter implements IParameterHandler, VerbosePrinter {
                 int varIdx = vars.size();
                 //System.out.printf("adding WCSP block variable %s\n", varName);
                 vars.add(varName);                
-                Signature sig = mln.getSignature(ga.predicate);
+                Signature sig = mln.getSignature(ga.getPredicate());
                 func_dom.put(varName, sig.argTypes[funcArgIdx]);
                 Vector<GroundAtom> tmp = new Vector<GroundAtom>();
                 for(GroundAtom gndAtom : block) {
@@ -315,9 +415,10 @@ public class WCSPConverter implements IParameterHandler, VerbosePrinter {
     /**
      * this method generates a WCSP Constraint for a weighted formula
      * @param wf the weighted formula
+     * @param w the possible world to use for the evaluation of the formula (modified)
      * @throws ProbCogException 
      */
-    protected Constraint generateConstraint(WeightedFormula wf) throws ProbCogException {
+    protected Constraint generateConstraint(WeightedFormula wf, PossibleWorld w) throws ProbCogException {
         // if the weight is negative, negate the formula and its weight
     	Formula f = wf.formula;
     	double weight = wf.weight;
@@ -354,6 +455,62 @@ public class WCSPConverter implements IParameterHandler, VerbosePrinter {
         else
         	cost = Math.round(weight / divisor);
         
+        // obtain the constraint's tuples from a previous formula with the same structure or generate them
+        String key = getStructureKey(f, referencedVarIndices);
+        ConstraintTemplate template = key == null ? null : constraintTemplates.get(key);
+        if(template != null)
+        	numTemplateReuses.incrementAndGet();
+        else {
+        	template = generateConstraintTemplate(f, referencedVarIndices, w);
+        	if(key != null)
+        		constraintTemplates.putIfAbsent(key, template);
+        }
+        
+        // if the smaller set contains no lines, this constraint is either unsatisfiable or a tautology, so it need not be considered at all
+        if(template.settings.length == 0)
+        	return null;
+        
+        // construct the constraint
+        Constraint c = Constraint.create(template.defaultViolated ? cost : 0, referencedVarIndices, domSizes, template.settings.length);
+        for(int j = 0; j < template.settings.length; j++)
+        	c.addTuple(template.settings[j].clone(), template.violated[j] ? cost : 0);
+        
+        if(this.cacheConstraints) {
+        	synchronized(wcspConstraints) {
+        		wcspConstraints.put(f, cost);
+        	}
+        }
+
+        return c;
+    }
+    
+    /**
+     * the tuples of the constraint for a formula, which apply to all formulas with the same structure
+     * (see {@link WCSPConverter#getStructureKey(Formula, int[])}), the costs being determined by each formula's weight
+     */
+    protected static class ConstraintTemplate {
+    	public int[][] settings;
+    	/**
+    	 * for each setting, whether the formula is false (such that the costs apply)
+    	 */
+    	public boolean[] violated;
+    	/**
+    	 * whether the costs apply to all settings not given explicitly
+    	 */
+    	public boolean defaultViolated;
+    }
+    
+    /**
+     * generates the tuples of the constraint for a formula
+     * @param f the formula (in negation normal form)
+     * @param referencedVarIndices the (sorted) indices of the WCSP variables referenced by the formula
+     * @param w the possible world to use for the evaluation of the formula (modified)
+     * @return the constraint template
+     * @throws ProbCogException
+     */
+    protected ConstraintTemplate generateConstraintTemplate(Formula f, int[] referencedVarIndices, PossibleWorld w) throws ProbCogException {
+        // tuples are generated with unit costs, which are later replaced by the formula's actual costs
+        final long cost = 1;
         ArrayList<Tuple> relevantSettings = null;
         long defaultCosts = -1;
         
@@ -378,7 +535,7 @@ public class WCSPConverter implements IParameterHandler, VerbosePrinter {
 	        // generate all possibilities for this constraint
 	        ArrayList<Tuple> settingsZero = new ArrayList<Tuple>();
 	        ArrayList<Tuple> settingsOther = new ArrayList<Tuple>();
-	        gatherConstraintTuples(f, referencedVarIndices, 0, world, new int[referencedVarIndices.length], cost, settingsZero, settingsOther);                 
+	        gatherConstraintTuples(f, referencedVarIndices, 0, w, new int[referencedVarIndices.length], cost, settingsZero, settingsOther);                 
 	        
 	        if(settingsOther.size() < settingsZero.size()) { // in this case there are more null-values than lines with a value differing from 0
 	        	relevantSettings = settingsOther;
@@ -392,20 +549,69 @@ public class WCSPConverter implements IParameterHandler, VerbosePrinter {
 	        }
         }
         
-        // if the smaller set contains no lines, this constraint is either unsatisfiable or a tautology, so it need not be considered at all
-        if(relevantSettings.size() == 0)
-        	return null;
-        
-        // construct the constraint
-        Constraint c = new Constraint(defaultCosts, referencedVarIndices, relevantSettings.size());
-        for(Tuple tuple : relevantSettings) {
-        	c.addTuple(tuple);
+        ConstraintTemplate template = new ConstraintTemplate();
+        template.settings = new int[relevantSettings.size()][];
+        template.violated = new boolean[relevantSettings.size()];
+        for(int i = 0; i < template.settings.length; i++) {
+        	Tuple t = relevantSettings.get(i);
+        	template.settings[i] = t.domIndices;
+        	template.violated[i] = t.cost != 0;
         }
-        
-        if(this.cacheConstraints)
-        	wcspConstraints.put(f, cost);
-
-        return c;
+        template.defaultViolated = defaultCosts != 0;
+        return template;
+    }
+    
+    /**
+     * computes a key that identifies the structure of a formula up to the renaming of ground atoms, i.e. formulas with the
+     * same key yield the same constraint tuples (given the same costs). Ground atoms are represented by the position of their
+     * WCSP variable in the constraint's scope (and, for blocks, by the value the atom corresponds to).
+     * @param f the formula
+     * @param referencedVarIndices the (sorted) indices of the WCSP variables referenced by the formula
+     * @return the key or null if the formula contains elements that are not supported
+     */
+    protected String getStructureKey(Formula f, int[] referencedVarIndices) {
+    	StringBuilder sb = new StringBuilder();
+    	if(!appendStructure(f, referencedVarIndices, sb))
+    		return null;
+    	return sb.toString();
+    }
+    
+    protected boolean appendStructure(Formula f, int[] referencedVarIndices, StringBuilder sb) {
+    	if(f instanceof GroundAtom)
+    		appendAtomStructure((GroundAtom)f, referencedVarIndices, sb);
+    	else if(f instanceof GroundLiteral) {
+    		GroundLiteral lit = (GroundLiteral)f;
+    		if(!lit.isPositive)
+    			sb.append('!');
+    		appendAtomStructure(lit.gndAtom, referencedVarIndices, sb);
+    	}
+    	else if(f instanceof TrueFalse)
+    		sb.append(f.toString());
+    	else if(f instanceof ComplexFormula) {
+    		sb.append(f.getClass().getSimpleName()).append('(');
+    		for(Formula child : ((ComplexFormula)f).children) {
+    			if(!appendStructure(child, referencedVarIndices, sb))
+    				return false;
+    			sb.append(',');
+    		}
+    		sb.append(')');
+    	}
+    	else
+    		return false;
+    	return true;
+    }
+    
+    protected void appendAtomStructure(GroundAtom gndAtom, int[] referencedVarIndices, StringBuilder sb) {
+    	int wcspVarIdx = gndAtomIdx2varIdx.get(gndAtom.index);
+    	sb.append('#').append(Arrays.binarySearch(referencedVarIndices, wcspVarIdx));
+    	Vector<GroundAtom> block = varIdx2groundAtoms.get(wcspVarIdx);
+    	if(block.size() > 1) {
+    		// the atom's position in the block and the index of the value it corresponds to in the variable's domain
+    		Object[] dom = domArrays.get(func_dom.get(vars.get(wcspVarIdx)));
+    		String value = gndAtom.getArg(mln.getFunctionallyDeterminedArgument(gndAtom.getPredicate()));
+    		int valueIdx = Arrays.asList(dom).indexOf(value);
+    		sb.append(':').append(block.indexOf(gndAtom)).append(':').append(valueIdx).append('/').append(dom.length);
+    	}
     }
     
     protected void generateEvidenceConstraints(WCSP wcsp) throws ProbCogException {
@@ -442,7 +648,7 @@ public class WCSPConverter implements IParameterHandler, VerbosePrinter {
         		}
         	}
         	int[] varIndices = new int[]{iVar};
-        	Constraint c = new Constraint(defaultCost, varIndices, 1);
+        	Constraint c = Constraint.create(defaultCost, varIndices, domSizes, 1);
         	c.addTuple(new int[]{iValue}, tupleCost);
         	wcsp.addConstraint(c);
         	
@@ -582,12 +788,12 @@ public class WCSPConverter implements IParameterHandler, VerbosePrinter {
      * @param value value indicating the atom to set to true
      */
     protected void setBlockState(PossibleWorld w, Vector<GroundAtom> block, String value) {
-    	int detArgIdx = this.mln.getFunctionallyDeterminedArgument(block.iterator().next().predicate);
+    	int detArgIdx = this.mln.getFunctionallyDeterminedArgument(block.iterator().next().getPredicate());
         Iterator<GroundAtom> it = block.iterator();
         GroundAtom g;
         while(it.hasNext()) {
             g = it.next();
-            boolean v = g.args[detArgIdx].equals(value); 
+            boolean v = g.getArg(detArgIdx).equals(value); 
             w.set(g.index, v);
             if(v)
             	break;
@@ -601,6 +807,9 @@ public class WCSPConverter implements IParameterHandler, VerbosePrinter {
     	this.db = mrf.getDb();
         this.world = new PossibleWorld(mrf.getWorldVariables());
         doms = mrf.getDb().getDomains();
+        domArrays = new HashMap<String, Object[]>();
+        for(Entry<String, HashSet<String>> e : doms.entrySet())
+        	domArrays.put(e.getKey(), e.getValue().toArray());
         createVariables();
         simplifyVars(mrf.getDb());
         if (divisor == null) {
@@ -612,16 +821,17 @@ public class WCSPConverter implements IParameterHandler, VerbosePrinter {
         }
         
         // compute hard cost
-    	long sumSoftCosts = 0;
-        for(WeightedFormula wf : mrf) {
+    	long[] sum = new long[1];
+        mrf.streamFormulas((wf, m) -> {
         	if(!wf.isHard) {
 	        	long cost = Math.abs(Math.round(wf.weight / divisor));
-                long newSum = sumSoftCosts + cost;
-                if (newSum < sumSoftCosts)
-                    throw new ProbCogException(String.format("Numeric overflow in sumSoftCosts (%d < %d)", newSum, sumSoftCosts));
-	        	sumSoftCosts = newSum;
+                long newSum = sum[0] + cost;
+                if (newSum < sum[0])
+                    throw new ProbCogException(String.format("Numeric overflow in sumSoftCosts (%d < %d)", newSum, sum[0]));
+	        	sum[0] = newSum;
         	}
-        }
+        });
+        long sumSoftCosts = sum[0];
         
         hardCost = sumSoftCosts + 1;
         if (hardCost <= sumSoftCosts)
@@ -0,0 +1,86 @@
+package probcog.logic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Vector;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import probcog.logic.Formula.FormulaSimplification;
+import probcog.logic.sat.weighted.WeightedFormula;
+import probcog.srl.Database;
+import probcog.srl.mln.MarkovLogicNetwork;
+import probcog.srl.mln.MarkovRandomField;
+
+public class FormulaGrounderTest {
+
+	/**
+	 * @return the sorted string representations of the ground formulas generated by Formula.generateGroundings
+	 */
+	static List<String> groundRecursively(MarkovLogicNetwork mln, Database db, WorldVariables worldVars, boolean simplify) throws Exception {
+		List<String> ret = new ArrayList<String>();
+		for(WeightedFormula wf : mln.getFormulas()) {
+			HashMap<String, String> vars = new HashMap<String, String>();
+			wf.formula.getVariables(db, vars);
+			Vector<Formula> groundings = new Vector<Formula>();
+			wf.formula.generateGroundings(groundings, db, new HashMap<String, String>(), vars.keySet().toArray(new String[vars.size()]), 0, vars, worldVars, simplification(wf, simplify));
+			for(Formula gf : groundings)
+				ret.add(gf.toString());
+		}
+		Collections.sort(ret);
+		return ret;
+	}
+
+	/**
+	 * @return the sorted string representations of the ground formulas generated by a FormulaGrounder
+	 */
+	static List<String> groundWithGrounder(MarkovLogicNetwork mln, Database db, WorldVariables worldVars, boolean simplify, int numThreads) throws Exception {
+		List<String> ret = new ArrayList<String>();
+		Vector<WeightedFormula> wfs = mln.getFormulas();
+		Formula[] formulas = new Formula[wfs.size()];
+		FormulaSimplification[] simplifications = new FormulaSimplification[wfs.size()];
+		for(int i = 0; i < formulas.length; i++) {
+			formulas[i] = wfs.get(i).formula;
+			simplifications[i] = simplification(wfs.get(i), simplify);
+		}
+		new FormulaGrounder(db, worldVars).ground(formulas, simplifications, (i, gf) -> ret.add(gf.toString()), numThreads);
+		Collections.sort(ret);
+		return ret;
+	}
+
+	static FormulaSimplification simplification(WeightedFormula wf, boolean simplify) {
+		if(!simplify)
+			return FormulaSimplification.None;
+		return wf.isHard ? FormulaSimplification.OnDisallowFalse : FormulaSimplification.On;
+	}
+
+	static void checkModel(String mlnFile, String dbFile) throws Exception {
+		MarkovLogicNetwork mln = new MarkovLogicNetwork(mlnFile);
+		Database db = new Database(mln);
+		db.readMLNDB(dbFile);
+		MarkovRandomField mrf = mln.ground(db);
+		for(boolean simplify : new boolean[]{false, true}) {
+			List<String> expected = groundRecursively(mln, db, mrf.getWorldVariables(), simplify);
+			Assert.assertFalse(expected.isEmpty());
+			Assert.assertEquals(expected, groundWithGrounder(mln, db, mrf.getWorldVariables(), simplify, 1));
+			Assert.assertEquals(expected, groundWithGrounder(mln, db, mrf.getWorldVariables(), simplify, 2));
+		}
+	}
+
+	@Test
+	public void testSmokers() throws Exception {
+		checkModel("src/test/resources/models/smokers/wts.smoking.mln", "src/test/resources/models/smokers/smoking-test.db");
+	}
+
+	/**
+	 * the ground-test model uses constants, equality, existential quantification and functional predicates,
+	 * and its evidence renders literals both true and false
+	 */
+	@Test
+	public void testGroundTestModel() throws Exception {
+		checkModel("src/test/resources/models/ground-test/ground-test.mln", "src/test/resources/models/ground-test/ground-test.db");
+	}
+}
@@ -0,0 +1,126 @@
+package probcog.logic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WorldVariablesTest {
+
+	static GroundAtom atom(WorldVariables vars, String predicate, String... args) {
+		GroundAtom ga = new GroundAtom(predicate, args);
+		vars.add(ga);
+		return ga;
+	}
+
+	@Test
+	public void testLookups() throws Exception {
+		WorldVariables vars = new WorldVariables();
+		List<GroundAtom> atoms = new ArrayList<GroundAtom>();
+		// enough atoms to require the hash table and the arrays to grow several times
+		for(int i = 0; i < 500; i++)
+			atoms.add(atom(vars, "p" + (i % 3), "c" + (i / 3), "c" + (i % 7)));
+		Assert.assertEquals(atoms.size(), vars.size());
+		for(int i = 0; i < atoms.size(); i++) {
+			GroundAtom ga = atoms.get(i);
+			Assert.assertEquals(i, ga.index);
+			Assert.assertSame(ga, vars.get(i));
+			Assert.assertSame(ga, vars.get(ga.toString()));
+			Assert.assertSame(ga, vars.get(ga.getPredicate(), ga.getArgs()));
+		}
+		Assert.assertEquals("p1(c0,c1)", vars.get(1).toString());
+		Assert.assertSame(vars.get(1), vars.get("p1(c0, c1)"));
+		Assert.assertSame(vars.get(1), vars.get(" p1( c0 ,c1 ) "));
+		Assert.assertNull(vars.get("p1(c0,c2)"));
+		Assert.assertNull(vars.get("p1(c0)"));
+		Assert.assertNull(vars.get("p1(c0,c1,c2)"));
+		Assert.assertNull(vars.get("q(c0,c1)"));
+		Assert.assertNull(vars.get("p1(c0,c1"));
+		Assert.assertNull(vars.get("p1"));
+		Assert.assertNull(vars.get(""));
+		Assert.assertNull(vars.get(atoms.size()));
+		int i = 0;
+		for(GroundAtom ga : vars)
+			Assert.assertSame(atoms.get(i++), ga);
+	}
+
+	@Test
+	public void testZeroArity() throws Exception {
+		WorldVariables vars = new WorldVariables();
+		GroundAtom rain = atom(vars, "rain");
+		atom(vars, "wet", "grass");
+		Assert.assertEquals("rain()", rain.toString());
+		Assert.assertSame(rain, vars.get("rain()"));
+		Assert.assertSame(rain, vars.get("rain( )"));
+		Assert.assertSame(rain, vars.get("rain", new String[0]));
+		Assert.assertNull(vars.get("wet()"));
+	}
+
+	@Test
+	public void testConstantsWithCommas() throws Exception {
+		WorldVariables vars = new WorldVariables();
+		GroundAtom unary = atom(vars, "located", "Munich, Germany");
+		GroundAtom binary = atom(vars, "located", "Munich", "Germany");
+		GroundAtom parens = atom(vars, "name", "f(x)");
+		Assert.assertSame(unary, vars.get("located(Munich, Germany)"));
+		Assert.assertSame(binary, vars.get("located(Munich,Germany)"));
+		Assert.assertSame(parens, vars.get("name(f(x))"));
+		Assert.assertNull(vars.get("located(Germany,Munich)"));
+	}
+
+	@Test
+	public void testBlocks() throws Exception {
+		WorldVariables vars = new WorldVariables();
+		GroundAtom other = atom(vars, "other", "a");
+		Vector<GroundAtom> atoms = new Vector<GroundAtom>();
+		for(String v : new String[]{"red", "green", "blue"})
+			atoms.add(new GroundAtom("color", new String[]{"a", v}));
+		WorldVariables.Block block = vars.addBlock(atoms);
+		Assert.assertEquals(4, vars.size());
+		for(GroundAtom ga : atoms) {
+			Assert.assertSame(ga, vars.get(ga.toString()));
+			Assert.assertSame(block, vars.getBlock(ga.index));
+		}
+		Assert.assertNull(vars.getBlock(other.index));
+		PossibleWorld w = new PossibleWorld(vars);
+		w.set(atoms.get(1), true);
+		Assert.assertSame(atoms.get(1), block.getTrueOne(w));
+	}
+
+	@Test
+	public void testConcurrentAdditions() throws Exception {
+		WorldVariables vars = new WorldVariables();
+		int numThreads = 4, perThread = 2000;
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for(int t = 0; t < numThreads; t++) {
+			final int thread = t;
+			futures.add(executor.submit(() -> {
+				for(int i = 0; i < perThread; i++) {
+					GroundAtom ga = atom(vars, "p", "t" + thread, "c" + i);
+					// atoms added by other threads must be retrievable concurrently, too
+					if(vars.get(ga.toString()) != ga)
+						throw new AssertionError("could not retrieve " + ga);
+				}
+			}));
+		}
+		for(Future<?> f : futures)
+			f.get();
+		executor.shutdown();
+		Assert.assertEquals(numThreads * perThread, vars.size());
+		boolean[] seen = new boolean[vars.size()];
+		for(int t = 0; t < numThreads; t++)
+			for(int i = 0; i < perThread; i++) {
+				GroundAtom ga = vars.get("p(t" + t + ",c" + i + ")");
+				Assert.assertNotNull(ga);
+				Assert.assertFalse(seen[ga.index]);
+				seen[ga.index] = true;
+				Assert.assertSame(ga, vars.get(ga.index));
+			}
+	}
+}
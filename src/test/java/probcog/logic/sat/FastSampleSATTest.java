@@ -0,0 +1,133 @@
+package probcog.logic.sat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import probcog.exception.ProbCogException;
+import probcog.logic.GroundAtom;
+import probcog.logic.GroundLiteral;
+import probcog.logic.PossibleWorld;
+import probcog.logic.WorldVariables;
+import probcog.logic.sat.weighted.WeightedClausalKB;
+import probcog.srl.Database;
+import probcog.srl.mln.MarkovLogicNetwork;
+import probcog.srl.mln.MarkovRandomField;
+import probcog.srl.mln.inference.InferenceResult;
+import probcog.srl.mln.inference.MCSAT;
+
+public class FastSampleSATTest {
+
+	MarkovRandomField mrf;
+
+	/**
+	 * a sampler which, after every flip, checks the incrementally maintained counts against a recount from scratch
+	 */
+	static class CheckedSampleSAT extends FastSampleSAT {
+		int numFlips = 0;
+
+		public CheckedSampleSAT(WorldVariables vars, Database db) throws ProbCogException {
+			super(new PossibleWorld(vars), vars, db.getEntries());
+		}
+
+		@Override
+		protected void flip(int atom) {
+			super.flip(atom);
+			numFlips++;
+			check();
+		}
+
+		void check() {
+			try {
+				checkIntegrity();
+			}
+			catch(ProbCogException e) {
+				throw new AssertionError(e.getMessage());
+			}
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		MarkovLogicNetwork mln = new MarkovLogicNetwork("src/test/resources/models/smokers/wts.smoking.mln");
+		Database db = new Database(mln);
+		db.readMLNDB("src/test/resources/models/smokers/smoking-test.db");
+		mrf = mln.ground(db);
+	}
+
+	@Test
+	public void testIncrementalCountsMatchRecount() throws Exception {
+		WeightedClausalKB kb = new WeightedClausalKB(mrf, true);
+		CheckedSampleSAT sat = new CheckedSampleSAT(mrf.getWorldVariables(), mrf.getDb());
+		sat.setRandom(new Random(1L));
+		sat.initConstraints(kb);
+		sat.run();
+		// solve a sequence of subproblems, as in MC-SAT
+		Random rand = new Random(2L);
+		for(int i = 0; i < 50; i++) {
+			for(int c = 0; c < sat.getNumClauses(); c++)
+				sat.setActive(c, sat.isSatisfied(c) && rand.nextBoolean());
+			sat.run();
+			Assert.assertEquals(0, sat.numUnsat);
+		}
+		Assert.assertTrue(sat.numFlips > 0);
+	}
+
+	@Test
+	public void testDuplicateLiteralsAreCountedOnce() throws Exception {
+		WorldVariables vars = mrf.getWorldVariables();
+		GroundAtom a = vars.get("Cancer(Ivan)"), b = vars.get("Cancer(John)");
+		Clause c = new Clause(a);
+		c.lits = new GroundLiteral[]{new GroundLiteral(true, a), new GroundLiteral(false, b), new GroundLiteral(true, a)};
+		List<Clause> kb = new ArrayList<Clause>();
+		kb.add(c);
+		kb.add(new Clause(new GroundLiteral(false, a)));
+		CheckedSampleSAT sat = new CheckedSampleSAT(vars, mrf.getDb());
+		sat.setRandom(new Random(3L));
+		sat.initConstraints(kb);
+		Assert.assertEquals(3, sat.numLits);
+		sat.run();
+		// the only solution: a false, b false
+		Assert.assertFalse(sat.getState().isTrue(a));
+		Assert.assertFalse(sat.getState().isTrue(b));
+	}
+
+	@Test
+	public void testTautologyRejected() throws Exception {
+		GroundAtom a = mrf.getWorldVariables().get("Cancer(Ivan)");
+		Clause c = new Clause(a);
+		c.lits = new GroundLiteral[]{new GroundLiteral(true, a), new GroundLiteral(false, a)};
+		FastSampleSAT sat = new FastSampleSAT(new PossibleWorld(mrf.getWorldVariables()), mrf.getWorldVariables(), mrf.getDb().getEntries());
+		try {
+			sat.initConstraints(Arrays.asList(c));
+			Assert.fail("expected the tautology to be rejected");
+		}
+		catch(ProbCogException e) {
+		}
+	}
+
+	static double[] marginals(MarkovRandomField mrf, boolean fastSampleSAT) throws Exception {
+		MCSAT mcsat = new MCSAT(mrf);
+		mcsat.setParameterByName("maxSteps", 5000);
+		mcsat.setParameterByName("verbose", false);
+		mcsat.setParameterByName("random", new Random(10L));
+		mcsat.setParameterByName("fastSampleSAT", fastSampleSAT);
+		List<InferenceResult> results = mcsat.infer(Arrays.asList("Smokes", "Cancer"));
+		double[] probs = new double[results.size()];
+		for(int i = 0; i < probs.length; i++)
+			probs[i] = results.get(i).value;
+		return probs;
+	}
+
+	@Test
+	public void testMCSATMarginalsMatchSampleSAT() throws Exception {
+		double[] fast = marginals(mrf, true);
+		double[] old = marginals(mrf, false);
+		Assert.assertArrayEquals(old, fast, 0.05);
+	}
+}
@@ -0,0 +1,93 @@
+package probcog.logic.sat.weighted;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import probcog.exception.ProbCogException;
+import probcog.logic.GroundAtom;
+import probcog.logic.GroundLiteral;
+import probcog.logic.PossibleWorld;
+import probcog.logic.WorldVariables;
+import probcog.srl.Database;
+import probcog.srl.mln.MarkovLogicNetwork;
+import probcog.srl.mln.MarkovRandomField;
+
+public class FastMaxWalkSATTest {
+
+	MarkovRandomField mrf;
+
+	/**
+	 * a MaxWalkSAT instance which checks the incrementally maintained scores against a recount after every flip
+	 */
+	static class CheckedMaxWalkSAT extends FastMaxWalkSAT {
+		public CheckedMaxWalkSAT(WeightedClausalKB kb, WorldVariables vars, Database db) throws ProbCogException {
+			super(kb, new PossibleWorld(vars), vars, db);
+		}
+
+		@Override
+		protected void flip(int atom) {
+			super.flip(atom);
+			try {
+				checkIntegrity();
+			}
+			catch(ProbCogException e) {
+				throw new AssertionError(e.getMessage());
+			}
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		MarkovLogicNetwork mln = new MarkovLogicNetwork("src/test/resources/models/smokers/wts.smoking.mln");
+		Database db = new Database(mln);
+		db.readMLNDB("src/test/resources/models/smokers/smoking-test.db");
+		mrf = mln.ground(db);
+	}
+
+	@Test
+	public void testIncrementalScoresMatchRecount() throws Exception {
+		WeightedClausalKB kb = new WeightedClausalKB(mrf, true);
+		for(FastMaxWalkSAT.Heuristic heuristic : FastMaxWalkSAT.Heuristic.values()) {
+			CheckedMaxWalkSAT sat = new CheckedMaxWalkSAT(kb, mrf.getWorldVariables(), mrf.getDb());
+			sat.setRandom(new Random(1L));
+			sat.setVerbose(false);
+			sat.setHeuristic(heuristic.toString());
+			sat.setMaxSteps(500);
+			sat.setMaxTries(2);
+			sat.run();
+			// the reported cost is the cost of the best state
+			double cost = 0;
+			for(WeightedClause wc : kb)
+				if(!wc.isTrue(sat.getBestState()))
+					cost += wc.weight;
+			Assert.assertEquals(cost, sat.getBestCost(), 1e-6);
+		}
+	}
+
+	@Test
+	public void testDuplicateLiteralsAreScoredOnce() throws Exception {
+		WorldVariables vars = mrf.getWorldVariables();
+		GroundAtom a = vars.get("Cancer(Ivan)"), b = vars.get("Cancer(John)");
+		WeightedClause wc = new WeightedClause(a, 2.0, false);
+		wc.lits = new GroundLiteral[]{new GroundLiteral(true, a), new GroundLiteral(true, a), new GroundLiteral(true, b)};
+		WeightedClausalKB kb = new WeightedClausalKB();
+		kb.addClause(wc);
+		CheckedMaxWalkSAT sat = new CheckedMaxWalkSAT(kb, vars, mrf.getDb());
+		sat.initConstraints(kb);
+		sat.initialize();
+		// bring the state to a and b being false
+		if(sat.getState().isTrue(a))
+			sat.flip(a.index);
+		if(sat.getState().isTrue(b))
+			sat.flip(b.index);
+		Assert.assertEquals(2.0, sat.makeScore[a.index], 1e-9);
+		Assert.assertEquals(2.0, sat.unsatWeight, 1e-9);
+		// with a true, a is the clause's only true atom, so flipping it back breaks the clause
+		sat.flip(a.index);
+		Assert.assertEquals(2.0, sat.breakScore[a.index], 1e-9);
+		Assert.assertEquals(0.0, sat.makeScore[a.index], 1e-9);
+	}
+}
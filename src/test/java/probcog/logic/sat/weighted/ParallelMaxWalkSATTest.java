@@ -0,0 +1,138 @@
+package probcog.logic.sat.weighted;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import probcog.exception.ProbCogException;
+import probcog.logic.GroundAtom;
+import probcog.logic.GroundLiteral;
+import probcog.logic.PossibleWorld;
+import probcog.logic.WorldVariables;
+import probcog.srl.Database;
+import probcog.srl.mln.MarkovLogicNetwork;
+import probcog.srl.mln.MarkovRandomField;
+
+public class ParallelMaxWalkSATTest {
+
+	WorldVariables vars;
+	Database db;
+	GroundAtom a, b, c;
+
+	/**
+	 * a portfolio which counts the walks that were started and the ones that use the template's compiled clauses
+	 */
+	static class CountingMaxWalkSAT extends ParallelMaxWalkSAT {
+		AtomicInteger numWalksStarted = new AtomicInteger(), numWalksSharing = new AtomicInteger();
+
+		public CountingMaxWalkSAT(WeightedClausalKB kb, WorldVariables vars, Database db, FastMaxWalkSAT template, int numThreads) {
+			super(kb, vars, db, template, numThreads);
+		}
+
+		@Override
+		protected void configureWalk(FastMaxWalkSAT walk, int index) {
+			numWalksStarted.incrementAndGet();
+			if(walk.weight == template.weight && walk.isHard == template.isHard)
+				numWalksSharing.incrementAndGet();
+			super.configureWalk(walk, index);
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		MarkovLogicNetwork mln = new MarkovLogicNetwork("src/test/resources/models/smokers/wts.smoking.mln");
+		db = new Database(mln);
+		db.readMLNDB("src/test/resources/models/smokers/smoking-test.db");
+		MarkovRandomField mrf = mln.ground(db);
+		vars = mrf.getWorldVariables();
+		a = vars.get("Cancer(Ivan)");
+		b = vars.get("Cancer(John)");
+		c = vars.get("Cancer(Katherine)");
+	}
+
+	static WeightedClause clause(double weight, boolean hard, GroundLiteral... lits) throws ProbCogException {
+		WeightedClause wc = new WeightedClause(lits[0].gndAtom, weight, hard);
+		wc.lits = lits;
+		return wc;
+	}
+
+	/**
+	 * @return a KB whose unique optimum is a, b, !c with a sum of unsatisfied weights of 1.5
+	 */
+	WeightedClausalKB unsatisfiableKB() throws ProbCogException {
+		WeightedClausalKB kb = new WeightedClausalKB();
+		kb.addClause(clause(3.0, false, new GroundLiteral(true, a)));
+		kb.addClause(clause(2.0, false, new GroundLiteral(false, a), new GroundLiteral(true, b)));
+		kb.addClause(clause(1.0, false, new GroundLiteral(false, b)));
+		kb.addClause(clause(0.5, false, new GroundLiteral(true, c)));
+		kb.addClause(clause(100.0, true, new GroundLiteral(false, c), new GroundLiteral(false, a)));
+		return kb;
+	}
+
+	FastMaxWalkSAT template(WeightedClausalKB kb, int maxSteps) throws ProbCogException {
+		FastMaxWalkSAT template = new FastMaxWalkSAT(kb, new PossibleWorld(vars), vars, db);
+		template.setMaxSteps(maxSteps);
+		template.setVerbose(false);
+		return template;
+	}
+
+	@Test
+	public void testKnownOptimum() throws Exception {
+		WeightedClausalKB kb = unsatisfiableKB();
+		for(int numThreads : new int[]{1, 3}) {
+			ParallelMaxWalkSAT sat = new ParallelMaxWalkSAT(kb, vars, db, template(kb, 200), numThreads);
+			sat.setRandom(new Random(1L));
+			sat.setNumWalks(6);
+			sat.run();
+			Assert.assertEquals(1.5, sat.getBestCost(), 1e-9);
+			Assert.assertEquals(0, sat.getBestHardMissing());
+			PossibleWorld best = sat.getBestState();
+			Assert.assertTrue(best.isTrue(a));
+			Assert.assertTrue(best.isTrue(b));
+			Assert.assertFalse(best.isTrue(c));
+		}
+	}
+
+	@Test
+	public void testWalksShareCompiledClauses() throws Exception {
+		WeightedClausalKB kb = unsatisfiableKB();
+		CountingMaxWalkSAT sat = new CountingMaxWalkSAT(kb, vars, db, template(kb, 100), 2);
+		sat.setRandom(new Random(4L));
+		sat.setNumWalks(4);
+		sat.run();
+		Assert.assertEquals(4, sat.numWalksStarted.get());
+		Assert.assertEquals(4, sat.numWalksSharing.get());
+		Assert.assertEquals(1.5, sat.getBestCost(), 1e-9);
+	}
+
+	@Test
+	public void testStopsWhenAllClausesSatisfied() throws Exception {
+		WeightedClausalKB kb = new WeightedClausalKB();
+		kb.addClause(clause(1.0, false, new GroundLiteral(true, a)));
+		kb.addClause(clause(1.0, false, new GroundLiteral(false, a), new GroundLiteral(true, b)));
+		// with a single thread, the walks run one after the other, and the first one finds a satisfying state
+		CountingMaxWalkSAT sat = new CountingMaxWalkSAT(kb, vars, db, template(kb, 1000), 1);
+		sat.setRandom(new Random(2L));
+		sat.setNumWalks(100);
+		sat.run();
+		Assert.assertEquals(0.0, sat.getBestCost(), 0.0);
+		Assert.assertEquals(1, sat.numWalksStarted.get());
+	}
+
+	@Test
+	public void testStopsOnStagnation() throws Exception {
+		WeightedClausalKB kb = unsatisfiableKB();
+		// without the stagnation criterion, the walk would take practically forever
+		ParallelMaxWalkSAT sat = new ParallelMaxWalkSAT(kb, vars, db, template(kb, Integer.MAX_VALUE), 1);
+		sat.setRandom(new Random(3L));
+		sat.setStagnationTimeMs(100L);
+		long start = System.currentTimeMillis();
+		sat.run();
+		Assert.assertTrue(System.currentTimeMillis() - start < 10000);
+		Assert.assertEquals(1.5, sat.getBestCost(), 1e-9);
+		Assert.assertEquals(0, sat.getBestHardMissing());
+	}
+}
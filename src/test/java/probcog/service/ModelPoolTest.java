@@ -0,0 +1,52 @@
+package probcog.service;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ModelPoolTest {
+
+	static final List<String> QUERY = Arrays.asList("Cancer(Ann)");
+
+	static List<String[]> evidence(String person) {
+		return Arrays.asList(new String[]{"Friends", "Ann", "Bob"}, new String[]{"Smokes", person});
+	}
+
+	@Test
+	public void testEvictedInstanceInvalidatesGroundModels() throws Exception {
+		ModelPool pool = new ModelPool("src/test/resources/models/test.pool.xml");
+		pool.setMaxInstances(2);
+		pool.setMaxIdleInstances(1);
+		pool.setDefaultParameter("verbose", false);
+		GroundModelCache cache = pool.getGroundModelCache();
+		ModelSession s1 = pool.openSession("smokers"), s2 = pool.openSession("smokers");
+		Assert.assertTrue(s1.getModel() != s2.getModel());
+		s1.query(QUERY, evidence("Ann"));
+		s2.query(QUERY, evidence("Bob"));
+		s1.close();
+		Assert.assertEquals(1, cache.getNumEntries());
+		// releasing the second instance evicts the first one, whose ground model is thus removed from the cache
+		s2.close();
+		Assert.assertEquals(1, cache.getNumEntries());
+		// the remaining ground model is the one of the retained instance
+		ModelSession s3 = pool.openSession("smokers");
+		long hits = cache.getHits();
+		s3.query(QUERY, evidence("Bob"));
+		Assert.assertEquals(hits + 1, cache.getHits());
+		s3.close();
+	}
+
+	@Test
+	public void testInvalidateInstance() throws Exception {
+		GroundModelCache cache = new GroundModelCache(1000);
+		cache.put(GroundModelCache.getInstanceKeyPrefix(1) + "m|a", "a", 10);
+		cache.put(GroundModelCache.getInstanceKeyPrefix(1) + "m|b", "b", 20);
+		cache.put(GroundModelCache.getInstanceKeyPrefix(12) + "m|a", "c", 40);
+		Assert.assertEquals(2, cache.invalidateInstance(1));
+		Assert.assertEquals(1, cache.getNumEntries());
+		Assert.assertEquals(40, cache.getSize());
+		Assert.assertEquals("c", cache.take(GroundModelCache.getInstanceKeyPrefix(12) + "m|a"));
+	}
+}
@@ -0,0 +1,101 @@
+package probcog.service;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NetworkServerTest {
+
+	NetworkServer networkServer;
+	NetworkClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		Server server = new Server("src/test/resources/models/test.pool.xml");
+		server.setVerbose(false);
+		networkServer = new NetworkServer(server, new InetSocketAddress("localhost", 0), 2);
+		networkServer.start();
+		client = new NetworkClient("localhost", networkServer.getPort());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		client.close();
+		networkServer.close();
+	}
+
+	static void write(NetworkClient client, ByteBuffer frame) throws IOException {
+		while(frame.hasRemaining())
+			client.channel.write(frame);
+	}
+
+	@Test
+	public void testPipelinedRequests() throws Exception {
+		List<String> annQuery = Arrays.asList("Cancer(Ann)");
+		List<String> bobQuery = Arrays.asList("Smokes(Bob)", "Cancer(Bob)");
+		List<String[]> evidence = Arrays.asList(new String[]{"Smokes", "Ann"}, new String[]{"Friends", "Ann", "Bob"});
+		int numRequests = 8;
+		int[] ids = new int[numRequests];
+		for(int i = 0; i < numRequests; i++) {
+			if(i == 3) // a request that fails immediately must not overtake the requests before it
+				ids[i] = client.send("unknownModel", annQuery, evidence);
+			else
+				ids[i] = client.send("smokers", i % 2 == 0 ? annQuery : bobQuery, evidence);
+		}
+		for(int i = 0; i < numRequests; i++) {
+			BinaryProtocol.Response response = client.receive();
+			Assert.assertEquals(ids[i], response.id);
+			if(i == 3) {
+				Assert.assertNotNull(response.error);
+				continue;
+			}
+			Assert.assertNull(response.error, response.error);
+			List<String> query = i % 2 == 0 ? annQuery : bobQuery;
+			Assert.assertEquals(query.size(), response.results.size());
+			for(int j = 0; j < query.size(); j++) {
+				InferenceResult r = response.results.get(j);
+				Assert.assertEquals(query.get(j), r.functionName + "(" + String.join(",", r.params) + ")");
+				Assert.assertTrue(r.probability >= 0 && r.probability <= 1);
+			}
+		}
+	}
+
+	@Test
+	public void testOversizedFrameRejected() throws Exception {
+		ByteBuffer header = ByteBuffer.allocate(4);
+		header.putInt(0, BinaryProtocol.MAX_FRAME_SIZE + 1);
+		write(client, header);
+		try {
+			client.receive();
+			Assert.fail("expected the server to close the connection");
+		}
+		catch(IOException e) {
+		}
+	}
+
+	@Test
+	public void testTruncatedFrameRejected() throws Exception {
+		// a frame whose payload ends in the middle of the request
+		ByteBuffer request = BinaryProtocol.encodeRequest(42, "smokers", Arrays.asList("Cancer(Ann)"), Collections.<String[]>emptyList());
+		int length = request.capacity() - 4 - 6;
+		ByteBuffer truncated = ByteBuffer.allocate(4 + length);
+		truncated.putInt(length);
+		truncated.put(request.array(), 4, length);
+		truncated.flip();
+		write(client, truncated);
+		BinaryProtocol.Response response = client.receive();
+		Assert.assertEquals(42, response.id);
+		Assert.assertNotNull(response.error);
+		// the connection remains usable
+		List<String[]> evidence = Collections.singletonList(new String[]{"Smokes", "Ann"});
+		Assert.assertEquals(1, client.query("smokers", Arrays.asList("Cancer(Ann)"), evidence).size());
+	}
+}
@@ -0,0 +1,67 @@
+package probcog.srl;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import probcog.srl.mln.MarkovLogicNetwork;
+
+public class DatabaseLookupLogTest {
+
+	MarkovLogicNetwork mln;
+	DatabaseLookupLog log;
+
+	/**
+	 * @return the evidence of smoking-small.db, extended by the given true atoms
+	 */
+	Database readDatabase(String... trueAtoms) throws Exception {
+		Database db = new Database(mln);
+		db.readMLNDB("src/test/resources/models/smokers/smoking-small.db");
+		for(String atom : trueAtoms) {
+			String[] parts = atom.split("[(),]");
+			String[] params = new String[parts.length-1];
+			System.arraycopy(parts, 1, params, 0, params.length);
+			db.addVariable(new Variable(parts[0], params, "True", mln));
+		}
+		return db;
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		mln = new MarkovLogicNetwork("src/test/resources/models/smokers/wts.smoking.mln");
+		Database db = readDatabase();
+		log = new DatabaseLookupLog(db);
+		db.setLookupLog(log);
+		Assert.assertEquals("True", db.getVariableValue("Smokes(Ivan)", true));
+		Assert.assertEquals("False", db.getVariableValue("Smokes(John)", true));
+		Assert.assertNull(db.getVariableValue("Cancer(Ivan)", false));
+		db.setLookupLog(null);
+		db.getVariableValue("Cancer(John)", false);
+	}
+
+	@Test
+	public void testRecordedLookups() throws Exception {
+		Assert.assertEquals(3, log.size());
+		Assert.assertTrue(log.isConsistentWith(readDatabase()));
+	}
+
+	@Test
+	public void testUnrecordedChangesAreConsistent() throws Exception {
+		Assert.assertTrue(log.isConsistentWith(readDatabase("Cancer(Katherine)")));
+		// the lookup was made after the log had been detached
+		Assert.assertTrue(log.isConsistentWith(readDatabase("Cancer(John)")));
+	}
+
+	@Test
+	public void testChangedLookupResultsAreInconsistent() throws Exception {
+		// closed-world lookup
+		Assert.assertFalse(log.isConsistentWith(readDatabase("Smokes(John)")));
+		// open-world lookup, for which no value was known
+		Assert.assertFalse(log.isConsistentWith(readDatabase("Cancer(Ivan)")));
+	}
+
+	@Test
+	public void testChangedDomainIsInconsistent() throws Exception {
+		Assert.assertFalse(log.isConsistentWith(readDatabase("Cancer(Bob)")));
+	}
+}
@@ -0,0 +1,100 @@
+package probcog.srl.directed.bln;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import probcog.srl.Database;
+
+import edu.ksu.cis.bnj.ver3.core.BeliefNode;
+import edu.ksu.cis.bnj.ver3.core.CPF;
+
+public class GroundBLNTest {
+
+	static final String MODEL_DIR = "src/test/resources/models/alarm/";
+
+	BayesianLogicNetwork bln;
+
+	@Before
+	public void setUp() throws Exception {
+		bln = new BayesianLogicNetwork(MODEL_DIR + "alarm.blnd", MODEL_DIR + "alarm.pmml", MODEL_DIR + "alarm.blnl");
+	}
+
+	Database readDatabase(String filename) throws Exception {
+		Database db = new Database(bln.rbn);
+		db.readBLOGDB(MODEL_DIR + filename);
+		return db;
+	}
+
+	GroundBLN ground(String filename, boolean incremental) throws Exception {
+		GroundBLN gbln = bln.ground(readDatabase(filename));
+		gbln.setVerbose(false);
+		gbln.setIncrementalGrounding(incremental);
+		// simplifying the formulas using the evidence renders the formulaic nodes evidence-dependent
+		gbln.setFormulaSimplification(true);
+		gbln.instantiateGroundNetwork();
+		return gbln;
+	}
+
+	/**
+	 * @return a string representation of the ground network's nodes, including their CPF templates, parents and CPF values
+	 */
+	static String describe(GroundBLN gbln) {
+		StringBuilder sb = new StringBuilder();
+		for(BeliefNode node : gbln.getGroundNetwork().bn.getNodes()) {
+			sb.append(node.getName()).append(' ').append(gbln.getCPFID(node)).append(' ');
+			CPF cpf = node.getCPF();
+			for(BeliefNode n : cpf.getDomainProduct())
+				sb.append(n.getName()).append(',');
+			for(int i = 0; i < cpf.size(); i++)
+				sb.append(cpf.get(i).getExpr()).append(';');
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testIncrementalUpdateMatchesFreshGrounding() throws Exception {
+		GroundBLN gbln = ground("query1.blogdb", true);
+		String initial = describe(gbln);
+		// query2 has the same domains but different evidence on burglary, which the simplified formulas depend on
+		Assert.assertTrue(gbln.updateDatabase(readDatabase("query2.blogdb")));
+		String updated = describe(gbln);
+		Assert.assertFalse(initial.equals(updated));
+		Assert.assertEquals(describe(ground("query2.blogdb", false)), updated);
+		// updating back yields the original network
+		Assert.assertTrue(gbln.updateDatabase(readDatabase("query1.blogdb")));
+		Assert.assertEquals(initial, describe(gbln));
+	}
+
+	@Test
+	public void testChangedDomainRejected() throws Exception {
+		GroundBLN gbln = ground("query1.blogdb", true);
+		String initial = describe(gbln);
+		// query3 lacks the place Yorkshire
+		Assert.assertFalse(gbln.updateDatabase(readDatabase("query3.blogdb")));
+		Assert.assertEquals(initial, describe(gbln));
+	}
+
+	@Test
+	public void testNetworkWithoutEvidenceUpdatesNotReused() throws Exception {
+		GroundBLN gbln = new GroundBLN(bln, readDatabase("query1.blogdb")) {
+			@Override
+			protected boolean supportsEvidenceUpdates() {
+				return false;
+			}
+		};
+		gbln.setVerbose(false);
+		gbln.setIncrementalGrounding(true);
+		gbln.instantiateGroundNetwork();
+		Assert.assertFalse(gbln.supportsIncrementalGrounding());
+		Assert.assertFalse(gbln.updateDatabase(readDatabase("query2.blogdb")));
+	}
+
+	@Test
+	public void testIncrementalGroundingDisabled() throws Exception {
+		GroundBLN gbln = ground("query1.blogdb", false);
+		Assert.assertFalse(gbln.supportsIncrementalGrounding());
+		Assert.assertFalse(gbln.updateDatabase(readDatabase("query2.blogdb")));
+	}
+}
@@ -41,4 +41,43 @@ public class MCSATTest {
 		System.out.println(Arrays.toString(actualResults));
 		Assert.assertArrayEquals(expectedResults, actualResults, 0.01);
 	}
+	
+	static double[] infer(MarkovRandomField mrf, boolean incrementalConstraints) throws Exception {
+		return infer(mrf, incrementalConstraints, 1);
+	}
+	
+	static double[] infer(MarkovRandomField mrf, boolean incrementalConstraints, int numChains) throws Exception {
+		MCSAT mcsat = new MCSAT(mrf);
+		mcsat.setParameterByName("maxSteps", 5000);
+		mcsat.setParameterByName("verbose", false);
+		mcsat.setParameterByName("random", new Random(10L));
+		mcsat.setParameterByName("incrementalConstraints", incrementalConstraints);
+		mcsat.setParameterByName("numChains", numChains);
+		return resultProbabilities(mcsat.infer(Arrays.asList("Smokes", "Cancer")));
+	}
+	
+	static MarkovRandomField groundSmokers() throws Exception {
+		MarkovLogicNetwork mln = new MarkovLogicNetwork("src/test/resources/models/smokers/wts.smoking.mln");
+		Database db = new Database(mln);
+		db.readMLNDB("src/test/resources/models/smokers/smoking-test.db");
+		return mln.ground(db);
+	}
+	
+	@Test
+	public void testMultipleChainsReproducible() throws Exception {
+		MarkovRandomField mrf = groundSmokers();
+		// with a fixed seed, the results must not depend on the scheduling of the chains' threads
+		double[] first = infer(mrf, true, 3);
+		double[] second = infer(mrf, true, 3);
+		Assert.assertArrayEquals(first, second, 0.0);
+	}
+	
+	@Test
+	public void testIncrementalConstraints() throws Exception {
+		MarkovRandomField mrf = groundSmokers();
+		// switching constraints by (de)activating clauses must yield the same distribution as reinstantiating them
+		double[] incremental = infer(mrf, true);
+		double[] rebuilt = infer(mrf, false);
+		Assert.assertArrayEquals(rebuilt, incremental, 0.05);
+	}
 }
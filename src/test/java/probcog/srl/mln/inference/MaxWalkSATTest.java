@@ -0,0 +1,35 @@
+package probcog.srl.mln.inference;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import probcog.srl.Database;
+import probcog.srl.mln.MarkovLogicNetwork;
+import probcog.srl.mln.MarkovRandomField;
+
+public class MaxWalkSATTest {
+
+	static long[] inferPortfolio(MarkovRandomField mrf, long seed) throws Exception {
+		MaxWalkSAT mws = new MaxWalkSAT(mrf);
+		mws.setParameterByName("portfolio", true);
+		mws.setParameterByName("numThreads", 1);
+		mws.setParameterByName("numWalks", 3);
+		// few steps, such that the state depends on the walks' random initial states
+		mws.setParameterByName("maxSteps", 3);
+		mws.setParameterByName("random", new Random(seed));
+		mws.setVerbose(false);
+		mws.inferMPE();
+		return mws.getSolution().getBits();
+	}
+
+	@Test
+	public void testPortfolioReproducible() throws Exception {
+		MarkovLogicNetwork mln = new MarkovLogicNetwork("src/test/resources/models/smokers/wts.smoking.mln");
+		Database db = new Database(mln);
+		db.readMLNDB("src/test/resources/models/smokers/smoking-test.db");
+		MarkovRandomField mrf = mln.ground(db);
+		Assert.assertArrayEquals(inferPortfolio(mrf, 5L), inferPortfolio(mrf, 5L));
+	}
+}
@@ -0,0 +1,172 @@
+package probcog.wcsp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import probcog.logic.GroundAtom;
+import probcog.logic.PossibleWorld;
+import probcog.logic.WorldVariables;
+import probcog.srl.Database;
+import probcog.srl.mln.MarkovLogicNetwork;
+import probcog.srl.mln.MarkovRandomField;
+import probcog.srl.mln.inference.BranchAndBoundInference;
+
+public class ParallelBranchAndBoundTest {
+
+	static final long TOP = 1000;
+
+	/**
+	 * generates a random WCSP with sparse constraints on up to three variables, some of which have default or tuple costs of top
+	 * (hard constraints)
+	 */
+	static WCSP randomWCSP(Random rand) {
+		int n = 2 + rand.nextInt(7);
+		int[] domSizes = new int[n];
+		for(int i = 0; i < n; i++)
+			domSizes[i] = 2 + rand.nextInt(3);
+		WCSP wcsp = new WCSP(domSizes, TOP);
+		int numConstraints = 1 + rand.nextInt(12);
+		for(int k = 0; k < numConstraints; k++) {
+			int arity = 1 + rand.nextInt(Math.min(3, n));
+			int[] scope = new int[arity];
+			for(int i = 0; i < arity; i++) {
+				int x;
+				do
+					x = rand.nextInt(n);
+				while(contains(scope, i, x));
+				scope[i] = x;
+			}
+			Constraint c = new Constraint(rand.nextInt(5) == 0 ? TOP : rand.nextInt(20), scope, 4);
+			for(int t = 0; t < 4; t++) {
+				int[] tuple = new int[arity];
+				for(int i = 0; i < arity; i++)
+					tuple[i] = rand.nextInt(domSizes[scope[i]]);
+				c.addTuple(tuple, rand.nextInt(6) == 0 ? TOP : rand.nextInt(30));
+			}
+			wcsp.addConstraint(c);
+		}
+		return wcsp;
+	}
+
+	static boolean contains(int[] a, int len, int x) {
+		for(int i = 0; i < len; i++)
+			if(a[i] == x)
+				return true;
+		return false;
+	}
+
+	/**
+	 * @return the costs of the given complete assignment, capped at top
+	 */
+	static long costs(WCSP wcsp, int[] assignment) {
+		long sum = 0;
+		for(Constraint c : wcsp) {
+			int[] scope = c.getVarIndices();
+			int[] tuple = new int[scope.length];
+			for(int i = 0; i < scope.length; i++)
+				tuple[i] = assignment[scope[i]];
+			sum += c.getCost(tuple);
+		}
+		return Math.min(sum, wcsp.getTop());
+	}
+
+	/**
+	 * @return the minimum costs of all complete assignments, determined by exhaustive enumeration
+	 */
+	static long enumerate(WCSP wcsp, int[] assignment, int x) {
+		if(x == assignment.length)
+			return costs(wcsp, assignment);
+		long min = wcsp.getTop();
+		for(int a = 0; a < wcsp.getDomainSize(x); a++) {
+			assignment[x] = a;
+			min = Math.min(min, enumerate(wcsp, assignment, x+1));
+		}
+		return min;
+	}
+
+	static void checkRandomWCSPs(int numThreads) throws Exception {
+		Random rand = new Random(1L);
+		int numInfeasible = 0;
+		for(int trial = 0; trial < 200; trial++) {
+			WCSP wcsp = randomWCSP(rand);
+			long expected = enumerate(wcsp, new int[wcsp.getNumVariables()], 0);
+			ParallelBranchAndBound bb = new ParallelBranchAndBound(wcsp, TOP, numThreads);
+			int[] solution = bb.findSolution();
+			Assert.assertTrue(bb.isOptimal());
+			if(expected == TOP) {
+				Assert.assertNull("trial " + trial, solution);
+				numInfeasible++;
+				continue;
+			}
+			Assert.assertNotNull("trial " + trial, solution);
+			Assert.assertEquals("trial " + trial, expected, bb.getBestSolutionCosts());
+			Assert.assertEquals("trial " + trial, expected, costs(wcsp, solution));
+		}
+		// the hard constraints render some of the instances infeasible
+		Assert.assertTrue(numInfeasible > 0);
+	}
+
+	@Test
+	public void testRandomWCSPsSingleThread() throws Exception {
+		checkRandomWCSPs(1);
+	}
+
+	@Test
+	public void testRandomWCSPsMultipleThreads() throws Exception {
+		checkRandomWCSPs(4);
+	}
+
+	@Test
+	public void testInfeasible() throws Exception {
+		// x0 != x1, x1 != x2 and x0 != x2 on binary domains
+		WCSP wcsp = new WCSP(new int[]{2, 2, 2}, TOP);
+		int[][] scopes = {{0, 1}, {1, 2}, {0, 2}};
+		for(int[] scope : scopes) {
+			Constraint c = new Constraint(0, scope, 2);
+			c.addTuple(new int[]{0, 0}, TOP);
+			c.addTuple(new int[]{1, 1}, TOP);
+			wcsp.addConstraint(c);
+		}
+		for(int numThreads : new int[]{1, 4}) {
+			ParallelBranchAndBound bb = new ParallelBranchAndBound(wcsp, TOP, numThreads);
+			Assert.assertNull(bb.findSolution());
+			Assert.assertTrue(bb.isOptimal());
+		}
+	}
+
+	/**
+	 * compares the MPE state found by {@link BranchAndBoundInference} with the most probable world obtained by enumerating
+	 * all assignments to the non-evidence atoms of a small MRF
+	 */
+	@Test
+	public void testMPEInference() throws Exception {
+		MarkovLogicNetwork mln = new MarkovLogicNetwork("src/test/resources/models/smokers/wts.smoking.mln");
+		Database db = new Database(mln);
+		db.readMLNDB("src/test/resources/models/smokers/smoking-small.db");
+		MarkovRandomField mrf = mln.ground(db);
+		WorldVariables vars = mrf.getWorldVariables();
+		List<GroundAtom> free = new ArrayList<GroundAtom>();
+		for(int i = 0; i < vars.size(); i++)
+			if(!db.contains(vars.get(i).toString()))
+				free.add(vars.get(i));
+		PossibleWorld world = new PossibleWorld(vars);
+		world.setEvidence(db);
+		double best = Double.NEGATIVE_INFINITY;
+		for(int bits = 0; bits < 1 << free.size(); bits++) {
+			for(int i = 0; i < free.size(); i++)
+				world.set(free.get(i), (bits & (1 << i)) != 0);
+			best = Math.max(best, mrf.getWorldValue(world));
+		}
+		for(int numThreads : new int[]{1, 4}) {
+			BranchAndBoundInference bb = new BranchAndBoundInference(mrf);
+			bb.setParameterByName("numThreads", numThreads);
+			bb.setVerbose(false);
+			PossibleWorld mpe = bb.inferMPE();
+			Assert.assertEquals(best, mrf.getWorldValue(mpe), 1e-6);
+		}
+	}
+}